@@ -0,0 +1,69 @@
+package net.avcompris.tools.dependency_graph;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * benchmarks of {@link DependencyAnalysis}: Construction, and direct
+ * upstream lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalysisBenchmark {
+
+	@Param({ "jobsConfig-001", "jobsConfig-002", "jobsConfig-003",
+			"random-dag:100", "random-dag:1000", "random-dag:10000",
+			"deep-chain:1000", "wide-fan:1000", "diamonds:1000", "ci:1000",
+			"ci:20000", "ci:100000" })
+	public String graph;
+
+	private Collection<Module> modules;
+
+	private DependencyAnalysis analysis;
+
+	private String[] moduleNames;
+
+	@Setup
+	public void setUp() throws Exception {
+
+		BenchmarkGraphs.silenceSystemOut();
+
+		modules = BenchmarkGraphs.load(graph);
+
+		analysis = new DependencyAnalysis(modules);
+
+		moduleNames = analysis.modules.keySet().toArray(new String[0]);
+	}
+
+	@Benchmark
+	public DependencyAnalysis newDependencyAnalysis() {
+
+		return new DependencyAnalysis(modules);
+	}
+
+	@Benchmark
+	public void getDirectUpstreams(final Blackhole blackhole) {
+
+		for (final String moduleName : moduleNames) {
+
+			blackhole.consume(analysis.getDirectUpstreams(moduleName));
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class provides the input graphs of the benchmarks. A graph is
+ * specified either as the name of a jobsConfig fixture, such as
+ * <tt>"jobsConfig-001"</tt>, or as a synthetic shape and a module count,
+ * such as <tt>"random-dag:1000"</tt>. Synthetic shapes are:
+ * <ul>
+ * <li><tt>random-dag</tt>: Each module has one to three upstreams, picked
+ * among the 50 previous modules;
+ * <li><tt>deep-chain</tt>: Each module depends on the previous one;
+ * <li><tt>wide-fan</tt>: One root, one sink, and all other modules in
+ * between;
+ * <li><tt>diamonds</tt>: A chain of diamonds, top → left, right → bottom;
+ * <li><tt>ci</tt>: A CI-like graph, see {@link CIGraphGenerator}, with one
+ * level and one family per 1,000 modules, but no fewer than 10 levels
+ * and 5 families.
+ * </ul>
+ * Synthetic graphs are generated with a fixed seed.
+ */
+abstract class BenchmarkGraphs {
+
+	private static final long SEED = 29L;
+
+	public static Collection<Module> load(final String spec)
+			throws IOException {
+
+		checkNotNull(spec, "spec");
+
+		final int colon = spec.indexOf(':');
+
+		if (colon == -1) {
+
+			final InputStream is = BenchmarkGraphs.class
+					.getResourceAsStream("/jobsConfig/" + spec + ".xml");
+
+			if (is == null) {
+				throw new IllegalArgumentException("Unknown fixture: " + spec);
+			}
+
+			try {
+
+				return JobsConfigLoader.loadModules(is);
+
+			} finally {
+
+				is.close();
+			}
+		}
+
+		final String shape = spec.substring(0, colon);
+		final int size = Integer.parseInt(spec.substring(colon + 1));
+
+		if ("random-dag".equals(shape)) {
+			return randomDag(size);
+		} else if ("deep-chain".equals(shape)) {
+			return deepChain(size);
+		} else if ("wide-fan".equals(shape)) {
+			return wideFan(size);
+		} else if ("diamonds".equals(shape)) {
+			return diamonds(size);
+		} else if ("ci".equals(shape)) {
+			return ci(size);
+		}
+
+		throw new IllegalArgumentException("Unknown shape: " + shape);
+	}
+
+	private static List<Module> modules(final int size) {
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		for (int i = 0; i < size; ++i) {
+			modules.add(new Module("m" + i));
+		}
+
+		return modules;
+	}
+
+	private static Collection<Module> randomDag(final int size) {
+
+		final Random random = new Random(SEED);
+
+		final List<Module> modules = modules(size);
+
+		for (int i = 1; i < size; ++i) {
+
+			final int upstreamCount = 1 + random.nextInt(3);
+
+			for (int k = 0; k < upstreamCount; ++k) {
+
+				final int upstream = i - 1 - random.nextInt(Math.min(i, 50));
+
+				modules.get(i).addToUpstreamModules("m" + upstream);
+			}
+		}
+
+		return modules;
+	}
+
+	private static Collection<Module> deepChain(final int size) {
+
+		final List<Module> modules = modules(size);
+
+		for (int i = 1; i < size; ++i) {
+			modules.get(i).addToUpstreamModules("m" + (i - 1));
+		}
+
+		return modules;
+	}
+
+	private static Collection<Module> wideFan(final int size) {
+
+		final List<Module> modules = modules(size);
+
+		for (int i = 1; i < size - 1; ++i) {
+
+			modules.get(i).addToUpstreamModules("m0");
+			modules.get(size - 1).addToUpstreamModules("m" + i);
+		}
+
+		return modules;
+	}
+
+	private static Collection<Module> diamonds(final int size) {
+
+		final List<Module> modules = modules(size);
+
+		// m0 -> m1, m2 -> m3 -> m4, m5 -> m6...
+
+		for (int i = 1; i < size; ++i) {
+
+			if (i % 3 == 0) {
+
+				modules.get(i).addToUpstreamModules("m" + (i - 1));
+				modules.get(i).addToUpstreamModules("m" + (i - 2));
+
+			} else {
+
+				modules.get(i).addToUpstreamModules(
+						"m" + (i - (i % 3 == 1 ? 1 : 2)));
+			}
+		}
+
+		return modules;
+	}
+
+	private static Collection<Module> ci(final int size) {
+
+		return new CIGraphGenerator(SEED).setModuleCount(size)
+				.setLevelCount(Math.max(10, size / 1000))
+				.setFamilyCount(Math.max(5, size / 1000)).generate();
+	}
+
+	/**
+	 * the analysis and the diagrammer log to <tt>System.out</tt>, which would
+	 * drown the benchmark results.
+	 */
+	public static void silenceSystemOut() {
+
+		System.setOut(new PrintStream(new OutputStream() {
+
+			@Override
+			public void write(final int b) {
+
+				// do nothing
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) {
+
+				// do nothing
+			}
+		}));
+	}
+}
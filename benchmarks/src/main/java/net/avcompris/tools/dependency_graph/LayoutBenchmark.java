@@ -0,0 +1,139 @@
+package net.avcompris.tools.dependency_graph;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.DiagramMetrics;
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.Line;
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.ModulePositionImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * benchmarks of the {@link DependencyDiagrammer}’s building blocks, on the
+ * first-draft layout of a graph: Metrics, line crossings, and SVG output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+
+	@Param({ "jobsConfig-001", "jobsConfig-002", "jobsConfig-003",
+			"random-dag:100", "random-dag:500", "deep-chain:500",
+			"wide-fan:200", "diamonds:500", "ci:500" })
+	public String graph;
+
+	private DependencyDiagrammer diagrammer;
+
+	private Map<String, ModulePositionImpl> draft;
+
+	private List<Line> lineList;
+
+	private Line[] lines;
+
+	private File svgFile;
+
+	@Setup
+	public void setUp() throws Exception {
+
+		BenchmarkGraphs.silenceSystemOut();
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				BenchmarkGraphs.load(graph));
+
+		diagrammer = new DependencyDiagrammer(analysis);
+
+		draft = diagrammer.calculateFirstDraft();
+
+		final List<Line> list = new ArrayList<Line>();
+
+		for (final ModulePositionImpl modulePos : draft.values()) {
+
+			for (final String upstream : analysis
+					.getDirectUpstreams(modulePos.moduleName)) {
+
+				final ModulePositionImpl upstreamPos = draft.get(upstream);
+
+				list.add(new Line(modulePos.middleX, modulePos.top,
+						upstreamPos.middleX, upstreamPos.bottom));
+			}
+		}
+
+		lineList = list;
+
+		lines = list.toArray(new Line[list.size()]);
+
+		svgFile = File.createTempFile("LayoutBenchmark-", ".svg");
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		svgFile.delete();
+	}
+
+	@Benchmark
+	public DiagramMetrics calculateMetrics() {
+
+		return diagrammer.calculateMetrics(draft);
+	}
+
+	/**
+	 * all pairs of lines of the first draft.
+	 */
+	@Benchmark
+	public int linesCross() {
+
+		int count = 0;
+
+		for (final Line line1 : lines) {
+
+			for (final Line line2 : lines) {
+
+				if (DependencyDiagrammer.linesCross(line1, line2)) {
+					++count;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * each pair of lines of the first draft once, over <tt>int</tt> arrays.
+	 */
+	@Benchmark
+	public int countCrossings() {
+
+		return DependencyDiagrammer.countCrossings(lineList);
+	}
+
+	@Benchmark
+	public Map<String, ModulePositionImpl> calculateFirstDraft() {
+
+		return diagrammer.calculateFirstDraft();
+	}
+
+	@Benchmark
+	public ModulePosition[] drawToSvg() throws Exception {
+
+		return diagrammer.drawTo(0, svgFile);
+	}
+}
@@ -0,0 +1,57 @@
+package net.avcompris.tools.dependency_graph;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.ModulePositionImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * benchmarks of the exhaustive layout search (<tt>parse</tt>), run to
+ * completion, without timeout. Only graphs small enough for the search to
+ * complete in a reasonable time are used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+	@Param({ "jobsConfig-002", "random-dag:8", "deep-chain:8",
+			"wide-fan:6", "diamonds:9" })
+	public String graph;
+
+	private DependencyDiagrammer diagrammer;
+
+	private Map<String, ModulePositionImpl> draft;
+
+	@Setup
+	public void setUp() throws Exception {
+
+		BenchmarkGraphs.silenceSystemOut();
+
+		diagrammer = new DependencyDiagrammer(new DependencyAnalysis(
+				BenchmarkGraphs.load(graph)));
+
+		draft = diagrammer.calculateFirstDraft();
+	}
+
+	@Benchmark
+	public Map<String, ModulePositionImpl> attainMinimumMetrics() {
+
+		return diagrammer.attainMinimumMetrics(-1L, draft);
+	}
+}
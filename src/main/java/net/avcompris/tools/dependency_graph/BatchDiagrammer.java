@@ -0,0 +1,481 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.LayoutTask;
+
+/**
+ * This class draws the SVG diagrams of many dependency graphs in one JVM,
+ * so that JVM startup and JIT warmup are paid once, not once per graph.
+ * <p>
+ * Each input is a <tt>jobsConfig</tt> XML file, see
+ * {@link JobsConfigLoader}, or a directory: A directory with a
+ * <tt>pom.xml</tt> file is a tree of POM files, see {@link PomScanner},
+ * and any other directory stands for the XML files it holds.
+ * <p>
+ * Graphs are independent: Each one is loaded, analyzed, laid out and drawn
+ * by one task, and all tasks share one bounded thread pool. The time spent
+ * in each phase is reported per graph, and summed up. Analyses and
+ * diagrammers are quiet, so that the summary is all that is printed.
+ * <p>
+ * Usage:
+ * <pre>
+ * java net.avcompris.tools.dependency_graph.BatchDiagrammer \
+ * 		[-o outputDir] [-t timeoutMs] [-j threadCount] input...
+ * </pre>
+ */
+public class BatchDiagrammer {
+
+	@Nullable
+	private File outputDir = null;
+
+	/**
+	 * set the directory where SVG files are written. By default, each SVG
+	 * file is written next to its input.
+	 */
+	public BatchDiagrammer setOutputDir(@Nullable final File outputDir) {
+
+		this.outputDir = outputDir;
+
+		return this;
+	}
+
+	private long timeoutMs = 0L;
+
+	/**
+	 * set the timeout of each layout, see
+	 * {@link DependencyDiagrammer#drawTo(long, File)}. Default is
+	 * <tt>0</tt>.
+	 */
+	public BatchDiagrammer setTimeoutMs(final long timeoutMs) {
+
+		checkArgument(timeoutMs >= 0, "timeoutMs should be >= 0: %s",
+				timeoutMs);
+
+		this.timeoutMs = timeoutMs;
+
+		return this;
+	}
+
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * set the number of graphs processed at the same time. Default is the
+	 * number of available processors.
+	 */
+	public BatchDiagrammer setThreadCount(final int threadCount) {
+
+		checkArgument(threadCount > 0, "threadCount should be > 0, but was: %s",
+				threadCount);
+
+		this.threadCount = threadCount;
+
+		return this;
+	}
+
+	// -------------------------------------------------------------------------
+	//     RESULTS
+	// -------------------------------------------------------------------------
+
+	/**
+	 * the outcome of one graph: Its SVG file and the time spent in each
+	 * phase, or the error that stopped it.
+	 */
+	public static final class Result {
+
+		public final File input;
+
+		public final File svgFile;
+
+		private int moduleCount;
+
+		private long loadMs;
+		private long analysisMs;
+		private long layoutMs;
+		private long drawMs;
+
+		@Nullable
+		private Throwable error;
+
+		private Result(final File input, final File svgFile) {
+
+			this.input = checkNotNull(input, "input");
+			this.svgFile = checkNotNull(svgFile, "svgFile");
+		}
+
+		public int getModuleCount() {
+
+			return moduleCount;
+		}
+
+		public long getLoadMs() {
+
+			return loadMs;
+		}
+
+		public long getAnalysisMs() {
+
+			return analysisMs;
+		}
+
+		public long getLayoutMs() {
+
+			return layoutMs;
+		}
+
+		public long getDrawMs() {
+
+			return drawMs;
+		}
+
+		/**
+		 * return the error that stopped this graph, or <tt>null</tt> if its
+		 * SVG file was written.
+		 */
+		@Nullable
+		public Throwable getError() {
+
+			return error;
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     RUN
+	// -------------------------------------------------------------------------
+
+	/**
+	 * return the graphs that the inputs stand for: Files, and directories
+	 * of POM files, in the order of the inputs.
+	 */
+	static List<File> expandInputs(final Iterable<File> inputs)
+			throws IOException {
+
+		final List<File> graphs = new ArrayList<File>();
+
+		for (final File input : inputs) {
+
+			checkNotNull(input, "input");
+
+			if (input.isFile() || new File(input, "pom.xml").isFile()) {
+
+				graphs.add(input);
+
+			} else if (input.isDirectory()) {
+
+				final File[] children = input.listFiles();
+
+				if (children == null) {
+					throw new IOException("Cannot list directory: " + input);
+				}
+
+				Arrays.sort(children);
+
+				for (final File child : children) {
+
+					if (child.isFile() && child.getName().endsWith(".xml")) {
+						graphs.add(child);
+					}
+				}
+
+			} else {
+
+				throw new IOException("Not found: " + input);
+			}
+		}
+
+		return graphs;
+	}
+
+	/**
+	 * return the SVG file of a graph, another one than the ones already
+	 * used.
+	 */
+	private File getSVGFile(final File graph, final Set<File> used) {
+
+		final String name = graph.isDirectory() ? graph.getName() : graph
+				.getName().replaceFirst("\\.xml$", "");
+
+		final File dir = outputDir != null ? outputDir : graph
+				.getAbsoluteFile().getParentFile();
+
+		File svgFile = new File(dir, name + ".svg");
+
+		for (int i = 2; !used.add(svgFile); ++i) {
+			svgFile = new File(dir, name + "-" + i + ".svg");
+		}
+
+		return svgFile;
+	}
+
+	/**
+	 * draw the diagrams of all graphs that the inputs stand for, and
+	 * return the results, in the order of the inputs. A graph that fails
+	 * does not stop the others.
+	 */
+	public List<Result> run(final Iterable<File> inputs) throws IOException {
+
+		checkNotNull(inputs, "inputs");
+
+		if (outputDir != null && !outputDir.isDirectory()
+				&& !outputDir.mkdirs()) {
+			throw new IOException("Cannot create directory: " + outputDir);
+		}
+
+		final List<Result> results = new ArrayList<Result>();
+
+		final Set<File> svgFiles = new HashSet<File>();
+
+		for (final File graph : expandInputs(inputs)) {
+			results.add(new Result(graph, getSVGFile(graph, svgFiles)));
+		}
+
+		// POM trees are scanned by the pool’s threads, one file at a time
+
+		final PomScanner pomScanner = new PomScanner(1);
+
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(threadCount);
+
+		try {
+
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+			for (final Result result : results) {
+
+				futures.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+
+						process(result, pomScanner);
+
+						return null;
+					}
+				}));
+			}
+
+			for (int i = 0; i < futures.size(); ++i) {
+
+				try {
+
+					futures.get(i).get();
+
+				} catch (final ExecutionException e) {
+
+					results.get(i).error = e.getCause();
+				}
+			}
+
+		} catch (final InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+
+			throw new IOException(e);
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		return results;
+	}
+
+	private void process(final Result result, final PomScanner pomScanner)
+			throws IOException, InterruptedException, ExecutionException {
+
+		// 1. LOAD
+
+		long startMs = System.currentTimeMillis();
+
+		final Collection<Module> modules = result.input.isDirectory() ? pomScanner
+				.scan(result.input) : JobsConfigLoader
+				.loadModules(result.input);
+
+		result.moduleCount = modules.size();
+
+		result.loadMs = System.currentTimeMillis() - startMs;
+
+		// 2. ANALYZE
+
+		startMs = System.currentTimeMillis();
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(modules,
+				true);
+
+		result.analysisMs = System.currentTimeMillis() - startMs;
+
+		// 3. LAY OUT
+
+		startMs = System.currentTimeMillis();
+
+		final DependencyDiagrammer diagrammer = new DependencyDiagrammer(
+				analysis).setQuiet(true);
+
+		final LayoutTask task = diagrammer.newLayoutTask(timeoutMs, null);
+
+		task.run();
+
+		final ModulePosition[] positions = task.get();
+
+		result.layoutMs = System.currentTimeMillis() - startMs;
+
+		// 4. DRAW
+
+		startMs = System.currentTimeMillis();
+
+		diagrammer.setPreviousPositions(positions).drawTo(0L, result.svgFile);
+
+		result.drawMs = System.currentTimeMillis() - startMs;
+	}
+
+	/**
+	 * print one line per graph, with the time spent in each phase, and a
+	 * line with the totals.
+	 */
+	public static void printSummary(final List<Result> results,
+			final long elapsedMs, final PrintStream out) {
+
+		checkNotNull(results, "results");
+		checkNotNull(out, "out");
+
+		final String format = "%10s %10s %10s %10s %10s  %s%n";
+
+		out.printf(format, "modules", "load", "analysis", "layout", "draw",
+				"graph");
+
+		long loadMs = 0L;
+		long analysisMs = 0L;
+		long layoutMs = 0L;
+		long drawMs = 0L;
+
+		int errorCount = 0;
+
+		for (final Result result : results) {
+
+			if (result.error != null) {
+
+				++errorCount;
+
+				out.printf(format, "-", "-", "-", "-", "-", result.input
+						+ ": " + result.error);
+
+				continue;
+			}
+
+			out.printf(format, result.moduleCount, result.loadMs + " ms",
+					result.analysisMs + " ms", result.layoutMs + " ms",
+					result.drawMs + " ms", result.input + " -> "
+							+ result.svgFile);
+
+			loadMs += result.loadMs;
+			analysisMs += result.analysisMs;
+			layoutMs += result.layoutMs;
+			drawMs += result.drawMs;
+		}
+
+		out.printf(format, "total", loadMs + " ms", analysisMs + " ms",
+				layoutMs + " ms", drawMs + " ms", results.size() + " graphs, "
+						+ errorCount + " errors, " + elapsedMs
+						+ " ms elapsed");
+	}
+
+	// -------------------------------------------------------------------------
+	//     COMMAND LINE
+	// -------------------------------------------------------------------------
+
+	private static final String USAGE = "Usage: BatchDiagrammer"
+			+ " [-o outputDir] [-t timeoutMs] [-j threadCount] input...";
+
+	/**
+	 * run the command line, and return the exit status: <tt>0</tt> if all
+	 * SVG files were written, <tt>1</tt> if some graphs failed, and
+	 * <tt>2</tt> if the arguments are illegal.
+	 */
+	static int run(final PrintStream out, final String... args)
+			throws IOException {
+
+		final BatchDiagrammer batch = new BatchDiagrammer();
+
+		final List<File> inputs = new ArrayList<File>();
+
+		try {
+
+			for (int i = 0; i < args.length; ++i) {
+
+				final String arg = args[i];
+
+				if ("-o".equals(arg) && i + 1 < args.length) {
+
+					batch.setOutputDir(new File(args[++i]));
+
+				} else if ("-t".equals(arg) && i + 1 < args.length) {
+
+					batch.setTimeoutMs(Long.parseLong(args[++i]));
+
+				} else if ("-j".equals(arg) && i + 1 < args.length) {
+
+					batch.setThreadCount(Integer.parseInt(args[++i]));
+
+				} else if (arg.startsWith("-")) {
+
+					throw new IllegalArgumentException("Unknown option: " + arg);
+
+				} else {
+
+					inputs.add(new File(arg));
+				}
+			}
+
+			checkArgument(!inputs.isEmpty(), "No input");
+
+		} catch (final IllegalArgumentException e) {
+
+			out.println(e.getMessage());
+			out.println(USAGE);
+
+			return 2;
+		}
+
+		final long startMs = System.currentTimeMillis();
+
+		final List<Result> results = batch.run(inputs);
+
+		printSummary(results, System.currentTimeMillis() - startMs, out);
+
+		for (final Result result : results) {
+
+			if (result.error != null) {
+				return 1;
+			}
+		}
+
+		return 0;
+	}
+
+	public static void main(final String... args) throws IOException {
+
+		final int status = run(System.out, args);
+
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+}
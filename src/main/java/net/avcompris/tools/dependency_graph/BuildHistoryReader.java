@@ -0,0 +1,623 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * This class reads the build records of a local Jenkins home directory,
+ * <tt>jobs/*&#47;builds/*&#47;build.xml</tt>, jobs in folders included, and
+ * computes the typical durations of each job: The median and the 90th
+ * percentile of its most recent finished builds.
+ * <p>
+ * Only the <tt>&lt;duration&gt;</tt> and <tt>&lt;result&gt;</tt> of each
+ * record are read, with a streaming XML reader that stops as soon as it
+ * has both. Builds still running, aborted or not built are not counted.
+ * <p>
+ * Jobs are read in parallel. Memory is bounded: Each job only keeps the
+ * durations of its last {@link #setWindowSize(int)} builds. These are
+ * cached, so that a later read of the same directory only parses the
+ * builds not seen yet, and the builds that were still running.
+ * <p>
+ * A record that cannot be parsed is skipped, and counted, see
+ * {@link #getSkipCount()}: It does not stop the other jobs, and is not
+ * read again. A build directory with no record yet is checked by
+ * {@value #MAX_MISSING_RECORD_CHECKS} reads at most, then given up.
+ */
+public class BuildHistoryReader {
+
+	private final int threadCount;
+
+	private final Map<File, JobHistory> cache = new ConcurrentHashMap<File, JobHistory>();
+
+	private final AtomicInteger parseCount = new AtomicInteger();
+
+	private final AtomicInteger skipCount = new AtomicInteger();
+
+	/**
+	 * the number of reads in which a build directory with no
+	 * <tt>build.xml</tt> file is checked, before it is given up.
+	 */
+	static final int MAX_MISSING_RECORD_CHECKS = 3;
+
+	public BuildHistoryReader() {
+
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public BuildHistoryReader(final int threadCount) {
+
+		checkArgument(threadCount > 0, "threadCount should be > 0, but was: %s",
+				threadCount);
+
+		this.threadCount = threadCount;
+	}
+
+	private int windowSize = 20;
+
+	/**
+	 * set the number of most recent finished builds that statistics are
+	 * computed from. Default is <tt>20</tt>.
+	 */
+	public BuildHistoryReader setWindowSize(final int windowSize) {
+
+		checkArgument(windowSize > 0, "windowSize should be > 0, but was: %s",
+				windowSize);
+
+		this.windowSize = windowSize;
+
+		return this;
+	}
+
+	/**
+	 * return how many build records were actually parsed by this reader,
+	 * i.e. not served from the cache.
+	 */
+	public int getParseCount() {
+
+		return parseCount.get();
+	}
+
+	/**
+	 * return how many build records were skipped by this reader because
+	 * they could not be parsed, for instance truncated files.
+	 */
+	public int getSkipCount() {
+
+		return skipCount.get();
+	}
+
+	// -------------------------------------------------------------------------
+	//     STATISTICS
+	// -------------------------------------------------------------------------
+
+	/**
+	 * the durations of the recent finished builds of a job, in
+	 * milliseconds. Percentiles use the nearest-rank method, so that they
+	 * are actual build durations.
+	 */
+	public static final class DurationStats {
+
+		private final long[] sortedDurations;
+
+		private DurationStats(final long[] durations) {
+
+			sortedDurations = durations.clone();
+
+			Arrays.sort(sortedDurations);
+		}
+
+		/**
+		 * return the number of builds the statistics are computed from.
+		 */
+		public int getCount() {
+
+			return sortedDurations.length;
+		}
+
+		/**
+		 * return the duration that <tt>percent</tt>% of the builds do not
+		 * exceed.
+		 */
+		public long getPercentile(final int percent) {
+
+			checkArgument(percent > 0 && percent <= 100,
+					"percent should be in 1..100: %s", percent);
+
+			final int rank = (percent * sortedDurations.length + 99) / 100;
+
+			return sortedDurations[rank - 1];
+		}
+
+		public long getMedian() {
+
+			return getPercentile(50);
+		}
+
+		public long getP90() {
+
+			return getPercentile(90);
+		}
+
+		@Override
+		public String toString() {
+
+			return "{count: " + getCount() + ", median: " + getMedian()
+					+ ", p90: " + getP90() + "}";
+		}
+	}
+
+	/**
+	 * set the durations of modules to the medians of the jobs of the same
+	 * names. Modules with no statistics are left unchanged.
+	 */
+	public static void setDurations(final Iterable<Module> modules,
+			final Map<String, DurationStats> stats) {
+
+		checkNotNull(modules, "modules");
+		checkNotNull(stats, "stats");
+
+		for (final Module module : modules) {
+
+			final DurationStats jobStats = stats.get(module.name);
+
+			if (jobStats != null) {
+				module.setDuration(jobStats.getMedian());
+			}
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     READ
+	// -------------------------------------------------------------------------
+
+	/**
+	 * read the build records of a Jenkins home directory, and return the
+	 * statistics of each job with at least one finished build, by job
+	 * name. Jobs in folders are named <tt>folder/job</tt>.
+	 */
+	public Map<String, DurationStats> read(final File jenkinsHome)
+			throws IOException {
+
+		checkNotNull(jenkinsHome, "jenkinsHome");
+
+		final File jobsDir = new File(jenkinsHome, "jobs");
+
+		if (!jobsDir.isDirectory()) {
+			throw new IOException("Not a directory: " + jobsDir);
+		}
+
+		// 1. WALK
+
+		final Map<String, File> jobDirs = new TreeMap<String, File>();
+
+		collectJobDirs(jobsDir, "", jobDirs);
+
+		// 2. READ NEW BUILDS, IN PARALLEL
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math
+				.min(threadCount, Math.max(1, jobDirs.size())));
+
+		final Map<String, DurationStats> stats = new TreeMap<String, DurationStats>();
+
+		try {
+
+			final Map<String, Future<DurationStats>> futures = new HashMap<String, Future<DurationStats>>();
+
+			for (final Map.Entry<String, File> entry : jobDirs.entrySet()) {
+
+				final File jobDir = entry.getValue().getAbsoluteFile();
+
+				futures.put(entry.getKey(),
+						executor.submit(new Callable<DurationStats>() {
+
+							@Override
+							public DurationStats call() throws Exception {
+
+								return readJob(jobDir);
+							}
+						}));
+			}
+
+			for (final String jobName : jobDirs.keySet()) {
+
+				final DurationStats jobStats;
+
+				try {
+
+					jobStats = futures.get(jobName).get();
+
+				} catch (final InterruptedException e) {
+
+					Thread.currentThread().interrupt();
+
+					throw new IOException(e);
+
+				} catch (final ExecutionException e) {
+
+					final Throwable cause = e.getCause();
+
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+
+					throw new IOException(cause);
+				}
+
+				if (jobStats != null) {
+					stats.put(jobName, jobStats);
+				}
+			}
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		return stats;
+	}
+
+	private static void collectJobDirs(final File jobsDir,
+			final String prefix, final Map<String, File> jobDirs)
+			throws IOException {
+
+		final File[] children = jobsDir.listFiles();
+
+		if (children == null) {
+			throw new IOException("Cannot list directory: " + jobsDir);
+		}
+
+		for (final File child : children) {
+
+			if (!child.isDirectory()) {
+				continue;
+			}
+
+			final String jobName = prefix + child.getName();
+
+			if (new File(child, "jobs").isDirectory()) {
+
+				collectJobDirs(new File(child, "jobs"), jobName + "/", jobDirs);
+
+			} else if (new File(child, "builds").isDirectory()) {
+
+				jobDirs.put(jobName, child);
+			}
+		}
+	}
+
+	/**
+	 * the recent durations of a job, as a ring buffer, and which builds
+	 * have been read so far.
+	 */
+	private static final class JobHistory {
+
+		public final long[] durations;
+
+		public int count = 0;
+
+		public int next = 0;
+
+		/**
+		 * the highest build number read so far.
+		 */
+		public int lastBuildNumber = 0;
+
+		/**
+		 * the builds read so far that were still running.
+		 */
+		public final Set<Integer> runningBuildNumbers = new TreeSet<Integer>();
+
+		/**
+		 * the builds read so far that had no record yet, with the number of
+		 * times they were checked.
+		 */
+		public final Map<Integer, Integer> missingRecordChecks = new TreeMap<Integer, Integer>();
+
+		public JobHistory(final int windowSize) {
+
+			durations = new long[windowSize];
+		}
+
+		public void add(final long duration) {
+
+			durations[next] = duration;
+
+			next = (next + 1) % durations.length;
+
+			count = Math.min(count + 1, durations.length);
+		}
+	}
+
+	@Nullable
+	private DurationStats readJob(final File jobDir) throws IOException {
+
+		final JobHistory history;
+
+		synchronized (cache) {
+
+			final JobHistory cached = cache.get(jobDir);
+
+			if (cached != null && cached.durations.length == windowSize) {
+
+				history = cached;
+
+			} else {
+
+				history = new JobHistory(windowSize);
+
+				cache.put(jobDir, history);
+			}
+		}
+
+		synchronized (history) {
+
+			// 1. BUILDS NOT SEEN YET, AND BUILDS THAT WERE RUNNING
+
+			final File buildsDir = new File(jobDir, "builds");
+
+			final String[] names = buildsDir.list();
+
+			if (names == null) {
+				throw new IOException("Cannot list directory: " + buildsDir);
+			}
+
+			final List<Integer> buildNumbers = new ArrayList<Integer>();
+
+			for (final String name : names) {
+
+				final int buildNumber = parseBuildNumber(name);
+
+				if (buildNumber > history.lastBuildNumber
+						|| history.runningBuildNumbers.contains(buildNumber)
+						|| history.missingRecordChecks.containsKey(buildNumber)) {
+					buildNumbers.add(buildNumber);
+				}
+			}
+
+			// 2. IN BUILD ORDER, SO THAT THE WINDOW KEEPS THE LAST ONES
+
+			Collections.sort(buildNumbers);
+
+			for (final int buildNumber : buildNumbers) {
+
+				final File buildFile = new File(new File(buildsDir,
+						Integer.toString(buildNumber)), "build.xml");
+
+				history.lastBuildNumber = Math.max(history.lastBuildNumber,
+						buildNumber);
+
+				if (!buildFile.isFile()) {
+
+					final Integer checks = history.missingRecordChecks
+							.get(buildNumber);
+
+					final int checkCount = checks == null ? 1 : checks + 1;
+
+					if (checkCount < MAX_MISSING_RECORD_CHECKS) {
+						history.missingRecordChecks.put(buildNumber, checkCount);
+					} else {
+						history.missingRecordChecks.remove(buildNumber);
+					}
+
+					continue;
+				}
+
+				history.missingRecordChecks.remove(buildNumber);
+
+				final BuildRecord record;
+
+				try {
+
+					record = parse(buildFile);
+
+				} catch (final IOException e) {
+
+					// A broken record is skipped for good
+
+					history.runningBuildNumbers.remove(buildNumber);
+
+					skipCount.incrementAndGet();
+
+					continue;
+				}
+
+				if (record.result == null) {
+
+					history.runningBuildNumbers.add(buildNumber);
+
+					continue;
+				}
+
+				history.runningBuildNumbers.remove(buildNumber);
+
+				if (!"ABORTED".equals(record.result)
+						&& !"NOT_BUILT".equals(record.result)) {
+					history.add(record.duration);
+				}
+			}
+
+			return history.count == 0 ? null : new DurationStats(
+					Arrays.copyOf(history.durations, history.count));
+		}
+	}
+
+	/**
+	 * return the number of a build directory, or <tt>-1</tt> if it is not
+	 * a build directory, such as <tt>lastSuccessfulBuild</tt>.
+	 */
+	private static int parseBuildNumber(final String name) {
+
+		if (name.isEmpty() || name.length() > 9) {
+			return -1;
+		}
+
+		for (int i = 0; i < name.length(); ++i) {
+
+			if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+				return -1;
+			}
+		}
+
+		return Integer.parseInt(name);
+	}
+
+	// -------------------------------------------------------------------------
+	//     PARSE
+	// -------------------------------------------------------------------------
+
+	private static final class BuildRecord {
+
+		@Nullable
+		public final String result;
+
+		public final long duration;
+
+		public BuildRecord(@Nullable final String result, final long duration) {
+
+			this.result = result;
+			this.duration = duration;
+		}
+	}
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+	private static XMLInputFactory createXMLInputFactory() {
+
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				false);
+
+		return factory;
+	}
+
+	private BuildRecord parse(final File buildFile) throws IOException {
+
+		parseCount.incrementAndGet();
+
+		final InputStream is = new FileInputStream(buildFile);
+
+		try {
+
+			final XMLStreamReader reader = XML_INPUT_FACTORY
+					.createXMLStreamReader(is);
+
+			try {
+
+				return parse(reader);
+
+			} finally {
+
+				reader.close();
+			}
+
+		} catch (final XMLStreamException e) {
+
+			throw new IOException("Cannot parse: " + buildFile, e);
+
+		} catch (final NumberFormatException e) {
+
+			throw new IOException("Cannot parse: " + buildFile, e);
+
+		} finally {
+
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * read the <tt>&lt;result&gt;</tt> and <tt>&lt;duration&gt;</tt>
+	 * children of the root element, whatever its name: <tt>build</tt>,
+	 * <tt>flow-build</tt>, <tt>matrix-build</tt>…
+	 */
+	private static BuildRecord parse(final XMLStreamReader reader)
+			throws XMLStreamException {
+
+		final StringBuilder text = new StringBuilder();
+
+		int depth = 0;
+
+		String result = null;
+		String duration = null;
+
+		while (reader.hasNext() && (result == null || duration == null)) {
+
+			switch (reader.next()) {
+
+			case XMLStreamConstants.START_ELEMENT:
+
+				++depth;
+
+				text.setLength(0);
+
+				break;
+
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+
+				text.append(reader.getText());
+
+				break;
+
+			case XMLStreamConstants.END_ELEMENT:
+
+				if (depth == 2) {
+
+					final String localName = reader.getLocalName();
+
+					if ("result".equals(localName)) {
+						result = text.toString().trim();
+					} else if ("duration".equals(localName)) {
+						duration = text.toString().trim();
+					}
+				}
+
+				--depth;
+
+				text.setLength(0);
+
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		// A running build has no result yet, and a duration of 0
+
+		return new BuildRecord(result, duration == null ? 0L : Long
+				.parseLong(duration));
+	}
+}
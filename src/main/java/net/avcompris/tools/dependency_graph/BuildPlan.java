@@ -0,0 +1,202 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class holds the result of a {@link BuildScheduler}: For each
+ * module, the worker it runs on, its start and its finish times; And
+ * for the whole plan, its makespan and the utilization of each worker.
+ */
+public final class BuildPlan {
+
+	private final DependencyIndex index;
+
+	private final int workerCount;
+
+	private final long[] cost;
+	private final long[] start;
+	private final long[] finish;
+	private final int[] worker;
+
+	private final long makespan;
+
+	private final long[] busyTimes;
+
+	private final long criticalPathLength;
+
+	private final long levelWavesMakespan;
+
+	BuildPlan(
+			final DependencyIndex index,
+			final int workerCount,
+			final long[] cost,
+			final long[] start,
+			final long[] finish,
+			final int[] worker,
+			final long criticalPathLength,
+			final long levelWavesMakespan) {
+
+		this.index = checkNotNull(index, "index");
+		this.workerCount = workerCount;
+		this.cost = checkNotNull(cost, "cost");
+		this.start = checkNotNull(start, "start");
+		this.finish = checkNotNull(finish, "finish");
+		this.worker = checkNotNull(worker, "worker");
+		this.criticalPathLength = criticalPathLength;
+		this.levelWavesMakespan = levelWavesMakespan;
+
+		long makespan = 0L;
+
+		busyTimes = new long[workerCount];
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			makespan = Math.max(makespan, finish[id]);
+
+			busyTimes[worker[id]] += cost[id];
+		}
+
+		this.makespan = makespan;
+	}
+
+	public int getWorkerCount() {
+
+		return workerCount;
+	}
+
+	/**
+	 * return the time at which the last job finishes.
+	 */
+	public long getMakespan() {
+
+		return makespan;
+	}
+
+	/**
+	 * return the length of the longest chain of dependent jobs: No plan
+	 * can have a smaller makespan, whatever the number of workers.
+	 */
+	public long getCriticalPathLength() {
+
+		return criticalPathLength;
+	}
+
+	/**
+	 * return the makespan the same workers would have if each level waited
+	 * for the previous one to be finished.
+	 */
+	public long getLevelWavesMakespan() {
+
+		return levelWavesMakespan;
+	}
+
+	/**
+	 * return the total cost of the jobs run by a worker.
+	 */
+	public long getBusyTime(final int worker) {
+
+		return busyTimes[worker];
+	}
+
+	/**
+	 * return the ratio of the makespan a worker spends running jobs, between
+	 * <tt>0.0</tt> and <tt>1.0</tt>.
+	 */
+	public double getUtilization(final int worker) {
+
+		return makespan == 0 ? 0.0 : (double) busyTimes[worker] / makespan;
+	}
+
+	/**
+	 * return the average utilization of all workers.
+	 */
+	public double getUtilization() {
+
+		long total = 0L;
+
+		for (final long busyTime : busyTimes) {
+			total += busyTime;
+		}
+
+		return makespan == 0 ? 0.0 : (double) total / makespan / workerCount;
+	}
+
+	private int getId(final String moduleName) {
+
+		checkNotNull(moduleName, "moduleName");
+
+		final int id = index.getModuleId(moduleName);
+
+		if (id == -1) {
+			throw new IllegalArgumentException("Unknown module: \""
+					+ moduleName + "\"");
+		}
+
+		return id;
+	}
+
+	public int getWorker(final String moduleName) {
+
+		return worker[getId(moduleName)];
+	}
+
+	public long getStart(final String moduleName) {
+
+		return start[getId(moduleName)];
+	}
+
+	public long getFinish(final String moduleName) {
+
+		return finish[getId(moduleName)];
+	}
+
+	/**
+	 * return the names of the modules run by a worker, in start order.
+	 */
+	public List<String> getJobs(final int worker) {
+
+		final List<Integer> ids = new ArrayList<Integer>();
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			if (this.worker[id] == worker) {
+				ids.add(id);
+			}
+		}
+
+		Collections.sort(ids, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer id1, final Integer id2) {
+
+				if (start[id1] != start[id2]) {
+					return start[id1] < start[id2] ? -1 : 1;
+				}
+
+				return id1.compareTo(id2);
+			}
+		});
+
+		final List<String> jobs = new ArrayList<String>();
+
+		for (final int id : ids) {
+			jobs.add(index.getModuleName(id));
+		}
+
+		return jobs;
+	}
+
+	@Override
+	public String toString() {
+
+		return "{makespan: " + makespan + ", workerCount: " + workerCount
+				+ ", utilization: " + getUtilization()
+				+ ", criticalPathLength: " + criticalPathLength
+				+ ", levelWavesMakespan: " + levelWavesMakespan + "}";
+	}
+}
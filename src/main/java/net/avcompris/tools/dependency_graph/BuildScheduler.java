@@ -0,0 +1,245 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This class computes a build plan for a set of analyzed modules, on a given
+ * number of workers: Each job starts as soon as its direct upstreams are
+ * finished and a worker is free. When several jobs are ready, the one with
+ * the longest remaining critical path starts first (critical-path-first
+ * list scheduling, which is HEFT on identical workers.)
+ * <p>
+ * Costs are estimates in any unit, typically milliseconds. Modules without
+ * an estimate get the default cost, see {@link #setDefaultCost(long)}.
+ */
+public class BuildScheduler {
+
+	private final DependencyIndex index;
+
+	private long defaultCost = 1L;
+
+	public BuildScheduler(final DependencyAnalysis analysis) {
+
+		this(checkNotNull(analysis, "analysis").getIndex());
+	}
+
+	public BuildScheduler(final DependencyIndex index) {
+
+		this.index = checkNotNull(index, "index");
+	}
+
+	/**
+	 * set the cost of modules with no estimate. Default is <tt>1</tt>.
+	 */
+	public BuildScheduler setDefaultCost(final long defaultCost) {
+
+		checkArgument(defaultCost >= 0, "defaultCost should be >= 0: %s",
+				defaultCost);
+
+		this.defaultCost = defaultCost;
+
+		return this;
+	}
+
+	/**
+	 * compute a build plan for all modules.
+	 *
+	 * @param costs the cost estimates, by module name.
+	 * @param workerCount the number of jobs that can run simultaneously.
+	 */
+	public BuildPlan schedule(final Map<String, Long> costs,
+			final int workerCount) {
+
+		checkArgument(workerCount >= 1, "workerCount should be >= 1: %s",
+				workerCount);
+
+		final int n = index.size();
+
+		final long[] cost = index.toLongArray(costs, defaultCost);
+
+		// 1. RANKS: LONGEST PATH TO THE END, THIS JOB INCLUDED
+
+		// Ids are in topological order, so downstreams have greater ids.
+
+		final long[] rank = new long[n];
+
+		long criticalPathLength = 0L;
+
+		for (int id = n - 1; id >= 0; --id) {
+
+			long max = 0L;
+
+			final int count = index.getDirectDownstreamCount(id);
+
+			for (int k = 0; k < count; ++k) {
+
+				max = Math.max(max, rank[index.getDirectDownstream(id, k)]);
+			}
+
+			rank[id] = cost[id] + max;
+
+			criticalPathLength = Math.max(criticalPathLength, rank[id]);
+		}
+
+		// 2. LIST SCHEDULING
+
+		final int[] waitingFor = new int[n];
+
+		final PriorityQueue<Integer> ready = new PriorityQueue<Integer>(
+				Math.max(1, n), new Comparator<Integer>() {
+
+					@Override
+					public int compare(final Integer id1, final Integer id2) {
+
+						if (rank[id1] != rank[id2]) {
+							return rank[id1] > rank[id2] ? -1 : 1;
+						}
+
+						return id1.compareTo(id2);
+					}
+				});
+
+		for (int id = 0; id < n; ++id) {
+
+			waitingFor[id] = index.getDirectUpstreamCount(id);
+
+			if (waitingFor[id] == 0) {
+				ready.add(id);
+			}
+		}
+
+		final long[] start = new long[n];
+		final long[] finish = new long[n];
+		final int[] worker = new int[n];
+
+		// running: Job ids, by finish time, then by worker
+
+		final PriorityQueue<Integer> running = new PriorityQueue<Integer>(
+				workerCount, new Comparator<Integer>() {
+
+					@Override
+					public int compare(final Integer id1, final Integer id2) {
+
+						if (finish[id1] != finish[id2]) {
+							return finish[id1] < finish[id2] ? -1 : 1;
+						}
+
+						return worker[id1] - worker[id2];
+					}
+				});
+
+		final boolean[] busy = new boolean[workerCount];
+
+		int idleWorkerCount = workerCount;
+
+		long now = 0L;
+
+		int done = 0;
+
+		while (done < n) {
+
+			// 2.1. START READY JOBS ON IDLE WORKERS
+
+			for (int w = 0; w < workerCount && idleWorkerCount > 0
+					&& !ready.isEmpty(); ++w) {
+
+				if (busy[w]) {
+					continue;
+				}
+
+				final int id = ready.poll();
+
+				start[id] = now;
+				finish[id] = now + cost[id];
+				worker[id] = w;
+
+				busy[w] = true;
+				--idleWorkerCount;
+
+				running.add(id);
+			}
+
+			// 2.2. WAIT FOR THE NEXT JOBS TO FINISH
+
+			now = finish[running.peek()];
+
+			while (!running.isEmpty() && finish[running.peek()] == now) {
+
+				final int id = running.poll();
+
+				busy[worker[id]] = false;
+				++idleWorkerCount;
+
+				++done;
+
+				final int count = index.getDirectDownstreamCount(id);
+
+				for (int k = 0; k < count; ++k) {
+
+					final int downstream = index.getDirectDownstream(id, k);
+
+					if (--waitingFor[downstream] == 0) {
+						ready.add(downstream);
+					}
+				}
+			}
+		}
+
+		return new BuildPlan(index, workerCount, cost, start, finish, worker,
+				criticalPathLength, levelWavesMakespan(cost, workerCount));
+	}
+
+	/**
+	 * return the makespan of a schedule where each level waits for the
+	 * previous one to be finished, jobs within a level being dispatched
+	 * longest first. This is the schedule given by the module levels alone,
+	 * for comparison.
+	 */
+	long levelWavesMakespan(final long[] cost, final int workerCount) {
+
+		long makespan = 0L;
+
+		final long[] workerTimes = new long[workerCount];
+
+		for (int level = 0; level < index.sizeOfLevels(); ++level) {
+
+			final int levelStart = index.getLevelStart(level);
+			final int levelSize = index.sizeOfLevel(level);
+
+			final long[] levelCosts = Arrays.copyOfRange(cost, levelStart,
+					levelStart + levelSize);
+
+			Arrays.sort(levelCosts);
+
+			Arrays.fill(workerTimes, 0L);
+
+			long levelMakespan = 0L;
+
+			for (int k = levelSize - 1; k >= 0; --k) {
+
+				int w = 0;
+
+				for (int i = 1; i < workerCount; ++i) {
+
+					if (workerTimes[i] < workerTimes[w]) {
+						w = i;
+					}
+				}
+
+				workerTimes[w] += levelCosts[k];
+
+				levelMakespan = Math.max(levelMakespan, workerTimes[w]);
+			}
+
+			makespan += levelMakespan;
+		}
+
+		return makespan;
+	}
+}
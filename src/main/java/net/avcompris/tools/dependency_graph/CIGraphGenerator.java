@@ -0,0 +1,420 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * This class generates synthetic, CI-like dependency graphs, for scale and
+ * load testing: Layered DAGs where modules belong to product families, most
+ * dependencies stay within a family and go to the level just below, and a
+ * few dependencies cross families or skip levels.
+ * <p>
+ * Generation is reproducible: The same seed and the same settings always
+ * give the same graph. The generated graph has exactly
+ * {@link #setLevelCount(int)} levels, since every module not at level 0 has
+ * at least one upstream at the level just below.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * final List&lt;Module&gt; modules = new CIGraphGenerator(42L)
+ * 		.setModuleCount(20000)
+ * 		.setLevelCount(12)
+ * 		.setFamilyCount(40)
+ * 		.generate();
+ * </pre>
+ */
+public class CIGraphGenerator {
+
+	private final long seed;
+
+	private int moduleCount = 1000;
+	private int levelCount = 10;
+	private int familyCount = 10;
+	private double meanFanIn = 2.0;
+	private int maxFanIn = 20;
+	private double fanOutSkew = 0.5;
+	private double crossFamilyRatio = 0.1;
+	private double skipEdgeRatio = 0.05;
+
+	public CIGraphGenerator(final long seed) {
+
+		this.seed = seed;
+	}
+
+	/**
+	 * set the total number of modules. Default is <tt>1000</tt>.
+	 */
+	public CIGraphGenerator setModuleCount(final int moduleCount) {
+
+		checkArgument(moduleCount >= 0, "moduleCount should be >= 0: %s",
+				moduleCount);
+
+		this.moduleCount = moduleCount;
+
+		return this;
+	}
+
+	/**
+	 * set the number of levels. Modules are evenly spread among levels.
+	 * Default is <tt>10</tt>.
+	 */
+	public CIGraphGenerator setLevelCount(final int levelCount) {
+
+		checkArgument(levelCount >= 1, "levelCount should be >= 1: %s",
+				levelCount);
+
+		this.levelCount = levelCount;
+
+		return this;
+	}
+
+	/**
+	 * set the number of product families. Default is <tt>10</tt>.
+	 */
+	public CIGraphGenerator setFamilyCount(final int familyCount) {
+
+		checkArgument(familyCount >= 1, "familyCount should be >= 1: %s",
+				familyCount);
+
+		this.familyCount = familyCount;
+
+		return this;
+	}
+
+	/**
+	 * set the fan-in distribution: The number of upstreams of a module not at
+	 * level 0 follows a geometric distribution of the given mean, starting
+	 * at 1 and capped at <tt>maxFanIn</tt>. Default is a mean of
+	 * <tt>2.0</tt>, capped at <tt>20</tt>.
+	 */
+	public CIGraphGenerator setFanIn(final double meanFanIn, final int maxFanIn) {
+
+		checkArgument(meanFanIn >= 1.0, "meanFanIn should be >= 1.0: %s",
+				meanFanIn);
+		checkArgument(maxFanIn >= 1, "maxFanIn should be >= 1: %s", maxFanIn);
+
+		this.meanFanIn = meanFanIn;
+		this.maxFanIn = maxFanIn;
+
+		return this;
+	}
+
+	/**
+	 * set the fan-out skew, between <tt>0.0</tt> and <tt>1.0</tt>: With
+	 * <tt>0.0</tt>, upstreams are picked uniformly; With <tt>1.0</tt>, they
+	 * are picked proportionally to their current fan-out, which gives a few
+	 * heavily shared modules, as the “commons” of a real CI. Default is
+	 * <tt>0.5</tt>.
+	 */
+	public CIGraphGenerator setFanOutSkew(final double fanOutSkew) {
+
+		checkArgument(fanOutSkew >= 0.0 && fanOutSkew <= 1.0,
+				"fanOutSkew should be in [0.0, 1.0]: %s", fanOutSkew);
+
+		this.fanOutSkew = fanOutSkew;
+
+		return this;
+	}
+
+	/**
+	 * set the probability for an upstream to be picked in another family.
+	 * Default is <tt>0.1</tt>.
+	 */
+	public CIGraphGenerator setCrossFamilyRatio(final double crossFamilyRatio) {
+
+		checkArgument(crossFamilyRatio >= 0.0 && crossFamilyRatio <= 1.0,
+				"crossFamilyRatio should be in [0.0, 1.0]: %s",
+				crossFamilyRatio);
+
+		this.crossFamilyRatio = crossFamilyRatio;
+
+		return this;
+	}
+
+	/**
+	 * set the probability for an additional upstream (other than the first
+	 * one) to be picked two levels or more below, instead of just below.
+	 * Default is <tt>0.05</tt>.
+	 */
+	public CIGraphGenerator setSkipEdgeRatio(final double skipEdgeRatio) {
+
+		checkArgument(skipEdgeRatio >= 0.0 && skipEdgeRatio <= 1.0,
+				"skipEdgeRatio should be in [0.0, 1.0]: %s", skipEdgeRatio);
+
+		this.skipEdgeRatio = skipEdgeRatio;
+
+		return this;
+	}
+
+	/**
+	 * return the name of a generated module, such as
+	 * <tt>"f03-l02-m00042"</tt>.
+	 */
+	static String moduleName(final int family, final int level, final int i) {
+
+		return String.format("f%02d-l%02d-m%05d", family, level, i);
+	}
+
+	/**
+	 * generate the modules. Dependencies are declared on the upstream side, as
+	 * downstream modules, the way Jenkins declares downstream projects.
+	 */
+	public List<Module> generate() {
+
+		checkArgument(moduleCount == 0 || moduleCount >= levelCount,
+				"moduleCount should be >= levelCount: %s < %s", moduleCount,
+				levelCount);
+
+		final Random random = new Random(seed);
+
+		final List<Module> modules = new ArrayList<Module>(moduleCount);
+
+		// 1. LEVELS AND FAMILIES
+
+		final int[] levels = new int[moduleCount];
+		final int[] families = new int[moduleCount];
+
+		// byLevel.get(level): Module indexes at this level
+		// byLevelFamily[level][family]: Same, within one family
+		// picksBy...: Module indexes, once more each time they are picked
+
+		final List<List<Integer>> byLevel = new ArrayList<List<Integer>>();
+		final List<List<Integer>> picksByLevel = new ArrayList<List<Integer>>();
+
+		final List<List<List<Integer>>> byLevelFamily = new ArrayList<List<List<Integer>>>();
+		final List<List<List<Integer>>> picksByLevelFamily = new ArrayList<List<List<Integer>>>();
+
+		for (int level = 0; level < levelCount; ++level) {
+
+			byLevel.add(new ArrayList<Integer>());
+			picksByLevel.add(new ArrayList<Integer>());
+
+			final List<List<Integer>> byFamily = new ArrayList<List<Integer>>();
+			final List<List<Integer>> picksByFamily = new ArrayList<List<Integer>>();
+
+			for (int family = 0; family < familyCount; ++family) {
+
+				byFamily.add(new ArrayList<Integer>());
+				picksByFamily.add(new ArrayList<Integer>());
+			}
+
+			byLevelFamily.add(byFamily);
+			picksByLevelFamily.add(picksByFamily);
+		}
+
+		for (int i = 0; i < moduleCount; ++i) {
+
+			final int level = (int) ((long) i * levelCount / moduleCount);
+			final int family = random.nextInt(familyCount);
+
+			levels[i] = level;
+			families[i] = family;
+
+			byLevel.get(level).add(i);
+			byLevelFamily.get(level).get(family).add(i);
+
+			modules.add(new Module(moduleName(family, level, i)));
+		}
+
+		// 2. EDGES
+
+		final double extraFanInProbability = (meanFanIn - 1.0) / meanFanIn;
+
+		for (int i = 0; i < moduleCount; ++i) {
+
+			final int level = levels[i];
+
+			if (level == 0) {
+				continue;
+			}
+
+			int fanIn = 1;
+
+			while (fanIn < maxFanIn
+					&& random.nextDouble() < extraFanInProbability) {
+				++fanIn;
+			}
+
+			for (int k = 0; k < fanIn; ++k) {
+
+				// The first upstream is always at the level just below
+
+				final int upstreamLevel = (k == 0 || level == 1 || random
+						.nextDouble() >= skipEdgeRatio) ? level - 1 : random
+						.nextInt(level - 1);
+
+				final List<Integer> candidates;
+				final List<Integer> picks;
+
+				final List<Integer> sameFamily = byLevelFamily
+						.get(upstreamLevel).get(families[i]);
+
+				if (!sameFamily.isEmpty()
+						&& random.nextDouble() >= crossFamilyRatio) {
+
+					candidates = sameFamily;
+					picks = picksByLevelFamily.get(upstreamLevel).get(
+							families[i]);
+
+				} else {
+
+					candidates = byLevel.get(upstreamLevel);
+					picks = picksByLevel.get(upstreamLevel);
+				}
+
+				final int upstream = (!picks.isEmpty() && random.nextDouble() < fanOutSkew) ? picks
+						.get(random.nextInt(picks.size())) : candidates
+						.get(random.nextInt(candidates.size()));
+
+				modules.get(upstream).addToDownstreamModules(
+						modules.get(i).name);
+
+				picksByLevel.get(levels[upstream]).add(upstream);
+				picksByLevelFamily.get(levels[upstream])
+						.get(families[upstream]).add(upstream);
+			}
+		}
+
+		return modules;
+	}
+
+	// -------------------------------------------------------------------------
+	//     JOBSCONFIG XML
+	// -------------------------------------------------------------------------
+
+	/**
+	 * generate the modules, and write them to a jobsConfig XML file, as read
+	 * by {@link JobsConfigLoader}.
+	 */
+	public List<Module> generateJobsConfig(final File file) throws IOException {
+
+		checkNotNull(file, "file");
+
+		final List<Module> modules = generate();
+
+		writeJobsConfig(modules, file);
+
+		return modules;
+	}
+
+	public static void writeJobsConfig(final Iterable<Module> modules,
+			final File file) throws IOException {
+
+		checkNotNull(file, "file");
+
+		final OutputStream os = new FileOutputStream(file);
+
+		try {
+
+			writeJobsConfig(modules, os);
+
+		} finally {
+
+			IOUtils.closeQuietly(os);
+		}
+	}
+
+	/**
+	 * write modules in the jobsConfig XML format. Downstream and upstream
+	 * module names are sorted, so that the output is stable.
+	 */
+	public static void writeJobsConfig(final Iterable<Module> modules,
+			final OutputStream os) throws IOException {
+
+		checkNotNull(modules, "modules");
+		checkNotNull(os, "os");
+
+		try {
+
+			final XMLStreamWriter writer = XMLOutputFactory.newInstance()
+					.createXMLStreamWriter(os, "UTF-8");
+
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeCharacters("\n");
+			writer.writeStartElement("jobConfigs");
+
+			for (final Module module : modules) {
+
+				writer.writeCharacters("\n\t");
+				writer.writeStartElement("jobConfig");
+				writer.writeAttribute("jobName", module.name);
+
+				writeElement(writer, "\n\t\t", "name", module.name);
+
+				for (final String downstream : sorted(module
+						.getDownstreamModules())) {
+
+					writer.writeCharacters("\n\t\t");
+					writer.writeStartElement("downstreamProject");
+					writeElement(writer, "\n\t\t\t", "name", downstream);
+					writer.writeCharacters("\n\t\t");
+					writer.writeEndElement();
+				}
+
+				for (final String upstream : sorted(module.getUpstreamModules())) {
+
+					writer.writeCharacters("\n\t\t");
+					writer.writeStartElement("upstreamProject");
+					writeElement(writer, "\n\t\t\t", "name", upstream);
+					writer.writeCharacters("\n\t\t");
+					writer.writeEndElement();
+				}
+
+				writer.writeCharacters("\n\t");
+				writer.writeEndElement();
+			}
+
+			writer.writeCharacters("\n");
+			writer.writeEndElement();
+			writer.writeCharacters("\n");
+			writer.writeEndDocument();
+
+			writer.close();
+
+		} catch (final XMLStreamException e) {
+
+			throw new IOException(e);
+		}
+
+		os.flush();
+	}
+
+	private static void writeElement(final XMLStreamWriter writer,
+			final String indent, final String name, final String text)
+			throws XMLStreamException {
+
+		writer.writeCharacters(indent);
+		writer.writeStartElement(name);
+		writer.writeCharacters(text);
+		writer.writeEndElement();
+	}
+
+	private static List<String> sorted(final Iterable<String> names) {
+
+		final List<String> list = new ArrayList<String>();
+
+		for (final String name : names) {
+			list.add(name);
+		}
+
+		Collections.sort(list);
+
+		return list;
+	}
+}
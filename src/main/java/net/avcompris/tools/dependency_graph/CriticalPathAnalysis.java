@@ -0,0 +1,539 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class computes the critical path of a dependency graph, given the
+ * duration of each module’s job, with unlimited parallelism: For each
+ * module, its earliest and latest start times, and its slack, i.e. how
+ * much its job can be delayed without delaying the end of the last job.
+ * <p>
+ * Both passes are linear in the number of direct edges, since module ids
+ * are in topological order. When a single duration changes,
+ * {@link #setDuration(String, long)} only recomputes the modules whose
+ * times actually change: Latest times are kept as the length of the
+ * longest chain from each module to the end, which does not depend on the
+ * makespan.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class CriticalPathAnalysis {
+
+	private final DependencyIndex index;
+
+	private final long[] duration;
+
+	private final long[] earliestStart;
+
+	/**
+	 * the length of the longest chain from each module to the end, the
+	 * module’s own duration included, so that its latest start is
+	 * <tt>makespan - tail</tt>.
+	 */
+	private final long[] tail;
+
+	private long makespan;
+
+	/**
+	 * the number of modules whose earliest finish is the makespan.
+	 */
+	private int makespanHolderCount;
+
+	/**
+	 * the modules queued by the current pass are those stamped with the
+	 * current epoch, so that marks never need to be cleared.
+	 */
+	private final int[] stamps;
+
+	private int epoch = 0;
+
+	private final IntHeap heap;
+
+	/**
+	 * the number of modules whose times were recomputed by the last update,
+	 * for tests.
+	 */
+	int lastUpdateVisits = 0;
+
+	/**
+	 * @param durations the durations of the modules’ jobs, by module name.
+	 * @param defaultDuration the duration of modules with none.
+	 */
+	public CriticalPathAnalysis(
+			final DependencyAnalysis analysis,
+			final Map<String, Long> durations,
+			final long defaultDuration) {
+
+		this(checkNotNull(analysis, "analysis").getIndex(), durations,
+				defaultDuration);
+	}
+
+	public CriticalPathAnalysis(
+			final DependencyIndex index,
+			final Map<String, Long> durations,
+			final long defaultDuration) {
+
+		this.index = checkNotNull(index, "index");
+
+		duration = index.toLongArray(durations, defaultDuration);
+
+		final int n = index.size();
+
+		earliestStart = new long[n];
+		tail = new long[n];
+		stamps = new int[n];
+		heap = new IntHeap(n);
+
+		computeEarliest();
+		computeTails();
+	}
+
+	// -------------------------------------------------------------------------
+	//     FULL PASSES
+	// -------------------------------------------------------------------------
+
+	private long earliestStartFromUpstreams(final int id) {
+
+		long start = 0L;
+
+		final int count = index.getDirectUpstreamCount(id);
+
+		for (int k = 0; k < count; ++k) {
+
+			final int u = index.getDirectUpstream(id, k);
+
+			start = Math.max(start, earliestStart[u] + duration[u]);
+		}
+
+		return start;
+	}
+
+	private long tailFromDownstreams(final int id) {
+
+		long downstreamTail = 0L;
+
+		final int count = index.getDirectDownstreamCount(id);
+
+		for (int k = 0; k < count; ++k) {
+
+			downstreamTail = Math.max(downstreamTail,
+					tail[index.getDirectDownstream(id, k)]);
+		}
+
+		return duration[id] + downstreamTail;
+	}
+
+	private void computeEarliest() {
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			earliestStart[id] = earliestStartFromUpstreams(id);
+		}
+
+		computeMakespan();
+	}
+
+	private void computeMakespan() {
+
+		makespan = 0L;
+		makespanHolderCount = 0;
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			final long finish = earliestStart[id] + duration[id];
+
+			if (finish > makespan) {
+
+				makespan = finish;
+				makespanHolderCount = 1;
+
+			} else if (finish == makespan) {
+
+				++makespanHolderCount;
+			}
+		}
+	}
+
+	private void computeTails() {
+
+		for (int id = index.size() - 1; id >= 0; --id) {
+
+			tail[id] = tailFromDownstreams(id);
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     INCREMENTAL UPDATE
+	// -------------------------------------------------------------------------
+
+	/**
+	 * change the duration of a module’s job, and update the times of the
+	 * modules that depend on it.
+	 * <p>
+	 * Earliest times are only recomputed downstream of the module, and
+	 * tails only upstream of it. The makespan is updated from the modules
+	 * recomputed, and the earliest finish times are only scanned again
+	 * when all the modules that finished last now finish earlier.
+	 */
+	public CriticalPathAnalysis setDuration(final String moduleName,
+			final long newDuration) {
+
+		checkArgument(newDuration >= 0, "newDuration should be >= 0: %s",
+				newDuration);
+
+		final int id = getId(moduleName);
+
+		lastUpdateVisits = 0;
+
+		if (duration[id] == newDuration) {
+			return this;
+		}
+
+		final long oldDuration = duration[id];
+
+		duration[id] = newDuration;
+
+		// 1. FORWARD: EARLIEST TIMES, IN ASCENDING ID ORDER
+
+		long maxFinish = -1L;
+		int maxFinishCount = 0;
+		int lostHolderCount = 0;
+
+		nextEpoch();
+
+		stamps[id] = epoch;
+		heap.push(id);
+
+		while (!heap.isEmpty()) {
+
+			final int i = heap.pop();
+
+			++lastUpdateVisits;
+
+			final long oldFinish = earliestStart[i]
+					+ (i == id ? oldDuration : duration[i]);
+
+			earliestStart[i] = earliestStartFromUpstreams(i);
+
+			final long finish = earliestStart[i] + duration[i];
+
+			if (oldFinish == makespan) {
+				++lostHolderCount;
+			}
+
+			if (finish > maxFinish) {
+
+				maxFinish = finish;
+				maxFinishCount = 1;
+
+			} else if (finish == maxFinish) {
+
+				++maxFinishCount;
+			}
+
+			if (finish == oldFinish) {
+				continue;
+			}
+
+			final int count = index.getDirectDownstreamCount(i);
+
+			for (int k = 0; k < count; ++k) {
+
+				final int d = index.getDirectDownstream(i, k);
+
+				if (stamps[d] != epoch) {
+
+					stamps[d] = epoch;
+					heap.push(d);
+				}
+			}
+		}
+
+		// 2. MAKESPAN
+
+		final int remainingHolderCount = makespanHolderCount - lostHolderCount;
+
+		if (maxFinish > makespan) {
+
+			makespan = maxFinish;
+			makespanHolderCount = maxFinishCount;
+
+		} else if (maxFinish == makespan) {
+
+			makespanHolderCount = remainingHolderCount + maxFinishCount;
+
+		} else if (remainingHolderCount > 0) {
+
+			makespanHolderCount = remainingHolderCount;
+
+		} else {
+
+			computeMakespan();
+
+			lastUpdateVisits += index.size();
+		}
+
+		// 3. BACKWARD: TAILS, IN DESCENDING ID ORDER
+
+		nextEpoch();
+
+		stamps[id] = epoch;
+		heap.push(-id); // Negated, so that the highest id comes first
+
+		while (!heap.isEmpty()) {
+
+			final int i = -heap.pop();
+
+			++lastUpdateVisits;
+
+			final long oldTail = tail[i];
+
+			tail[i] = tailFromDownstreams(i);
+
+			if (tail[i] == oldTail) {
+				continue;
+			}
+
+			final int count = index.getDirectUpstreamCount(i);
+
+			for (int k = 0; k < count; ++k) {
+
+				final int u = index.getDirectUpstream(i, k);
+
+				if (stamps[u] != epoch) {
+
+					stamps[u] = epoch;
+					heap.push(-u);
+				}
+			}
+		}
+
+		return this;
+	}
+
+	private void nextEpoch() {
+
+		if (++epoch == Integer.MAX_VALUE) {
+
+			Arrays.fill(stamps, 0);
+
+			epoch = 1;
+		}
+	}
+
+	/**
+	 * a binary min-heap of ints. Since a pass only pushes modules after
+	 * the ones it pops, each module is pushed at most once per pass, and
+	 * <tt>n</tt> slots are enough.
+	 */
+	private static final class IntHeap {
+
+		private final int[] values;
+
+		private int size = 0;
+
+		public IntHeap(final int capacity) {
+
+			values = new int[capacity];
+		}
+
+		public boolean isEmpty() {
+
+			return size == 0;
+		}
+
+		public void push(final int value) {
+
+			int i = size++;
+
+			while (i > 0) {
+
+				final int parent = (i - 1) >>> 1;
+
+				if (values[parent] <= value) {
+					break;
+				}
+
+				values[i] = values[parent];
+
+				i = parent;
+			}
+
+			values[i] = value;
+		}
+
+		public int pop() {
+
+			final int top = values[0];
+
+			final int last = values[--size];
+
+			int i = 0;
+
+			while (true) {
+
+				int child = 2 * i + 1;
+
+				if (child >= size) {
+					break;
+				}
+
+				if (child + 1 < size && values[child + 1] < values[child]) {
+					++child;
+				}
+
+				if (values[child] >= last) {
+					break;
+				}
+
+				values[i] = values[child];
+
+				i = child;
+			}
+
+			if (size > 0) {
+				values[i] = last;
+			}
+
+			return top;
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     RESULTS
+	// -------------------------------------------------------------------------
+
+	private int getId(final String moduleName) {
+
+		checkNotNull(moduleName, "moduleName");
+
+		final int id = index.getModuleId(moduleName);
+
+		if (id == -1) {
+			throw new IllegalArgumentException("Unknown module: \""
+					+ moduleName + "\"");
+		}
+
+		return id;
+	}
+
+	/**
+	 * return the time at which the last job finishes, i.e. the length of
+	 * the critical path.
+	 */
+	public long getMakespan() {
+
+		return makespan;
+	}
+
+	public long getDuration(final String moduleName) {
+
+		return duration[getId(moduleName)];
+	}
+
+	public long getEarliestStart(final String moduleName) {
+
+		return earliestStart[getId(moduleName)];
+	}
+
+	public long getEarliestFinish(final String moduleName) {
+
+		final int id = getId(moduleName);
+
+		return earliestStart[id] + duration[id];
+	}
+
+	public long getLatestStart(final String moduleName) {
+
+		return makespan - tail[getId(moduleName)];
+	}
+
+	public long getLatestFinish(final String moduleName) {
+
+		final int id = getId(moduleName);
+
+		return makespan - tail[id] + duration[id];
+	}
+
+	/**
+	 * return how much a module’s job can be delayed without delaying the
+	 * makespan.
+	 */
+	public long getSlack(final String moduleName) {
+
+		final int id = getId(moduleName);
+
+		return makespan - tail[id] - earliestStart[id];
+	}
+
+	public boolean isCritical(final String moduleName) {
+
+		return getSlack(moduleName) == 0L;
+	}
+
+	/**
+	 * return a chain of modules with no slack, from a module with no
+	 * upstream to the module that finishes last. When several chains are
+	 * critical, the one with the lowest ids is returned.
+	 */
+	public List<String> getCriticalChain() {
+
+		final List<String> chain = new ArrayList<String>();
+
+		if (index.size() == 0) {
+			return chain;
+		}
+
+		// 1. LAST MODULE TO FINISH
+
+		int id = -1;
+
+		for (int i = 0; i < index.size(); ++i) {
+
+			if (earliestStart[i] + duration[i] == makespan
+					&& index.getDirectDownstreamCount(i) == 0) {
+
+				id = i;
+
+				break;
+			}
+		}
+
+		// 2. WALK BACK ALONG UPSTREAMS THAT FINISH JUST IN TIME
+
+		while (id != -1) {
+
+			chain.add(index.getModuleName(id));
+
+			final int count = index.getDirectUpstreamCount(id);
+
+			int next = -1;
+
+			for (int k = 0; k < count; ++k) {
+
+				final int u = index.getDirectUpstream(id, k);
+
+				if (earliestStart[u] + duration[u] == earliestStart[id]
+						&& makespan - tail[u] == earliestStart[u]) {
+
+					next = u;
+
+					break;
+				}
+			}
+
+			id = next;
+		}
+
+		Collections.reverse(chain);
+
+		return chain;
+	}
+}
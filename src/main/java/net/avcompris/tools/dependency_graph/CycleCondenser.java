@@ -0,0 +1,327 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.avcompris.tools.dependency_graph.DependencyIndex.IntArrayBuilder;
+
+import com.google.common.base.Joiner;
+
+/**
+ * This class makes it possible to analyze modules whose dependencies
+ * contain cycles, such as trigger loops: Each strongly connected component
+ * of more than one module, or of one module that depends on itself, is
+ * condensed into one super-module, named after its members, e.g.
+ * <tt>{a, b, c}</tt>. The condensed graph has no cycle, so it can be
+ * analyzed, laid out and drawn as usual, and
+ * {@link DependencyAnalysis#getCycleMembers(String)} tells which modules
+ * are cycles.
+ * <p>
+ * Components are found by Tarjan’s algorithm, in linear time. It is
+ * iterative, so that long chains do not overflow the stack.
+ */
+public class CycleCondenser {
+
+	private final Map<String, Module> modules;
+
+	public CycleCondenser(final Iterable<Module> modules) {
+
+		checkNotNull(modules, "modules");
+
+		this.modules = new HashMap<String, Module>();
+
+		for (final Module module : modules) {
+
+			checkNotNull(module, "module");
+
+			if (this.modules.put(module.name, module) != null) {
+				throw new IllegalArgumentException("Duplicate module name: \""
+						+ module.name + "\"");
+			}
+		}
+	}
+
+	private Map<String, List<String>> clusterMembers = Collections
+			.emptyMap();
+
+	/**
+	 * set the members of the modules that are collapsed clusters, to be
+	 * passed on to the analysis, see {@link ModuleClusterer}.
+	 */
+	CycleCondenser setClusterMembers(
+			final Map<String, List<String>> clusterMembers) {
+
+		this.clusterMembers = checkNotNull(clusterMembers, "clusterMembers");
+
+		return this;
+	}
+
+	private final List<List<String>> cycles = new ArrayList<List<String>>();
+
+	/**
+	 * return the analysis of the condensed graph.
+	 */
+	public DependencyAnalysis condense() {
+
+		final int n = modules.size();
+
+		// 1. INTERN NAMES, COLLECT EDGES FROM UPSTREAMS TO DOWNSTREAMS
+
+		final String[] names = modules.keySet().toArray(new String[n]);
+
+		Arrays.sort(names);
+
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		for (int id = 0; id < n; ++id) {
+			ids.put(names[id], id);
+		}
+
+		final IntArrayBuilder edgeFroms = new IntArrayBuilder();
+		final IntArrayBuilder edgeTos = new IntArrayBuilder();
+
+		for (int id = 0; id < n; ++id) {
+
+			final Module module = modules.get(names[id]);
+
+			for (final String downstream : module.getDownstreamModules()) {
+
+				edgeFroms.add(id);
+				edgeTos.add(getId(ids, downstream, module));
+			}
+
+			for (final String upstream : module.getUpstreamModules()) {
+
+				edgeFroms.add(getId(ids, upstream, module));
+				edgeTos.add(id);
+			}
+		}
+
+		final int[] downOffsets = new int[n + 1];
+		final int[] downTargets = DependencyIndex.toCSR(n,
+				edgeFroms.toArray(), edgeTos.toArray(), downOffsets);
+
+		// 2. STRONGLY CONNECTED COMPONENTS (TARJAN)
+
+		final int[] components = calculateComponents(n, downOffsets,
+				downTargets);
+
+		int componentCount = 0;
+
+		for (final int component : components) {
+			componentCount = Math.max(componentCount, component + 1);
+		}
+
+		final List<List<String>> members = new ArrayList<List<String>>();
+
+		for (int c = 0; c < componentCount; ++c) {
+			members.add(new ArrayList<String>());
+		}
+
+		for (int id = 0; id < n; ++id) {
+			members.get(components[id]).add(names[id]);
+		}
+
+		// 3. SUPER-MODULES
+
+		final String[] componentNames = new String[componentCount];
+
+		final Map<String, Module> condensed = new HashMap<String, Module>();
+
+		final Map<String, List<String>> cycleMembers = new HashMap<String, List<String>>();
+
+		cycles.clear();
+
+		for (int c = 0; c < componentCount; ++c) {
+
+			final List<String> componentMembers = members.get(c);
+
+			final String firstMember = componentMembers.get(0);
+
+			final boolean cycle = componentMembers.size() > 1
+					|| Arrays.binarySearch(downTargets,
+							downOffsets[ids.get(firstMember)],
+							downOffsets[ids.get(firstMember) + 1],
+							ids.get(firstMember)) >= 0;
+
+			componentNames[c] = cycle ? "{"
+					+ Joiner.on(", ").join(componentMembers) + "}"
+					: firstMember;
+
+			if (condensed.containsKey(componentNames[c])
+					|| (cycle && modules.containsKey(componentNames[c]))) {
+				throw new IllegalArgumentException("Duplicate module name: \""
+						+ componentNames[c] + "\"");
+			}
+
+			// A module that is not in a cycle keeps its duration
+
+			condensed.put(componentNames[c], new Module(componentNames[c])
+					.setDuration(cycle ? null : modules.get(firstMember)
+							.getDuration()));
+
+			if (cycle) {
+
+				final List<String> unmodifiable = Collections
+						.unmodifiableList(componentMembers);
+
+				cycleMembers.put(componentNames[c], unmodifiable);
+
+				cycles.add(unmodifiable);
+			}
+		}
+
+		// 4. EDGES BETWEEN SUPER-MODULES
+
+		for (int id = 0; id < n; ++id) {
+
+			for (int k = downOffsets[id]; k < downOffsets[id + 1]; ++k) {
+
+				final int c = components[id];
+				final int c2 = components[downTargets[k]];
+
+				if (c != c2) {
+					condensed.get(componentNames[c2]).addToUpstreamModules(
+							componentNames[c]);
+				}
+			}
+		}
+
+		// Clusters within cycles are listed as cycle members
+
+		final Map<String, List<String>> remainingClusterMembers = new HashMap<String, List<String>>();
+
+		for (final Map.Entry<String, List<String>> entry : clusterMembers
+				.entrySet()) {
+
+			if (condensed.containsKey(entry.getKey())) {
+				remainingClusterMembers.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		return new DependencyAnalysis(condensed, cycleMembers,
+				remainingClusterMembers, false);
+	}
+
+	/**
+	 * return the cycles found by the last call to {@link #condense()}, each
+	 * one as its members, sorted by name.
+	 */
+	public List<List<String>> getCycles() {
+
+		return Collections.unmodifiableList(cycles);
+	}
+
+	private static int getId(final Map<String, Integer> ids,
+			final String name, final Module module) {
+
+		final Integer id = ids.get(name);
+
+		if (id == null) {
+			throw new IllegalArgumentException(
+					"Module is declared as a dependency (for \"" + module.name
+							+ "\"), but cannot be found: \"" + name + "\"");
+		}
+
+		return id;
+	}
+
+	/**
+	 * return the component of each module. Components are numbered in
+	 * reverse topological order.
+	 */
+	static int[] calculateComponents(final int n, final int[] offsets,
+			final int[] targets) {
+
+		final int[] indexes = new int[n];
+		final int[] lowLinks = new int[n];
+		final int[] components = new int[n];
+		final boolean[] onStack = new boolean[n];
+
+		final int[] stack = new int[n];
+		final int[] callStack = new int[n];
+		final int[] cursors = new int[n];
+
+		Arrays.fill(indexes, -1);
+
+		int counter = 0;
+		int componentCount = 0;
+		int sp = 0;
+
+		for (int root = 0; root < n; ++root) {
+
+			if (indexes[root] != -1) {
+				continue;
+			}
+
+			int csp = 0;
+
+			indexes[root] = lowLinks[root] = counter++;
+			cursors[root] = offsets[root];
+			stack[sp++] = root;
+			onStack[root] = true;
+			callStack[csp++] = root;
+
+			while (csp > 0) {
+
+				final int v = callStack[csp - 1];
+
+				if (cursors[v] < offsets[v + 1]) {
+
+					final int w = targets[cursors[v]++];
+
+					if (indexes[w] == -1) {
+
+						indexes[w] = lowLinks[w] = counter++;
+						cursors[w] = offsets[w];
+						stack[sp++] = w;
+						onStack[w] = true;
+						callStack[csp++] = w;
+
+					} else if (onStack[w]) {
+
+						lowLinks[v] = Math.min(lowLinks[v], indexes[w]);
+					}
+
+					continue;
+				}
+
+				// All downstreams of v are done
+
+				--csp;
+
+				if (csp > 0) {
+
+					final int u = callStack[csp - 1];
+
+					lowLinks[u] = Math.min(lowLinks[u], lowLinks[v]);
+				}
+
+				if (lowLinks[v] == indexes[v]) {
+
+					int w;
+
+					do {
+
+						w = stack[--sp];
+
+						onStack[w] = false;
+
+						components[w] = componentCount;
+
+					} while (w != v);
+
+					++componentCount;
+				}
+			}
+		}
+
+		return components;
+	}
+}
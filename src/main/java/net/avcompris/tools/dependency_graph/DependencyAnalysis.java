@@ -2,34 +2,106 @@ package net.avcompris.tools.dependency_graph;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
 
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
 
 public class DependencyAnalysis {
 
-	public final ImmutableMap<String, Module> modules;
+	/**
+	 * the modules, by name. This map is unmodifiable. For an analysis built
+	 * from an index, it is a view of the index, where each module is built
+	 * on first access. Use {@link #getModules()} where an
+	 * {@link ImmutableMap} is needed.
+	 */
+	public final Map<String, Module> modules;
+
+	@Nullable
+	private ImmutableMap<String, Module> immutableModules = null;
+
+	/**
+	 * return the modules, by name, as an {@link ImmutableMap}: The field
+	 * itself for an analysis built from modules. For an analysis built from
+	 * an index, all modules are built by the first call.
+	 */
+	public synchronized ImmutableMap<String, Module> getModules() {
+
+		if (immutableModules == null) {
+			immutableModules = ImmutableMap.copyOf(modules);
+		}
+
+		return immutableModules;
+	}
 
-	private final List<Set<String>> moduleLevels = new ArrayList<Set<String>>();
+	@Nullable
+	private List<Set<String>> moduleLevels = null;
 
 	public int sizeOfModuleLevels() {
 
-		return moduleLevels.size();
+		return index.sizeOfLevels();
 	}
 
-	public Iterable<Set<String>> getModuleLevels() {
+	public synchronized Iterable<Set<String>> getModuleLevels() {
+
+		if (moduleLevels == null) {
+			moduleLevels = buildModuleLevels(index);
+		}
+
+		return moduleLevels;
+	}
+
+	private static List<Set<String>> buildModuleLevels(
+			final DependencyIndex index) {
+
+		final List<Set<String>> moduleLevels = new ArrayList<Set<String>>();
+
+		for (int level = 0; level < index.sizeOfLevels(); ++level) {
+
+			final Set<String> modulesOnThisLevel = new HashSet<String>();
+
+			moduleLevels.add(modulesOnThisLevel);
+
+			final int end = index.getLevelStart(level + 1);
+
+			for (int id = index.getLevelStart(level); id < end; ++id) {
+
+				modulesOnThisLevel.add(index.getModuleName(id));
+			}
+		}
 
 		return moduleLevels;
 	}
 
+	/**
+	 * return the dominator tree of the modules, which tells which module,
+	 * if its job breaks, blocks the largest part of the graph.
+	 */
+	public DominatorTree getDominatorTree() {
+
+		if (dominatorTree == null) {
+			dominatorTree = new DominatorTree(index);
+		}
+
+		return dominatorTree;
+	}
+
+	private DominatorTree dominatorTree = null;
+
 	public DependencyAnalysis(final Module... modules) {
 
 		this(toMap(modules));
@@ -40,6 +112,18 @@ public class DependencyAnalysis {
 		this(toMap(modules));
 	}
 
+	/**
+	 * @param quiet <tt>true</tt> not to print the modules, level by level,
+	 * to <tt>System.out</tt>, for instance when many graphs are analyzed in
+	 * the same JVM.
+	 */
+	public DependencyAnalysis(final Iterable<Module> modules,
+			final boolean quiet) {
+
+		this(toMap(modules), ImmutableMap.<String, List<String>> of(),
+				ImmutableMap.<String, List<String>> of(), quiet);
+	}
+
 	private static Map<String, Module> toMap(final Module[] modules) {
 
 		checkNotNull(modules, "modules");
@@ -73,11 +157,40 @@ public class DependencyAnalysis {
 
 	public DependencyAnalysis(final Map<String, Module> m) {
 
+		this(m, ImmutableMap.<String, List<String>> of(), ImmutableMap
+				.<String, List<String>> of(), false);
+	}
+
+	/**
+	 * @param cycleMembers the members of the modules that are condensed
+	 * cycles, see {@link CycleCondenser}.
+	 * @param clusterMembers the members of the modules that are collapsed
+	 * clusters, see {@link ModuleClusterer}.
+	 */
+	DependencyAnalysis(final Map<String, Module> m,
+			final Map<String, List<String>> cycleMembers,
+			final Map<String, List<String>> clusterMembers,
+			final boolean quiet) {
+
 		checkNotNull(m, "modules");
 
 		this.modules = ImmutableMap.copyOf(m);
+		this.cycleMembers = ImmutableMap.copyOf(checkNotNull(cycleMembers,
+				"cycleMembers"));
+		this.clusterMembers = ImmutableMap.copyOf(checkNotNull(
+				clusterMembers, "clusterMembers"));
 
-		final int moduleCount = modules.size();
+		final ImmutableMap.Builder<String, Long> durations = ImmutableMap
+				.builder();
+
+		for (final Module module : modules.values()) {
+
+			if (module.getDuration() != null) {
+				durations.put(module.name, module.getDuration());
+			}
+		}
+
+		this.moduleDurations = durations.build();
 
 		// --------------------------------------------------------------------- 
 		//     SANITY CHECKS
@@ -117,51 +230,27 @@ public class DependencyAnalysis {
 									+ "\"");
 				}
 			}
-
-			countTransitiveDownstreams(module);
-
-			countTransitiveUpstreams(module);
 		}
 
 		// --------------------------------------------------------------------- 
 		//     ANALYZE TREE
 		// --------------------------------------------------------------------- 
 
-		final Set<String> modulesAlreadyVisited = new HashSet<String>();
+		index = DependencyIndex.build(modules);
 
-		int i = 0; // For error detection
+		moduleLevels = buildModuleLevels(index);
 
-		while (modulesAlreadyVisited.size() < modules.size()) {
+		if (!quiet) {
+			printModuleLevels();
+		}
+	}
 
-			++i;
+	private void printModuleLevels() {
 
-			if (i > moduleCount) {
-				throw new RuntimeException("i: " + i + " > moduleCount: "
-						+ moduleCount);
-			}
+		for (final Set<String> modulesOnThisLevel : moduleLevels) {
 
 			System.out.println("---------------------------------------------");
 
-			final Set<String> modulesOnThisLevel = new HashSet<String>();
-
-			moduleLevels.add(modulesOnThisLevel);
-
-			for (final Module module : modules.values()) {
-
-				final String moduleName = module.name;
-
-				if (modulesAlreadyVisited.contains(moduleName)) {
-					continue;
-				}
-
-				final Collection<String> upstreams = getDirectUpstreams(moduleName);
-
-				if (modulesAlreadyVisited.containsAll(upstreams)) {
-
-					modulesOnThisLevel.add(moduleName);
-				}
-			}
-
 			for (final String moduleName : modulesOnThisLevel) {
 
 				System.out.print(moduleName);
@@ -186,89 +275,302 @@ public class DependencyAnalysis {
 
 				System.out.println();
 			}
-
-			for (final String moduleName : modulesOnThisLevel) {
-
-				modulesAlreadyVisited.add(moduleName);
-			}
 		}
 
 		System.out.println("---------------------------------------------");
 	}
 
-	private int countTransitiveDownstreams(final Module module) {
+	/**
+	 * build an analysis from an already computed index, for instance one
+	 * read from a {@link DependencySnapshot}: No sanity check is performed,
+	 * levels are not recomputed, and nothing is built per module until
+	 * {@link #modules} or {@link #getModuleLevels()} are accessed.
+	 */
+	DependencyAnalysis(final DependencyIndex index) {
 
-		checkNotNull(module, "module");
+		this(index, ImmutableMap.<String, List<String>> of(), ImmutableMap
+				.<String, List<String>> of(), ImmutableMap.<String, Long> of());
+	}
 
-		return countTransitiveDownstreams(module.name, module.name,
-				modules.size());
+	/**
+	 * @param durations the durations of the modules that have one, since
+	 * an index does not hold any, see {@link #getModuleDurations()}.
+	 */
+	DependencyAnalysis(final DependencyIndex index,
+			final Map<String, List<String>> cycleMembers,
+			final Map<String, List<String>> clusterMembers,
+			final Map<String, Long> durations) {
+
+		this.index = checkNotNull(index, "index");
+		this.cycleMembers = ImmutableMap.copyOf(checkNotNull(cycleMembers,
+				"cycleMembers"));
+		this.clusterMembers = ImmutableMap.copyOf(checkNotNull(
+				clusterMembers, "clusterMembers"));
+		this.moduleDurations = ImmutableMap.copyOf(checkNotNull(durations,
+				"durations"));
+
+		this.modules = new IndexModuleMap();
 	}
 
-	private int countTransitiveUpstreams(final Module module) {
+	/**
+	 * the modules of an analysis built from an index, as a view of the
+	 * index: Each module is built on first access, with its declared
+	 * upstreams and downstreams, and then kept.
+	 */
+	private final class IndexModuleMap extends AbstractMap<String, Module> {
 
-		checkNotNull(module, "module");
+		@Nullable
+		private Module[] builtModules = null;
 
-		return countTransitiveUpstreams(module.name, module.name,
-				modules.size());
-	}
+		/**
+		 * the declared downstreams, reversed from the declared upstreams
+		 * when the first module is built.
+		 */
+		@Nullable
+		private int[] downOffsets = null;
 
-	private int countTransitiveDownstreams(final String initialModuleName,
-			final String currentModuleName, final int limit) {
+		@Nullable
+		private int[] downTargets = null;
 
-		checkNotNull(initialModuleName, "initialModuleName");
-		checkNotNull(currentModuleName, "currentModuleName");
+		@Override
+		public int size() {
 
-		if (limit <= 0) {
-			throw new ArrayIndexOutOfBoundsException(
-					"Unlimited transitive downstreams found (probably a cycle) for module: \""
-							+ initialModuleName + "\"");
+			return index.size();
 		}
 
-		int max = 0;
+		@Override
+		public boolean containsKey(final Object key) {
 
-		for (final String downstream : modules.get(currentModuleName)
-				.getDownstreamModules()) {
+			return key instanceof String
+					&& index.getModuleId((String) key) != -1;
+		}
 
-			final int countTransitiveDownstreams = countTransitiveDownstreams(
-					initialModuleName, downstream, limit - 1);
+		@Override
+		@Nullable
+		public Module get(final Object key) {
 
-			if (countTransitiveDownstreams > max) {
-				max = countTransitiveDownstreams;
+			if (!(key instanceof String)) {
+				return null;
 			}
+
+			final int id = index.getModuleId((String) key);
+
+			return id == -1 ? null : getModule(id);
 		}
 
-		return max + 1;
-	}
+		private synchronized Module getModule(final int id) {
+
+			final int n = index.size();
+
+			if (builtModules == null) {
+
+				builtModules = new Module[n];
+
+				final int[] upOffsets = new int[n + 1];
+
+				for (int i = 0; i < n; ++i) {
+					upOffsets[i + 1] = upOffsets[i] + index.getUpstreamCount(i);
+				}
+
+				final int[] upTargets = new int[upOffsets[n]];
+
+				for (int i = 0; i < n; ++i) {
+
+					for (int k = 0; k < index.getUpstreamCount(i); ++k) {
+						upTargets[upOffsets[i] + k] = index.getUpstream(i, k);
+					}
+				}
+
+				downOffsets = new int[n + 1];
+				downTargets = DependencyIndex.reverseCSR(n, upOffsets,
+						upTargets, downOffsets);
+			}
+
+			if (builtModules[id] == null) {
+
+				final Module module = new Module(index.getModuleName(id));
+
+				for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+
+					module.addToUpstreamModules(index.getModuleName(index
+							.getUpstream(id, k)));
+				}
+
+				for (int k = downOffsets[id]; k < downOffsets[id + 1]; ++k) {
+
+					module.addToDownstreamModules(index
+							.getModuleName(downTargets[k]));
+				}
+
+				module.setDuration(moduleDurations.get(module.name));
+
+				builtModules[id] = module;
+			}
+
+			return builtModules[id];
+		}
+
+		@Override
+		public Set<String> keySet() {
+
+			return new AbstractSet<String>() {
+
+				@Override
+				public int size() {
+
+					return index.size();
+				}
+
+				@Override
+				public boolean contains(final Object o) {
+
+					return containsKey(o);
+				}
+
+				@Override
+				public Iterator<String> iterator() {
+
+					return new IdIterator<String>() {
+
+						@Override
+						protected String get(final int id) {
+
+							return index.getModuleName(id);
+						}
+					};
+				}
+			};
+		}
+
+		@Override
+		public Set<Map.Entry<String, Module>> entrySet() {
+
+			return new AbstractSet<Map.Entry<String, Module>>() {
 
-	private int countTransitiveUpstreams(final String initialModuleName,
-			final String currentModuleName, final int limit) {
+				@Override
+				public int size() {
 
-		checkNotNull(initialModuleName, "initialModuleName");
-		checkNotNull(currentModuleName, "currentModuleName");
+					return index.size();
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, Module>> iterator() {
+
+					return new IdIterator<Map.Entry<String, Module>>() {
 
-		if (limit <= 0) {
-			throw new ArrayIndexOutOfBoundsException(
-					"Unlimited transitive upstreams found (probably a cycle) for module: \""
-							+ initialModuleName + "\"");
+						@Override
+						protected Map.Entry<String, Module> get(final int id) {
+
+							return new SimpleImmutableEntry<String, Module>(
+									index.getModuleName(id), getModule(id));
+						}
+					};
+				}
+			};
 		}
+	}
 
-		int max = 0;
+	/**
+	 * an unmodifiable iterator over all module ids, in ascending order.
+	 */
+	private abstract class IdIterator<T> implements Iterator<T> {
 
-		for (final String upstream : modules.get(currentModuleName)
-				.getUpstreamModules()) {
+		private int id = 0;
 
-			final int countTransitiveUpstreams = countTransitiveDownstreams(
-					initialModuleName, upstream, limit - 1);
+		protected abstract T get(int id);
 
-			if (countTransitiveUpstreams > max) {
-				max = countTransitiveUpstreams;
+		@Override
+		public final boolean hasNext() {
+
+			return id < index.size();
+		}
+
+		@Override
+		public final T next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
+
+			return get(id++);
 		}
 
-		return max + 1;
+		@Override
+		public final void remove() {
+
+			throw new UnsupportedOperationException();
+		}
 	}
 
-	private Map<String, Collection<String>> moduleDirectUpstreams = new HashMap<String, Collection<String>>();
+	private final DependencyIndex index;
+
+	final ImmutableMap<String, List<String>> cycleMembers;
+
+	/**
+	 * return the modules that a module stands for, if it is a condensed
+	 * cycle, see {@link CycleCondenser}, or an empty list otherwise.
+	 */
+	public List<String> getCycleMembers(final String moduleName) {
+
+		checkNotNull(moduleName, "moduleName");
+
+		final List<String> members = cycleMembers.get(moduleName);
+
+		return members == null ? Collections.<String> emptyList() : members;
+	}
+
+	final ImmutableMap<String, List<String>> clusterMembers;
+
+	/**
+	 * return the modules that a module stands for, if it is a collapsed
+	 * cluster, see {@link ModuleClusterer}, or an empty list otherwise.
+	 */
+	public List<String> getClusterMembers(final String moduleName) {
+
+		checkNotNull(moduleName, "moduleName");
+
+		final List<String> members = clusterMembers.get(moduleName);
+
+		return members == null ? Collections.<String> emptyList() : members;
+	}
+
+	/**
+	 * return the interned, CSR form of this analysis.
+	 */
+	public DependencyIndex getIndex() {
+
+		return index;
+	}
+
+	/**
+	 * compute the critical path, earliest and latest start times, and slack
+	 * of the modules, given the durations of their jobs.
+	 */
+	public CriticalPathAnalysis getCriticalPath(
+			final Map<String, Long> durations, final long defaultDuration) {
+
+		return new CriticalPathAnalysis(index, durations, defaultDuration);
+	}
+
+	final ImmutableMap<String, Long> moduleDurations;
+
+	/**
+	 * return the durations of the modules that have one, see
+	 * {@link Module#getDuration()}, to pass to
+	 * {@link #getCriticalPath(Map, long)} or to a {@link BuildScheduler}.
+	 * Analyses derived from this one, by a {@link LayerAssigner}, a
+	 * {@link NeighborhoodExtractor} or a {@link DependencySnapshot}, keep
+	 * these durations.
+	 */
+	public Map<String, Long> getModuleDurations() {
+
+		return moduleDurations;
+	}
+
+	// Caches are concurrent, since diagrammers in different threads may
+	// share an analysis, see DiagramServer
+
+	private final Map<String, Collection<String>> moduleDirectUpstreams = new ConcurrentHashMap<String, Collection<String>>();
 
 	public Collection<String> getDirectUpstreams(final String moduleName) {
 
@@ -278,28 +580,21 @@ public class DependencyAnalysis {
 			return cached;
 		}
 
-		final Set<String> upstreams = new HashSet<String>(
-				getUpstreams(moduleName));
-
-		moduleDirectUpstreams.put(moduleName, upstreams);
+		final int id = index.getModuleId(moduleName);
 
-		final String[] us = Iterables.toArray(upstreams, String.class);
+		final Set<String> upstreams = new HashSet<String>();
 
-		for (final String u : us) {
+		for (int k = 0; k < index.getDirectUpstreamCount(id); ++k) {
 
-			for (final String u2 : us) {
-
-				if (isUpstream(u, u2)) {
-
-					upstreams.remove(u);
-				}
-			}
+			upstreams.add(index.getModuleName(index.getDirectUpstream(id, k)));
 		}
 
+		moduleDirectUpstreams.put(moduleName, upstreams);
+
 		return upstreams;
 	}
 
-	private Map<String, Collection<String>> moduleUpstreams = new HashMap<String, Collection<String>>();
+	private final Map<String, Collection<String>> moduleUpstreams = new ConcurrentHashMap<String, Collection<String>>();
 
 	public boolean isUpstream(final String u, final String u2) {
 
@@ -314,32 +609,21 @@ public class DependencyAnalysis {
 			return cached;
 		}
 
-		final Module module = modules.get(moduleName);
+		final int id = index.getModuleId(moduleName);
 
 		final Collection<String> upstreams = new HashSet<String>();
 
-		moduleUpstreams.put(moduleName, upstreams);
-
-		for (final String upstream : module.getUpstreamModules()) {
+		for (int k = 0; k < index.getUpstreamCount(id); ++k) {
 
-			upstreams.add(upstream);
+			upstreams.add(index.getModuleName(index.getUpstream(id, k)));
 		}
 
-		for (final Module m : modules.values()) {
-
-			for (final String downstream : m.getDownstreamModules()) {
-
-				if (downstream.equals(moduleName)) {
-
-					upstreams.add(m.name);
-				}
-			}
-		}
+		moduleUpstreams.put(moduleName, upstreams);
 
 		return upstreams;
 	}
 
-	private Map<String, Collection<String>> moduleDirectDownstreams = new HashMap<String, Collection<String>>();
+	private final Map<String, Collection<String>> moduleDirectDownstreams = new ConcurrentHashMap<String, Collection<String>>();
 
 	public Collection<String> getDirectDownstreams(final String moduleName) {
 
@@ -350,18 +634,38 @@ public class DependencyAnalysis {
 			return cached;
 		}
 
-		final Collection<String> downstreams = new HashSet<String>();
+		final int id = index.getModuleId(moduleName);
+
+		final Set<String> downstreams = new HashSet<String>();
+
+		for (int k = 0; k < index.getDirectDownstreamCount(id); ++k) {
+
+			downstreams.add(index.getModuleName(index.getDirectDownstream(id,
+					k)));
+		}
 
 		moduleDirectDownstreams.put(moduleName, downstreams);
 
-		for (final Module module : modules.values()) {
+		return downstreams;
+	}
 
-			if (getDirectUpstreams(module.name).contains(moduleName)) {
+	/**
+	 * return the modules impacted by a change in the given modules: These
+	 * modules and all their transitive downstreams, in build order.
+	 *
+	 * @see ImpactAnalyzer
+	 */
+	public List<String> getImpactedModules(final String... changedModuleNames) {
 
-				downstreams.add(moduleName);
-			}
+		checkNotNull(changedModuleNames, "changedModuleNames");
+
+		if (impactAnalyzer == null) {
+			impactAnalyzer = new ImpactAnalyzer(index);
 		}
 
-		return downstreams;
+		return impactAnalyzer.getImpactedModules(Arrays
+				.asList(changedModuleNames));
 	}
+
+	private ImpactAnalyzer impactAnalyzer = null;
 }
@@ -5,12 +5,19 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicStampedReference;
 
@@ -18,7 +25,6 @@ import javax.annotation.Nullable;
 
 import net.avcompris.tools.diagrammer.SVGDiagrammer;
 
-import com.avcompris.lang.NotImplementedException;
 import com.google.common.collect.Iterables;
 
 public class DependencyDiagrammer {
@@ -38,167 +44,1505 @@ public class DependencyDiagrammer {
 		maxModuleCountOnAnyLevel = calculateMaxModuleCountOnAnyLevel(analysis);
 	}
 
+	@Nullable
+	private LayoutMetrics layoutMetrics = null;
+
+	/**
+	 * collect counters and timers of the layout optimizer into a
+	 * {@link LayoutMetrics} object. Pass <tt>null</tt> to stop collecting.
+	 */
+	public DependencyDiagrammer setLayoutMetrics(
+			@Nullable final LayoutMetrics layoutMetrics) {
+
+		this.layoutMetrics = layoutMetrics;
+
+		return this;
+	}
+
+	private boolean separateComponents = false;
+
+	/**
+	 * lay out each connected component on its own, side by side, so that
+	 * components that are forests skip the search, and the search only
+	 * permutes modules within the other components. Off by default, since
+	 * it changes how components are interleaved in existing diagrams.
+	 */
+	public DependencyDiagrammer setSeparateComponents(
+			final boolean separateComponents) {
+
+		this.separateComponents = separateComponents;
+
+		return this;
+	}
+
+	private boolean compactLayout = false;
+
+	/**
+	 * split the layout in two phases: The search only permutes modules
+	 * within each level, without empty slots between them, then a
+	 * priority layout pass assigns columns, moving modules towards their
+	 * neighbors. The search space is much smaller, since it no longer
+	 * enumerates empty slots. The diagram is then only as wide as the
+	 * columns it uses. Off by default, since it changes existing diagrams.
+	 */
+	public DependencyDiagrammer setCompactLayout(final boolean compactLayout) {
+
+		this.compactLayout = compactLayout;
+
+		return this;
+	}
+
+	private boolean sweepOrdering = false;
+
+	/**
+	 * order modules within each level by sweeps, downwards and upwards,
+	 * instead of searching all permutations: Each level is ordered against
+	 * the current order of its neighbors, exactly if it has at most
+	 * {@link #EXACT_ORDERING_MAX_LEVEL_SIZE} modules, by barycenters
+	 * otherwise. Modules are packed to the left, or compacted if
+	 * {@link #setCompactLayout(boolean)} is set. Off by default, since it
+	 * changes existing diagrams.
+	 */
+	public DependencyDiagrammer setSweepOrdering(final boolean sweepOrdering) {
+
+		this.sweepOrdering = sweepOrdering;
+
+		return this;
+	}
+
+	private boolean quiet = false;
+
+	/**
+	 * do not print the progress and the metrics of the layout search to
+	 * <tt>System.out</tt>, for instance when many diagrams are drawn in the
+	 * same JVM. Timeouts are still reported to <tt>System.err</tt>.
+	 */
+	public DependencyDiagrammer setQuiet(final boolean quiet) {
+
+		this.quiet = quiet;
+
+		return this;
+	}
+
+	@Nullable
+	private DependencyDiff diff = null;
+
+	/**
+	 * highlight the changes of a diff in the diagrams: Added modules and
+	 * modules whose level changed are filled with another color, added
+	 * direct edges are drawn in green, and removed modules and direct edges
+	 * are listed below the diagram. The diff’s “after” graph should be the
+	 * one of this diagrammer. Pass <tt>null</tt> to stop highlighting.
+	 */
+	public DependencyDiagrammer setDiff(@Nullable final DependencyDiff diff) {
+
+		this.diff = diff;
+
+		return this;
+	}
+
+	@Nullable
+	private Map<String, ModulePosition> previousPositions = null;
+
+	/**
+	 * lay out the diagrams incrementally, from the positions of a previous
+	 * diagram: Modules that are still on the same level keep their
+	 * positions, other modules are placed next to their neighbors, and only
+	 * the neighborhood of these modules is then optimized, with a penalty
+	 * for modules that move. Pass <tt>null</tt> to lay out from scratch.
+	 */
+	public DependencyDiagrammer setPreviousPositions(
+			@Nullable final ModulePosition[] previousPositions) {
+
+		if (previousPositions == null) {
+
+			this.previousPositions = null;
+
+		} else {
+
+			this.previousPositions = new HashMap<String, ModulePosition>();
+
+			for (final ModulePosition previousPosition : previousPositions) {
+
+				this.previousPositions.put(previousPosition.getModuleName(),
+						previousPosition);
+			}
+		}
+
+		return this;
+	}
+
+	private static final String ADDED_FILL = "#cfc";
+	private static final String LEVEL_CHANGED_FILL = "#fc9";
+	private static final String ADDED_STROKE = "#0a0";
+	private static final String REMOVED_FILL = "#c00";
+	private static final String CYCLE_STROKE = "#c00";
+	private static final String CYCLE_FILL = "#fee";
+	private static final String CLUSTER_FILL = "#def";
+	private static final int LEGEND_LINE_HEIGHT = 16;
+
+	/**
+	 * the longest label that fits in a module box, with an average
+	 * character width of 6 pixels at font size 11.
+	 */
+	static final int MAX_LABEL_LENGTH = 22;
+
+	private static final int LEGEND_CHAR_WIDTH = 6;
+
 	private static int calculateMaxModuleCountOnAnyLevel(
 			final DependencyAnalysis analysis) {
 
-		int maxModuleCountOnAnyLevel = 1;
+		int maxModuleCountOnAnyLevel = 1;
+
+		for (final Collection<String> modulesOnLevel : analysis
+				.getModuleLevels()) {
+
+			final int moduleCountOnThisLevel = modulesOnLevel.size();
+
+			if (moduleCountOnThisLevel > maxModuleCountOnAnyLevel) {
+
+				maxModuleCountOnAnyLevel = moduleCountOnThisLevel;
+			}
+		}
+
+		if (maxModuleCountOnAnyLevel < 4) {
+
+			return maxModuleCountOnAnyLevel + 1; // give more room
+
+		} else {
+
+			return maxModuleCountOnAnyLevel;
+		}
+	}
+
+	private static final int WIDTH = 150; // TODO parameterize this
+	private static final int HEIGHT = 20;
+	private static final int V_SPACE = 40;
+
+	/**
+	 * output the SVG diagram to a file.
+	 * 
+	 * @param optimizeTimeoutMs if <tt>0L</tt>, don’t try to optimize the
+	 * diagram; If positive, will try to optimize the diagram for a maximum
+	 * amount of milliseconds; If negative (<tt>-1L</tt>), will not timeout.
+	 */
+	public ModulePosition[] drawTo(final long optimizeTimeoutMs,
+			final File svgFile) throws IOException {
+
+		final Set<ModulePosition> result = new HashSet<ModulePosition>();
+
+		final DependencyDiff diff = this.diff;
+
+		final List<String> legend = new ArrayList<String>();
+
+		final Set<String> addedModules = new HashSet<String>();
+		final Set<String> levelChangedModules = new HashSet<String>();
+
+		if (diff != null) {
+
+			addedModules.addAll(diff.getAddedModules());
+
+			for (final DependencyDiff.LevelChange levelChange : diff
+					.getLevelChanges()) {
+				levelChangedModules.add(levelChange.moduleName);
+			}
+
+			for (final String removedModule : diff.getRemovedModules()) {
+				legend.add("- module: " + removedModule);
+			}
+
+			for (final DependencyDiff.Edge removedEdge : diff
+					.getRemovedDirectEdges()) {
+				legend.add("- edge: " + removedEdge);
+			}
+		}
+
+		final int diagramHeight = 20 + levelCount * HEIGHT + (levelCount - 1)
+				* V_SPACE;
+
+		final Map<String, ModulePositionImpl> modulePoss2 = calculateLayout(new Search(
+				optimizeTimeoutMs, null).start());
+
+		final DiagramMetrics metrics2 = calculateMetrics(modulePoss2);
+
+		if (!quiet) {
+			System.out.println(metrics2);
+		}
+
+		// Compact layouts are as wide as the columns they use, the others
+		// keep the room of the grid
+
+		int columnCount = compactLayout ? 1 : maxModuleCountOnAnyLevel;
+
+		for (final ModulePositionImpl modulePos : modulePoss2.values()) {
+
+			columnCount = Math.max(columnCount, column(modulePos.x) + 1);
+		}
+
+		// Condensed cycles whose names are too long: Number them, and list
+		// their members in the legend
+
+		final Map<String, String> labels = new HashMap<String, String>();
+
+		final List<String> cycleLegend = new ArrayList<String>();
+
+		final List<String> longCycleNames = new ArrayList<String>();
+
+		for (final String moduleName : modulePoss2.keySet()) {
+
+			if (moduleName.length() > MAX_LABEL_LENGTH
+					&& !analysis.getCycleMembers(moduleName).isEmpty()) {
+				longCycleNames.add(moduleName);
+			}
+		}
+
+		Collections.sort(longCycleNames);
+
+		for (int i = 0; i < longCycleNames.size(); ++i) {
+
+			final String moduleName = longCycleNames.get(i);
+
+			final String prefix = (i + 1) + ". ";
+
+			labels.put(moduleName, abbreviate(prefix + moduleName,
+					MAX_LABEL_LENGTH));
+
+			cycleLegend.addAll(wrapCycleMembers(prefix,
+					analysis.getCycleMembers(moduleName), columnCount
+							* (WIDTH + 10) / LEGEND_CHAR_WIDTH));
+		}
+
+		final int legendSize = legend.size() + cycleLegend.size();
+
+		new SVGDiagrammer() {
+
+			@Override
+			protected void body() throws Exception {
+
+				// 9. DRAWING
+
+				// 9.1. RECTS
+
+				for (final ModulePositionImpl modulePos : modulePoss2.values()) {
+
+					result.add(modulePos);
+
+					final String moduleName = modulePos.moduleName;
+
+					final int clusterSize = analysis.getClusterMembers(
+							moduleName).size();
+
+					final String fill = addedModules.contains(moduleName) ? ADDED_FILL
+							: levelChangedModules.contains(moduleName) ? LEVEL_CHANGED_FILL
+									: clusterSize != 0 ? CLUSTER_FILL : "#ffc";
+
+					if (!analysis.getCycleMembers(moduleName).isEmpty()) {
+
+						// A condensed cycle: Frame it as a group
+
+						rect().x(modulePos.x - 3.5).y(modulePos.y - 3.5)
+								.width(modulePos.width + 6)
+								.height(modulePos.height + 6)
+								.stroke(CYCLE_STROKE).fill(CYCLE_FILL).close();
+					}
+
+					rect().x(modulePos.x - 0.5).y(modulePos.y - 0.5)
+							.width(modulePos.width).height(modulePos.height)
+							.stroke("#000").fill(fill).close();
+
+					final String label = labels.containsKey(moduleName) ? labels
+							.get(moduleName) : moduleName;
+
+					text(clusterSize != 0 ? label + " (" + clusterSize + ")"
+							: label)
+							.x(modulePos.x + modulePos.width / 2)
+							.y(modulePos.y + 13).textAnchor("middle")
+							.fill("#000").fontFamily("Helvetica").fontSize(11).
+							//property("shape-rendering","crispEdges").
+							close();
+				}
+
+				// 9.2. LINES
+
+				for (final Line line : calculateLines(modulePoss2)) {
+
+					line().x1(line.x1).y1(line.y1).x2(line.x2).y2(line.y2)
+							.stroke("#000").close();
+				}
+
+				// 9.3. LEGEND
+
+				int y = diagramHeight + LEGEND_LINE_HEIGHT;
+
+				for (final String text : legend) {
+
+					text(text).x(10).y(y).fill(REMOVED_FILL)
+							.fontFamily("Helvetica").fontSize(11).close();
+
+					y += LEGEND_LINE_HEIGHT;
+				}
+
+				for (final String text : cycleLegend) {
+
+					text(text).x(10).y(y).fill(CYCLE_STROKE)
+							.fontFamily("Helvetica").fontSize(11).close();
+
+					y += LEGEND_LINE_HEIGHT;
+				}
+
+				// 9.4. DIFF OVERLAY
+
+				if (diff == null) {
+					return;
+				}
+
+				for (final DependencyDiff.Edge addedEdge : diff
+						.getAddedDirectEdges()) {
+
+					final ModulePositionImpl modulePos = modulePoss2
+							.get(addedEdge.downstream);
+					final ModulePositionImpl upstreamPos = modulePoss2
+							.get(addedEdge.upstream);
+
+					if (modulePos == null || upstreamPos == null) {
+						continue; // Not a diff against this diagram
+					}
+
+					line().x1(modulePos.middleX).y1(modulePos.top)
+							.x2(upstreamPos.middleX).y2(upstreamPos.bottom)
+							.stroke(ADDED_STROKE).close();
+				}
+			}
+
+		}.addOutputFile(svgFile)
+				.printToSystemOut(false)
+				.run(10 + columnCount * (WIDTH + 10),
+						legendSize == 0 ? diagramHeight : diagramHeight
+								+ (legendSize + 1) * LEGEND_LINE_HEIGHT);
+
+		// END
+
+		return Iterables.toArray(result, ModulePosition.class);
+	}
+
+	/**
+	 * return a text cut to <tt>maxLength</tt> characters, ending with
+	 * “...}” if it was cut.
+	 */
+	static String abbreviate(final String text, final int maxLength) {
+
+		if (text.length() <= maxLength) {
+			return text;
+		}
+
+		return text.substring(0, maxLength - 4) + "...}";
+	}
+
+	/**
+	 * return the legend lines of a condensed cycle: Its members, as many on
+	 * each line as <tt>maxLength</tt> characters allow, at least one.
+	 */
+	static List<String> wrapCycleMembers(final String prefix,
+			final List<String> members, final int maxLength) {
+
+		final List<String> lines = new ArrayList<String>();
+
+		final StringBuilder sb = new StringBuilder(prefix).append("{");
+
+		for (int i = 0; i < members.size(); ++i) {
+
+			final String member = members.get(i) + (i + 1 < members.size() ? ","
+					: "}");
+
+			if (sb.length() > prefix.length() + 1
+					&& sb.length() + 1 + member.length() > maxLength) {
+
+				lines.add(sb.toString());
+
+				sb.setLength(0);
+				sb.append(prefix);
+
+			} else if (sb.length() > prefix.length() + 1) {
+
+				sb.append(' ');
+			}
+
+			sb.append(member);
+		}
+
+		lines.add(sb.toString());
+
+		return lines;
+	}
+
+	/**
+	 * compute the layout: From the previous positions if any, directly if
+	 * the graph is a forest, component by component if asked to, or by a
+	 * search from a first draft otherwise.
+	 */
+	private Map<String, ModulePositionImpl> calculateLayout(final Search search) {
+
+		final boolean optimize = search.optimizeTimeoutMs != 0;
+
+		if (previousPositions != null) {
+
+			// 1-3. ANCHORS, NEW MODULES, LOCAL SEARCH
+
+			return calculateRelayout(optimize ? search : null);
+		}
+
+		// 0. FAST PATHS: FORESTS, COMPONENTS
+
+		final Map<String, ModulePositionImpl> forest = calculateForestLayout();
+
+		if (forest != null) {
+
+			search.improved(forest, calculateMetrics(forest));
+
+			return forest;
+		}
+
+		if (separateComponents) {
+
+			final List<int[]> components = calculateComponents();
+
+			if (components.size() > 1) {
+				return calculateComponentsLayout(search, components);
+			}
+		}
+
+		// 1. FIRST DRAFT, 2. SECOND THOUGHT
+
+		final Map<String, ModulePositionImpl> modulePoss = calculateFirstDraft();
+
+		// 3. METRICS
+
+		final DiagramMetrics metrics = calculateMetrics(modulePoss);
+
+		if (!quiet) {
+			System.out.println(metrics);
+		}
+
+		search.improved(modulePoss, metrics);
+
+		if (!compactLayout && !sweepOrdering) {
+
+			return optimize ? attainMinimumMetrics(search, modulePoss, true)
+					: modulePoss;
+		}
+
+		// 4. ORDERING, 5. COMPACTION
+
+		final Map<String, ModulePositionImpl> ordered = !optimize ? modulePoss
+				: sweepOrdering ? calculateSweepOrdering(search, modulePoss)
+						: attainMinimumMetrics(search, modulePoss, false);
+
+		if (!compactLayout) {
+			return ordered;
+		}
+
+		final Map<String, ModulePositionImpl> compacted = calculateCompaction(ordered);
+
+		if (compacted != ordered) {
+			search.improved(compacted, calculateMetrics(compacted));
+		}
+
+		return compacted;
+	}
+
+	/**
+	 * assign columns to modules, keeping their order within each level, by
+	 * a priority layout: Level by level, downwards then upwards then
+	 * downwards again, each module moves towards the barycenter of its
+	 * direct upstreams (downwards) or downstreams (upwards), pushing the
+	 * modules on its way, but never the modules of the same level that
+	 * have already moved, i.e. that have more neighbors. Columns stay
+	 * within the grid.
+	 * <p>
+	 * Since columns also change how lines that span several levels cross,
+	 * the layout is measured after each sweep, and the best one is
+	 * returned: Possibly the one passed, if no sweep improved it.
+	 * <p>
+	 * Unless the layout should stay close to previous positions, the best
+	 * one is then shifted to the left, so that no column is empty on the
+	 * left. Empty columns on the right are dropped when drawing.
+	 */
+	Map<String, ModulePositionImpl> calculateCompaction(
+			final Map<String, ModulePositionImpl> modulePoss) {
+
+		// 1. LEVELS, IN THE CURRENT ORDER
+
+		final Map<String, Integer> columns = new HashMap<String, Integer>();
+
+		final String[][] levels = calculateLevelOrders(modulePoss, columns);
+
+		// 2. SWEEPS, KEEPING THE BEST LAYOUT
+
+		Map<String, ModulePositionImpl> best = modulePoss;
+
+		DiagramMetrics bestMetrics = calculateMetrics(modulePoss);
+
+		for (int sweep = 0; sweep < 3; ++sweep) {
+
+			final boolean downwards = sweep != 1;
+
+			for (int l = 1; l < levelCount; ++l) {
+
+				compactLevel(levels[downwards ? l : levelCount - 1 - l],
+						columns, downwards);
+			}
+
+			final Map<String, ModulePositionImpl> compacted = withColumns(
+					modulePoss, columns);
+
+			final DiagramMetrics metrics = calculateMetrics(compacted);
+
+			if (metrics.isBetterThan(bestMetrics)) {
+
+				best = compacted;
+				bestMetrics = metrics;
+			}
+		}
+
+		// 3. NO EMPTY COLUMNS ON THE LEFT
+
+		return previousPositions == null ? shiftedLeft(best) : best;
+	}
+
+	private static Map<String, ModulePositionImpl> shiftedLeft(
+			final Map<String, ModulePositionImpl> modulePoss) {
+
+		int minX = Integer.MAX_VALUE;
+
+		for (final ModulePositionImpl modulePos : modulePoss.values()) {
+			minX = Math.min(minX, modulePos.x);
+		}
+
+		if (minX <= 10) {
+			return modulePoss;
+		}
+
+		final Map<String, ModulePositionImpl> result = new HashMap<String, ModulePositionImpl>();
+
+		for (final ModulePositionImpl modulePos : modulePoss.values()) {
+
+			result.put(modulePos.moduleName, new ModulePositionImpl(modulePos,
+					modulePos.x - minX + 10));
+		}
+
+		return result;
+	}
+
+	/**
+	 * return the modules of each level, sorted by their x positions, and
+	 * fill in their ranks within their levels as columns.
+	 */
+	private String[][] calculateLevelOrders(
+			final Map<String, ModulePositionImpl> modulePoss,
+			final Map<String, Integer> columns) {
+
+		final String[][] levels = new String[levelCount][];
+
+		int level = 0;
+
+		for (final Collection<String> modulesOnLevel : analysis
+				.getModuleLevels()) {
+
+			final List<ModulePositionImpl> sorted = new ArrayList<ModulePositionImpl>();
+
+			for (final String moduleName : modulesOnLevel) {
+				sorted.add(modulePoss.get(moduleName));
+			}
+
+			Collections.sort(sorted, new Comparator<ModulePositionImpl>() {
+
+				@Override
+				public int compare(final ModulePositionImpl modulePos1,
+						final ModulePositionImpl modulePos2) {
+
+					return modulePos1.x - modulePos2.x;
+				}
+			});
+
+			levels[level] = new String[sorted.size()];
+
+			for (int i = 0; i < sorted.size(); ++i) {
+
+				levels[level][i] = sorted.get(i).moduleName;
+
+				columns.put(levels[level][i], i);
+			}
+
+			++level;
+		}
+
+		return levels;
+	}
+
+	private static Map<String, ModulePositionImpl> withColumns(
+			final Map<String, ModulePositionImpl> modulePoss,
+			final Map<String, Integer> columns) {
+
+		final Map<String, ModulePositionImpl> result = new HashMap<String, ModulePositionImpl>();
+
+		for (final ModulePositionImpl modulePos : modulePoss.values()) {
+
+			result.put(modulePos.moduleName, new ModulePositionImpl(modulePos,
+					10 + columns.get(modulePos.moduleName) * (WIDTH + 10)));
+		}
+
+		return result;
+	}
+
+	private void compactLevel(final String[] modules,
+			final Map<String, Integer> columns, final boolean downwards) {
+
+		final int k = modules.length;
+
+		final int[] cols = new int[k];
+		final Integer[] byPriority = new Integer[k];
+		final int[] priorities = new int[k];
+
+		for (int i = 0; i < k; ++i) {
+
+			cols[i] = columns.get(modules[i]);
+			byPriority[i] = i;
+			priorities[i] = neighbors(modules[i], downwards).size();
+		}
+
+		Arrays.sort(byPriority, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer i1, final Integer i2) {
+
+				return priorities[i1] != priorities[i2] ? priorities[i2]
+						- priorities[i1] : i1 - i2;
+			}
+		});
+
+		final boolean[] moved = new boolean[k];
+
+		for (final int i : byPriority) {
+
+			final Collection<String> neighbors = neighbors(modules[i],
+					downwards);
+
+			moved[i] = true;
+
+			if (neighbors.isEmpty()) {
+				continue;
+			}
+
+			double sum = 0.0;
+
+			for (final String neighbor : neighbors) {
+				sum += columns.get(neighbor);
+			}
+
+			int lo = i;
+			int hi = maxModuleCountOnAnyLevel - (k - i);
+
+			for (int j = 0; j < k; ++j) {
+
+				if (!moved[j] || j == i) {
+					continue;
+				} else if (j < i) {
+					lo = Math.max(lo, cols[j] + (i - j));
+				} else {
+					hi = Math.min(hi, cols[j] - (j - i));
+				}
+			}
+
+			final int target = Math.max(lo, Math.min(hi, (int) Math.round(sum
+					/ neighbors.size())));
+
+			cols[i] = target;
+
+			for (int j = i + 1; j < k; ++j) {
+				cols[j] = Math.max(cols[j], target + (j - i));
+			}
+
+			for (int j = i - 1; j >= 0; --j) {
+				cols[j] = Math.min(cols[j], target - (i - j));
+			}
+		}
+
+		for (int i = 0; i < k; ++i) {
+			columns.put(modules[i], cols[i]);
+		}
+	}
+
+	private Collection<String> neighbors(final String moduleName,
+			final boolean upstreams) {
+
+		return upstreams ? analysis.getDirectUpstreams(moduleName) : analysis
+				.getDirectDownstreams(moduleName);
+	}
+
+	/**
+	 * levels with more modules are ordered by barycenters, since the exact
+	 * ordering takes <tt>O(2<sup>n</sup>·n²)</tt> time.
+	 */
+	static final int EXACT_ORDERING_MAX_LEVEL_SIZE = 16;
+
+	private static final int MAX_SWEEPS = 8;
+
+	Map<String, ModulePositionImpl> calculateSweepOrdering(
+			final Map<String, ModulePositionImpl> modulePoss) {
+
+		return calculateSweepOrdering(new Search(-1L, null).start(),
+				modulePoss);
+	}
+
+	/**
+	 * order modules within each level, packed to the left: Level by level,
+	 * downwards then upwards, and so on, each level is ordered so that its
+	 * lines to its direct upstreams (downwards) or downstreams (upwards)
+	 * cross as little as possible, given the current columns of these.
+	 * Lines spanning several levels are counted as if their other ends
+	 * were on the adjacent level.
+	 * <p>
+	 * Sweeps stop when one does not improve the layout, and the best one is
+	 * returned: Possibly the one passed.
+	 */
+	private Map<String, ModulePositionImpl> calculateSweepOrdering(
+			final Search search,
+			final Map<String, ModulePositionImpl> modulePoss) {
+
+		final Map<String, Integer> columns = new HashMap<String, Integer>();
+
+		final String[][] levels = calculateLevelOrders(modulePoss, columns);
+
+		Map<String, ModulePositionImpl> best = modulePoss;
+
+		DiagramMetrics bestMetrics = calculateMetrics(modulePoss);
+
+		try {
+
+			for (int sweep = 0; sweep < MAX_SWEEPS; ++sweep) {
+
+				final boolean downwards = sweep % 2 == 0;
+
+				for (int l = 1; l < levelCount; ++l) {
+
+					search.checkpoint();
+
+					orderLevel(levels[downwards ? l : levelCount - 1 - l],
+							columns, downwards);
+				}
+
+				final Map<String, ModulePositionImpl> ordered = withColumns(
+						modulePoss, columns);
+
+				final DiagramMetrics metrics = calculateMetrics(ordered);
+
+				if (metrics.isBetterThan(bestMetrics)) {
+
+					best = ordered;
+					bestMetrics = metrics;
+
+					search.improved(best, bestMetrics);
+
+				} else if (sweep != 0) {
+
+					break;
+				}
+			}
+
+		} catch (final TimeoutException e) {
+
+			System.err.println(search.isCancelled() ? "Cancelled." : "Timeout.");
+		}
+
+		return best;
+	}
+
+	private void orderLevel(final String[] modules,
+			final Map<String, Integer> columns, final boolean downwards) {
+
+		final int k = modules.length;
+
+		final int[][] neighborColumns = new int[k][];
+
+		for (int i = 0; i < k; ++i) {
+
+			final Collection<String> neighbors = neighbors(modules[i],
+					downwards);
+
+			neighborColumns[i] = new int[neighbors.size()];
+
+			int j = 0;
+
+			for (final String neighbor : neighbors) {
+				neighborColumns[i][j++] = columns.get(neighbor);
+			}
+		}
+
+		final int[] order = k <= EXACT_ORDERING_MAX_LEVEL_SIZE ? calculateExactOrder(neighborColumns)
+				: calculateBarycenterOrder(neighborColumns);
+
+		final String[] ordered = new String[k];
+
+		for (int i = 0; i < k; ++i) {
+			ordered[i] = modules[order[i]];
+		}
+
+		for (int i = 0; i < k; ++i) {
+
+			modules[i] = ordered[i];
+
+			columns.put(modules[i], i);
+		}
+	}
+
+	/**
+	 * return <tt>crossings[u][v]</tt>: The number of crossings between the
+	 * lines of <tt>u</tt> and <tt>v</tt> if <tt>u</tt> is on the left.
+	 */
+	private static int[][] calculateCrossingMatrix(final int[][] neighborColumns) {
+
+		final int k = neighborColumns.length;
+
+		final int[][] crossings = new int[k][k];
+
+		for (int u = 0; u < k; ++u) {
+
+			for (int v = 0; v < k; ++v) {
+
+				if (u == v) {
+					continue;
+				}
+
+				for (final int a : neighborColumns[u]) {
+
+					for (final int b : neighborColumns[v]) {
+
+						if (a > b) {
+							++crossings[u][v];
+						}
+					}
+				}
+			}
+		}
+
+		return crossings;
+	}
+
+	/**
+	 * return an order of modules with the fewest crossings, by dynamic
+	 * programming over subsets: <tt>best[set]</tt> is the fewest crossings
+	 * among the modules of <tt>set</tt>, when they are the leftmost ones.
+	 * On ties, the current order is kept.
+	 *
+	 * @param neighborColumns the columns of the neighbors of each module.
+	 */
+	static int[] calculateExactOrder(final int[][] neighborColumns) {
+
+		final int k = neighborColumns.length;
+
+		final int[][] crossings = calculateCrossingMatrix(neighborColumns);
+
+		final int[] best = new int[1 << k];
+		final int[] last = new int[1 << k];
+
+		Arrays.fill(best, Integer.MAX_VALUE);
+
+		best[0] = 0;
+
+		for (int set = 0; set < 1 << k; ++set) {
+
+			for (int v = 0; v < k; ++v) {
+
+				if ((set & (1 << v)) != 0) {
+					continue;
+				}
+
+				int cost = best[set];
+
+				for (int u = 0; u < k; ++u) {
+
+					if ((set & (1 << u)) != 0) {
+						cost += crossings[u][v];
+					}
+				}
+
+				final int next = set | (1 << v);
+
+				if (cost < best[next]) {
+
+					best[next] = cost;
+					last[next] = v;
+				}
+			}
+		}
+
+		final int[] order = new int[k];
+
+		for (int i = k - 1, set = (1 << k) - 1; i >= 0; --i) {
+
+			order[i] = last[set];
+
+			set &= ~(1 << order[i]);
+		}
+
+		return order;
+	}
+
+	/**
+	 * return an order of modules by the mean columns of their neighbors.
+	 * Modules without neighbors keep their current indexes as barycenters.
+	 */
+	private static int[] calculateBarycenterOrder(final int[][] neighborColumns) {
+
+		final int k = neighborColumns.length;
+
+		final double[] barycenters = new double[k];
+		final Integer[] order = new Integer[k];
+
+		for (int i = 0; i < k; ++i) {
+
+			order[i] = i;
+
+			if (neighborColumns[i].length == 0) {
+
+				barycenters[i] = i;
+
+			} else {
+
+				double sum = 0.0;
+
+				for (final int column : neighborColumns[i]) {
+					sum += column;
+				}
+
+				barycenters[i] = sum / neighborColumns[i].length;
+			}
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer i1, final Integer i2) {
+
+				return Double.compare(barycenters[i1], barycenters[i2]);
+			}
+		});
+
+		final int[] result = new int[k];
+
+		for (int i = 0; i < k; ++i) {
+			result[i] = order[i];
+		}
+
+		return result;
+	}
+
+	/**
+	 * lay out a forest, i.e. a graph where each module has at most one
+	 * direct upstream, in linear time and without any line crossing:
+	 * Modules are taken in depth-first order, and each one is put under its
+	 * upstream, or in the next free column to its right. Since columns grow
+	 * in depth-first order on every level, and each direct edge of a forest
+	 * joins two consecutive levels, no two edges cross.
+	 *
+	 * @return <tt>null</tt> if the graph is not a forest.
+	 */
+	@Nullable
+	Map<String, ModulePositionImpl> calculateForestLayout() {
+
+		final DependencyIndex index = analysis.getIndex();
+
+		final int n = index.size();
+
+		// 1. CHECK THE GRAPH IS A FOREST
+
+		for (int id = 0; id < n; ++id) {
+
+			final int count = index.getDirectUpstreamCount(id);
+
+			if (count > 1) {
+				return null;
+			}
+
+			if (count == 1
+					&& index.getLevel(index.getDirectUpstream(id, 0)) != index
+							.getLevel(id) - 1) {
+				return null;
+			}
+		}
+
+		// 2. DEPTH-FIRST TRAVERSAL, ROOTS IN ID ORDER
+
+		final int[] columns = new int[n];
+
+		final int[] lastColumns = new int[index.sizeOfLevels()];
+
+		Arrays.fill(lastColumns, -1);
+
+		final int[] stack = new int[n];
+
+		int top = 0;
+
+		for (int id = n - 1; id >= 0; --id) {
+
+			if (index.getDirectUpstreamCount(id) == 0) {
+				stack[top++] = id;
+			}
+		}
+
+		while (top != 0) {
+
+			final int id = stack[--top];
+
+			final int level = index.getLevel(id);
+
+			final int column = index.getDirectUpstreamCount(id) == 0 ? lastColumns[level] + 1
+					: Math.max(lastColumns[level] + 1,
+							columns[index.getDirectUpstream(id, 0)]);
+
+			columns[id] = column;
+			lastColumns[level] = column;
+
+			for (int k = index.getDirectDownstreamCount(id) - 1; k >= 0; --k) {
+
+				stack[top++] = index.getDirectDownstream(id, k);
+			}
+		}
+
+		// 3. POSITIONS
+
+		final Map<String, ModulePositionImpl> modulePoss = new HashMap<String, ModulePositionImpl>();
+
+		for (int id = 0; id < n; ++id) {
+
+			final String moduleName = index.getModuleName(id);
+
+			modulePoss.put(moduleName, new ModulePositionImpl(moduleName, 10
+					+ columns[id] * (WIDTH + 10), 10 + index.getLevel(id) * 60,
+					WIDTH, HEIGHT));
+		}
+
+		return modulePoss;
+	}
+
+	/**
+	 * return the connected components of the graph of direct edges, as
+	 * sorted arrays of module ids, in the order of their lowest id.
+	 */
+	List<int[]> calculateComponents() {
+
+		final DependencyIndex index = analysis.getIndex();
+
+		final int n = index.size();
+
+		// 1. UNION-FIND
+
+		final int[] parents = new int[n];
+
+		for (int id = 0; id < n; ++id) {
+			parents[id] = id;
+		}
+
+		for (int id = 0; id < n; ++id) {
+
+			for (int k = 0; k < index.getDirectUpstreamCount(id); ++k) {
+
+				final int root1 = findRoot(parents, id);
+				final int root2 = findRoot(parents, index.getDirectUpstream(id,
+						k));
+
+				parents[Math.max(root1, root2)] = Math.min(root1, root2);
+			}
+		}
+
+		// 2. GROUP BY ROOT: A ROOT IS THE LOWEST ID OF ITS COMPONENT
+
+		final int[] sizes = new int[n];
+
+		for (int id = 0; id < n; ++id) {
+			++sizes[findRoot(parents, id)];
+		}
+
+		final int[][] components = new int[n][];
+
+		final List<int[]> result = new ArrayList<int[]>();
+
+		for (int id = 0; id < n; ++id) {
+
+			final int root = findRoot(parents, id);
+
+			if (root == id) {
+
+				components[id] = new int[sizes[id]];
+
+				result.add(components[id]);
+
+				sizes[id] = 0;
+			}
+
+			components[root][sizes[root]++] = id;
+		}
+
+		return result;
+	}
+
+	private static int findRoot(final int[] parents, final int id) {
+
+		int root = id;
+
+		while (parents[root] != root) {
+
+			parents[root] = parents[parents[root]];
+
+			root = parents[root];
+		}
+
+		return root;
+	}
+
+	/**
+	 * lay out each component on its own, side by side: Forests get the fast
+	 * path, and only the other components are searched.
+	 */
+	private Map<String, ModulePositionImpl> calculateComponentsLayout(
+			final Search search, final List<int[]> components) {
+
+		final DependencyIndex index = analysis.getIndex();
+
+		final Map<String, ModulePositionImpl> modulePoss = new HashMap<String, ModulePositionImpl>();
+
+		int columnOffset = 0;
+
+		for (final int[] component : components) {
+
+			// Component ids are sorted: Their sub-index is built directly,
+			// with no names to resolve and no cycle check
+
+			final Map<String, ModulePositionImpl> componentPoss = new DependencyDiagrammer(
+					new DependencyAnalysis(index.subIndex(component)))
+					.setQuiet(quiet)
+					.setLayoutMetrics(layoutMetrics)
+					.setCompactLayout(compactLayout)
+					.setSweepOrdering(sweepOrdering)
+					.calculateLayout(search.forComponent());
+
+			int columnCount = 0;
+
+			for (final ModulePositionImpl modulePos : componentPoss.values()) {
+
+				modulePoss.put(modulePos.moduleName, new ModulePositionImpl(
+						modulePos, modulePos.x + columnOffset * (WIDTH + 10)));
+
+				columnCount = Math.max(columnCount, column(modulePos.x) + 1);
+			}
+
+			columnOffset += columnCount;
+		}
+
+		search.improved(modulePoss, calculateMetrics(modulePoss));
+
+		return modulePoss;
+	}
+
+	/**
+	 * lay out modules level by level, then align single-parent,
+	 * single-child pairs.
+	 */
+	Map<String, ModulePositionImpl> calculateFirstDraft() {
+
+		final Map<String, ModulePositionImpl> modulePoss = new HashMap<String, ModulePositionImpl>();
+
+		int y = 10;
+
+		// 1. FIRST DRAFT
+
+		for (final Iterable<String> modulesOnLevel : analysis
+				.getModuleLevels()) {
+
+			int x = 10;
+
+			for (final String moduleName : modulesOnLevel) {
+
+				final ModulePositionImpl modulePos = new ModulePositionImpl(
+						moduleName, x, y, WIDTH, HEIGHT);
+
+				modulePoss.put(moduleName, modulePos);
+
+				x += WIDTH + 10;
+			}
+
+			y += 60;
+		}
+
+		// 2. SECOND THOUGHT
+
+		loop: do {
+
+			for (final ModulePositionImpl modulePos : modulePoss
+					.values()) {
+
+				final Collection<String> upstreams = analysis
+						.getDirectUpstreams(modulePos.moduleName);
+
+				if (upstreams.size() != 1) {
+					continue;
+				}
+
+				final String upstream = upstreams.iterator().next();
+
+				// Note: No check on the upstream’s own downstreams here.
+				// Layouts have always been computed this way.
+
+				final ModulePositionImpl upstreamPosition = modulePoss
+						.get(upstream);
+
+				final ModulePositionImpl current = getModulePositionAtXY(
+						modulePoss, upstreamPosition.x, modulePos.y);
+
+				if (current != null && current != modulePos) {
+
+					swapModulePositions(modulePoss, current, modulePos);
+
+					continue loop;
+				}
+			}
+
+		} while (false);
+
+		return modulePoss;
+	}
+
+	/**
+	 * return the grid column of an x position.
+	 */
+	private static int column(final int x) {
+
+		return Math.max(0, Math.round((x - 10) / (float) (WIDTH + 10)));
+	}
+
+	/**
+	 * return the layout computed from the previous positions, see
+	 * {@link #setPreviousPositions(ModulePosition[])}.
+	 *
+	 * @param search if <tt>null</tt>, don’t run the local search.
+	 */
+	private Map<String, ModulePositionImpl> calculateRelayout(
+			@Nullable final Search search) {
+
+		final Map<String, ModulePosition> previousPositions = checkNotNull(
+				this.previousPositions, "previousPositions");
+
+		int columnCount = maxModuleCountOnAnyLevel;
+
+		for (final ModulePosition previousPosition : previousPositions
+				.values()) {
+
+			columnCount = Math.max(columnCount,
+					column(previousPosition.getX()) + 1);
+		}
 
-		for (final Collection<String> modulesOnLevel : analysis
+		final Map<String, ModulePositionImpl> modulePoss = new HashMap<String, ModulePositionImpl>();
+
+		// grid[level][column]: The module name, or null
+
+		final String[][] grid = new String[levelCount][columnCount];
+
+		final List<String> changed = new ArrayList<String>();
+
+		// 1. ANCHORS: MODULES STILL ON THE SAME LEVEL
+
+		int level = 0;
+
+		for (final Iterable<String> modulesOnLevel : analysis
 				.getModuleLevels()) {
 
-			final int moduleCountOnThisLevel = modulesOnLevel.size();
+			final int y = 10 + level * 60;
 
-			if (moduleCountOnThisLevel > maxModuleCountOnAnyLevel) {
+			for (final String moduleName : modulesOnLevel) {
 
-				maxModuleCountOnAnyLevel = moduleCountOnThisLevel;
-			}
-		}
+				final ModulePosition previousPosition = previousPositions
+						.get(moduleName);
 
-		if (maxModuleCountOnAnyLevel < 4) {
+				if (previousPosition != null && previousPosition.getY() == y) {
 
-			return maxModuleCountOnAnyLevel + 1; // give more room
+					final int column = column(previousPosition.getX());
 
-		} else {
+					if (grid[level][column] == null) {
 
-			return maxModuleCountOnAnyLevel;
+						grid[level][column] = moduleName;
+
+						modulePoss.put(moduleName, new ModulePositionImpl(
+								moduleName, 10 + column * (WIDTH + 10), y,
+								WIDTH, HEIGHT));
+
+						continue;
+					}
+				}
+
+				changed.add(moduleName);
+			}
+
+			++level;
 		}
-	}
 
-	private static final int WIDTH = 150; // TODO parameterize this
-	private static final int HEIGHT = 20;
-	private static final int V_SPACE = 40;
+		// 2. CHANGED MODULES: NEXT TO THEIR NEIGHBORS, IN LEVEL ORDER
 
-	/**
-	 * output the SVG diagram to a file.
-	 * 
-	 * @param optimizeTimeoutMs if <tt>0L</tt>, don’t try to optimize the
-	 * diagram; If positive, will try to optimize the diagram for a maximum
-	 * amount of milliseconds; If negative (<tt>-1L</tt>), will not timeout.
-	 */
-	public ModulePosition[] drawTo(final long optimizeTimeoutMs,
-			final File svgFile) throws IOException {
+		for (final String moduleName : changed) {
 
-		final Set<ModulePosition> result = new HashSet<ModulePosition>();
+			final int moduleLevel = analysis.getIndex().getLevel(
+					analysis.getIndex().getModuleId(moduleName));
 
-		new SVGDiagrammer() {
+			double sum = 0.0;
+			int count = 0;
 
-			@Override
-			protected void body() throws Exception {
+			for (final Collection<String> neighbors : Arrays.asList(
+					analysis.getDirectUpstreams(moduleName),
+					analysis.getDirectDownstreams(moduleName))) {
 
-				final Map<String, ModulePositionImpl> modulePoss = new HashMap<String, ModulePositionImpl>();
+				for (final String neighbor : neighbors) {
 
-				int y = 10;
+					final ModulePositionImpl neighborPos = modulePoss
+							.get(neighbor);
 
-				// 1. FIRST DRAFT
+					if (neighborPos != null) {
 
-				for (final Iterable<String> modulesOnLevel : analysis
-						.getModuleLevels()) {
+						sum += neighborPos.x;
+						++count;
+					}
+				}
+			}
 
-					int x = 10;
+			final ModulePosition previousPosition = previousPositions
+					.get(moduleName);
 
-					for (final String moduleName : modulesOnLevel) {
+			final double desiredX = count != 0 ? sum / count
+					: previousPosition != null ? previousPosition.getX() : 10;
 
-						final ModulePositionImpl modulePos = new ModulePositionImpl(
-								moduleName, x, y, WIDTH, HEIGHT);
+			int bestColumn = -1;
 
-						modulePoss.put(moduleName, modulePos);
+			for (int column = 0; column < columnCount; ++column) {
 
-						x += WIDTH + 10;
-					}
+				if (grid[moduleLevel][column] != null) {
+					continue;
+				}
 
-					y += 60;
+				if (bestColumn == -1
+						|| Math.abs(10 + column * (WIDTH + 10) - desiredX) < Math
+								.abs(10 + bestColumn * (WIDTH + 10) - desiredX)) {
+
+					bestColumn = column;
 				}
+			}
 
-				// 2. SECOND THOUGHT
+			grid[moduleLevel][bestColumn] = moduleName;
 
-				loop: do {
+			modulePoss.put(moduleName, new ModulePositionImpl(moduleName,
+					10 + bestColumn * (WIDTH + 10), 10 + moduleLevel * 60,
+					WIDTH, HEIGHT));
+		}
 
-					for (final ModulePositionImpl modulePos : modulePoss
-							.values()) {
+		if (search == null || changed.isEmpty()) {
+			return modulePoss;
+		}
 
-						final Collection<String> upstreams = analysis
-								.getDirectUpstreams(modulePos.moduleName);
+		// 3. LOCAL SEARCH: MOVE OR SWAP MODULES OF THE NEIGHBORHOOD
 
-						if (upstreams.size() != 1) {
-							continue;
-						}
+		final Set<String> neighborhood = new TreeSet<String>(changed);
 
-						final String upstream = upstreams.iterator().next();
+		for (final String moduleName : changed) {
 
-						final Collection<String> downstreams = analysis
-								.getDirectDownstreams(upstream);
+			neighborhood.addAll(analysis.getDirectUpstreams(moduleName));
+			neighborhood.addAll(analysis.getDirectDownstreams(moduleName));
+		}
 
-						if (downstreams.size() != 1) {
-							continue;
-						}
+		DiagramMetrics metrics = calculateMetrics(modulePoss);
 
-						final ModulePositionImpl upstreamPosition = modulePoss
-								.get(upstream);
+		search.improved(modulePoss, metrics);
 
-						final ModulePositionImpl current = getModulePositionAtXY(
-								modulePoss, upstreamPosition.x, modulePos.y);
+		boolean improved = true;
 
-						if (current != null && current != modulePos) {
+		moves: while (improved) {
 
-							swapModulePositions(modulePoss, current, modulePos);
+			improved = false;
 
-							continue loop;
-						}
-					}
+			for (final String moduleName : neighborhood) {
 
-				} while (false);
+				final ModulePositionImpl modulePos = modulePoss.get(moduleName);
 
-				// 3. METRICS
+				final int moduleLevel = (modulePos.y - 10) / 60;
+				final int moduleColumn = column(modulePos.x);
 
-				final DiagramMetrics metrics = calculateMetrics(modulePoss);
+				for (int column = 0; column < columnCount; ++column) {
 
-				System.out.println(metrics);
+					try {
 
-				final Map<String, ModulePositionImpl> modulePoss2 = (optimizeTimeoutMs != 0) ? attainMinimumMetrics(
-						optimizeTimeoutMs, modulePoss) : modulePoss;
+						search.checkpoint();
 
-				final DiagramMetrics metrics2 = calculateMetrics(modulePoss2);
+					} catch (final TimeoutException e) {
 
-				System.out.println(metrics2);
+						System.err.println(search.isCancelled() ? "Cancelled."
+								: "Timeout.");
 
-				// 9. DRAWING
+						break moves;
+					}
 
-				// 9.1. RECTS
+					final String other = grid[moduleLevel][column];
 
-				for (final ModulePositionImpl modulePos : modulePoss2.values()) {
+					if (column == moduleColumn
+							|| (other != null && !neighborhood.contains(other))) {
+						continue;
+					}
 
-					result.add(modulePos);
+					moveInGrid(modulePoss, grid, moduleLevel, moduleColumn,
+							column);
 
-					final String moduleName = modulePos.moduleName;
+					final DiagramMetrics metrics2 = calculateMetrics(modulePoss);
 
-					rect().x(modulePos.x - 0.5).y(modulePos.y - 0.5)
-							.width(modulePos.width).height(modulePos.height)
-							.stroke("#000").fill("#ffc").close();
+					if (metrics2.isBetterThan(metrics)) {
 
-					text(moduleName).x(modulePos.x + modulePos.width / 2)
-							.y(modulePos.y + 13).textAnchor("middle")
-							.fill("#000").fontFamily("Helvetica").fontSize(11).
-							//property("shape-rendering","crispEdges").
-							close();
-				}
+						metrics = metrics2;
 
-				// 9.2. LINES
+						search.improved(modulePoss, metrics);
 
-				for (final Line line : calculateLines(modulePoss2)) {
+						improved = true;
 
-					line().x1(line.x1).y1(line.y1).x2(line.x2).y2(line.y2)
-							.stroke("#000").close();
+						break; // Next module
+
+					} else {
+
+						moveInGrid(modulePoss, grid, moduleLevel, column,
+								moduleColumn);
+					}
 				}
 			}
+		}
 
-		}.addOutputFile(svgFile)
-				.printToSystemOut(false)
-				.run(10 + maxModuleCountOnAnyLevel * (WIDTH + 10),
-						20 + levelCount * HEIGHT + (levelCount - 1) * V_SPACE);
+		return modulePoss;
+	}
 
-		// END
+	/**
+	 * move the module at a given column to another one, swapping it with the
+	 * module there, if any.
+	 */
+	private static void moveInGrid(
+			final Map<String, ModulePositionImpl> modulePoss,
+			final String[][] grid, final int level, final int fromColumn,
+			final int toColumn) {
 
-		return Iterables.toArray(result, ModulePosition.class);
+		final String moduleName = grid[level][fromColumn];
+		final String other = grid[level][toColumn];
+
+		grid[level][toColumn] = moduleName;
+		grid[level][fromColumn] = other;
+
+		modulePoss.put(moduleName, new ModulePositionImpl(
+				modulePoss.get(moduleName), 10 + toColumn * (WIDTH + 10)));
+
+		if (other != null) {
+
+			modulePoss.put(other, new ModulePositionImpl(modulePoss.get(other),
+					10 + fromColumn * (WIDTH + 10)));
+		}
 	}
 
 	@Nullable
@@ -229,7 +1573,7 @@ public class DependencyDiagrammer {
 				modulePos2.moduleName, modulePos1));
 	}
 
-	private static class ModulePositionImpl implements ModulePosition {
+	static class ModulePositionImpl implements ModulePosition {
 
 		public final String moduleName;
 		public final int x;
@@ -315,42 +1659,28 @@ public class DependencyDiagrammer {
 		}
 	}
 
-	private DiagramMetrics calculateMetrics(
+	DiagramMetrics calculateMetrics(
 			final Map<String, ModulePositionImpl> modulePoss) {
 
-		int howManyLinesCross = 0;
-		double slopeScore = 0.0;
-
-		final Iterable<Line> lines = calculateLines(modulePoss);
-
-		for (final Line line1 : lines) {
+		final LayoutMetrics layoutMetrics = this.layoutMetrics;
 
-			final int line1_dx = line1.x2 - line1.x1;
+		final long startNanos = layoutMetrics == null ? 0L : System.nanoTime();
 
-			slopeScore += (line1_dx * line1_dx);
-
-			for (final Line line2 : lines) {
+		final int howManyLinesCross;
+		double slopeScore = 0.0;
 
-				if (linesCross(line1, line2)) {
+		final List<Line> lines = calculateLines(modulePoss);
 
-					if (!linesCross(line2, line1)) {
-						throw new RuntimeException("Lines should cross: "
-								+ line1 + ", " + line2);
-					}
+		final long linesNanos = layoutMetrics == null ? 0L : System.nanoTime();
 
-					++howManyLinesCross;
+		for (final Line line : lines) {
 
-				} else { // => (!linesCross(line1, line2))
+			final int dx = line.x2 - line.x1;
 
-					if (linesCross(line2, line1)) {
-						throw new RuntimeException("Lines should not cross: "
-								+ line1 + ", " + line2);
-					}
-				}
-			}
+			slopeScore += (dx * dx);
 		}
 
-		howManyLinesCross /= 2; // Because each line was parsed as 1 and 2 
+		howManyLinesCross = countCrossings(lines);
 
 		double xWeight = 0.0;
 
@@ -359,141 +1689,154 @@ public class DependencyDiagrammer {
 		//	xWeight += modulePos.x * modulePos.x;
 		//}
 
-		return new DiagramMetrics(howManyLinesCross, slopeScore, xWeight);
-	}
-
-	private static boolean signumsEqual(final double dx1, final double dx2) {
+		double stabilityScore = 0.0;
 
-		if (dx1 == 0 || dx2 == 0) {
+		if (previousPositions != null) {
 
-			return true;
-		}
+			for (final ModulePositionImpl modulePos : modulePoss.values()) {
 
-		return Math.signum(dx1) == Math.signum(dx2);
-	}
+				final ModulePosition previousPosition = previousPositions
+						.get(modulePos.moduleName);
 
-	/**
-	 * return a weight, or 0.0 if the lines do not cross.
-	 */
-	static boolean linesCross(final Line line1, final Line line2) {
+				if (previousPosition != null) {
 
-		if (line1 == line2 || line1.y2 <= line2.y1 || line2.y2 <= line1.y1) {
-			return false;
+					stabilityScore += Math.abs(modulePos.x
+							- previousPosition.getX())
+							/ (double) (WIDTH + 10);
+				}
+			}
 		}
 
-		if (line1.equals(line2)) {
-
-			return true;
-
-		} else if (line1.x1 == line2.x1 && line1.y1 == line2.y1) {
-
-			return line1.hasSameSlope(line2);
-
-		} else if (line1.x2 == line2.x2 && line1.y2 == line2.y2) {
-
-			return line1.hasSameSlope(line2);
-
-		} else if (line1.y1 == line2.y1) {
+		if (layoutMetrics != null) {
 
-			if (line1.y2 == line2.y2) {
+			final long endNanos = System.nanoTime();
 
-				return signumsEqual(line1.x1 - line2.x1, line2.x2 - line1.x2);
+			final long lineCount = lines.size();
 
-			} else if (line1.y2 > line2.y2) {
-
-				final double extrapLine1_x2 = line1.x1 + (line1.x2 - line1.x1)
-						* (line2.y2 - line2.y1)
-						/ (double) (line1.y2 - line1.y1);
-
-				return signumsEqual(line1.x1 - line2.x1, line2.x2
-						- extrapLine1_x2);
-
-			} else { // => (line2.y2 > line1.y2)
-
-				final double extrapLine2_x2 = line2.x1 + (line2.x2 - line2.x1)
-						* (line1.y2 - line2.y1)
-						/ (double) (line2.y2 - line2.y1);
+			layoutMetrics.metricsCalculated(endNanos - startNanos, lineCount
+					* (lineCount - 1) / 2, endNanos - linesNanos);
+		}
 
-				return signumsEqual(line1.x1 - line2.x1, extrapLine2_x2
-						- line1.x2);
-			}
+		return new DiagramMetrics(howManyLinesCross, stabilityScore,
+				slopeScore, xWeight);
+	}
 
-		} else if (line1.y2 == line2.y2) {
+	/**
+	 * return <tt>true</tt> if the lines cross, or touch.
+	 */
+	static boolean linesCross(final Line line1, final Line line2) {
 
-			if (line1.y1 > line2.y1) {
+		if (line1 == line2) {
+			return false;
+		}
 
-				final double extrapLine2_x1 = line2.x2 - (line2.x2 - line2.x1)
-						* (line1.y2 - line2.y1)
-						/ (double) (line2.y2 - line2.y1);
+		return linesCross(line1.x1, line1.y1, line1.x2, line1.y2, line2.x1,
+				line2.y1, line2.x2, line2.y2);
+	}
 
-				return signumsEqual(line1.x1 - extrapLine2_x1, line2.x2
-						- line1.x2);
+	/**
+	 * return <tt>true</tt> if the lines <tt>a</tt> and <tt>b</tt> cross, or
+	 * touch, on the y range they have in common. Each line goes from its
+	 * top, <tt>(x1,y1)</tt>, to its bottom, <tt>(x2,y2)</tt>, with
+	 * <tt>y1 &lt; y2</tt>.
+	 * <p>
+	 * The lines cross if the order of their x’s at the top of the common
+	 * range differs from their order at the bottom. The x’s are compared
+	 * exactly, by cross-multiplying with the lines’ heights in
+	 * <tt>long</tt> arithmetic, which cannot overflow for coordinates
+	 * below 2<sup>20</sup>. Special rules:
+	 * <ul>
+	 * <li>lines that share an end point only cross if they overlap;
+	 * <li>lines that end on the same y are compared by the x’s of their
+	 * tops, wherever their tops are.
+	 * </ul>
+	 */
+	static boolean linesCross(final int ax1, final int ay1, final int ax2,
+			final int ay2, final int bx1, final int by1, final int bx2,
+			final int by2) {
 
-			} else { // => (line2.y1 > line1.y1)
+		if (ay2 <= by1 || by2 <= ay1) {
+			return false; // No y in common
+		}
 
-				final double extrapLine1_x1 = line1.x2 - (line1.x2 - line1.x1)
-						* (line2.y2 - line1.y1)
-						/ (double) (line1.y2 - line1.y1);
+		final long ady = ay2 - ay1;
+		final long bdy = by2 - by1;
+		final long adx = ax2 - ax1;
+		final long bdx = bx2 - bx1;
 
-				return signumsEqual(extrapLine1_x1 - line2.x1, line2.x2
-						- line1.x2);
-			}
+		final int top = Math.max(ay1, by1);
+		final int bottom = Math.min(ay2, by2);
 
-		} else if (line1.y1 > line2.y1 && line2.y2 > line1.y1
-				&& line1.y2 > line2.y2) {
+		// signum(xa - xb) at a given y is the signum of:
+		// (ax1 * ady + adx * (y - ay1)) * bdy - (bx1 * bdy + bdx * (y - by1)) * ady
 
-			final double extrapLine1_x2 = line1.x1 + (line1.x2 - line1.x1)
-					* (line2.y2 - line1.y1) / (double) (line1.y2 - line1.y1);
+		final int atTop = Long.signum((ax1 * ady + adx * (top - ay1)) * bdy
+				- (bx1 * bdy + bdx * (top - by1)) * ady);
 
-			final double extrapLine2_x1 = line2.x2 - (line2.x2 - line2.x1)
-					* (line2.y2 - line1.y1) / (double) (line2.y2 - line2.y1);
+		final int atBottom = Long.signum((ax1 * ady + adx * (bottom - ay1))
+				* bdy - (bx1 * bdy + bdx * (bottom - by1)) * ady);
 
-			return signumsEqual(line1.x1 - extrapLine2_x1, line2.x2
-					- extrapLine1_x2);
+		if (ax1 == bx1 && ay1 == by1) {
+			return atBottom == 0; // Same top: Overlap?
+		}
 
-		} else if (line2.y1 > line1.y1 && line1.y2 > line2.y1
-				&& line2.y2 > line1.y2) {
+		if (ax2 == bx2 && ay2 == by2) {
+			return atTop == 0; // Same bottom: Overlap?
+		}
 
-			final double extrapLine2_x2 = line2.x1 + (line2.x2 - line2.x1)
-					* (line1.y2 - line2.y1) / (double) (line2.y2 - line2.y1);
+		final int tops = (ay2 == by2) ? Integer.signum(ax1 - bx1) : atTop;
 
-			final double extrapLine1_x1 = line1.x2 - (line1.x2 - line1.x1)
-					* (line1.y2 - line2.y1) / (double) (line1.y2 - line1.y1);
+		return tops * atBottom <= 0;
+	}
 
-			return signumsEqual(extrapLine1_x1 - line2.x1, extrapLine2_x2
-					- line1.x2);
+	/**
+	 * return how many pairs of lines cross, see
+	 * {@link #linesCross(Line, Line)}. The lines are first copied into
+	 * plain <tt>int</tt> arrays, and each pair is tested once.
+	 */
+	static int countCrossings(final List<Line> lines) {
 
-		} else if (line1.y1 > line2.y1 && line2.y2 > line1.y2) {
+		final int n = lines.size();
 
-			final double extrapLine2_x1 = line2.x1 + (line2.x2 - line2.x1)
-					* (line1.y1 - line2.y1) / (double) (line2.y2 - line2.y1);
+		final int[] x1s = new int[n];
+		final int[] y1s = new int[n];
+		final int[] x2s = new int[n];
+		final int[] y2s = new int[n];
 
-			final double extrapLine2_x2 = line2.x2 - (line2.x2 - line2.x1)
-					* (line2.y2 - line1.y2) / (double) (line2.y2 - line2.y1);
+		for (int i = 0; i < n; ++i) {
 
-			return signumsEqual(line1.x1 - extrapLine2_x1, extrapLine2_x2
-					- line1.x2);
+			final Line line = lines.get(i);
 
-		} else if (line2.y1 > line1.y1 && line1.y2 > line2.y2) {
+			x1s[i] = line.x1;
+			y1s[i] = line.y1;
+			x2s[i] = line.x2;
+			y2s[i] = line.y2;
+		}
 
-			final double extrapLine1_x1 = line1.x1 + (line1.x2 - line1.x1)
-					* (line2.y1 - line1.y1) / (double) (line1.y2 - line1.y1);
+		int count = 0;
 
-			final double extrapLine1_x2 = line1.x2 - (line1.x2 - line1.x1)
-					* (line1.y2 - line2.y2) / (double) (line1.y2 - line1.y1);
+		for (int i = 0; i < n; ++i) {
 
-			return signumsEqual(line2.x1 - extrapLine1_x1, extrapLine1_x2
-					- line2.x2);
+			final int x1 = x1s[i];
+			final int y1 = y1s[i];
+			final int x2 = x2s[i];
+			final int y2 = y2s[i];
 
-		} else {
+			for (int j = i + 1; j < n; ++j) {
 
-			throw new NotImplementedException(line1 + ", " + line2);
+				if (linesCross(x1, y1, x2, y2, x1s[j], y1s[j], x2s[j], y2s[j])) {
+					++count;
+				}
+			}
 		}
+
+		return count;
 	}
 
-	private static class DiagramMetrics {
+	static class DiagramMetrics {
 
 		public final int howManyLinesCross;
+		public final double stabilityScore;
 		public final double slopeScore;
 		public final double xWeight;
 
@@ -502,7 +1845,22 @@ public class DependencyDiagrammer {
 				final double slopeScore,
 				final double xWeight) {
 
+			this(howManyLinesCross, 0.0, slopeScore, xWeight);
+		}
+
+		/**
+		 * @param stabilityScore how far modules moved from their previous
+		 * positions, in columns. Always <tt>0.0</tt> if there are no
+		 * previous positions.
+		 */
+		public DiagramMetrics(
+				final int howManyLinesCross,
+				final double stabilityScore,
+				final double slopeScore,
+				final double xWeight) {
+
 			this.howManyLinesCross = howManyLinesCross;
+			this.stabilityScore = stabilityScore;
 			this.slopeScore = slopeScore;
 			this.xWeight = xWeight;
 		}
@@ -511,8 +1869,9 @@ public class DependencyDiagrammer {
 		public String toString() {
 
 			return "{howManyLinesCross: " + howManyLinesCross
-					+ ", slopeScore: " + slopeScore + ", xWeight: " + xWeight
-					+ "}";
+					+ (stabilityScore != 0.0 ? ", stabilityScore: "
+							+ stabilityScore : "") + ", slopeScore: "
+					+ slopeScore + ", xWeight: " + xWeight + "}";
 		}
 
 		public boolean hasLessLineCrossingsThan(final DiagramMetrics metrics2) {
@@ -528,7 +1887,15 @@ public class DependencyDiagrammer {
 
 			} else if (howManyLinesCross == metrics2.howManyLinesCross) {
 
-				if (slopeScore < metrics2.slopeScore) {
+				if (stabilityScore < metrics2.stabilityScore) {
+
+					return true;
+
+				} else if (stabilityScore > metrics2.stabilityScore) {
+
+					return false;
+
+				} else if (slopeScore < metrics2.slopeScore) {
 
 					return true;
 
@@ -545,7 +1912,7 @@ public class DependencyDiagrammer {
 		}
 	}
 
-	private Iterable<Line> calculateLines(
+	private List<Line> calculateLines(
 			final Map<String, ModulePositionImpl> modulePoss) {
 
 		final List<Line> lines = new ArrayList<Line>();
@@ -625,20 +1992,197 @@ public class DependencyDiagrammer {
 			return x1 == line.x1 && y1 == line.y1 && x2 == line.x2
 					&& y2 == line.y2;
 		}
+	}
+
+	/**
+	 * the state of a running search, shared with the threads that may
+	 * cancel it, or ask for its best result so far.
+	 */
+	private static final class Search {
+
+		/**
+		 * how many nodes are visited between two reads of the clock. Must
+		 * be a power of 2.
+		 */
+		static final int CHECK_INTERVAL = 64;
+
+		private final long optimizeTimeoutMs;
+
+		@Nullable
+		private final LayoutListener listener;
+
+		private long deadlineNanos;
+
+		private int nodeCount = 0;
+
+		private volatile boolean cancelled = false;
+
+		@Nullable
+		private final Search parent;
+
+		@Nullable
+		private volatile ModulePosition[] bestSoFar = null;
+
+		public Search(
+				final long optimizeTimeoutMs,
+				@Nullable final LayoutListener listener) {
+
+			this.optimizeTimeoutMs = optimizeTimeoutMs;
+			this.listener = listener;
+
+			parent = null;
+		}
+
+		private Search(final Search parent) {
+
+			optimizeTimeoutMs = parent.optimizeTimeoutMs;
+			deadlineNanos = parent.deadlineNanos;
+			listener = null;
+
+			this.parent = parent;
+		}
+
+		/**
+		 * return a search for a part of the graph, with the same deadline,
+		 * cancelled with this one, and not reporting to the listener.
+		 */
+		public Search forComponent() {
+
+			return new Search(this);
+		}
+
+		public boolean isCancelled() {
+
+			return cancelled || (parent != null && parent.isCancelled());
+		}
+
+		public Search start() {
+
+			deadlineNanos = System.nanoTime() + optimizeTimeoutMs * 1000000L;
+
+			return this;
+		}
+
+		/**
+		 * throw a {@link TimeoutException} if the search was cancelled, or
+		 * if the deadline has passed.
+		 */
+		public void checkpoint() throws TimeoutException {
+
+			if (isCancelled()) {
+				throw new TimeoutException("Cancelled");
+			}
+
+			if (optimizeTimeoutMs > 0
+					&& (++nodeCount & (CHECK_INTERVAL - 1)) == 0
+					&& System.nanoTime() - deadlineNanos > 0) {
+
+				throw new TimeoutException();
+			}
+		}
 
-		public boolean hasSameSlope(final Line line) {
+		public void improved(final Map<String, ModulePositionImpl> modulePoss,
+				final DiagramMetrics metrics) {
 
-			checkNotNull(line, "line");
+			final ModulePosition[] positions = modulePoss.values().toArray(
+					new ModulePosition[modulePoss.size()]);
 
-			return (line.x2 - line.x1) * (y2 - y1) == (x2 - x1)
-					* (line.y2 - line.y1);
+			bestSoFar = positions;
+
+			if (listener != null) {
+				listener.improved(positions, metrics.howManyLinesCross);
+			}
 		}
 	}
 
-	private Map<String, ModulePositionImpl> attainMinimumMetrics(
+	/**
+	 * a layout computation, that can be run by any {@link Executor},
+	 * cancelled, and asked for its best result so far.
+	 */
+	public static final class LayoutTask extends FutureTask<ModulePosition[]> {
+
+		private final Search search;
+
+		private LayoutTask(
+				final Search search,
+				final Callable<ModulePosition[]> callable) {
+
+			super(callable);
+
+			this.search = search;
+		}
+
+		/**
+		 * cancel the task. The search stops at its next checkpoint, and
+		 * {@link #getBestSoFar()} keeps the best layout found.
+		 */
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+
+			search.cancelled = true;
+
+			return super.cancel(mayInterruptIfRunning);
+		}
+
+		/**
+		 * return the best layout found so far, or <tt>null</tt> if the task
+		 * has not started yet.
+		 */
+		@Nullable
+		public ModulePosition[] getBestSoFar() {
+
+			return search.bestSoFar;
+		}
+	}
+
+	/**
+	 * return a task that computes the layout, the same way
+	 * {@link #drawTo(long, File)} does, without drawing it. To draw the
+	 * result, pass it to {@link #setPreviousPositions(ModulePosition[])},
+	 * then call {@link #drawTo(long, File)} with <tt>0L</tt>.
+	 * <p>
+	 * The timeout starts when the task runs, not when it is created. A
+	 * diagrammer should run one task at a time.
+	 *
+	 * @param listener if not <tt>null</tt>, notified of each better layout,
+	 * in the thread running the task.
+	 */
+	public LayoutTask newLayoutTask(final long optimizeTimeoutMs,
+			@Nullable final LayoutListener listener) {
+
+		final Search search = new Search(optimizeTimeoutMs, listener);
+
+		return new LayoutTask(search, new Callable<ModulePosition[]>() {
+
+			@Override
+			public ModulePosition[] call() throws Exception {
+
+				final Map<String, ModulePositionImpl> modulePoss = calculateLayout(search
+						.start());
+
+				return modulePoss.values().toArray(
+						new ModulePosition[modulePoss.size()]);
+			}
+		});
+	}
+
+	Map<String, ModulePositionImpl> attainMinimumMetrics(
 			final long optimizeTimeoutMs,
 			final Map<String, ModulePositionImpl> modulePoss) {
 
+		return attainMinimumMetrics(new Search(optimizeTimeoutMs, null).start(),
+				modulePoss, true);
+	}
+
+	/**
+	 * @param gaps if <tt>false</tt>, only search the order of modules
+	 * within each level, packed to the left.
+	 */
+	private Map<String, ModulePositionImpl> attainMinimumMetrics(
+			final Search search,
+			final Map<String, ModulePositionImpl> modulePoss,
+			final boolean gaps) {
+
 		final AtomicStampedReference<DiagramMetrics> metrics = new AtomicStampedReference<DiagramMetrics>(
 				calculateMetrics(modulePoss), 0);
 
@@ -670,34 +2214,55 @@ public class DependencyDiagrammer {
 
 		final Integer[][] posGrid = new Integer[levelCount][maxModuleCountOnAnyLevel];
 
-		final long maxSystemTimeMs = optimizeTimeoutMs <= 0 ? 0L : (System
-				.currentTimeMillis() + optimizeTimeoutMs);
-
 		count = 0;
 
+		searchStartNanos = System.nanoTime();
+
+		final long startAllocatedBytes = layoutMetrics == null ? -1L
+				: LayoutMetrics.currentThreadAllocatedBytes();
+
+		boolean timeout = false;
+
 		try {
 
-			parse(maxSystemTimeMs, modulePosArray, posGrid, 0, 0, metrics,
+			parse(search, gaps, modulePosArray, posGrid, 0, 0, metrics,
 					placeHolder);
 
 		} catch (final TimeoutException e) {
 
-			System.err.println("Timeout.");
+			timeout = true;
+
+			System.err.println(search.isCancelled() ? "Cancelled." : "Timeout.");
+		}
+
+		final LayoutMetrics layoutMetrics = this.layoutMetrics;
+
+		if (layoutMetrics != null) {
+
+			layoutMetrics.searchEnded(System.nanoTime() - searchStartNanos,
+					startAllocatedBytes < 0 ? -1L : LayoutMetrics
+							.currentThreadAllocatedBytes()
+							- startAllocatedBytes, timeout);
 		}
 
-		System.out.println(count + ". Done.");
+		if (!quiet) {
+			System.out.println(count + ". Done.");
+		}
 
 		return placeHolder.getReference();
 	}
 
 	private int count = 0;
 
-	private static final int DELAY = 4000;
+	private long searchStartNanos;
 
-	private long next = System.currentTimeMillis() + DELAY;
+	private static final long DELAY_NANOS = 4000000000L;
+
+	private long next = System.nanoTime() + DELAY_NANOS;
 
 	private void parse(
-			final long maxSystemTimeMs,
+			final Search search,
+			final boolean gaps,
 			final ModulePositionImpl[][] modulePosArray,
 			final Integer[][] posGrid,
 			final int level,
@@ -705,21 +2270,24 @@ public class DependencyDiagrammer {
 			final AtomicStampedReference<DiagramMetrics> metrics,
 			final AtomicStampedReference<Map<String, ModulePositionImpl>> placeHolder) throws TimeoutException {
 
-		if (maxSystemTimeMs != 0
-				&& System.currentTimeMillis() > maxSystemTimeMs) {
+		search.checkpoint();
 
-			throw new TimeoutException(); // timeout
-		}
+		final LayoutMetrics layoutMetrics = this.layoutMetrics;
 
 		if (level >= levelCount) {
 
 			++count;
 
-			if (System.currentTimeMillis() > next) {
+			if (layoutMetrics != null) {
+				layoutMetrics.leafEvaluated();
+			}
+
+			if (!quiet && (count & (Search.CHECK_INTERVAL - 1)) == 0
+					&& System.nanoTime() - next > 0) {
 
 				System.out.println(count + "...");
 
-				next = System.currentTimeMillis() + DELAY;
+				next = System.nanoTime() + DELAY_NANOS;
 			}
 
 			final Map<String, ModulePositionImpl> modulePoss2 = new HashMap<String, ModulePositionImpl>();
@@ -746,11 +2314,20 @@ public class DependencyDiagrammer {
 
 			if (metrics2.isBetterThan(metrics.getReference())) {
 
-				System.out.println(metrics2);
+				if (!quiet) {
+					System.out.println(metrics2);
+				}
+
+				if (layoutMetrics != null) {
+					layoutMetrics.improved(metrics2, System.nanoTime()
+							- searchStartNanos);
+				}
 
 				metrics.set(metrics2, metrics.getStamp() + 1);
 
 				placeHolder.set(modulePoss2, placeHolder.getStamp() + 1);
+
+				search.improved(modulePoss2, metrics2);
 			}
 
 			return;
@@ -758,7 +2335,7 @@ public class DependencyDiagrammer {
 
 		if (i >= maxModuleCountOnAnyLevel) {
 
-			parse(maxSystemTimeMs, modulePosArray, posGrid, level + 1, 0,
+			parse(search, gaps, modulePosArray, posGrid, level + 1, 0,
 					metrics, placeHolder);
 
 			return;
@@ -796,9 +2373,17 @@ public class DependencyDiagrammer {
 
 		if (metrics.getReference().hasLessLineCrossingsThan(partialMetrics)) {
 
+			if (layoutMetrics != null) {
+				layoutMetrics.nodePruned();
+			}
+
 			return;
 		}
 
+		if (layoutMetrics != null) {
+			layoutMetrics.nodeExpanded();
+		}
+
 		final List<Integer> remaining = new ArrayList<Integer>();
 
 		for (int j = 0; j < modulePosArray[level].length; ++j) {
@@ -822,8 +2407,9 @@ public class DependencyDiagrammer {
 			}
 		}
 
-		if (howManyNulls < maxModuleCountOnAnyLevel
-				- modulePosArray[level].length) {
+		if (remaining.isEmpty()
+				|| (gaps && howManyNulls < maxModuleCountOnAnyLevel
+						- modulePosArray[level].length)) {
 
 			remaining.add(-1);
 		}
@@ -832,7 +2418,7 @@ public class DependencyDiagrammer {
 
 			posGrid[level][i] = (r == -1) ? null : r;
 
-			parse(maxSystemTimeMs, modulePosArray, posGrid, level, i + 1,
+			parse(search, gaps, modulePosArray, posGrid, level, i + 1,
 					metrics, placeHolder);
 		}
 	}
@@ -0,0 +1,471 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * This class holds the differences between two analyzed dependency graphs,
+ * “before” and “after”: Added and removed modules, added and removed
+ * declared edges, added and removed direct edges (those drawn in the
+ * diagrams, see {@link DependencyAnalysis#getDirectUpstreams(String)}),
+ * and modules whose level changed.
+ * <p>
+ * Modules are matched by name. Names are looked up once per module, then
+ * all comparisons are merges of the sorted integer rows of the two
+ * {@link DependencyIndex}es. When both indexes give the same ids to the
+ * same names, for instance two snapshots of a graph whose edges changed
+ * but whose modules stay on their levels, no name is looked up at all,
+ * and rows are compared as they are, so that an unchanged module costs a
+ * few integer comparisons, without any allocation.
+ * <p>
+ * Either way, the diff is linear in the size of the graphs, not in the
+ * size of the changes: All modules and edges are compared.
+ * <p>
+ * A diff can be rendered over the “after” diagram, see
+ * {@link DependencyDiagrammer#setDiff(DependencyDiff)}.
+ */
+public final class DependencyDiff {
+
+	private final List<String> addedModules = new ArrayList<String>();
+	private final List<String> removedModules = new ArrayList<String>();
+	private final List<Edge> addedEdges = new ArrayList<Edge>();
+	private final List<Edge> removedEdges = new ArrayList<Edge>();
+	private final List<Edge> addedDirectEdges = new ArrayList<Edge>();
+	private final List<Edge> removedDirectEdges = new ArrayList<Edge>();
+	private final List<LevelChange> levelChanges = new ArrayList<LevelChange>();
+
+	private DependencyDiff() {
+
+	}
+
+	/**
+	 * a dependency: <tt>downstream</tt> depends on <tt>upstream</tt>.
+	 */
+	public static final class Edge implements Comparable<Edge> {
+
+		public final String upstream;
+		public final String downstream;
+
+		public Edge(final String upstream, final String downstream) {
+
+			this.upstream = checkNotNull(upstream, "upstream");
+			this.downstream = checkNotNull(downstream, "downstream");
+		}
+
+		@Override
+		public int compareTo(final Edge edge) {
+
+			final int c = downstream.compareTo(edge.downstream);
+
+			return c != 0 ? c : upstream.compareTo(edge.upstream);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return downstream.hashCode() * 31 + upstream.hashCode();
+		}
+
+		@Override
+		public boolean equals(@Nullable final Object o) {
+
+			if (o == null || !Edge.class.equals(o.getClass())) {
+				return false;
+			}
+
+			final Edge edge = (Edge) o;
+
+			return upstream.equals(edge.upstream)
+					&& downstream.equals(edge.downstream);
+		}
+
+		@Override
+		public String toString() {
+
+			return downstream + " -> " + upstream;
+		}
+	}
+
+	/**
+	 * a module present before and after, whose level changed.
+	 */
+	public static final class LevelChange implements Comparable<LevelChange> {
+
+		public final String moduleName;
+		public final int levelBefore;
+		public final int levelAfter;
+
+		public LevelChange(
+				final String moduleName,
+				final int levelBefore,
+				final int levelAfter) {
+
+			this.moduleName = checkNotNull(moduleName, "moduleName");
+			this.levelBefore = levelBefore;
+			this.levelAfter = levelAfter;
+		}
+
+		@Override
+		public int compareTo(final LevelChange levelChange) {
+
+			return moduleName.compareTo(levelChange.moduleName);
+		}
+
+		@Override
+		public String toString() {
+
+			return moduleName + ": " + levelBefore + " -> " + levelAfter;
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     COMPUTATION
+	// -------------------------------------------------------------------------
+
+	public static DependencyDiff compute(final DependencyAnalysis before,
+			final DependencyAnalysis after) {
+
+		checkNotNull(before, "before");
+		checkNotNull(after, "after");
+
+		return compute(before.getIndex(), after.getIndex());
+	}
+
+	public static DependencyDiff compute(final DependencyIndex before,
+			final DependencyIndex after) {
+
+		checkNotNull(before, "before");
+		checkNotNull(after, "after");
+
+		final DependencyDiff diff = new DependencyDiff();
+
+		if (before.hasSameIds(after)) {
+
+			computeWithSameIds(before, after, diff);
+
+		} else {
+
+			computeByNames(before, after, diff);
+		}
+
+		Collections.sort(diff.addedModules);
+		Collections.sort(diff.removedModules);
+		Collections.sort(diff.addedEdges);
+		Collections.sort(diff.removedEdges);
+		Collections.sort(diff.addedDirectEdges);
+		Collections.sort(diff.removedDirectEdges);
+		Collections.sort(diff.levelChanges);
+
+		return diff;
+	}
+
+	/**
+	 * compute a diff between two indexes that give the same ids to the same
+	 * names: No module is added or removed, and rows are merged as they
+	 * are, since they are sorted by the same ids.
+	 */
+	private static void computeWithSameIds(final DependencyIndex before,
+			final DependencyIndex after, final DependencyDiff diff) {
+
+		for (int id = 0; id < after.size(); ++id) {
+
+			diffSameIdRows(before.upOffsets, before.upTargets,
+					after.upOffsets, after.upTargets, after, id,
+					diff.addedEdges, diff.removedEdges);
+
+			diffSameIdRows(before.directUpOffsets, before.directUpTargets,
+					after.directUpOffsets, after.directUpTargets, after, id,
+					diff.addedDirectEdges, diff.removedDirectEdges);
+
+			if (before.getLevel(id) != after.getLevel(id)) {
+
+				diff.levelChanges.add(new LevelChange(after.getModuleName(id),
+						before.getLevel(id), after.getLevel(id)));
+			}
+		}
+	}
+
+	private static void diffSameIdRows(final IntBuffer beforeOffsets,
+			final IntBuffer beforeTargets, final IntBuffer afterOffsets,
+			final IntBuffer afterTargets, final DependencyIndex after,
+			final int id, final List<Edge> added, final List<Edge> removed) {
+
+		int i = afterOffsets.get(id);
+		int j = beforeOffsets.get(id);
+
+		final int afterEnd = afterOffsets.get(id + 1);
+		final int beforeEnd = beforeOffsets.get(id + 1);
+
+		// Unchanged row: Nothing but integer comparisons
+
+		if (afterEnd - i == beforeEnd - j) {
+
+			int k = 0;
+
+			while (i + k < afterEnd
+					&& afterTargets.get(i + k) == beforeTargets.get(j + k)) {
+				++k;
+			}
+
+			if (i + k == afterEnd) {
+				return;
+			}
+		}
+
+		final String downstream = after.getModuleName(id);
+
+		while (i < afterEnd || j < beforeEnd) {
+
+			final int u = i < afterEnd ? afterTargets.get(i)
+					: Integer.MAX_VALUE;
+
+			final int v = j < beforeEnd ? beforeTargets.get(j)
+					: Integer.MAX_VALUE;
+
+			if (u == v) {
+
+				++i;
+				++j;
+
+			} else if (u < v) {
+
+				added.add(new Edge(after.getModuleName(u), downstream));
+
+				++i;
+
+			} else {
+
+				removed.add(new Edge(after.getModuleName(v), downstream));
+
+				++j;
+			}
+		}
+	}
+
+	private static void computeByNames(final DependencyIndex before,
+			final DependencyIndex after, final DependencyDiff diff) {
+
+		// 1. MATCH MODULES BY NAME
+
+		final int[] afterToBefore = new int[after.size()];
+		final boolean[] matched = new boolean[before.size()];
+
+		for (int a = 0; a < after.size(); ++a) {
+
+			final int b = before.getModuleId(after.getModuleName(a));
+
+			afterToBefore[a] = b;
+
+			if (b == -1) {
+
+				diff.addedModules.add(after.getModuleName(a));
+
+			} else {
+
+				matched[b] = true;
+			}
+		}
+
+		for (int b = 0; b < before.size(); ++b) {
+
+			if (!matched[b]) {
+				diff.removedModules.add(before.getModuleName(b));
+			}
+		}
+
+		// 2. COMPARE ROWS AND LEVELS
+
+		for (int a = 0; a < after.size(); ++a) {
+
+			final int b = afterToBefore[a];
+
+			diffRows(before, after, afterToBefore, a, b, false,
+					diff.addedEdges, diff.removedEdges);
+
+			diffRows(before, after, afterToBefore, a, b, true,
+					diff.addedDirectEdges, diff.removedDirectEdges);
+
+			if (b != -1 && before.getLevel(b) != after.getLevel(a)) {
+
+				diff.levelChanges.add(new LevelChange(after.getModuleName(a),
+						before.getLevel(b), after.getLevel(a)));
+			}
+		}
+
+		// 3. EDGES OF REMOVED MODULES
+
+		for (int b = 0; b < before.size(); ++b) {
+
+			if (matched[b]) {
+				continue;
+			}
+
+			final String downstream = before.getModuleName(b);
+
+			for (int k = 0; k < before.getUpstreamCount(b); ++k) {
+
+				diff.removedEdges.add(new Edge(before.getModuleName(before
+						.getUpstream(b, k)), downstream));
+			}
+
+			for (int k = 0; k < before.getDirectUpstreamCount(b); ++k) {
+
+				diff.removedDirectEdges.add(new Edge(before
+						.getModuleName(before.getDirectUpstream(b, k)),
+						downstream));
+			}
+		}
+	}
+
+	/**
+	 * compare the upstream rows of module <tt>a</tt> (after) and
+	 * <tt>b</tt> (before, or <tt>-1</tt> if the module was added).
+	 */
+	private static void diffRows(final DependencyIndex before,
+			final DependencyIndex after, final int[] afterToBefore,
+			final int a, final int b, final boolean direct,
+			final List<Edge> added, final List<Edge> removed) {
+
+		final int afterCount = direct ? after.getDirectUpstreamCount(a)
+				: after.getUpstreamCount(a);
+
+		final int beforeCount = b == -1 ? 0 : direct ? before
+				.getDirectUpstreamCount(b) : before.getUpstreamCount(b);
+
+		// Upstreams, as (“before” id + 1) << 32 | “after” id, sorted by
+		// “before” id. New upstreams have no “before” id, and come first.
+
+		final long[] mapped = new long[afterCount];
+
+		for (int k = 0; k < afterCount; ++k) {
+
+			final int upstream = direct ? after.getDirectUpstream(a, k)
+					: after.getUpstream(a, k);
+
+			mapped[k] = ((long) (afterToBefore[upstream] + 1) << 32)
+					| upstream;
+		}
+
+		Arrays.sort(mapped);
+
+		final String downstream = after.getModuleName(a);
+
+		int i = 0;
+		int j = 0;
+
+		while (i < afterCount || j < beforeCount) {
+
+			final int u = i < afterCount ? (int) (mapped[i] >>> 32) - 1
+					: Integer.MAX_VALUE;
+
+			final int v = j < beforeCount ? (direct ? before
+					.getDirectUpstream(b, j) : before.getUpstream(b, j))
+					: Integer.MAX_VALUE;
+
+			if (u == v) {
+
+				++i;
+				++j;
+
+			} else if (u < v) {
+
+				added.add(new Edge(after.getModuleName((int) mapped[i]),
+						downstream));
+
+				++i;
+
+			} else {
+
+				removed.add(new Edge(before.getModuleName(v), downstream));
+
+				++j;
+			}
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     REPORT
+	// -------------------------------------------------------------------------
+
+	public boolean isEmpty() {
+
+		return addedModules.isEmpty() && removedModules.isEmpty()
+				&& addedEdges.isEmpty() && removedEdges.isEmpty()
+				&& addedDirectEdges.isEmpty() && removedDirectEdges.isEmpty()
+				&& levelChanges.isEmpty();
+	}
+
+	public List<String> getAddedModules() {
+
+		return Collections.unmodifiableList(addedModules);
+	}
+
+	public List<String> getRemovedModules() {
+
+		return Collections.unmodifiableList(removedModules);
+	}
+
+	/**
+	 * return the declared edges present after, but not before.
+	 */
+	public List<Edge> getAddedEdges() {
+
+		return Collections.unmodifiableList(addedEdges);
+	}
+
+	public List<Edge> getRemovedEdges() {
+
+		return Collections.unmodifiableList(removedEdges);
+	}
+
+	/**
+	 * return the direct edges present after, but not before. A direct edge
+	 * may appear without any declared edge being added, when an
+	 * intermediate module is removed.
+	 */
+	public List<Edge> getAddedDirectEdges() {
+
+		return Collections.unmodifiableList(addedDirectEdges);
+	}
+
+	public List<Edge> getRemovedDirectEdges() {
+
+		return Collections.unmodifiableList(removedDirectEdges);
+	}
+
+	public List<LevelChange> getLevelChanges() {
+
+		return Collections.unmodifiableList(levelChanges);
+	}
+
+	@Override
+	public String toString() {
+
+		final StringBuilder sb = new StringBuilder();
+
+		append(sb, "+ module: ", addedModules);
+		append(sb, "- module: ", removedModules);
+		append(sb, "+ edge: ", addedEdges);
+		append(sb, "- edge: ", removedEdges);
+		append(sb, "+ direct edge: ", addedDirectEdges);
+		append(sb, "- direct edge: ", removedDirectEdges);
+		append(sb, "~ level: ", levelChanges);
+
+		return sb.toString();
+	}
+
+	private static void append(final StringBuilder sb, final String prefix,
+			final List<?> items) {
+
+		for (final Object item : items) {
+			sb.append(prefix).append(item).append('\n');
+		}
+	}
+}
@@ -0,0 +1,917 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class holds the dependency graph of a {@link DependencyAnalysis} in
+ * a compact form: Module names are interned into integer ids, and edges are
+ * stored as CSR (compressed sparse row) adjacency arrays.
+ * <p>
+ * Ids are assigned level by level, so that the modules of a given level
+ * have contiguous ids, and so that iterating over ids in ascending order is
+ * a topological order: All upstreams of a module have lower ids than the
+ * module itself.
+ * <p>
+ * The arrays are held in {@link IntBuffer}s, which may be either heap
+ * buffers, or views over a memory-mapped {@link DependencySnapshot} file.
+ */
+public final class DependencyIndex {
+
+	private final NameTable names;
+
+	private final int moduleCount;
+
+	final IntBuffer levels;
+	final IntBuffer levelOffsets;
+	final IntBuffer upOffsets;
+	final IntBuffer upTargets;
+	final IntBuffer directUpOffsets;
+	final IntBuffer directUpTargets;
+	final IntBuffer directDownOffsets;
+	final IntBuffer directDownTargets;
+
+	DependencyIndex(
+			final NameTable names,
+			final IntBuffer levels,
+			final IntBuffer levelOffsets,
+			final IntBuffer upOffsets,
+			final IntBuffer upTargets,
+			final IntBuffer directUpOffsets,
+			final IntBuffer directUpTargets,
+			final IntBuffer directDownOffsets,
+			final IntBuffer directDownTargets) {
+
+		this.names = checkNotNull(names, "names");
+		this.levels = checkNotNull(levels, "levels");
+		this.levelOffsets = checkNotNull(levelOffsets, "levelOffsets");
+		this.upOffsets = checkNotNull(upOffsets, "upOffsets");
+		this.upTargets = checkNotNull(upTargets, "upTargets");
+		this.directUpOffsets = checkNotNull(directUpOffsets,
+				"directUpOffsets");
+		this.directUpTargets = checkNotNull(directUpTargets,
+				"directUpTargets");
+		this.directDownOffsets = checkNotNull(directDownOffsets,
+				"directDownOffsets");
+		this.directDownTargets = checkNotNull(directDownTargets,
+				"directDownTargets");
+
+		moduleCount = names.size();
+	}
+
+	public int size() {
+
+		return moduleCount;
+	}
+
+	public String getModuleName(final int id) {
+
+		return names.getName(id);
+	}
+
+	/**
+	 * return the id of a module, or <tt>-1</tt> if there is no such module.
+	 */
+	public int getModuleId(final String moduleName) {
+
+		checkNotNull(moduleName, "moduleName");
+
+		return names.getId(moduleName);
+	}
+
+	/**
+	 * tell if the two indexes give the same ids to the same module names,
+	 * because they share their name table, or because their name tables
+	 * hold the same names in the same order. This is checked without
+	 * looking any name up.
+	 */
+	boolean hasSameIds(final DependencyIndex other) {
+
+		checkNotNull(other, "other");
+
+		return names == other.names || names.hasSameNames(other.names);
+	}
+
+	public int sizeOfLevels() {
+
+		return levelOffsets.limit() - 1;
+	}
+
+	public int getLevel(final int id) {
+
+		return levels.get(id);
+	}
+
+	/**
+	 * return the id of the first module on a given level. Modules on this
+	 * level have ids from <tt>getLevelStart(level)</tt> (inclusive) to
+	 * <tt>getLevelStart(level + 1)</tt> (exclusive).
+	 */
+	public int getLevelStart(final int level) {
+
+		return levelOffsets.get(level);
+	}
+
+	public int sizeOfLevel(final int level) {
+
+		return levelOffsets.get(level + 1) - levelOffsets.get(level);
+	}
+
+	/**
+	 * return the number of declared upstreams of a module, whether they
+	 * were declared as its upstreams, or whether the module was declared as
+	 * their downstream.
+	 */
+	public int getUpstreamCount(final int id) {
+
+		return upOffsets.get(id + 1) - upOffsets.get(id);
+	}
+
+	public int getUpstream(final int id, final int k) {
+
+		return upTargets.get(upOffsets.get(id) + k);
+	}
+
+	/**
+	 * return the number of direct upstreams of a module, i.e. those returned
+	 * by {@link DependencyAnalysis#getDirectUpstreams(String)}.
+	 */
+	public int getDirectUpstreamCount(final int id) {
+
+		return directUpOffsets.get(id + 1) - directUpOffsets.get(id);
+	}
+
+	public int getDirectUpstream(final int id, final int k) {
+
+		return directUpTargets.get(directUpOffsets.get(id) + k);
+	}
+
+	public int getDirectDownstreamCount(final int id) {
+
+		return directDownOffsets.get(id + 1) - directDownOffsets.get(id);
+	}
+
+	public int getDirectDownstream(final int id, final int k) {
+
+		return directDownTargets.get(directDownOffsets.get(id) + k);
+	}
+
+	/**
+	 * return <tt>true</tt> if <tt>u</tt> is a declared upstream of
+	 * <tt>id</tt>. Upstream rows are sorted, so this is a binary search.
+	 */
+	public boolean isUpstream(final int u, final int id) {
+
+		return binarySearch(upTargets, upOffsets.get(id),
+				upOffsets.get(id + 1), u) >= 0;
+	}
+
+	/**
+	 * return per-module values, such as costs or durations, as an array
+	 * indexed by module id. Modules with no value get the default value;
+	 * Values of unknown modules are ignored.
+	 *
+	 * @throws IllegalArgumentException if a value is negative.
+	 */
+	long[] toLongArray(final Map<String, Long> values, final long defaultValue) {
+
+		checkNotNull(values, "values");
+
+		checkArgument(defaultValue >= 0, "defaultValue should be >= 0: %s",
+				defaultValue);
+
+		final long[] result = new long[size()];
+
+		Arrays.fill(result, defaultValue);
+
+		for (final Map.Entry<String, Long> entry : values.entrySet()) {
+
+			final int id = getModuleId(entry.getKey());
+
+			if (id == -1) {
+				continue;
+			}
+
+			final Long value = checkNotNull(entry.getValue(), "value of: %s",
+					entry.getKey());
+
+			checkArgument(value >= 0, "Value of: %s should be >= 0: %s",
+					entry.getKey(), value);
+
+			result[id] = value;
+		}
+
+		return result;
+	}
+
+	static int binarySearch(final IntBuffer buffer, final int fromIndex,
+			final int toIndex, final int key) {
+
+		int low = fromIndex;
+		int high = toIndex - 1;
+
+		while (low <= high) {
+
+			final int mid = (low + high) >>> 1;
+			final int midVal = buffer.get(mid);
+
+			if (midVal < key) {
+				low = mid + 1;
+			} else if (midVal > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	// -------------------------------------------------------------------------
+	//     BUILD
+	// -------------------------------------------------------------------------
+
+	/**
+	 * build the index of a set of modules. Module ids on a given level
+	 * follow the iteration order of the map.
+	 *
+	 * @throws ArrayIndexOutOfBoundsException if the dependencies contain a
+	 * cycle.
+	 */
+	static DependencyIndex build(final Map<String, Module> modules) {
+
+		checkNotNull(modules, "modules");
+
+		final int n = modules.size();
+
+		// 1. INTERN NAMES, IN ITERATION ORDER
+
+		final String[] tmpNames = new String[n];
+		final Map<String, Integer> tmpIds = new HashMap<String, Integer>();
+
+		int i = 0;
+
+		for (final Module module : modules.values()) {
+
+			tmpNames[i] = module.name;
+			tmpIds.put(module.name, i);
+
+			++i;
+		}
+
+		// 2. COLLECT DECLARED EDGES, AS (UPSTREAM, DOWNSTREAM) PAIRS
+
+		final IntArrayBuilder edgeFroms = new IntArrayBuilder();
+		final IntArrayBuilder edgeTos = new IntArrayBuilder();
+
+		i = 0;
+
+		for (final Module module : modules.values()) {
+
+			for (final String downstream : module.getDownstreamModules()) {
+
+				edgeFroms.add(i);
+				edgeTos.add(tmpIds.get(downstream));
+			}
+
+			for (final String upstream : module.getUpstreamModules()) {
+
+				edgeFroms.add(tmpIds.get(upstream));
+				edgeTos.add(i);
+			}
+
+			++i;
+		}
+
+		final int[] tmpUpOffsets = new int[n + 1];
+		final int[] tmpUpTargets = toCSR(n, edgeTos.toArray(),
+				edgeFroms.toArray(), tmpUpOffsets);
+
+		final int[] tmpDownOffsets = new int[n + 1];
+		final int[] tmpDownTargets = reverseCSR(n, tmpUpOffsets, tmpUpTargets,
+				tmpDownOffsets);
+
+		// 3. CYCLE DETECTION AND LONGEST-PATH LEVELS (KAHN)
+
+		final int[] tmpLevels = new int[n];
+		final int[] inDegrees = new int[n];
+		final int[] queue = new int[n];
+
+		int head = 0;
+		int tail = 0;
+
+		for (int v = 0; v < n; ++v) {
+
+			inDegrees[v] = tmpUpOffsets[v + 1] - tmpUpOffsets[v];
+
+			if (inDegrees[v] == 0) {
+				queue[tail++] = v;
+			}
+		}
+
+		int levelCount = n == 0 ? 0 : 1;
+
+		while (head < tail) {
+
+			final int u = queue[head++];
+
+			for (int k = tmpDownOffsets[u]; k < tmpDownOffsets[u + 1]; ++k) {
+
+				final int v = tmpDownTargets[k];
+
+				if (tmpLevels[u] + 1 > tmpLevels[v]) {
+
+					tmpLevels[v] = tmpLevels[u] + 1;
+
+					if (tmpLevels[v] + 1 > levelCount) {
+						levelCount = tmpLevels[v] + 1;
+					}
+				}
+
+				if (--inDegrees[v] == 0) {
+					queue[tail++] = v;
+				}
+			}
+		}
+
+		if (tail < n) {
+
+			for (int v = 0; v < n; ++v) {
+
+				if (inDegrees[v] != 0) {
+
+					throw new ArrayIndexOutOfBoundsException(
+							"Unlimited transitive downstreams found (probably a cycle) for module: \""
+									+ tmpNames[v] + "\"");
+				}
+			}
+		}
+
+		return build(n, tmpNames, tmpLevels, levelCount, tmpUpOffsets,
+				tmpUpTargets);
+	}
+
+	/**
+	 * build an index from declared upstreams, and levels that are
+	 * consistent with them: Renumber modules level by level, and compute
+	 * their direct upstreams.
+	 */
+	private static DependencyIndex build(final int n, final String[] tmpNames,
+			final int[] tmpLevels, final int levelCount,
+			final int[] tmpUpOffsets, final int[] tmpUpTargets) {
+
+		// 4. RENUMBER, LEVEL BY LEVEL (STABLE COUNTING SORT)
+
+		final int[] levelOffsets = new int[levelCount + 1];
+
+		for (int v = 0; v < n; ++v) {
+			++levelOffsets[tmpLevels[v] + 1];
+		}
+
+		for (int l = 0; l < levelCount; ++l) {
+			levelOffsets[l + 1] += levelOffsets[l];
+		}
+
+		final int[] cursors = Arrays.copyOf(levelOffsets, levelCount);
+		final int[] newIds = new int[n];
+		final String[] names = new String[n];
+		final int[] levels = new int[n];
+
+		for (int v = 0; v < n; ++v) {
+
+			final int id = cursors[tmpLevels[v]]++;
+
+			newIds[v] = id;
+			names[id] = tmpNames[v];
+			levels[id] = tmpLevels[v];
+		}
+
+		final int[] upOffsets = new int[n + 1];
+		final int[] upTargets = renumberCSR(n, tmpUpOffsets, tmpUpTargets,
+				newIds, upOffsets);
+
+		// 5. DIRECT UPSTREAMS: REMOVE u IF u IS AN UPSTREAM OF ANOTHER UPSTREAM
+
+		final IntArrayBuilder directUps = new IntArrayBuilder();
+		final int[] directUpOffsets = new int[n + 1];
+
+		for (int id = 0; id < n; ++id) {
+
+			final int start = upOffsets[id];
+			final int end = upOffsets[id + 1];
+
+			for (int k = start; k < end; ++k) {
+
+				final int u = upTargets[k];
+
+				boolean direct = true;
+
+				for (int k2 = start; k2 < end; ++k2) {
+
+					final int u2 = upTargets[k2];
+
+					// u2 has a higher level than u if u is upstream of u2
+					if (u2 > u
+							&& Arrays.binarySearch(upTargets, upOffsets[u2],
+									upOffsets[u2 + 1], u) >= 0) {
+
+						direct = false;
+
+						break;
+					}
+				}
+
+				if (direct) {
+					directUps.add(u);
+				}
+			}
+
+			directUpOffsets[id + 1] = directUps.size();
+		}
+
+		final int[] directUpTargets = directUps.toArray();
+
+		final int[] directDownOffsets = new int[n + 1];
+		final int[] directDownTargets = reverseCSR(n, directUpOffsets,
+				directUpTargets, directDownOffsets);
+
+		return new DependencyIndex(new HeapNameTable(names),
+				IntBuffer.wrap(levels), IntBuffer.wrap(levelOffsets),
+				IntBuffer.wrap(upOffsets), IntBuffer.wrap(upTargets),
+				IntBuffer.wrap(directUpOffsets),
+				IntBuffer.wrap(directUpTargets),
+				IntBuffer.wrap(directDownOffsets),
+				IntBuffer.wrap(directDownTargets));
+	}
+
+	/**
+	 * return the index of the subgraph of some modules: Their declared
+	 * edges among themselves, with levels and direct upstreams computed
+	 * within the subgraph. Names are shared with this index, and nothing
+	 * else is checked.
+	 *
+	 * @param ids the ids of the modules, in ascending order.
+	 */
+	DependencyIndex subIndex(final int[] ids) {
+
+		checkNotNull(ids, "ids");
+
+		final int n = ids.length;
+
+		final String[] tmpNames = new String[n];
+
+		final IntArrayBuilder tmpUps = new IntArrayBuilder();
+		final int[] tmpUpOffsets = new int[n + 1];
+		final int[] tmpLevels = new int[n];
+
+		int levelCount = n == 0 ? 0 : 1;
+
+		for (int i = 0; i < n; ++i) {
+
+			checkArgument(i == 0 || ids[i - 1] < ids[i],
+					"ids should be in ascending order");
+
+			tmpNames[i] = getModuleName(ids[i]);
+
+			// Rows of this index are sorted, so rows of the subgraph are
+
+			for (int k = upOffsets.get(ids[i]); k < upOffsets.get(ids[i] + 1); ++k) {
+
+				final int j = Arrays.binarySearch(ids, 0, i, upTargets.get(k));
+
+				if (j >= 0) {
+
+					tmpUps.add(j);
+
+					tmpLevels[i] = Math.max(tmpLevels[i], tmpLevels[j] + 1);
+				}
+			}
+
+			tmpUpOffsets[i + 1] = tmpUps.size();
+
+			levelCount = Math.max(levelCount, tmpLevels[i] + 1);
+		}
+
+		return build(n, tmpNames, tmpLevels, levelCount, tmpUpOffsets,
+				tmpUps.toArray());
+	}
+
+	/**
+	 * return a copy of this index where modules are assigned to other
+	 * levels, and renumbered accordingly. Edges are unchanged.
+	 *
+	 * @param newLevels the new level of each module, indexed by current id.
+	 * Levels must be contiguous from <tt>0</tt>, and all upstreams of a
+	 * module must have lower levels than the module itself.
+	 */
+	DependencyIndex withLevels(final int[] newLevels) {
+
+		checkNotNull(newLevels, "newLevels");
+
+		final int n = size();
+
+		checkArgument(newLevels.length == n,
+				"newLevels.length should be %s, but was: %s", n,
+				newLevels.length);
+
+		int levelCount = 0;
+
+		for (int id = 0; id < n; ++id) {
+
+			checkArgument(newLevels[id] >= 0,
+					"newLevels[%s] should be >= 0, but was: %s", id,
+					newLevels[id]);
+
+			for (int k = upOffsets.get(id); k < upOffsets.get(id + 1); ++k) {
+
+				final int u = upTargets.get(k);
+
+				checkArgument(newLevels[u] < newLevels[id],
+						"Upstream: %s should have a lower level than: %s",
+						getModuleName(u), getModuleName(id));
+			}
+
+			levelCount = Math.max(levelCount, newLevels[id] + 1);
+		}
+
+		// Renumber, level by level, keeping the current order on each level
+
+		final int[] levelOffsets = new int[levelCount + 1];
+
+		for (int id = 0; id < n; ++id) {
+			++levelOffsets[newLevels[id] + 1];
+		}
+
+		for (int l = 0; l < levelCount; ++l) {
+
+			checkArgument(levelOffsets[l + 1] != 0, "Level %s is empty", l);
+
+			levelOffsets[l + 1] += levelOffsets[l];
+		}
+
+		final int[] cursors = Arrays.copyOf(levelOffsets, levelCount);
+		final int[] newIds = new int[n];
+		final String[] names = new String[n];
+		final int[] levels = new int[n];
+
+		for (int id = 0; id < n; ++id) {
+
+			final int newId = cursors[newLevels[id]]++;
+
+			newIds[id] = newId;
+			names[newId] = getModuleName(id);
+			levels[newId] = newLevels[id];
+		}
+
+		final int[] upOffsets = new int[n + 1];
+		final int[] upTargets = renumberCSR(n, toIntArray(this.upOffsets),
+				toIntArray(this.upTargets), newIds, upOffsets);
+
+		final int[] directUpOffsets = new int[n + 1];
+		final int[] directUpTargets = renumberCSR(n,
+				toIntArray(this.directUpOffsets),
+				toIntArray(this.directUpTargets), newIds, directUpOffsets);
+
+		final int[] directDownOffsets = new int[n + 1];
+		final int[] directDownTargets = reverseCSR(n, directUpOffsets,
+				directUpTargets, directDownOffsets);
+
+		return new DependencyIndex(new HeapNameTable(names),
+				IntBuffer.wrap(levels), IntBuffer.wrap(levelOffsets),
+				IntBuffer.wrap(upOffsets), IntBuffer.wrap(upTargets),
+				IntBuffer.wrap(directUpOffsets),
+				IntBuffer.wrap(directUpTargets),
+				IntBuffer.wrap(directDownOffsets),
+				IntBuffer.wrap(directDownTargets));
+	}
+
+	private static int[] toIntArray(final IntBuffer buffer) {
+
+		final int[] array = new int[buffer.limit()];
+
+		for (int i = 0; i < array.length; ++i) {
+			array[i] = buffer.get(i);
+		}
+
+		return array;
+	}
+
+	/**
+	 * group (row, target) pairs into a CSR structure, with sorted rows and
+	 * without duplicates.
+	 */
+	static int[] toCSR(final int n, final int[] rows, final int[] targets,
+			final int[] offsets) {
+
+		final int[] counts = new int[n + 1];
+
+		for (final int row : rows) {
+			++counts[row + 1];
+		}
+
+		for (int v = 0; v < n; ++v) {
+			counts[v + 1] += counts[v];
+		}
+
+		final int[] cursors = Arrays.copyOf(counts, n);
+		final int[] raw = new int[rows.length];
+
+		for (int k = 0; k < rows.length; ++k) {
+			raw[cursors[rows[k]]++] = targets[k];
+		}
+
+		// Sort and remove duplicates, compacting in place
+
+		int size = 0;
+
+		for (int v = 0; v < n; ++v) {
+
+			final int start = counts[v];
+			final int end = counts[v + 1];
+
+			Arrays.sort(raw, start, end);
+
+			offsets[v] = size;
+
+			for (int k = start; k < end; ++k) {
+
+				if (k == start || raw[k] != raw[k - 1]) {
+					raw[size++] = raw[k];
+				}
+			}
+		}
+
+		offsets[n] = size;
+
+		return Arrays.copyOf(raw, size);
+	}
+
+	/**
+	 * return the transposed CSR structure. Since rows are scanned in
+	 * ascending order, the transposed rows are sorted too.
+	 */
+	static int[] reverseCSR(final int n, final int[] offsets,
+			final int[] targets, final int[] reverseOffsets) {
+
+		for (final int target : targets) {
+			++reverseOffsets[target + 1];
+		}
+
+		for (int v = 0; v < n; ++v) {
+			reverseOffsets[v + 1] += reverseOffsets[v];
+		}
+
+		final int[] cursors = Arrays.copyOf(reverseOffsets, n);
+		final int[] reverseTargets = new int[targets.length];
+
+		for (int v = 0; v < n; ++v) {
+
+			for (int k = offsets[v]; k < offsets[v + 1]; ++k) {
+				reverseTargets[cursors[targets[k]]++] = v;
+			}
+		}
+
+		return reverseTargets;
+	}
+
+	private static int[] renumberCSR(final int n, final int[] offsets,
+			final int[] targets, final int[] newIds, final int[] newOffsets) {
+
+		final int[] rows = new int[targets.length];
+		final int[] newTargets = new int[targets.length];
+
+		for (int v = 0; v < n; ++v) {
+
+			for (int k = offsets[v]; k < offsets[v + 1]; ++k) {
+
+				rows[k] = newIds[v];
+				newTargets[k] = newIds[targets[k]];
+			}
+		}
+
+		return toCSR(n, rows, newTargets, newOffsets);
+	}
+
+	/**
+	 * a growable array of <tt>int</tt>s, to avoid boxing.
+	 */
+	static final class IntArrayBuilder {
+
+		private int[] array = new int[16];
+
+		private int size = 0;
+
+		public void add(final int value) {
+
+			if (size == array.length) {
+				array = Arrays.copyOf(array, size * 2);
+			}
+
+			array[size++] = value;
+		}
+
+		public int size() {
+
+			return size;
+		}
+
+		public int[] toArray() {
+
+			return Arrays.copyOf(array, size);
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     NAME TABLES
+	// -------------------------------------------------------------------------
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * the mapping between module names and their ids.
+	 */
+	interface NameTable {
+
+		int size();
+
+		String getName(int id);
+
+		int getId(String name);
+
+		/**
+		 * tell if another table holds the same names, with the same ids.
+		 */
+		boolean hasSameNames(NameTable other);
+	}
+
+	static final class HeapNameTable implements NameTable {
+
+		private final String[] names;
+
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		HeapNameTable(final String[] names) {
+
+			this.names = checkNotNull(names, "names");
+
+			for (int id = 0; id < names.length; ++id) {
+				ids.put(names[id], id);
+			}
+		}
+
+		@Override
+		public int size() {
+
+			return names.length;
+		}
+
+		@Override
+		public String getName(final int id) {
+
+			return names[id];
+		}
+
+		@Override
+		public int getId(final String name) {
+
+			final Integer id = ids.get(name);
+
+			return id == null ? -1 : id;
+		}
+
+		@Override
+		public boolean hasSameNames(final NameTable other) {
+
+			return other instanceof HeapNameTable
+					&& Arrays.equals(names, ((HeapNameTable) other).names);
+		}
+	}
+
+	/**
+	 * a name table whose UTF-8 bytes, offsets and open-addressing hash
+	 * slots are held in (possibly memory-mapped) buffers. Hash slots hold
+	 * <tt>id + 1</tt>, or <tt>0</tt> when empty.
+	 */
+	static final class BufferNameTable implements NameTable {
+
+		private final IntBuffer offsets;
+		private final IntBuffer hashSlots;
+		private final ByteBuffer bytes;
+
+		BufferNameTable(
+				final IntBuffer offsets,
+				final IntBuffer hashSlots,
+				final ByteBuffer bytes) {
+
+			this.offsets = checkNotNull(offsets, "offsets");
+			this.hashSlots = checkNotNull(hashSlots, "hashSlots");
+			this.bytes = checkNotNull(bytes, "bytes");
+		}
+
+		@Override
+		public int size() {
+
+			return offsets.limit() - 1;
+		}
+
+		@Override
+		public String getName(final int id) {
+
+			final int start = offsets.get(id);
+			final byte[] b = new byte[offsets.get(id + 1) - start];
+
+			for (int k = 0; k < b.length; ++k) {
+				b[k] = bytes.get(start + k);
+			}
+
+			return new String(b, UTF_8);
+		}
+
+		@Override
+		public int getId(final String name) {
+
+			final byte[] b = name.getBytes(UTF_8);
+
+			final int mask = hashSlots.limit() - 1;
+
+			for (int slot = hashSlot(name) & mask;; slot = (slot + 1) & mask) {
+
+				final int idPlusOne = hashSlots.get(slot);
+
+				if (idPlusOne == 0) {
+					return -1;
+				}
+
+				if (nameEquals(idPlusOne - 1, b)) {
+					return idPlusOne - 1;
+				}
+			}
+		}
+
+		/**
+		 * compare the offsets and UTF-8 bytes of both tables, without
+		 * decoding any name.
+		 */
+		@Override
+		public boolean hasSameNames(final NameTable other) {
+
+			if (!(other instanceof BufferNameTable)) {
+				return false;
+			}
+
+			final BufferNameTable table = (BufferNameTable) other;
+
+			return offsets.duplicate().rewind().equals(
+					table.offsets.duplicate().rewind())
+					&& bytes.duplicate().rewind().equals(
+							table.bytes.duplicate().rewind());
+		}
+
+		private boolean nameEquals(final int id, final byte[] b) {
+
+			final int start = offsets.get(id);
+
+			if (offsets.get(id + 1) - start != b.length) {
+				return false;
+			}
+
+			for (int k = 0; k < b.length; ++k) {
+
+				if (bytes.get(start + k) != b[k]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	static int hashSlot(final String name) {
+
+		final int h = name.hashCode();
+
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * return the capacity of a hash slot table for a given number of names:
+	 * A power of two, at most half full.
+	 */
+	static int hashCapacity(final int size) {
+
+		int capacity = 2;
+
+		while (capacity < size * 2) {
+			capacity *= 2;
+		}
+
+		return capacity;
+	}
+}
@@ -0,0 +1,770 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static net.avcompris.tools.dependency_graph.DependencyIndex.UTF_8;
+import static net.avcompris.tools.dependency_graph.DependencyIndex.hashCapacity;
+import static net.avcompris.tools.dependency_graph.DependencyIndex.hashSlot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import net.avcompris.tools.dependency_graph.DependencyIndex.BufferNameTable;
+
+/**
+ * This class reads and writes a versioned binary snapshot of an analyzed
+ * dependency graph: The string table of module names, the CSR adjacency of
+ * the {@link DependencyIndex}, the module levels, and optionally the
+ * {@link ModulePosition}s computed by a {@link DependencyDiagrammer}, the
+ * durations of the modules’ jobs, and the members of condensed cycles and
+ * collapsed clusters.
+ * <p>
+ * Snapshots are read back by memory-mapping the file: No XML is parsed and
+ * nothing is recomputed, the index reads its arrays directly from the
+ * mapped buffer.
+ * <p>
+ * The layout is: A header of {@link #HEADER_INTS} big-endian ints, then the
+ * int sections, in this order: Name offsets, name hash slots, levels,
+ * level offsets, declared upstream CSR (offsets, targets), direct upstream
+ * CSR, direct downstream CSR, module positions (x’s then y’s) if
+ * present, module durations (high then low int of each) if present, and
+ * members if present: Member count and member bytes length, cycle member
+ * offsets, cluster member offsets, member name offsets, and the UTF-8
+ * bytes of the member names, padded to ints. The UTF-8 bytes of the
+ * module names come last.
+ */
+public final class DependencySnapshot {
+
+	static final int MAGIC = 0x41564447; // "AVDG"
+
+	static final int VERSION = 3;
+
+	static final int HEADER_INTS = 10;
+
+	private static final int FLAG_POSITIONS = 0x01;
+
+	private static final int FLAG_DURATIONS = 0x02; // Since version 2
+
+	private static final int FLAG_MEMBERS = 0x04; // Since version 3
+
+	private static final int NO_POSITION = Integer.MIN_VALUE;
+
+	private static final long NO_DURATION = -1L;
+
+	private final DependencyIndex index;
+
+	@Nullable
+	private final IntBuffer xs;
+
+	@Nullable
+	private final IntBuffer ys;
+
+	@Nullable
+	private final IntBuffer durations;
+
+	@Nullable
+	private final IntBuffer cycleOffsets;
+
+	@Nullable
+	private final IntBuffer clusterOffsets;
+
+	@Nullable
+	private final IntBuffer memberNameOffsets;
+
+	@Nullable
+	private final ByteBuffer memberNameBytes;
+
+	private DependencySnapshot(
+			final DependencyIndex index,
+			@Nullable final IntBuffer xs,
+			@Nullable final IntBuffer ys,
+			@Nullable final IntBuffer durations,
+			@Nullable final IntBuffer cycleOffsets,
+			@Nullable final IntBuffer clusterOffsets,
+			@Nullable final IntBuffer memberNameOffsets,
+			@Nullable final ByteBuffer memberNameBytes) {
+
+		this.index = checkNotNull(index, "index");
+		this.xs = xs;
+		this.ys = ys;
+		this.durations = durations;
+		this.cycleOffsets = cycleOffsets;
+		this.clusterOffsets = clusterOffsets;
+		this.memberNameOffsets = memberNameOffsets;
+		this.memberNameBytes = memberNameBytes;
+	}
+
+	public DependencyIndex getIndex() {
+
+		return index;
+	}
+
+	public boolean hasModulePositions() {
+
+		return xs != null;
+	}
+
+	/**
+	 * return the module positions stored in this snapshot, or
+	 * <tt>null</tt> if none were stored.
+	 */
+	@Nullable
+	public ModulePosition[] getModulePositions() {
+
+		if (xs == null || ys == null) {
+			return null;
+		}
+
+		final List<ModulePosition> positions = new ArrayList<ModulePosition>();
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			final int x = xs.get(id);
+
+			if (x != NO_POSITION) {
+
+				positions.add(new SnapshotModulePosition(index
+						.getModuleName(id), x, ys.get(id)));
+			}
+		}
+
+		return positions.toArray(new ModulePosition[positions.size()]);
+	}
+
+	/**
+	 * return the module durations stored in this snapshot, see
+	 * {@link DependencyAnalysis#getModuleDurations()}: Empty if none were
+	 * stored.
+	 */
+	public Map<String, Long> getModuleDurations() {
+
+		final Map<String, Long> map = new HashMap<String, Long>();
+
+		if (durations != null) {
+
+			for (int id = 0; id < index.size(); ++id) {
+
+				final long duration = ((long) durations.get(2 * id) << 32)
+						| (durations.get(2 * id + 1) & 0xffffffffL);
+
+				if (duration != NO_DURATION) {
+					map.put(index.getModuleName(id), duration);
+				}
+			}
+		}
+
+		return map;
+	}
+
+	/**
+	 * return the members of the condensed cycles stored in this snapshot,
+	 * see {@link DependencyAnalysis#getCycleMembers(String)}: Empty if
+	 * none were stored.
+	 */
+	public Map<String, List<String>> getCycleMembers() {
+
+		return getMembers(cycleOffsets);
+	}
+
+	/**
+	 * return the members of the collapsed clusters stored in this snapshot,
+	 * see {@link DependencyAnalysis#getClusterMembers(String)}: Empty if
+	 * none were stored.
+	 */
+	public Map<String, List<String>> getClusterMembers() {
+
+		return getMembers(clusterOffsets);
+	}
+
+	private Map<String, List<String>> getMembers(
+			@Nullable final IntBuffer offsets) {
+
+		final Map<String, List<String>> map = new HashMap<String, List<String>>();
+
+		if (offsets == null || memberNameOffsets == null
+				|| memberNameBytes == null) {
+			return map;
+		}
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			final int start = offsets.get(id);
+			final int end = offsets.get(id + 1);
+
+			if (start == end) {
+				continue;
+			}
+
+			final List<String> members = new ArrayList<String>(end - start);
+
+			for (int k = start; k < end; ++k) {
+
+				final int offset = memberNameOffsets.get(k);
+
+				final byte[] b = new byte[memberNameOffsets.get(k + 1) - offset];
+
+				final ByteBuffer dup = memberNameBytes.duplicate();
+
+				dup.position(offset);
+				dup.get(b);
+
+				members.add(new String(b, UTF_8));
+			}
+
+			map.put(index.getModuleName(id), members);
+		}
+
+		return map;
+	}
+
+	/**
+	 * build a {@link DependencyAnalysis} over the snapshot’s index, without
+	 * any sanity check or level computation.
+	 */
+	public DependencyAnalysis toAnalysis() {
+
+		return new DependencyAnalysis(index, getCycleMembers(),
+				getClusterMembers(), getModuleDurations());
+	}
+
+	// -------------------------------------------------------------------------
+	//     WRITE
+	// -------------------------------------------------------------------------
+
+	public static void write(final DependencyAnalysis analysis,
+			@Nullable final ModulePosition[] positions, final File file)
+			throws IOException {
+
+		checkNotNull(analysis, "analysis");
+
+		write(analysis.getIndex(), positions, analysis.moduleDurations,
+				analysis.cycleMembers, analysis.clusterMembers, file);
+	}
+
+	static void write(final DependencyIndex index,
+			@Nullable final ModulePosition[] positions, final File file)
+			throws IOException {
+
+		write(index, positions, Collections.<String, Long> emptyMap(), file);
+	}
+
+	static void write(final DependencyIndex index,
+			@Nullable final ModulePosition[] positions,
+			final Map<String, Long> durations, final File file)
+			throws IOException {
+
+		write(index, positions, durations,
+				Collections.<String, List<String>> emptyMap(),
+				Collections.<String, List<String>> emptyMap(), file);
+	}
+
+	/**
+	 * @param durations the durations of the modules that have one. None are
+	 * stored if empty.
+	 * @param cycleMembers the members of the condensed cycles, by module
+	 * name.
+	 * @param clusterMembers the members of the collapsed clusters, by module
+	 * name. No members are stored if both maps are empty.
+	 */
+	static void write(final DependencyIndex index,
+			@Nullable final ModulePosition[] positions,
+			final Map<String, Long> durations,
+			final Map<String, List<String>> cycleMembers,
+			final Map<String, List<String>> clusterMembers, final File file)
+			throws IOException {
+
+		checkNotNull(index, "index");
+		checkNotNull(durations, "durations");
+		checkNotNull(cycleMembers, "cycleMembers");
+		checkNotNull(clusterMembers, "clusterMembers");
+		checkNotNull(file, "file");
+
+		final int n = index.size();
+		final int levelCount = index.sizeOfLevels();
+		final int upEdgeCount = index.upTargets.limit();
+		final int directEdgeCount = index.directUpTargets.limit();
+		final int hashCapacity = hashCapacity(n);
+
+		// 1. STRING TABLE SIZE
+
+		long nameBytesLength = 0;
+
+		for (int id = 0; id < n; ++id) {
+
+			nameBytesLength += index.getModuleName(id).getBytes(UTF_8).length;
+		}
+
+		// 1.1. MEMBERS: CYCLES FIRST, THEN CLUSTERS
+
+		final boolean hasMembers = !cycleMembers.isEmpty()
+				|| !clusterMembers.isEmpty();
+
+		final int[] cycleOffsets = new int[n + 1];
+		final int[] clusterOffsets = new int[n + 1];
+
+		final List<byte[]> memberNames = new ArrayList<byte[]>();
+
+		long memberBytesLength = 0;
+
+		if (hasMembers) {
+
+			checkKnownModules(index, cycleMembers.keySet());
+			checkKnownModules(index, clusterMembers.keySet());
+
+			for (int pass = 0; pass < 2; ++pass) {
+
+				final Map<String, List<String>> members = pass == 0 ? cycleMembers
+						: clusterMembers;
+				final int[] offsets = pass == 0 ? cycleOffsets : clusterOffsets;
+
+				offsets[0] = memberNames.size();
+
+				for (int id = 0; id < n; ++id) {
+
+					final List<String> list = members.get(index
+							.getModuleName(id));
+
+					if (list != null) {
+
+						for (final String member : list) {
+
+							final byte[] b = member.getBytes(UTF_8);
+
+							memberNames.add(b);
+
+							memberBytesLength += b.length;
+						}
+					}
+
+					offsets[id + 1] = memberNames.size();
+				}
+			}
+		}
+
+		final int memberCount = memberNames.size();
+
+		// 2. SIZE
+
+		final long intCount = HEADER_INTS + (n + 1) + hashCapacity + n
+				+ (levelCount + 1) + (n + 1) + upEdgeCount + 2
+				* ((n + 1) + directEdgeCount) + (positions != null ? 2 * n : 0)
+				+ (!durations.isEmpty() ? 2 * n : 0)
+				+ (hasMembers ? 2 + 2 * (n + 1) + (memberCount + 1)
+						+ (memberBytesLength + 3) / 4 : 0);
+
+		final long size = intCount * 4 + nameBytesLength;
+
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Snapshot would be too large: " + size
+					+ " bytes");
+		}
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+
+			raf.setLength(0); // Make sure all bytes are zeros
+			raf.setLength(size);
+
+			final FileChannel channel = raf.getChannel();
+
+			final MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_WRITE, 0, size);
+
+			final IntBuffer ints = buffer.asIntBuffer();
+
+			// 3. HEADER
+
+			ints.put(MAGIC);
+			ints.put(VERSION);
+			ints.put((positions != null ? FLAG_POSITIONS : 0)
+					| (!durations.isEmpty() ? FLAG_DURATIONS : 0)
+					| (hasMembers ? FLAG_MEMBERS : 0));
+			ints.put(n);
+			ints.put(levelCount);
+			ints.put(upEdgeCount);
+			ints.put(directEdgeCount);
+			ints.put(hashCapacity);
+			ints.put((int) nameBytesLength);
+			ints.put(0); // reserved
+
+			// 4. NAMES: OFFSETS, HASH SLOTS, AND BYTES (AT THE END)
+
+			final int offsetsStart = ints.position();
+			final int hashSlotsStart = offsetsStart + n + 1;
+			final int bytesStart = (int) (intCount * 4);
+			final int mask = hashCapacity - 1;
+
+			int offset = 0;
+
+			for (int id = 0; id < n; ++id) {
+
+				final String name = index.getModuleName(id);
+				final byte[] b = name.getBytes(UTF_8);
+
+				ints.put(offsetsStart + id, offset);
+
+				int slot = hashSlot(name) & mask;
+
+				while (ints.get(hashSlotsStart + slot) != 0) {
+					slot = (slot + 1) & mask;
+				}
+
+				ints.put(hashSlotsStart + slot, id + 1);
+
+				buffer.position(bytesStart + offset);
+				buffer.put(b);
+
+				offset += b.length;
+			}
+
+			ints.put(offsetsStart + n, offset);
+
+			ints.position(hashSlotsStart + hashCapacity);
+
+			// 5. LEVELS AND ADJACENCY
+
+			putAll(ints, index.levels);
+			putAll(ints, index.levelOffsets);
+			putAll(ints, index.upOffsets);
+			putAll(ints, index.upTargets);
+			putAll(ints, index.directUpOffsets);
+			putAll(ints, index.directUpTargets);
+			putAll(ints, index.directDownOffsets);
+			putAll(ints, index.directDownTargets);
+
+			// 6. POSITIONS
+
+			if (positions != null) {
+
+				final int[] xs = new int[n];
+				final int[] ys = new int[n];
+
+				Arrays.fill(xs, NO_POSITION);
+
+				for (final ModulePosition position : positions) {
+
+					final int id = index
+							.getModuleId(position.getModuleName());
+
+					if (id == -1) {
+						throw new IllegalArgumentException(
+								"Unknown module in positions: \""
+										+ position.getModuleName() + "\"");
+					}
+
+					xs[id] = position.getX();
+					ys[id] = position.getY();
+				}
+
+				ints.put(xs);
+				ints.put(ys);
+			}
+
+			// 7. DURATIONS
+
+			if (!durations.isEmpty()) {
+
+				for (int id = 0; id < n; ++id) {
+
+					final Long duration = durations.get(index
+							.getModuleName(id));
+
+					final long d = duration != null ? duration : NO_DURATION;
+
+					ints.put((int) (d >>> 32));
+					ints.put((int) d);
+				}
+			}
+
+			// 8. MEMBERS
+
+			if (hasMembers) {
+
+				ints.put(memberCount);
+				ints.put((int) memberBytesLength);
+				ints.put(cycleOffsets);
+				ints.put(clusterOffsets);
+
+				int memberOffset = 0;
+
+				for (final byte[] b : memberNames) {
+
+					ints.put(memberOffset);
+
+					memberOffset += b.length;
+				}
+
+				ints.put(memberOffset);
+
+				buffer.position(ints.position() * 4);
+
+				for (final byte[] b : memberNames) {
+					buffer.put(b);
+				}
+			}
+
+			buffer.force();
+
+		} finally {
+
+			raf.close();
+		}
+	}
+
+	private static void checkKnownModules(final DependencyIndex index,
+			final Iterable<String> moduleNames) {
+
+		for (final String moduleName : moduleNames) {
+
+			if (index.getModuleId(moduleName) == -1) {
+				throw new IllegalArgumentException(
+						"Unknown module in members: \"" + moduleName + "\"");
+			}
+		}
+	}
+
+	private static void putAll(final IntBuffer dest, final IntBuffer src) {
+
+		final IntBuffer dup = src.duplicate();
+
+		dup.rewind();
+
+		dest.put(dup);
+	}
+
+	// -------------------------------------------------------------------------
+	//     READ
+	// -------------------------------------------------------------------------
+
+	/**
+	 * memory-map a snapshot file. The returned snapshot reads its data
+	 * lazily from the mapping, which stays valid after the file is closed.
+	 */
+	public static DependencySnapshot read(final File file) throws IOException {
+
+		checkNotNull(file, "file");
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		final MappedByteBuffer buffer;
+
+		try {
+
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+
+		} finally {
+
+			raf.close();
+		}
+
+		return read(buffer, file);
+	}
+
+	static DependencySnapshot read(final ByteBuffer buffer, final Object source)
+			throws IOException {
+
+		if (buffer.limit() < HEADER_INTS * 4) {
+			throw new IOException("Not a snapshot (too short): " + source);
+		}
+
+		final IntBuffer header = ints(buffer, 0, HEADER_INTS);
+
+		if (header.get(0) != MAGIC) {
+			throw new IOException("Not a snapshot (bad magic number): "
+					+ source);
+		}
+
+		if (header.get(1) < 1 || header.get(1) > VERSION) {
+			throw new IOException("Unsupported snapshot version: "
+					+ header.get(1) + " (expected: at most " + VERSION + "): "
+					+ source);
+		}
+
+		final int flags = header.get(2);
+		final int n = header.get(3);
+		final int levelCount = header.get(4);
+		final int upEdgeCount = header.get(5);
+		final int directEdgeCount = header.get(6);
+		final int hashCapacity = header.get(7);
+		final int nameBytesLength = header.get(8);
+
+		final SectionReader sections = new SectionReader(buffer, HEADER_INTS);
+
+		final IntBuffer nameOffsets = sections.next(n + 1);
+		final IntBuffer hashSlots = sections.next(hashCapacity);
+		final IntBuffer levels = sections.next(n);
+		final IntBuffer levelOffsets = sections.next(levelCount + 1);
+		final IntBuffer upOffsets = sections.next(n + 1);
+		final IntBuffer upTargets = sections.next(upEdgeCount);
+		final IntBuffer directUpOffsets = sections.next(n + 1);
+		final IntBuffer directUpTargets = sections.next(directEdgeCount);
+		final IntBuffer directDownOffsets = sections.next(n + 1);
+		final IntBuffer directDownTargets = sections.next(directEdgeCount);
+
+		final IntBuffer xs;
+		final IntBuffer ys;
+
+		if ((flags & FLAG_POSITIONS) != 0) {
+
+			xs = sections.next(n);
+			ys = sections.next(n);
+
+		} else {
+
+			xs = null;
+			ys = null;
+		}
+
+		final IntBuffer durations = (flags & FLAG_DURATIONS) != 0 ? sections
+				.next(2 * n) : null;
+
+		final IntBuffer cycleOffsets;
+		final IntBuffer clusterOffsets;
+		final IntBuffer memberNameOffsets;
+		final ByteBuffer memberNameBytes;
+
+		if ((flags & FLAG_MEMBERS) != 0) {
+
+			final IntBuffer memberCounts = sections.next(2);
+
+			final int memberBytesLength = memberCounts.get(1);
+
+			cycleOffsets = sections.next(n + 1);
+			clusterOffsets = sections.next(n + 1);
+			memberNameOffsets = sections.next(memberCounts.get(0) + 1);
+
+			final int memberBytesStart = sections.intOffset * 4;
+
+			sections.next((memberBytesLength + 3) / 4);
+
+			final ByteBuffer members = buffer.duplicate();
+
+			members.limit(memberBytesStart + memberBytesLength);
+			members.position(memberBytesStart);
+
+			memberNameBytes = members.slice();
+
+		} else {
+
+			cycleOffsets = null;
+			clusterOffsets = null;
+			memberNameOffsets = null;
+			memberNameBytes = null;
+		}
+
+		final int bytesStart = sections.intOffset * 4;
+
+		if (buffer.limit() != bytesStart + nameBytesLength) {
+			throw new IOException("Corrupted snapshot (bad length: "
+					+ buffer.limit() + ", expected: "
+					+ (bytesStart + nameBytesLength) + "): " + source);
+		}
+
+		final ByteBuffer dup = buffer.duplicate();
+
+		dup.position(bytesStart);
+
+		final ByteBuffer nameBytes = dup.slice();
+
+		final DependencyIndex index = new DependencyIndex(new BufferNameTable(
+				nameOffsets, hashSlots, nameBytes), levels, levelOffsets,
+				upOffsets, upTargets, directUpOffsets, directUpTargets,
+				directDownOffsets, directDownTargets);
+
+		return new DependencySnapshot(index, xs, ys, durations, cycleOffsets,
+				clusterOffsets, memberNameOffsets, memberNameBytes);
+	}
+
+	private static IntBuffer ints(final ByteBuffer buffer,
+			final int intOffset, final int count) throws IOException {
+
+		if (count < 0 || ((long) intOffset + count) * 4 > buffer.limit()) {
+			throw new IOException("Corrupted snapshot (section out of bounds)");
+		}
+
+		final ByteBuffer dup = buffer.duplicate();
+
+		dup.limit((intOffset + count) * 4);
+		dup.position(intOffset * 4);
+
+		return dup.slice().asIntBuffer();
+	}
+
+	private static final class SectionReader {
+
+		private final ByteBuffer buffer;
+
+		public int intOffset;
+
+		public SectionReader(final ByteBuffer buffer, final int intOffset) {
+
+			this.buffer = buffer;
+			this.intOffset = intOffset;
+		}
+
+		public IntBuffer next(final int count) throws IOException {
+
+			final IntBuffer section = ints(buffer, intOffset, count);
+
+			intOffset += count;
+
+			return section;
+		}
+	}
+
+	private static final class SnapshotModulePosition implements
+			ModulePosition {
+
+		private final String moduleName;
+		private final int x;
+		private final int y;
+
+		public SnapshotModulePosition(
+				final String moduleName,
+				final int x,
+				final int y) {
+
+			this.moduleName = moduleName;
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public String getModuleName() {
+
+			return moduleName;
+		}
+
+		@Override
+		public int getX() {
+
+			return x;
+		}
+
+		@Override
+		public int getY() {
+
+			return y;
+		}
+
+		@Override
+		public String toString() {
+
+			return moduleName;
+		}
+	}
+}
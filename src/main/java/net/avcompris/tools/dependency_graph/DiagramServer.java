@@ -0,0 +1,519 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.FileUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class is a long-running HTTP service that renders SVG diagrams, so
+ * that analyses and layouts stay in memory, and the JVM stays warm, between
+ * two diagrams. It listens on the loopback interface only.
+ * <p>
+ * Requests are:
+ * <ul>
+ * <li><tt>POST /diagram</tt>, with a <tt>jobsConfig</tt> XML document as
+ * the body, see {@link JobsConfigLoader};
+ * <li><tt>GET /diagram?path=…</tt>, where the path, relative to the base
+ * directory, is a <tt>jobsConfig</tt> XML file, or a directory tree of
+ * <tt>pom.xml</tt> files, see {@link PomScanner}.
+ * </ul>
+ * Both accept an optional <tt>timeoutMs</tt> parameter, passed to
+ * {@link DependencyDiagrammer#drawTo(long, File)}, <tt>0</tt> by default.
+ * Negative values, which would turn the timeout off, are rejected, and
+ * values above {@link #setMaxTimeoutMs(long)} are capped.
+ * <p>
+ * Each graph gets a fingerprint, a digest of its sorted modules and edges.
+ * Concurrent requests for the same fingerprint share one computation: The
+ * first request puts a {@link FutureTask} into the cache and runs it, the
+ * others wait for it. The fingerprint is also the <tt>ETag</tt> of the
+ * SVG, and a request whose <tt>If-None-Match</tt> matches gets a
+ * <tt>304 Not Modified</tt>.
+ */
+public class DiagramServer {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File baseDir;
+
+	private final HttpServer httpServer;
+
+	private final ExecutorService executor;
+
+	private final PomScanner pomScanner = new PomScanner();
+
+	private final int maxCacheSize;
+
+	private final ConcurrentMap<String, FutureTask<DependencyAnalysis>> analyses = new ConcurrentHashMap<String, FutureTask<DependencyAnalysis>>();
+
+	private final ConcurrentMap<String, FutureTask<byte[]>> svgs = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+	private final Queue<String> cacheOrder = new ConcurrentLinkedQueue<String>();
+
+	static final long DEFAULT_MAX_TIMEOUT_MS = 10000L;
+
+	private volatile long maxTimeoutMs = DEFAULT_MAX_TIMEOUT_MS;
+
+	/**
+	 * set the largest <tt>timeoutMs</tt> that a request gets: Larger values
+	 * are capped, so that no layout holds a thread, and the requests that
+	 * wait for it, longer than that. Default is
+	 * {@value #DEFAULT_MAX_TIMEOUT_MS}.
+	 */
+	public DiagramServer setMaxTimeoutMs(final long maxTimeoutMs) {
+
+		checkArgument(maxTimeoutMs >= 0, "maxTimeoutMs should be >= 0: %s",
+				maxTimeoutMs);
+
+		this.maxTimeoutMs = maxTimeoutMs;
+
+		return this;
+	}
+
+	/**
+	 * the number of layouts actually computed, i.e. not served from the
+	 * cache, for tests.
+	 */
+	final AtomicInteger layoutCount = new AtomicInteger();
+
+	/**
+	 * @param port the port to listen to, or <tt>0</tt> for any free port.
+	 * @param baseDir the directory that paths in requests are relative to.
+	 * @param threadCount the number of threads serving requests.
+	 * @param maxCacheSize the number of diagrams kept in memory.
+	 */
+	public DiagramServer(
+			final int port,
+			final File baseDir,
+			final int threadCount,
+			final int maxCacheSize) throws IOException {
+
+		checkArgument(threadCount > 0, "threadCount should be > 0, but was: %s",
+				threadCount);
+		checkArgument(maxCacheSize > 0,
+				"maxCacheSize should be > 0, but was: %s", maxCacheSize);
+
+		this.baseDir = checkNotNull(baseDir, "baseDir").getCanonicalFile();
+		this.maxCacheSize = maxCacheSize;
+
+		httpServer = HttpServer.create(
+				new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port),
+				0);
+
+		httpServer.createContext("/diagram", new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				try {
+
+					handleDiagram(exchange);
+
+				} finally {
+
+					exchange.close();
+				}
+			}
+		});
+
+		executor = Executors.newFixedThreadPool(threadCount);
+
+		httpServer.setExecutor(executor);
+	}
+
+	public DiagramServer start() {
+
+		httpServer.start();
+
+		return this;
+	}
+
+	public void stop() {
+
+		httpServer.stop(0);
+
+		executor.shutdown();
+	}
+
+	/**
+	 * return the port actually listened to.
+	 */
+	public int getPort() {
+
+		return httpServer.getAddress().getPort();
+	}
+
+	// -------------------------------------------------------------------------
+	//     REQUESTS
+	// -------------------------------------------------------------------------
+
+	private void handleDiagram(final HttpExchange exchange) throws IOException {
+
+		final String method = exchange.getRequestMethod();
+
+		final String path = getParameter(exchange, "path");
+		final String timeoutMsParam = getParameter(exchange, "timeoutMs");
+
+		final long requestedTimeoutMs;
+
+		try {
+
+			requestedTimeoutMs = timeoutMsParam == null ? 0L : Long
+					.parseLong(timeoutMsParam);
+
+		} catch (final NumberFormatException e) {
+
+			sendText(exchange, 400, "Illegal timeoutMs: " + timeoutMsParam);
+
+			return;
+		}
+
+		if (requestedTimeoutMs < 0) {
+
+			sendText(exchange, 400, "timeoutMs should be >= 0: "
+					+ timeoutMsParam);
+
+			return;
+		}
+
+		final long timeoutMs = Math.min(requestedTimeoutMs, maxTimeoutMs);
+
+		// 1. LOAD THE MODULES
+
+		final Collection<Module> modules;
+
+		try {
+
+			if ("POST".equals(method)) {
+
+				modules = JobsConfigLoader.loadModules(exchange
+						.getRequestBody());
+
+			} else if ("GET".equals(method) && path != null) {
+
+				final File file = new File(baseDir, path).getCanonicalFile();
+
+				if (!isInBaseDir(file)) {
+
+					sendText(exchange, 403, "Forbidden path: " + path);
+
+					return;
+
+				} else if (file.isDirectory()) {
+
+					modules = pomScanner.scan(file);
+
+				} else if (file.isFile()) {
+
+					modules = JobsConfigLoader.loadModules(file);
+
+				} else {
+
+					sendText(exchange, 404, "Not found: " + path);
+
+					return;
+				}
+
+			} else {
+
+				sendText(exchange, 400, "Expected: POST /diagram,"
+						+ " or GET /diagram?path=...");
+
+				return;
+			}
+
+		} catch (final IOException e) {
+
+			if (!(e.getCause() instanceof XMLStreamException)) {
+				throw e;
+			}
+
+			sendText(exchange, 400, "Cannot parse: " + e.getCause().getMessage());
+
+			return;
+
+		} catch (final IllegalArgumentException e) {
+
+			sendText(exchange, 400, "Illegal graph: " + e.getMessage());
+
+			return;
+		}
+
+		// 2. FINGERPRINT, ETAG
+
+		final String fingerprint = fingerprint(modules);
+
+		final String etag = "\"" + fingerprint + "-" + timeoutMs + "\"";
+
+		exchange.getResponseHeaders().set("ETag", etag);
+
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+
+			exchange.sendResponseHeaders(304, -1);
+
+			return;
+		}
+
+		// 3. SVG, SHARED WITH CONCURRENT REQUESTS
+
+		final byte[] svg;
+
+		try {
+
+			svg = getSVG(fingerprint, modules, timeoutMs);
+
+		} catch (final ExecutionException e) {
+
+			if (e.getCause() instanceof IllegalArgumentException) {
+
+				sendText(exchange, 400, "Illegal graph: "
+						+ e.getCause().getMessage());
+
+			} else {
+
+				sendText(exchange, 500, "Cannot draw diagram: " + e.getCause());
+			}
+
+			return;
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "image/svg+xml");
+
+		exchange.sendResponseHeaders(200, svg.length);
+
+		final OutputStream os = exchange.getResponseBody();
+
+		os.write(svg);
+		os.flush();
+	}
+
+	/**
+	 * return <tt>true</tt> if a canonical file is the base directory or is
+	 * within it. A plain prefix test would let
+	 * <tt>/srv/graphs-secret</tt> through for <tt>/srv/graphs</tt>.
+	 */
+	private boolean isInBaseDir(final File file) {
+
+		return file.equals(baseDir)
+				|| file.getPath().startsWith(
+						baseDir.getPath().endsWith(File.separator) ? baseDir
+								.getPath() : baseDir.getPath()
+								+ File.separator);
+	}
+
+	@Nullable
+	private static String getParameter(final HttpExchange exchange,
+			final String name) throws IOException {
+
+		final String query = exchange.getRequestURI().getRawQuery();
+
+		if (query == null) {
+			return null;
+		}
+
+		for (final String param : query.split("&")) {
+
+			final int eq = param.indexOf('=');
+
+			if (eq != -1 && name.equals(param.substring(0, eq))) {
+				return URLDecoder.decode(param.substring(eq + 1), "UTF-8");
+			}
+		}
+
+		return null;
+	}
+
+	private static void sendText(final HttpExchange exchange,
+			final int statusCode, final String text) throws IOException {
+
+		final byte[] bytes = text.getBytes(UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset=UTF-8");
+
+		exchange.sendResponseHeaders(statusCode, bytes.length);
+
+		final OutputStream os = exchange.getResponseBody();
+
+		os.write(bytes);
+		os.flush();
+	}
+
+	// -------------------------------------------------------------------------
+	//     COMPUTATIONS
+	// -------------------------------------------------------------------------
+
+	/**
+	 * return a digest of the modules and edges, that does not depend on
+	 * the order they are declared in.
+	 */
+	static String fingerprint(final Iterable<Module> modules) {
+
+		final Set<String> lines = new TreeSet<String>();
+
+		for (final Module module : modules) {
+
+			lines.add(module.name);
+
+			for (final String downstream : module.getDownstreamModules()) {
+				lines.add(module.name + "\t" + downstream);
+			}
+
+			for (final String upstream : module.getUpstreamModules()) {
+				lines.add(upstream + "\t" + module.name);
+			}
+		}
+
+		final MessageDigest digest;
+
+		try {
+
+			digest = MessageDigest.getInstance("SHA-1");
+
+		} catch (final NoSuchAlgorithmException e) {
+
+			throw new RuntimeException(e);
+		}
+
+		for (final String line : lines) {
+
+			digest.update(line.getBytes(UTF_8));
+			digest.update((byte) '\n');
+		}
+
+		final StringBuilder sb = new StringBuilder();
+
+		for (final byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+					Character.forDigit(b & 0xf, 16));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * return the value cached under a key, computing it in the current
+	 * thread if no other thread does.
+	 */
+	private <T> T getOrCompute(final ConcurrentMap<String, FutureTask<T>> cache,
+			final String key, final Callable<T> callable)
+			throws ExecutionException {
+
+		final FutureTask<T> task = new FutureTask<T>(callable);
+
+		FutureTask<T> cached = cache.putIfAbsent(key, task);
+
+		if (cached == null) {
+
+			cached = task;
+
+			cached.run();
+
+			cacheOrder.add(key);
+
+			evict();
+		}
+
+		try {
+
+			return cached.get();
+
+		} catch (final InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+
+			throw new ExecutionException(e);
+
+		} catch (final ExecutionException e) {
+
+			cache.remove(key, cached); // Let the next request retry
+
+			throw e;
+		}
+	}
+
+	private void evict() {
+
+		while (cacheOrder.size() > 2 * maxCacheSize) {
+
+			final String key = cacheOrder.poll();
+
+			if (key == null) {
+				break;
+			}
+
+			analyses.remove(key);
+			svgs.remove(key);
+		}
+	}
+
+	private byte[] getSVG(final String fingerprint,
+			final Collection<Module> modules, final long timeoutMs)
+			throws ExecutionException {
+
+		final DependencyAnalysis analysis = getOrCompute(analyses,
+				fingerprint, new Callable<DependencyAnalysis>() {
+
+					@Override
+					public DependencyAnalysis call() throws Exception {
+
+						return new DependencyAnalysis(modules, true);
+					}
+				});
+
+		return getOrCompute(svgs, fingerprint + "-" + timeoutMs,
+				new Callable<byte[]>() {
+
+					@Override
+					public byte[] call() throws Exception {
+
+						layoutCount.incrementAndGet();
+
+						final File svgFile = File.createTempFile(
+								"DiagramServer-", ".svg");
+
+						try {
+
+							new DependencyDiagrammer(analysis).setQuiet(true)
+									.drawTo(timeoutMs, svgFile);
+
+							return FileUtils.readFileToByteArray(svgFile);
+
+						} finally {
+
+							FileUtils.deleteQuietly(svgFile);
+						}
+					}
+				});
+	}
+}
@@ -0,0 +1,240 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * This class computes the dominator tree of a dependency graph, from a
+ * virtual root upstream of all modules with no upstream: A module
+ * dominates another one if every chain of declared dependencies from a
+ * module with no upstream to the other one goes through it. In other
+ * words, if a module’s job breaks, the jobs of all the modules it
+ * dominates are blocked, whatever else happens.
+ * <p>
+ * Since the graph is acyclic and module ids are in topological order, the
+ * immediate dominator of a module is the nearest common ancestor, in the
+ * tree built so far, of all its declared upstreams. Ancestors are found by
+ * binary lifting, so that the whole tree is built in
+ * <tt>O(E log N)</tt>, and the numbers of dominated modules in one more
+ * linear pass.
+ * <p>
+ * Instances are immutable, hence thread-safe.
+ */
+public class DominatorTree {
+
+	private final DependencyIndex index;
+
+	/**
+	 * <tt>jumps[j][id]</tt> is the ancestor <tt>2^j</tt> levels above the
+	 * module in the dominator tree, or <tt>-1</tt> for the virtual root.
+	 */
+	private final int[][] jumps;
+
+	private final int[] depth;
+
+	private final int[] dominatedCount;
+
+	public DominatorTree(final DependencyAnalysis analysis) {
+
+		this(checkNotNull(analysis, "analysis").getIndex());
+	}
+
+	public DominatorTree(final DependencyIndex index) {
+
+		this.index = checkNotNull(index, "index");
+
+		final int n = index.size();
+
+		int log = 1;
+
+		while ((1 << log) <= n) {
+			++log;
+		}
+
+		jumps = new int[log][n];
+		depth = new int[n];
+		dominatedCount = new int[n];
+
+		// 1. IMMEDIATE DOMINATORS, IN TOPOLOGICAL ORDER
+
+		for (int id = 0; id < n; ++id) {
+
+			final int count = index.getUpstreamCount(id);
+
+			int idom = count == 0 ? -1 : index.getUpstream(id, 0);
+
+			for (int k = 1; k < count && idom != -1; ++k) {
+
+				idom = getCommonDominator(idom, index.getUpstream(id, k));
+			}
+
+			jumps[0][id] = idom;
+			depth[id] = idom == -1 ? 0 : depth[idom] + 1;
+
+			for (int j = 1; j < log; ++j) {
+
+				final int half = jumps[j - 1][id];
+
+				jumps[j][id] = half == -1 ? -1 : jumps[j - 1][half];
+			}
+		}
+
+		// 2. SIZES OF SUBTREES, IN REVERSE TOPOLOGICAL ORDER
+
+		final int[] subtreeSize = new int[n];
+
+		for (int id = n - 1; id >= 0; --id) {
+
+			subtreeSize[id] += 1;
+
+			dominatedCount[id] = subtreeSize[id] - 1;
+
+			final int idom = jumps[0][id];
+
+			if (idom != -1) {
+				subtreeSize[idom] += subtreeSize[id];
+			}
+		}
+	}
+
+	/**
+	 * return the ancestor of a module in the tree, that many levels above.
+	 */
+	private int lift(final int id, final int levels) {
+
+		int ancestor = id;
+
+		for (int j = 0; ancestor != -1 && (levels >> j) != 0; ++j) {
+
+			if (((levels >> j) & 1) != 0) {
+				ancestor = jumps[j][ancestor];
+			}
+		}
+
+		return ancestor;
+	}
+
+	/**
+	 * return the nearest common ancestor of two modules in the tree, or
+	 * <tt>-1</tt> if it is the virtual root.
+	 */
+	private int getCommonDominator(final int id1, final int id2) {
+
+		int a = depth[id1] >= depth[id2] ? id1 : id2;
+		int b = a == id1 ? id2 : id1;
+
+		a = lift(a, depth[a] - depth[b]);
+
+		if (a == b) {
+			return a;
+		}
+
+		for (int j = jumps.length - 1; j >= 0; --j) {
+
+			if (jumps[j][a] != jumps[j][b]) {
+
+				a = jumps[j][a];
+				b = jumps[j][b];
+			}
+		}
+
+		return jumps[0][a];
+	}
+
+	private int getId(final String moduleName) {
+
+		checkNotNull(moduleName, "moduleName");
+
+		final int id = index.getModuleId(moduleName);
+
+		if (id == -1) {
+			throw new IllegalArgumentException("Unknown module: \""
+					+ moduleName + "\"");
+		}
+
+		return id;
+	}
+
+	/**
+	 * return the nearest module that dominates a given one, or
+	 * <tt>null</tt> if none does, i.e. if only the virtual root does.
+	 */
+	@Nullable
+	public String getImmediateDominator(final String moduleName) {
+
+		final int idom = jumps[0][getId(moduleName)];
+
+		return idom == -1 ? null : index.getModuleName(idom);
+	}
+
+	/**
+	 * return the number of modules that a module dominates, itself
+	 * excluded: The number of modules blocked if its job breaks.
+	 */
+	public int getDominatedCount(final String moduleName) {
+
+		return dominatedCount[getId(moduleName)];
+	}
+
+	/**
+	 * return <tt>true</tt> if every chain of dependencies that leads to
+	 * <tt>moduleName</tt> goes through <tt>dominator</tt>. A module
+	 * dominates itself.
+	 */
+	public boolean dominates(final String dominator, final String moduleName) {
+
+		final int d = getId(dominator);
+		final int id = getId(moduleName);
+
+		return depth[id] >= depth[d] && lift(id, depth[id] - depth[d]) == d;
+	}
+
+	/**
+	 * return the modules that dominate at least one other module, the ones
+	 * that dominate the most first, then in build order.
+	 *
+	 * @param max the maximum number of modules returned.
+	 */
+	public List<String> getTopDominators(final int max) {
+
+		checkArgument(max >= 0, "max should be >= 0: %s", max);
+
+		final List<Integer> ids = new ArrayList<Integer>();
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			if (dominatedCount[id] != 0) {
+				ids.add(id);
+			}
+		}
+
+		final Integer[] sorted = ids.toArray(new Integer[ids.size()]);
+
+		Arrays.sort(sorted, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer id1, final Integer id2) {
+
+				final int c = dominatedCount[id2] - dominatedCount[id1];
+
+				return c != 0 ? c : id1 - id2;
+			}
+		});
+
+		final List<String> dominators = new ArrayList<String>();
+
+		for (int i = 0; i < sorted.length && i < max; ++i) {
+
+			dominators.add(index.getModuleName(sorted[i]));
+		}
+
+		return dominators;
+	}
+}
@@ -0,0 +1,237 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class answers change-impact queries: Given a set of changed modules,
+ * which modules must be rebuilt, and in which order? The answer is the
+ * changed modules and all their transitive downstreams, in topological
+ * order, i.e. upstreams first.
+ * <p>
+ * A single query is a breadth-first traversal of the direct downstream
+ * edges of the {@link DependencyIndex}, which only touches the impacted
+ * modules. Since module ids are in topological order, sorting the visited
+ * ids gives the build order.
+ * <p>
+ * A batch of queries is answered by sweeping the whole index once per 64
+ * queries: Each module holds a 64-bit mask of the queries that impact it,
+ * and masks are propagated from upstreams to downstreams in id order.
+ * <p>
+ * Instances are thread-safe: Each thread uses its own traversal buffers.
+ */
+public class ImpactAnalyzer {
+
+	private final DependencyIndex index;
+
+	private final ThreadLocal<IndexTraversal> traversals = new ThreadLocal<IndexTraversal>() {
+
+		@Override
+		protected IndexTraversal initialValue() {
+
+			return new IndexTraversal(index);
+		}
+	};
+
+	public ImpactAnalyzer(final DependencyAnalysis analysis) {
+
+		this(checkNotNull(analysis, "analysis").getIndex());
+	}
+
+	public ImpactAnalyzer(final DependencyIndex index) {
+
+		this.index = checkNotNull(index, "index");
+	}
+
+	private int[] toIds(final Collection<String> moduleNames) {
+
+		checkNotNull(moduleNames, "moduleNames");
+
+		final int[] ids = new int[moduleNames.size()];
+
+		int i = 0;
+
+		for (final String moduleName : moduleNames) {
+
+			checkNotNull(moduleName, "moduleName");
+
+			final int id = index.getModuleId(moduleName);
+
+			if (id == -1) {
+				throw new IllegalArgumentException("Unknown module: \""
+						+ moduleName + "\"");
+			}
+
+			ids[i++] = id;
+		}
+
+		return ids;
+	}
+
+	private List<String> toNames(final int[] ids) {
+
+		final List<String> names = new ArrayList<String>(ids.length);
+
+		for (final int id : ids) {
+			names.add(index.getModuleName(id));
+		}
+
+		return names;
+	}
+
+	// -------------------------------------------------------------------------
+	//     SINGLE QUERIES
+	// -------------------------------------------------------------------------
+
+	/**
+	 * return the ids of the changed modules and of all their transitive
+	 * downstreams, in ascending order, which is a build order.
+	 */
+	public int[] getImpactedIds(final int... changedIds) {
+
+		checkNotNull(changedIds, "changedIds");
+
+		final IndexTraversal traversal = traversals.get();
+
+		final int size = traversal.visitDownstreams(changedIds);
+
+		final int[] ids = new int[size];
+
+		for (int k = 0; k < size; ++k) {
+			ids[k] = traversal.get(k);
+		}
+
+		Arrays.sort(ids);
+
+		return ids;
+	}
+
+	/**
+	 * return the names of the changed modules and of all their transitive
+	 * downstreams, in build order.
+	 */
+	public List<String> getImpactedModules(
+			final Collection<String> changedModuleNames) {
+
+		return toNames(getImpactedIds(toIds(changedModuleNames)));
+	}
+
+	// -------------------------------------------------------------------------
+	//     BATCH QUERIES
+	// -------------------------------------------------------------------------
+
+	/**
+	 * answer several queries at once. The result at index <tt>i</tt> is the
+	 * answer to the query at index <tt>i</tt>, in build order.
+	 */
+	public List<int[]> getImpactedIds(final List<int[]> batch) {
+
+		checkNotNull(batch, "batch");
+
+		final int n = index.size();
+
+		final List<int[]> results = new ArrayList<int[]>(batch.size());
+
+		final long[] masks = new long[n];
+
+		for (int first = 0; first < batch.size(); first += 64) {
+
+			final int count = Math.min(64, batch.size() - first);
+
+			// 1. SEED THE CHANGED MODULES
+
+			Arrays.fill(masks, 0L);
+
+			for (int q = 0; q < count; ++q) {
+
+				final int[] changedIds = checkNotNull(batch.get(first + q),
+						"query #%s", first + q);
+
+				for (final int id : changedIds) {
+
+					if (id < 0 || id >= n) {
+						throw new IndexOutOfBoundsException("id: " + id
+								+ ", size: " + n);
+					}
+
+					masks[id] |= 1L << q;
+				}
+			}
+
+			// 2. PROPAGATE, UPSTREAMS FIRST
+
+			final int[] sizes = new int[count];
+
+			for (int id = 0; id < n; ++id) {
+
+				long mask = masks[id];
+
+				final int upstreamCount = index.getDirectUpstreamCount(id);
+
+				for (int k = 0; k < upstreamCount; ++k) {
+
+					mask |= masks[index.getDirectUpstream(id, k)];
+				}
+
+				masks[id] = mask;
+
+				for (long m = mask; m != 0; m &= m - 1) {
+
+					++sizes[Long.numberOfTrailingZeros(m)];
+				}
+			}
+
+			// 3. COLLECT, IN ID ORDER
+
+			final int[][] chunk = new int[count][];
+
+			for (int q = 0; q < count; ++q) {
+				chunk[q] = new int[sizes[q]];
+			}
+
+			final int[] positions = new int[count];
+
+			for (int id = 0; id < n; ++id) {
+
+				for (long m = masks[id]; m != 0; m &= m - 1) {
+
+					final int q = Long.numberOfTrailingZeros(m);
+
+					chunk[q][positions[q]++] = id;
+				}
+			}
+
+			results.addAll(Arrays.asList(chunk));
+		}
+
+		return results;
+	}
+
+	/**
+	 * answer several queries at once, by module names.
+	 */
+	public List<List<String>> getImpactedModules(
+			final Iterable<? extends Collection<String>> batch) {
+
+		checkNotNull(batch, "batch");
+
+		final List<int[]> idBatch = new ArrayList<int[]>();
+
+		for (final Collection<String> changedModuleNames : batch) {
+			idBatch.add(toIds(changedModuleNames));
+		}
+
+		final List<List<String>> results = new ArrayList<List<String>>(
+				idBatch.size());
+
+		for (final int[] ids : getImpactedIds(idBatch)) {
+			results.add(toNames(ids));
+		}
+
+		return results;
+	}
+}
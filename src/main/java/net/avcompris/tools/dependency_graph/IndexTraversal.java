@@ -0,0 +1,191 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * This class performs breadth-first traversals of the direct edges of a
+ * {@link DependencyIndex}, in either direction.
+ * <p>
+ * Its queue and visit marks are allocated once, off-heap, and reused by
+ * every traversal: A traversal does not allocate any object, so that very
+ * large (memory-mapped) graphs can be traversed with near-zero GC pressure.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class IndexTraversal {
+
+	private final DependencyIndex index;
+
+	private final IntBuffer queue;
+
+	private final IntBuffer marks;
+
+	private int epoch = 0;
+
+	private int size = 0;
+
+	public IndexTraversal(final DependencyIndex index) {
+
+		this.index = checkNotNull(index, "index");
+
+		final int n = index.size();
+
+		queue = ByteBuffer.allocateDirect(n * 4).asIntBuffer();
+		marks = ByteBuffer.allocateDirect(n * 4).asIntBuffer();
+	}
+
+	/**
+	 * visit the given modules and all their transitive downstreams.
+	 *
+	 * @return the number of modules visited, start modules included.
+	 */
+	public int visitDownstreams(final int... startIds) {
+
+		return visit(true, Integer.MAX_VALUE, startIds);
+	}
+
+	/**
+	 * visit the given modules and all their transitive upstreams.
+	 *
+	 * @return the number of modules visited, start modules included.
+	 */
+	public int visitUpstreams(final int... startIds) {
+
+		return visit(false, Integer.MAX_VALUE, startIds);
+	}
+
+	/**
+	 * visit the given modules and their transitive downstreams, at most
+	 * <tt>maxHops</tt> direct edges away.
+	 *
+	 * @return the number of modules visited, start modules included.
+	 */
+	public int visitDownstreamsWithin(final int maxHops,
+			final int... startIds) {
+
+		return visit(true, maxHops, startIds);
+	}
+
+	/**
+	 * visit the given modules and their transitive upstreams, at most
+	 * <tt>maxHops</tt> direct edges away.
+	 *
+	 * @return the number of modules visited, start modules included.
+	 */
+	public int visitUpstreamsWithin(final int maxHops, final int... startIds) {
+
+		return visit(false, maxHops, startIds);
+	}
+
+	private int visit(final boolean downstreams, final int maxHops,
+			final int[] startIds) {
+
+		checkNotNull(startIds, "startIds");
+		checkArgument(maxHops >= 0, "maxHops should be >= 0: %s", maxHops);
+
+		nextEpoch();
+
+		size = 0;
+
+		for (final int id : startIds) {
+			enqueue(id);
+		}
+
+		// Modules of the current hop end at layerEnd
+
+		int hops = 0;
+		int layerEnd = size;
+
+		for (int head = 0; head < size; ++head) {
+
+			if (head == layerEnd) {
+
+				++hops;
+
+				layerEnd = size;
+			}
+
+			if (hops == maxHops) {
+				break;
+			}
+
+			final int id = queue.get(head);
+
+			if (downstreams) {
+
+				final int count = index.getDirectDownstreamCount(id);
+
+				for (int k = 0; k < count; ++k) {
+					enqueue(index.getDirectDownstream(id, k));
+				}
+
+			} else {
+
+				final int count = index.getDirectUpstreamCount(id);
+
+				for (int k = 0; k < count; ++k) {
+					enqueue(index.getDirectUpstream(id, k));
+				}
+			}
+		}
+
+		return size;
+	}
+
+	private void enqueue(final int id) {
+
+		if (marks.get(id) != epoch) {
+
+			marks.put(id, epoch);
+
+			queue.put(size++, id);
+		}
+	}
+
+	private void nextEpoch() {
+
+		if (epoch == Integer.MAX_VALUE) {
+
+			for (int id = 0; id < index.size(); ++id) {
+				marks.put(id, 0);
+			}
+
+			epoch = 0;
+		}
+
+		++epoch;
+	}
+
+	/**
+	 * return the number of modules visited by the last traversal.
+	 */
+	public int size() {
+
+		return size;
+	}
+
+	/**
+	 * return the id of the k-th module visited by the last traversal, in
+	 * breadth-first order.
+	 */
+	public int get(final int k) {
+
+		if (k < 0 || k >= size) {
+			throw new IndexOutOfBoundsException("k: " + k + ", size: " + size);
+		}
+
+		return queue.get(k);
+	}
+
+	/**
+	 * return <tt>true</tt> if a module was visited by the last traversal.
+	 */
+	public boolean isVisited(final int id) {
+
+		return epoch != 0 && marks.get(id) == epoch;
+	}
+}
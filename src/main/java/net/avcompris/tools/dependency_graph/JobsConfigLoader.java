@@ -0,0 +1,180 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * This class loads {@link Module}s from a <tt>jobsConfig</tt> XML file:
+ * A <tt>&lt;jobConfigs&gt;</tt> root element, with one
+ * <tt>&lt;jobConfig&gt;</tt> per Jenkins job, each holding the job’s
+ * <tt>&lt;name&gt;</tt> and the names of its
+ * <tt>&lt;downstreamProject&gt;</tt>s and <tt>&lt;upstreamProject&gt;</tt>s.
+ * <p>
+ * The file is read with a streaming XML reader.
+ */
+public final class JobsConfigLoader {
+
+	private JobsConfigLoader() {
+
+	}
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+	private static XMLInputFactory createXMLInputFactory() {
+
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				false);
+
+		return factory;
+	}
+
+	public static Collection<Module> loadModules(final File file)
+			throws IOException {
+
+		checkNotNull(file, "file");
+
+		final InputStream is = new FileInputStream(file);
+
+		try {
+
+			return loadModules(is);
+
+		} finally {
+
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	public static Collection<Module> loadModules(final InputStream is)
+			throws IOException {
+
+		checkNotNull(is, "is");
+
+		try {
+
+			final XMLStreamReader reader = XML_INPUT_FACTORY
+					.createXMLStreamReader(is);
+
+			try {
+
+				return loadModules(reader);
+
+			} finally {
+
+				reader.close();
+			}
+
+		} catch (final XMLStreamException e) {
+
+			throw new IOException(e);
+		}
+	}
+
+	private static final String JOB_NAME = "/jobConfigs/jobConfig/name";
+	private static final String DOWNSTREAM_NAME = "/jobConfigs/jobConfig/downstreamProject/name";
+	private static final String UPSTREAM_NAME = "/jobConfigs/jobConfig/upstreamProject/name";
+	private static final String JOB = "/jobConfigs/jobConfig";
+
+	private static Collection<Module> loadModules(final XMLStreamReader reader)
+			throws XMLStreamException {
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		final StringBuilder path = new StringBuilder();
+		final StringBuilder text = new StringBuilder();
+
+		String name = null;
+
+		final List<String> downstreams = new ArrayList<String>();
+		final List<String> upstreams = new ArrayList<String>();
+
+		while (reader.hasNext()) {
+
+			switch (reader.next()) {
+
+			case XMLStreamConstants.START_ELEMENT:
+
+				path.append('/').append(reader.getLocalName());
+
+				text.setLength(0);
+
+				break;
+
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+
+				text.append(reader.getText());
+
+				break;
+
+			case XMLStreamConstants.END_ELEMENT:
+
+				final String p = path.toString();
+
+				if (JOB_NAME.equals(p)) {
+
+					name = text.toString().trim();
+
+				} else if (DOWNSTREAM_NAME.equals(p)) {
+
+					downstreams.add(text.toString().trim());
+
+				} else if (UPSTREAM_NAME.equals(p)) {
+
+					upstreams.add(text.toString().trim());
+
+				} else if (JOB.equals(p)) {
+
+					if (name == null) {
+						throw new XMLStreamException(
+								"jobConfig has no name", reader.getLocation());
+					}
+
+					final Module module = new Module(name);
+
+					for (final String downstream : downstreams) {
+						module.addToDownstreamModules(downstream);
+					}
+
+					for (final String upstream : upstreams) {
+						module.addToUpstreamModules(upstream);
+					}
+
+					modules.add(module);
+
+					name = null;
+					downstreams.clear();
+					upstreams.clear();
+				}
+
+				path.setLength(path.lastIndexOf("/"));
+
+				text.setLength(0);
+
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		return modules;
+	}
+}
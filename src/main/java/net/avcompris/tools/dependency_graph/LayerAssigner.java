@@ -0,0 +1,295 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class assigns modules to levels so that edges between direct
+ * upstreams and downstreams span fewer levels than with the default
+ * assignment, where each module is on the level just below its deepest
+ * upstream (longest path from the top.) It may also cap the number of
+ * modules on any level.
+ * <p>
+ * Minimizing the total span exactly is what network simplex does; This
+ * class uses a faster approximation:
+ * <ol>
+ * <li>Starting from the default levels, modules of levels wider than the
+ * cap are deferred to the next level, those with the most room below them
+ * first, and their downstreams are pushed down if needed;
+ * <li>Each module then moves, within the levels allowed by its direct
+ * upstreams and downstreams, toward the side where it has more edges,
+ * as far as a level has room for it. This is repeated until no module
+ * moves. Each move decreases the total span, so this ends.
+ * </ol>
+ * Modules without downstreams never go below the last level, so sources
+ * with few downstreams are what typically moves, toward their downstreams.
+ */
+public class LayerAssigner {
+
+	private final DependencyIndex index;
+
+	private final Map<String, List<String>> cycleMembers;
+
+	private final Map<String, List<String>> clusterMembers;
+
+	private final Map<String, Long> durations;
+
+	private int maxLevelWidth = Integer.MAX_VALUE;
+
+	public LayerAssigner(final DependencyAnalysis analysis) {
+
+		this(checkNotNull(analysis, "analysis").getIndex(),
+				analysis.cycleMembers, analysis.clusterMembers,
+				analysis.moduleDurations);
+	}
+
+	public LayerAssigner(final DependencyIndex index) {
+
+		this(index, Collections.<String, List<String>> emptyMap(),
+				Collections.<String, List<String>> emptyMap(), Collections
+						.<String, Long> emptyMap());
+	}
+
+	private LayerAssigner(final DependencyIndex index,
+			final Map<String, List<String>> cycleMembers,
+			final Map<String, List<String>> clusterMembers,
+			final Map<String, Long> durations) {
+
+		this.index = checkNotNull(index, "index");
+		this.cycleMembers = cycleMembers;
+		this.clusterMembers = clusterMembers;
+		this.durations = durations;
+	}
+
+	/**
+	 * set the maximum number of modules on any level. Default is no limit.
+	 */
+	public LayerAssigner setMaxLevelWidth(final int maxLevelWidth) {
+
+		checkArgument(maxLevelWidth >= 1, "maxLevelWidth should be >= 1: %s",
+				maxLevelWidth);
+
+		this.maxLevelWidth = maxLevelWidth;
+
+		return this;
+	}
+
+	/**
+	 * return a new analysis of the same modules, with levels assigned by
+	 * this class. It can be passed to a {@link DependencyDiagrammer}.
+	 */
+	public DependencyAnalysis assign() {
+
+		return new DependencyAnalysis(index.withLevels(assignLevels()),
+				cycleMembers, clusterMembers, durations);
+	}
+
+	/**
+	 * return the new level of each module, indexed by module id.
+	 */
+	int[] assignLevels() {
+
+		final int n = index.size();
+
+		final int[] levels = new int[n];
+
+		for (int id = 0; id < n; ++id) {
+			levels[id] = index.getLevel(id);
+		}
+
+		if (maxLevelWidth < n) {
+			capLevelWidths(levels);
+		}
+
+		int levelCount = 0;
+
+		for (int id = 0; id < n; ++id) {
+			levelCount = Math.max(levelCount, levels[id] + 1);
+		}
+
+		final int[] widths = new int[levelCount];
+
+		for (int id = 0; id < n; ++id) {
+			++widths[levels[id]];
+		}
+
+		// 1. MOVE MODULES TOWARD THEIR MAJORITY SIDE, UNTIL STABLE
+
+		for (boolean moved = true; moved;) {
+
+			moved = false;
+
+			for (int id = 0; id < n; ++id) {
+
+				final int upCount = index.getDirectUpstreamCount(id);
+				final int downCount = index.getDirectDownstreamCount(id);
+
+				if (upCount == downCount) {
+					continue; // Moving would not change the total span
+				}
+
+				int min = 0;
+				int max = levelCount - 1;
+
+				for (int k = 0; k < upCount; ++k) {
+					min = Math.max(min,
+							levels[index.getDirectUpstream(id, k)] + 1);
+				}
+
+				for (int k = 0; k < downCount; ++k) {
+					max = Math.min(max,
+							levels[index.getDirectDownstream(id, k)] - 1);
+				}
+
+				final int current = levels[id];
+				final int step = upCount > downCount ? 1 : -1;
+
+				// The farthest level with room, on the majority side
+
+				for (int level = upCount > downCount ? min : max; level != current; level += step) {
+
+					if (widths[level] < maxLevelWidth) {
+
+						--widths[current];
+						++widths[level];
+
+						levels[id] = level;
+
+						moved = true;
+
+						break;
+					}
+				}
+			}
+		}
+
+		// 2. REMOVE EMPTY LEVELS
+
+		final int[] compacted = new int[levelCount];
+
+		for (int level = 0, newLevel = 0; level < levelCount; ++level) {
+
+			compacted[level] = newLevel;
+
+			if (widths[level] != 0) {
+				++newLevel;
+			}
+		}
+
+		for (int id = 0; id < n; ++id) {
+			levels[id] = compacted[levels[id]];
+		}
+
+		return levels;
+	}
+
+	/**
+	 * defer modules of levels that are too wide to the next level, pushing
+	 * their downstreams down if needed. Levels are processed from the top.
+	 */
+	private void capLevelWidths(final int[] levels) {
+
+		final int n = index.size();
+
+		final int[] room = new int[n];
+
+		for (int level = 0;; ++level) {
+
+			final List<Integer> modulesOnLevel = new ArrayList<Integer>();
+
+			boolean deeper = false;
+
+			for (int id = 0; id < n; ++id) {
+
+				if (levels[id] == level) {
+					modulesOnLevel.add(id);
+				} else if (levels[id] > level) {
+					deeper = true;
+				}
+			}
+
+			if (modulesOnLevel.size() > maxLevelWidth) {
+
+				// Levels below are stable at this point
+
+				for (final int id : modulesOnLevel) {
+
+					room[id] = Integer.MAX_VALUE;
+
+					for (int k = 0; k < index.getDirectDownstreamCount(id); ++k) {
+
+						room[id] = Math.min(room[id],
+								levels[index.getDirectDownstream(id, k)]
+										- level - 1);
+					}
+				}
+
+				// Keep modules with the least room, defer the others
+
+				Collections.sort(modulesOnLevel, new Comparator<Integer>() {
+
+					@Override
+					public int compare(final Integer id1, final Integer id2) {
+
+						if (room[id1] != room[id2]) {
+							return room[id1] < room[id2] ? -1 : 1;
+						}
+
+						return id1.compareTo(id2);
+					}
+				});
+
+				for (final int id : modulesOnLevel.subList(maxLevelWidth,
+						modulesOnLevel.size())) {
+
+					levels[id] = level + 1;
+				}
+
+				// Ids are in topological order, so upstreams come first
+
+				for (int id = 0; id < n; ++id) {
+
+					for (int k = 0; k < index.getDirectUpstreamCount(id); ++k) {
+
+						levels[id] = Math.max(levels[id],
+								levels[index.getDirectUpstream(id, k)] + 1);
+					}
+				}
+
+				deeper = true;
+			}
+
+			if (!deeper) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * return the sum, over all edges between direct upstreams and
+	 * downstreams, of the number of levels they span.
+	 */
+	public static int getTotalEdgeSpan(final DependencyIndex index) {
+
+		checkNotNull(index, "index");
+
+		int span = 0;
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			for (int k = 0; k < index.getDirectUpstreamCount(id); ++k) {
+
+				span += index.getLevel(id)
+						- index.getLevel(index.getDirectUpstream(id, k));
+			}
+		}
+
+		return span;
+	}
+}
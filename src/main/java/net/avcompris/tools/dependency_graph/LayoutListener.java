@@ -0,0 +1,13 @@
+package net.avcompris.tools.dependency_graph;
+
+/**
+ * a callback for layouts in progress, see
+ * {@link DependencyDiagrammer#newLayoutTask(long, LayoutListener)}.
+ */
+public interface LayoutListener {
+
+	/**
+	 * called each time the search finds a better layout.
+	 */
+	void improved(ModulePosition[] positions, int howManyLinesCross);
+}
@@ -0,0 +1,363 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.DiagramMetrics;
+
+/**
+ * This class collects the counters and timers of the layout optimizer of
+ * {@link DependencyDiagrammer}s, see
+ * {@link DependencyDiagrammer#setLayoutMetrics(LayoutMetrics)}. The same
+ * object can be shared by several diagrammers, in several threads.
+ * <p>
+ * Use {@link #registerMBean()} to expose it through JMX.
+ */
+public class LayoutMetrics implements LayoutMetricsMBean {
+
+	/**
+	 * the number of improvements kept for {@link #getRecentImprovements()}.
+	 */
+	static final int RECENT_IMPROVEMENTS = 100;
+
+	private final String name;
+
+	private final AtomicLong searchCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong searchNanos = new AtomicLong();
+	private final AtomicLong nodesExpanded = new AtomicLong();
+	private final AtomicLong nodesPruned = new AtomicLong();
+	private final AtomicLong leavesEvaluated = new AtomicLong();
+	private final AtomicLong metricsCalculations = new AtomicLong();
+	private final AtomicLong metricsNanos = new AtomicLong();
+	private final AtomicLong linesCrossCalls = new AtomicLong();
+	private final AtomicLong linesCrossNanos = new AtomicLong();
+	private final AtomicLong improvementCount = new AtomicLong();
+	private final AtomicLong allocatedBytes = new AtomicLong();
+
+	private final Deque<String> recentImprovements = new ArrayDeque<String>();
+
+	public LayoutMetrics(final String name) {
+
+		this.name = checkNotNull(name, "name");
+	}
+
+	public String getName() {
+
+		return name;
+	}
+
+	// -------------------------------------------------------------------------
+	//     RECORDING, CALLED BY THE DIAGRAMMER
+	// -------------------------------------------------------------------------
+
+	void searchEnded(final long elapsedNanos, final long allocated,
+			final boolean timeout) {
+
+		searchCount.incrementAndGet();
+		searchNanos.addAndGet(elapsedNanos);
+
+		if (timeout) {
+			timeoutCount.incrementAndGet();
+		}
+
+		if (allocated >= 0) {
+			allocatedBytes.addAndGet(allocated);
+		}
+	}
+
+	void nodeExpanded() {
+
+		nodesExpanded.incrementAndGet();
+	}
+
+	void nodePruned() {
+
+		nodesPruned.incrementAndGet();
+	}
+
+	void leafEvaluated() {
+
+		leavesEvaluated.incrementAndGet();
+	}
+
+	void metricsCalculated(final long elapsedNanos, final long linesCross,
+			final long linesCrossElapsedNanos) {
+
+		metricsCalculations.incrementAndGet();
+		metricsNanos.addAndGet(elapsedNanos);
+		linesCrossCalls.addAndGet(linesCross);
+		linesCrossNanos.addAndGet(linesCrossElapsedNanos);
+	}
+
+	void improved(final DiagramMetrics metrics, final long sinceSearchStartNanos) {
+
+		improvementCount.incrementAndGet();
+
+		final DateFormat dateFormat = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		final String improvement = dateFormat.format(new Date()) + " +"
+				+ TimeUnit.NANOSECONDS.toMillis(sinceSearchStartNanos) + "ms "
+				+ metrics;
+
+		synchronized (recentImprovements) {
+
+			recentImprovements.addLast(improvement);
+
+			if (recentImprovements.size() > RECENT_IMPROVEMENTS) {
+				recentImprovements.removeFirst();
+			}
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     ALLOCATION ACCOUNTING
+	// -------------------------------------------------------------------------
+
+	/**
+	 * return the number of bytes allocated so far by the current thread, or
+	 * <tt>-1</tt> if not supported by the JVM.
+	 */
+	static long currentThreadAllocatedBytes() {
+
+		return AllocationCounter.currentThreadAllocatedBytes();
+	}
+
+	/**
+	 * isolate the use of <tt>com.sun.management</tt>, which may not be
+	 * present on every JVM.
+	 */
+	private static final class AllocationCounter {
+
+		private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = loadThreadMXBean();
+
+		private static com.sun.management.ThreadMXBean loadThreadMXBean() {
+
+			try {
+
+				final ThreadMXBean threadMXBean = ManagementFactory
+						.getThreadMXBean();
+
+				if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+					return null;
+				}
+
+				final com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+
+				if (!sunThreadMXBean.isThreadAllocatedMemorySupported()) {
+					return null;
+				}
+
+				if (!sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+					sunThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+				}
+
+				return sunThreadMXBean;
+
+			} catch (final LinkageError e) {
+
+				return null;
+
+			} catch (final UnsupportedOperationException e) {
+
+				return null;
+			}
+		}
+
+		public static long currentThreadAllocatedBytes() {
+
+			if (THREAD_MX_BEAN == null) {
+				return -1L;
+			}
+
+			return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread
+					.currentThread().getId());
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     MBEAN
+	// -------------------------------------------------------------------------
+
+	public ObjectName getObjectName() throws JMException {
+
+		return new ObjectName(
+				"net.avcompris.tools.dependency_graph:type=LayoutMetrics,name="
+						+ ObjectName.quote(name));
+	}
+
+	/**
+	 * register this object into the platform MBean server.
+	 */
+	public LayoutMetrics registerMBean() throws JMException {
+
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				getObjectName());
+
+		return this;
+	}
+
+	/**
+	 * unregister this object from the platform MBean server, if it was
+	 * registered.
+	 */
+	public void unregisterMBean() throws JMException {
+
+		final MBeanServer mBeanServer = ManagementFactory
+				.getPlatformMBeanServer();
+
+		final ObjectName objectName = getObjectName();
+
+		if (mBeanServer.isRegistered(objectName)) {
+			mBeanServer.unregisterMBean(objectName);
+		}
+	}
+
+	@Override
+	public long getSearchCount() {
+
+		return searchCount.get();
+	}
+
+	@Override
+	public long getTimeoutCount() {
+
+		return timeoutCount.get();
+	}
+
+	@Override
+	public long getSearchTimeMs() {
+
+		return TimeUnit.NANOSECONDS.toMillis(searchNanos.get());
+	}
+
+	@Override
+	public long getNodesExpanded() {
+
+		return nodesExpanded.get();
+	}
+
+	@Override
+	public long getNodesPruned() {
+
+		return nodesPruned.get();
+	}
+
+	@Override
+	public long getLeavesEvaluated() {
+
+		return leavesEvaluated.get();
+	}
+
+	@Override
+	public long getMetricsCalculations() {
+
+		return metricsCalculations.get();
+	}
+
+	@Override
+	public long getMetricsTimeMs() {
+
+		return TimeUnit.NANOSECONDS.toMillis(metricsNanos.get());
+	}
+
+	@Override
+	public long getLinesCrossCalls() {
+
+		return linesCrossCalls.get();
+	}
+
+	@Override
+	public long getLinesCrossTimeMs() {
+
+		return TimeUnit.NANOSECONDS.toMillis(linesCrossNanos.get());
+	}
+
+	@Override
+	public long getImprovementCount() {
+
+		return improvementCount.get();
+	}
+
+	@Override
+	public String[] getRecentImprovements() {
+
+		synchronized (recentImprovements) {
+
+			return recentImprovements.toArray(new String[recentImprovements
+					.size()]);
+		}
+	}
+
+	@Override
+	public long getAllocatedBytes() {
+
+		if (AllocationCounter.THREAD_MX_BEAN == null) {
+			return -1L;
+		}
+
+		return allocatedBytes.get();
+	}
+
+	@Override
+	public double getAllocationRateMBPerSecond() {
+
+		final long bytes = getAllocatedBytes();
+		final long nanos = searchNanos.get();
+
+		if (bytes < 0 || nanos == 0) {
+			return -1.0;
+		}
+
+		return bytes / (1024.0 * 1024.0) / (nanos / 1.0e9);
+	}
+
+	@Override
+	public void reset() {
+
+		searchCount.set(0);
+		timeoutCount.set(0);
+		searchNanos.set(0);
+		nodesExpanded.set(0);
+		nodesPruned.set(0);
+		leavesEvaluated.set(0);
+		metricsCalculations.set(0);
+		metricsNanos.set(0);
+		linesCrossCalls.set(0);
+		linesCrossNanos.set(0);
+		improvementCount.set(0);
+		allocatedBytes.set(0);
+
+		synchronized (recentImprovements) {
+			recentImprovements.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+
+		return "{name: " + name + ", searchCount: " + getSearchCount()
+				+ ", nodesExpanded: " + getNodesExpanded() + ", nodesPruned: "
+				+ getNodesPruned() + ", leavesEvaluated: "
+				+ getLeavesEvaluated() + ", metricsTimeMs: "
+				+ getMetricsTimeMs() + ", linesCrossTimeMs: "
+				+ getLinesCrossTimeMs() + "}";
+	}
+}
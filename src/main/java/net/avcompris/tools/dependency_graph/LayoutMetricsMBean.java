@@ -0,0 +1,96 @@
+package net.avcompris.tools.dependency_graph;
+
+/**
+ * The counters and timers of the layout optimizer, as collected by
+ * {@link LayoutMetrics}, and exposed through JMX.
+ * <p>
+ * All counts are cumulative since the creation of the
+ * {@link LayoutMetrics} object, or since its last {@link #reset()}.
+ */
+public interface LayoutMetricsMBean {
+
+	/**
+	 * return the number of optimizer searches that were started.
+	 */
+	long getSearchCount();
+
+	/**
+	 * return the number of optimizer searches that ended with a timeout.
+	 */
+	long getTimeoutCount();
+
+	/**
+	 * return the total time spent in optimizer searches, in milliseconds.
+	 */
+	long getSearchTimeMs();
+
+	/**
+	 * return the number of partial layouts whose children were explored.
+	 */
+	long getNodesExpanded();
+
+	/**
+	 * return the number of partial layouts that were discarded because they
+	 * already have more line crossings than the best layout so far.
+	 */
+	long getNodesPruned();
+
+	/**
+	 * return the number of complete layouts that were evaluated.
+	 */
+	long getLeavesEvaluated();
+
+	/**
+	 * return the number of calls to <tt>calculateMetrics</tt>, within
+	 * searches or not.
+	 */
+	long getMetricsCalculations();
+
+	/**
+	 * return the total time spent in <tt>calculateMetrics</tt>, in
+	 * milliseconds.
+	 */
+	long getMetricsTimeMs();
+
+	/**
+	 * return the number of calls to <tt>linesCross</tt>.
+	 */
+	long getLinesCrossCalls();
+
+	/**
+	 * return the total time spent in the <tt>linesCross</tt> loops of
+	 * <tt>calculateMetrics</tt>, in milliseconds.
+	 */
+	long getLinesCrossTimeMs();
+
+	/**
+	 * return the number of times a search found a better layout.
+	 */
+	long getImprovementCount();
+
+	/**
+	 * return the most recent improvements, oldest first, as
+	 * <tt>"2019-01-31T12:34:56.789Z +1234ms {howManyLinesCross: ...}"</tt>:
+	 * The wall-clock time, the time since the search started, and the new
+	 * best metrics.
+	 */
+	String[] getRecentImprovements();
+
+	/**
+	 * return the number of bytes allocated by threads while searching, or
+	 * <tt>-1</tt> if the JVM does not support per-thread allocation
+	 * accounting.
+	 */
+	long getAllocatedBytes();
+
+	/**
+	 * return the allocation rate while searching, in megabytes per second, or
+	 * <tt>-1.0</tt> if not available.
+	 */
+	double getAllocationRateMBPerSecond();
+
+	/**
+	 * reset all counters and timers.
+	 */
+	void reset();
+}
@@ -0,0 +1,698 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static net.avcompris.tools.dependency_graph.DependencyIndex.UTF_8;
+import static net.avcompris.tools.dependency_graph.DependencyIndex.hashSlot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.avcompris.tools.dependency_graph.DependencyIndex.BufferNameTable;
+import net.avcompris.tools.dependency_graph.DependencyIndex.NameTable;
+
+/**
+ * This class builds a {@link DependencySnapshot} for graphs that are too
+ * large to be held as {@link Module} objects on the heap: Module names and
+ * edges are streamed in, interned and stored in memory-mapped scratch
+ * files, and the CSR adjacency, cycle detection, longest-path layering and
+ * direct-upstream reduction all run over those files.
+ * <p>
+ * The heap footprint is independent of the graph size, apart from one
+ * reusable scratch array sized after the largest adjacency row.
+ * <p>
+ * The resulting snapshot has the same content as one written from a
+ * {@link DependencyAnalysis} of the same graph, and can be traversed with
+ * {@link IndexTraversal}.
+ */
+public final class MappedGraphBuilder implements Closeable {
+
+	private final File workDir;
+
+	private final List<MappedScratchFile> scratchFiles = new ArrayList<MappedScratchFile>();
+
+	// Interned names: UTF-8 bytes, offsets, String hashes, and hash slots
+
+	private final MappedScratchFile nameBytes;
+	private final MappedScratchFile nameOffsets;
+	private final MappedScratchFile nameHashes;
+	private MappedScratchFile hashSlots;
+
+	private int hashCapacity;
+	private int moduleCount = 0;
+	private int nameBytesLength = 0;
+
+	// Edges, as (upstream, downstream) pairs
+
+	private final MappedScratchFile edgeFroms;
+	private final MappedScratchFile edgeTos;
+
+	private int edgeCount = 0;
+
+	private int[] rowScratch = new int[64];
+
+	private boolean built = false;
+
+	/**
+	 * @param workDir the directory where scratch files will be created.
+	 * @param expectedModuleCount a hint, to size the name table.
+	 */
+	public MappedGraphBuilder(final File workDir,
+			final int expectedModuleCount) throws IOException {
+
+		this.workDir = checkNotNull(workDir, "workDir");
+
+		checkArgument(expectedModuleCount >= 0,
+				"expectedModuleCount should be >= 0, but was: %s",
+				expectedModuleCount);
+
+		if (!workDir.isDirectory() && !workDir.mkdirs()) {
+			throw new IOException("Cannot create directory: " + workDir);
+		}
+
+		hashCapacity = DependencyIndex.hashCapacity(expectedModuleCount);
+
+		nameBytes = scratch("names", expectedModuleCount * 16L);
+		nameOffsets = scratch("nameOffsets", (expectedModuleCount + 1) * 4L);
+		nameHashes = scratch("nameHashes", expectedModuleCount * 4L);
+		hashSlots = scratch("hashSlots", hashCapacity * 4L);
+		edgeFroms = scratch("edgeFroms", expectedModuleCount * 16L);
+		edgeTos = scratch("edgeTos", expectedModuleCount * 16L);
+	}
+
+	private int scratchCount = 0;
+
+	private MappedScratchFile scratch(final String name,
+			final long initialCapacity) throws IOException {
+
+		++scratchCount;
+
+		final File file = File.createTempFile("avcdg-" + name + "-"
+				+ scratchCount + "-", ".tmp", workDir);
+
+		final MappedScratchFile scratchFile = new MappedScratchFile(file,
+				initialCapacity);
+
+		scratchFiles.add(scratchFile);
+
+		return scratchFile;
+	}
+
+	public int sizeOfModules() {
+
+		return moduleCount;
+	}
+
+	public int sizeOfEdges() {
+
+		return edgeCount;
+	}
+
+	/**
+	 * declare a module. Modules are also implicitly declared by
+	 * {@link #addEdge(String, String)}.
+	 */
+	public MappedGraphBuilder addModule(final String moduleName)
+			throws IOException {
+
+		intern(moduleName);
+
+		return this;
+	}
+
+	/**
+	 * add a dependency: The module named "downstreamModuleName" depends on
+	 * the one named "upstreamModuleName".
+	 */
+	public MappedGraphBuilder addEdge(final String upstreamModuleName,
+			final String downstreamModuleName) throws IOException {
+
+		final int from = intern(upstreamModuleName);
+		final int to = intern(downstreamModuleName);
+
+		edgeFroms.ensureIntCapacity(edgeCount + 1L);
+		edgeTos.ensureIntCapacity(edgeCount + 1L);
+
+		edgeFroms.putInt(edgeCount, from);
+		edgeTos.putInt(edgeCount, to);
+
+		++edgeCount;
+
+		return this;
+	}
+
+	private int intern(final String moduleName) throws IOException {
+
+		checkNotNull(moduleName, "moduleName");
+		checkState(!built, "Graph has already been built");
+
+		final byte[] b = moduleName.getBytes(UTF_8);
+		final int hash = hashSlot(moduleName);
+
+		final int mask = hashCapacity - 1;
+
+		int slot = hash & mask;
+
+		for (;; slot = (slot + 1) & mask) {
+
+			final int idPlusOne = hashSlots.getInt(slot);
+
+			if (idPlusOne == 0) {
+				break;
+			}
+
+			if (nameEquals(idPlusOne - 1, b)) {
+				return idPlusOne - 1;
+			}
+		}
+
+		// New module
+
+		final int id = moduleCount;
+
+		nameBytes.ensureCapacity((long) nameBytesLength + b.length);
+		nameOffsets.ensureIntCapacity(id + 2L);
+		nameHashes.ensureIntCapacity(id + 1L);
+
+		for (int k = 0; k < b.length; ++k) {
+			nameBytes.put(nameBytesLength + k, b[k]);
+		}
+
+		nameOffsets.putInt(id, nameBytesLength);
+
+		nameBytesLength += b.length;
+
+		nameOffsets.putInt(id + 1, nameBytesLength);
+		nameHashes.putInt(id, hash);
+
+		++moduleCount;
+
+		if (moduleCount * 2 > hashCapacity) {
+
+			rehash(hashCapacity * 2);
+
+		} else {
+
+			hashSlots.putInt(slot, id + 1);
+		}
+
+		return id;
+	}
+
+	private void rehash(final int newCapacity) throws IOException {
+
+		final MappedScratchFile newSlots = scratch("hashSlots",
+				newCapacity * 4L);
+
+		final int mask = newCapacity - 1;
+
+		for (int id = 0; id < moduleCount; ++id) {
+
+			int slot = nameHashes.getInt(id) & mask;
+
+			while (newSlots.getInt(slot) != 0) {
+				slot = (slot + 1) & mask;
+			}
+
+			newSlots.putInt(slot, id + 1);
+		}
+
+		scratchFiles.remove(hashSlots);
+
+		hashSlots.close();
+
+		hashSlots = newSlots;
+		hashCapacity = newCapacity;
+	}
+
+	private boolean nameEquals(final int id, final byte[] b) {
+
+		final int start = nameOffsets.getInt(id);
+
+		if (nameOffsets.getInt(id + 1) - start != b.length) {
+			return false;
+		}
+
+		for (int k = 0; k < b.length; ++k) {
+
+			if (nameBytes.get(start + k) != b[k]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// -------------------------------------------------------------------------
+	//     BUILD
+	// -------------------------------------------------------------------------
+
+	/**
+	 * compute the layering and the direct upstreams of the graph, write
+	 * them as a snapshot file, and return the memory-mapped snapshot.
+	 *
+	 * @throws ArrayIndexOutOfBoundsException if the dependencies contain a
+	 * cycle.
+	 */
+	public DependencySnapshot build(final File snapshotFile)
+			throws IOException {
+
+		checkNotNull(snapshotFile, "snapshotFile");
+		checkState(!built, "Graph has already been built");
+
+		built = true;
+
+		final int n = moduleCount;
+
+		// 1. DECLARED UPSTREAMS, AS CSR ROWS (SORTED, WITHOUT DUPLICATES)
+
+		final MappedScratchFile tmpUpOffsets = scratch("tmpUpOffsets",
+				(n + 1) * 4L);
+		final MappedScratchFile tmpUpTargets = scratch("tmpUpTargets",
+				edgeCount * 4L);
+
+		final int upEdgeCount = toCSR(n, edgeTos, edgeFroms, edgeCount,
+				tmpUpOffsets, tmpUpTargets);
+
+		final MappedScratchFile tmpDownOffsets = scratch("tmpDownOffsets",
+				(n + 1) * 4L);
+		final MappedScratchFile tmpDownTargets = scratch("tmpDownTargets",
+				upEdgeCount * 4L);
+
+		reverseCSR(n, tmpUpOffsets, tmpUpTargets, tmpDownOffsets,
+				tmpDownTargets);
+
+		// 2. CYCLE DETECTION AND LONGEST-PATH LEVELS (KAHN)
+
+		final MappedScratchFile tmpLevels = scratch("tmpLevels", n * 4L);
+		final MappedScratchFile inDegrees = scratch("inDegrees", n * 4L);
+		final MappedScratchFile queue = scratch("queue", n * 4L);
+
+		int head = 0;
+		int tail = 0;
+
+		for (int v = 0; v < n; ++v) {
+
+			final int inDegree = tmpUpOffsets.getInt(v + 1)
+					- tmpUpOffsets.getInt(v);
+
+			inDegrees.putInt(v, inDegree);
+
+			if (inDegree == 0) {
+				queue.putInt(tail++, v);
+			}
+		}
+
+		int levelCount = n == 0 ? 0 : 1;
+
+		while (head < tail) {
+
+			final int u = queue.getInt(head++);
+			final int levelU = tmpLevels.getInt(u);
+
+			final int end = tmpDownOffsets.getInt(u + 1);
+
+			for (int k = tmpDownOffsets.getInt(u); k < end; ++k) {
+
+				final int v = tmpDownTargets.getInt(k);
+
+				if (levelU + 1 > tmpLevels.getInt(v)) {
+
+					tmpLevels.putInt(v, levelU + 1);
+
+					if (levelU + 2 > levelCount) {
+						levelCount = levelU + 2;
+					}
+				}
+
+				final int inDegree = inDegrees.getInt(v) - 1;
+
+				inDegrees.putInt(v, inDegree);
+
+				if (inDegree == 0) {
+					queue.putInt(tail++, v);
+				}
+			}
+		}
+
+		if (tail < n) {
+
+			for (int v = 0; v < n; ++v) {
+
+				if (inDegrees.getInt(v) != 0) {
+
+					throw new ArrayIndexOutOfBoundsException(
+							"Unlimited transitive downstreams found (probably a cycle) for module: \""
+									+ names().getName(v) + "\"");
+				}
+			}
+		}
+
+		// 3. RENUMBER, LEVEL BY LEVEL (STABLE COUNTING SORT)
+
+		final MappedScratchFile levelOffsets = scratch("levelOffsets",
+				(levelCount + 1) * 4L);
+
+		for (int v = 0; v < n; ++v) {
+
+			final int l = tmpLevels.getInt(v) + 1;
+
+			levelOffsets.putInt(l, levelOffsets.getInt(l) + 1);
+		}
+
+		for (int l = 0; l < levelCount; ++l) {
+
+			levelOffsets.putInt(l + 1,
+					levelOffsets.getInt(l + 1) + levelOffsets.getInt(l));
+		}
+
+		final MappedScratchFile cursors = inDegrees; // Reuse: now all zeros
+
+		for (int l = 0; l < levelCount; ++l) {
+			cursors.putInt(l, levelOffsets.getInt(l));
+		}
+
+		final MappedScratchFile newIds = queue; // Reuse
+		final MappedScratchFile oldIds = scratch("oldIds", n * 4L);
+		final MappedScratchFile levels = scratch("levels", n * 4L);
+
+		for (int v = 0; v < n; ++v) {
+
+			final int l = tmpLevels.getInt(v);
+			final int id = cursors.getInt(l);
+
+			cursors.putInt(l, id + 1);
+
+			newIds.putInt(v, id);
+			oldIds.putInt(id, v);
+			levels.putInt(id, l);
+		}
+
+		// 4. RENUMBERED DECLARED UPSTREAMS
+
+		final MappedScratchFile upOffsets = scratch("upOffsets", (n + 1) * 4L);
+		final MappedScratchFile upTargets = scratch("upTargets",
+				upEdgeCount * 4L);
+
+		int size = 0;
+
+		for (int id = 0; id < n; ++id) {
+
+			final int v = oldIds.getInt(id);
+
+			final int start = tmpUpOffsets.getInt(v);
+			final int count = tmpUpOffsets.getInt(v + 1) - start;
+
+			final int[] row = rowScratch(count);
+
+			for (int k = 0; k < count; ++k) {
+				row[k] = newIds.getInt(tmpUpTargets.getInt(start + k));
+			}
+
+			Arrays.sort(row, 0, count);
+
+			upOffsets.putInt(id, size);
+
+			for (int k = 0; k < count; ++k) {
+				upTargets.putInt(size++, row[k]);
+			}
+		}
+
+		upOffsets.putInt(n, size);
+
+		// 5. DIRECT UPSTREAMS: REMOVE u IF u IS AN UPSTREAM OF ANOTHER UPSTREAM
+
+		final IntBuffer upOffsetsView = upOffsets.intView(n + 1);
+		final IntBuffer upTargetsView = upTargets.intView(upEdgeCount);
+
+		final MappedScratchFile directUpOffsets = scratch("directUpOffsets",
+				(n + 1) * 4L);
+		final MappedScratchFile directUpTargets = scratch("directUpTargets",
+				upEdgeCount * 4L);
+
+		int directEdgeCount = 0;
+
+		for (int id = 0; id < n; ++id) {
+
+			final int start = upOffsetsView.get(id);
+			final int end = upOffsetsView.get(id + 1);
+
+			directUpOffsets.putInt(id, directEdgeCount);
+
+			for (int k = start; k < end; ++k) {
+
+				final int u = upTargetsView.get(k);
+
+				boolean direct = true;
+
+				for (int k2 = start; k2 < end; ++k2) {
+
+					final int u2 = upTargetsView.get(k2);
+
+					if (u2 > u
+							&& DependencyIndex.binarySearch(upTargetsView,
+									upOffsetsView.get(u2),
+									upOffsetsView.get(u2 + 1), u) >= 0) {
+
+						direct = false;
+
+						break;
+					}
+				}
+
+				if (direct) {
+					directUpTargets.putInt(directEdgeCount++, u);
+				}
+			}
+		}
+
+		directUpOffsets.putInt(n, directEdgeCount);
+
+		final MappedScratchFile directDownOffsets = scratch(
+				"directDownOffsets", (n + 1) * 4L);
+		final MappedScratchFile directDownTargets = scratch(
+				"directDownTargets", directEdgeCount * 4L);
+
+		reverseCSR(n, directUpOffsets, directUpTargets, directDownOffsets,
+				directDownTargets);
+
+		// 6. WRITE
+
+		final IntBuffer newIdsView = newIds.intView(n);
+		final IntBuffer oldIdsView = oldIds.intView(n);
+
+		final NameTable names = names();
+
+		final NameTable renumberedNames = new NameTable() {
+
+			@Override
+			public int size() {
+
+				return names.size();
+			}
+
+			@Override
+			public String getName(final int id) {
+
+				return names.getName(oldIdsView.get(id));
+			}
+
+			@Override
+			public int getId(final String name) {
+
+				final int v = names.getId(name);
+
+				return v == -1 ? -1 : newIdsView.get(v);
+			}
+
+			@Override
+			public boolean hasSameNames(final NameTable other) {
+
+				return false; // Only used to write the snapshot
+			}
+		};
+
+		final DependencyIndex index = new DependencyIndex(renumberedNames,
+				levels.intView(n), levelOffsets.intView(levelCount + 1),
+				upOffsetsView, upTargetsView, directUpOffsets.intView(n + 1),
+				directUpTargets.intView(directEdgeCount),
+				directDownOffsets.intView(n + 1),
+				directDownTargets.intView(directEdgeCount));
+
+		DependencySnapshot.write(index, null, snapshotFile);
+
+		return DependencySnapshot.read(snapshotFile);
+	}
+
+	private NameTable names() {
+
+		return new BufferNameTable(nameOffsets.intView(moduleCount + 1),
+				hashSlots.intView(hashCapacity),
+				nameBytes.byteView(nameBytesLength));
+	}
+
+	private int[] rowScratch(final int count) {
+
+		if (rowScratch.length < count) {
+			rowScratch = new int[Math.max(count, rowScratch.length * 2)];
+		}
+
+		return rowScratch;
+	}
+
+	/**
+	 * group (row, target) pairs into CSR rows, sorted and without
+	 * duplicates.
+	 *
+	 * @return the number of targets.
+	 */
+	private int toCSR(final int n, final MappedScratchFile rows,
+			final MappedScratchFile targets, final int pairCount,
+			final MappedScratchFile offsets,
+			final MappedScratchFile csrTargets) throws IOException {
+
+		for (int k = 0; k < pairCount; ++k) {
+
+			final int row = rows.getInt(k) + 1;
+
+			offsets.putInt(row, offsets.getInt(row) + 1);
+		}
+
+		for (int v = 0; v < n; ++v) {
+			offsets.putInt(v + 1, offsets.getInt(v + 1) + offsets.getInt(v));
+		}
+
+		final MappedScratchFile cursors = scratch("cursors", n * 4L);
+
+		for (int v = 0; v < n; ++v) {
+			cursors.putInt(v, offsets.getInt(v));
+		}
+
+		for (int k = 0; k < pairCount; ++k) {
+
+			final int row = rows.getInt(k);
+			final int cursor = cursors.getInt(row);
+
+			csrTargets.putInt(cursor, targets.getInt(k));
+
+			cursors.putInt(row, cursor + 1);
+		}
+
+		scratchFiles.remove(cursors);
+
+		cursors.close();
+
+		// Sort and remove duplicates, compacting in place
+
+		int size = 0;
+
+		for (int v = 0; v < n; ++v) {
+
+			final int start = offsets.getInt(v);
+			final int count = offsets.getInt(v + 1) - start;
+
+			final int[] row = rowScratch(count);
+
+			for (int k = 0; k < count; ++k) {
+				row[k] = csrTargets.getInt(start + k);
+			}
+
+			Arrays.sort(row, 0, count);
+
+			offsets.putInt(v, size);
+
+			for (int k = 0; k < count; ++k) {
+
+				if (k == 0 || row[k] != row[k - 1]) {
+					csrTargets.putInt(size++, row[k]);
+				}
+			}
+		}
+
+		offsets.putInt(n, size);
+
+		return size;
+	}
+
+	/**
+	 * write the transposed CSR structure. Rows are scanned in ascending
+	 * order, so the transposed rows are sorted too.
+	 */
+	private static void reverseCSR(final int n,
+			final MappedScratchFile offsets, final MappedScratchFile targets,
+			final MappedScratchFile reverseOffsets,
+			final MappedScratchFile reverseTargets) {
+
+		final int targetCount = offsets.getInt(n);
+
+		for (int k = 0; k < targetCount; ++k) {
+
+			final int row = targets.getInt(k) + 1;
+
+			reverseOffsets.putInt(row, reverseOffsets.getInt(row) + 1);
+		}
+
+		for (int v = 0; v < n; ++v) {
+
+			reverseOffsets.putInt(v + 1,
+					reverseOffsets.getInt(v + 1) + reverseOffsets.getInt(v));
+		}
+
+		// Use the row starts as cursors, then shift them back
+
+		for (int v = 0; v < n; ++v) {
+
+			final int end = offsets.getInt(v + 1);
+
+			for (int k = offsets.getInt(v); k < end; ++k) {
+
+				final int target = targets.getInt(k);
+				final int cursor = reverseOffsets.getInt(target);
+
+				reverseTargets.putInt(cursor, v);
+
+				reverseOffsets.putInt(target, cursor + 1);
+			}
+		}
+
+		for (int v = n; v > 0; --v) {
+			reverseOffsets.putInt(v, reverseOffsets.getInt(v - 1));
+		}
+
+		reverseOffsets.putInt(0, 0);
+	}
+
+	/**
+	 * delete all scratch files. The snapshot file returned by
+	 * {@link #build(File)} is kept.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		IOException exception = null;
+
+		for (final MappedScratchFile scratchFile : scratchFiles) {
+
+			try {
+
+				scratchFile.close();
+
+			} catch (final IOException e) {
+
+				exception = e;
+			}
+		}
+
+		scratchFiles.clear();
+
+		if (exception != null) {
+			throw exception;
+		}
+	}
+}
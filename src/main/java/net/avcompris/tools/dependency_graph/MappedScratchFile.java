@@ -0,0 +1,137 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * a growable, memory-mapped scratch file, accessed as an array of bytes or
+ * of ints. The file is deleted when closed.
+ * <p>
+ * Views returned by {@link #intView(int)} and {@link #byteView(int)} are
+ * invalidated when the file grows.
+ */
+final class MappedScratchFile implements Closeable {
+
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	private ByteBuffer buffer;
+
+	private long capacity = 0;
+
+	public MappedScratchFile(final File file, final long initialCapacity)
+			throws IOException {
+
+		this.file = checkNotNull(file, "file");
+
+		raf = new RandomAccessFile(file, "rw");
+
+		raf.setLength(0);
+
+		ensureCapacity(Math.max(initialCapacity, 4096));
+	}
+
+	/**
+	 * make sure this file can hold at least a given number of bytes, by
+	 * doubling its size as needed. New bytes are zeros.
+	 */
+	public void ensureCapacity(final long bytes) throws IOException {
+
+		if (bytes <= capacity) {
+			return;
+		}
+
+		long newCapacity = Math.max(capacity, 4096);
+
+		while (newCapacity < bytes) {
+			newCapacity *= 2;
+		}
+
+		if (newCapacity > Integer.MAX_VALUE) {
+
+			if (bytes > Integer.MAX_VALUE) {
+				throw new IOException("Scratch file would be too large: "
+						+ bytes + " bytes");
+			}
+
+			newCapacity = Integer.MAX_VALUE;
+		}
+
+		raf.setLength(newCapacity);
+
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				newCapacity);
+
+		capacity = newCapacity;
+	}
+
+	public void ensureIntCapacity(final long ints) throws IOException {
+
+		ensureCapacity(ints * 4);
+	}
+
+	public int getInt(final int index) {
+
+		return buffer.getInt(index << 2);
+	}
+
+	public void putInt(final int index, final int value) {
+
+		buffer.putInt(index << 2, value);
+	}
+
+	public byte get(final int index) {
+
+		return buffer.get(index);
+	}
+
+	public void put(final int index, final byte value) {
+
+		buffer.put(index, value);
+	}
+
+	public IntBuffer intView(final int count) {
+
+		final ByteBuffer dup = buffer.duplicate();
+
+		dup.limit(count * 4);
+		dup.position(0);
+
+		return dup.slice().asIntBuffer();
+	}
+
+	public ByteBuffer byteView(final int count) {
+
+		final ByteBuffer dup = buffer.duplicate();
+
+		dup.limit(count);
+		dup.position(0);
+
+		return dup.slice();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		buffer = null;
+
+		try {
+
+			raf.close();
+
+		} finally {
+
+			if (!file.delete()) {
+				file.deleteOnExit(); // Still mapped on some platforms
+			}
+		}
+	}
+}
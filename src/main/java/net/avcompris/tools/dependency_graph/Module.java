@@ -1,5 +1,6 @@
 package net.avcompris.tools.dependency_graph;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.HashSet;
@@ -52,6 +53,33 @@ public class Module {
 		return this;
 	}
 
+	@Nullable
+	private Long duration = null;
+
+	/**
+	 * set the typical duration of this module’s job, in milliseconds, for
+	 * instance from its build history, see {@link BuildHistoryReader}.
+	 */
+	public Module setDuration(@Nullable final Long duration) {
+
+		checkArgument(duration == null || duration >= 0,
+				"duration should be >= 0: %s", duration);
+
+		this.duration = duration;
+
+		return this;
+	}
+
+	/**
+	 * return the typical duration of this module’s job, in milliseconds,
+	 * or <tt>null</tt> if it is unknown.
+	 */
+	@Nullable
+	public Long getDuration() {
+
+		return duration;
+	}
+
 	public Iterable<String> getDownstreamModules() {
 
 		return downstreamModules;
@@ -0,0 +1,413 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.LayoutTask;
+
+/**
+ * This class groups modules into clusters, and collapses each cluster into
+ * one aggregate module, so that big graphs can be laid out and read family
+ * by family: Layout costs then depend on the number of clusters, not on the
+ * number of modules.
+ * <p>
+ * By default, clusters follow module names: <tt>aed-web-it</tt> is in the
+ * cluster <tt>aed-*</tt>, which, once expanded, shows the cluster
+ * <tt>aed-web-*</tt>, and so on. Explicit clusters can be set instead, see
+ * {@link #setClusters(Map)}. A cluster with one module only is shown as the
+ * module itself.
+ * <p>
+ * An aggregate depends on another one if any of its modules depends on any
+ * of the other’s, and {@link #getEdgeCount(String, String)} tells how
+ * many edges it sums up. Clusters that depend on each other are condensed
+ * as cycles, see {@link CycleCondenser}.
+ */
+public class ModuleClusterer {
+
+	private final Map<String, Module> modules = new TreeMap<String, Module>();
+
+	public ModuleClusterer(final Iterable<Module> modules) {
+
+		checkNotNull(modules, "modules");
+
+		for (final Module module : modules) {
+
+			checkNotNull(module, "module");
+
+			if (this.modules.put(module.name, module) != null) {
+				throw new IllegalArgumentException("Duplicate module name: \""
+						+ module.name + "\"");
+			}
+		}
+	}
+
+	@Nullable
+	private String separator = "-";
+
+	/**
+	 * set the separator of the parts of module names, that clusters follow.
+	 * Default is <tt>"-"</tt>. Pass <tt>null</tt> to only use explicit
+	 * clusters.
+	 */
+	public ModuleClusterer setSeparator(@Nullable final String separator) {
+
+		checkArgument(separator == null || !separator.isEmpty(),
+				"separator should not be empty");
+
+		this.separator = separator;
+
+		return this;
+	}
+
+	private final Map<String, String> clusters = new HashMap<String, String>();
+
+	/**
+	 * set explicit clusters, by module name. These modules are not
+	 * clustered by name.
+	 */
+	public ModuleClusterer setClusters(final Map<String, String> clusters) {
+
+		checkNotNull(clusters, "clusters");
+
+		this.clusters.clear();
+		this.clusters.putAll(clusters);
+
+		return this;
+	}
+
+	/**
+	 * return the clusters of a module, from the outermost one.
+	 */
+	private List<String> getClusterPath(final String moduleName) {
+
+		final String cluster = clusters.get(moduleName);
+
+		if (cluster != null) {
+			return Collections.singletonList(cluster);
+		}
+
+		final List<String> path = new ArrayList<String>();
+
+		if (separator == null) {
+			return path;
+		}
+
+		for (int i = moduleName.indexOf(separator); i != -1; i = moduleName
+				.indexOf(separator, i + separator.length())) {
+
+			path.add(moduleName.substring(0, i + separator.length()) + "*");
+		}
+
+		return path;
+	}
+
+	/**
+	 * return all the modules of a cluster, expanded or not, sorted by name.
+	 */
+	public List<String> getClusterMembers(final String cluster) {
+
+		checkNotNull(cluster, "cluster");
+
+		final List<String> members = new ArrayList<String>();
+
+		for (final String moduleName : modules.keySet()) {
+
+			if (getClusterPath(moduleName).contains(cluster)) {
+				members.add(moduleName);
+			}
+		}
+
+		return members;
+	}
+
+	private final Map<String, Integer> edgeCounts = new HashMap<String, Integer>();
+
+	/**
+	 * return the number of module edges between two modules or aggregates
+	 * of the last call to {@link #collapse(String...)}.
+	 */
+	public int getEdgeCount(final String upstream, final String downstream) {
+
+		checkNotNull(upstream, "upstream");
+		checkNotNull(downstream, "downstream");
+
+		final Integer count = edgeCounts.get(upstream + "\t" + downstream);
+
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * return, for each module, the module or aggregate it is shown as, when
+	 * some clusters are expanded. Cycles are not condensed yet.
+	 */
+	private Map<String, String> calculateNodes(final Set<String> expanded) {
+
+		final Map<String, String> nodes = new HashMap<String, String>();
+		final Map<String, List<String>> members = new HashMap<String, List<String>>();
+
+		for (final String moduleName : modules.keySet()) {
+
+			String node = moduleName;
+
+			for (final String cluster : getClusterPath(moduleName)) {
+
+				if (!expanded.contains(cluster)) {
+
+					node = cluster;
+
+					break;
+				}
+			}
+
+			nodes.put(moduleName, node);
+
+			if (!members.containsKey(node)) {
+				members.put(node, new ArrayList<String>());
+			}
+
+			members.get(node).add(moduleName);
+		}
+
+		for (final List<String> nodeMembers : members.values()) {
+
+			if (nodeMembers.size() == 1) {
+
+				nodes.put(nodeMembers.get(0), nodeMembers.get(0));
+
+			} else if (modules.containsKey(nodes.get(nodeMembers.get(0)))) {
+
+				throw new IllegalArgumentException(
+						"Cluster has the name of a module: \""
+								+ nodes.get(nodeMembers.get(0)) + "\"");
+			}
+		}
+
+		return nodes;
+	}
+
+	/**
+	 * return the analysis of the graph where all clusters are collapsed,
+	 * except the ones passed.
+	 */
+	public DependencyAnalysis collapse(final String... expandedClusters) {
+
+		checkNotNull(expandedClusters, "expandedClusters");
+
+		final Map<String, String> nodes = calculateNodes(new HashSet<String>(
+				Arrays.asList(expandedClusters)));
+
+		// 1. AGGREGATES
+
+		final Map<String, Module> collapsed = new HashMap<String, Module>();
+		final Map<String, List<String>> clusterMembers = new HashMap<String, List<String>>();
+
+		for (final String moduleName : modules.keySet()) {
+
+			final String node = nodes.get(moduleName);
+
+			if (!collapsed.containsKey(node)) {
+				collapsed.put(node, new Module(node));
+			}
+
+			if (!node.equals(moduleName)) {
+
+				if (!clusterMembers.containsKey(node)) {
+					clusterMembers.put(node, new ArrayList<String>());
+				}
+
+				clusterMembers.get(node).add(moduleName);
+			}
+		}
+
+		// 2. SUMMED EDGES
+
+		final Set<String> edges = new HashSet<String>();
+
+		for (final Module module : modules.values()) {
+
+			for (final String downstream : module.getDownstreamModules()) {
+				edges.add(module.name + "\t" + downstream);
+			}
+
+			for (final String upstream : module.getUpstreamModules()) {
+				edges.add(upstream + "\t" + module.name);
+			}
+		}
+
+		edgeCounts.clear();
+
+		for (final String edge : edges) {
+
+			final int tab = edge.indexOf('\t');
+
+			final String upstream = nodes.get(edge.substring(0, tab));
+			final String downstream = nodes.get(edge.substring(tab + 1));
+
+			checkArgument(upstream != null && downstream != null,
+					"Unknown module in dependency: %s", edge);
+
+			if (upstream.equals(downstream)) {
+				continue;
+			}
+
+			collapsed.get(downstream).addToUpstreamModules(upstream);
+
+			final String key = upstream + "\t" + downstream;
+
+			final Integer count = edgeCounts.get(key);
+
+			edgeCounts.put(key, count == null ? 1 : count + 1);
+		}
+
+		// 3. CYCLES BETWEEN CLUSTERS
+
+		for (final Map.Entry<String, List<String>> entry : clusterMembers
+				.entrySet()) {
+
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+
+		return new CycleCondenser(collapsed.values()).setClusterMembers(
+				clusterMembers).condense();
+	}
+
+	/**
+	 * output the SVG diagram of the graph where all clusters are collapsed,
+	 * except the ones passed: The graph where all clusters are collapsed is
+	 * laid out first, then modules and aggregates are laid out incrementally
+	 * from the columns of the aggregates they were part of.
+	 *
+	 * @param optimizeTimeoutMs the timeout of each layout, see
+	 * {@link DependencyDiagrammer#drawTo(long, File)}.
+	 */
+	public ModulePosition[] drawTo(final long optimizeTimeoutMs,
+			final File svgFile, final String... expandedClusters)
+			throws IOException {
+
+		checkNotNull(svgFile, "svgFile");
+
+		// 1. ALL CLUSTERS COLLAPSED
+
+		final DependencyAnalysis collapsed = collapse();
+
+		final LayoutTask task = new DependencyDiagrammer(collapsed)
+				.newLayoutTask(optimizeTimeoutMs, null);
+
+		task.run();
+
+		final Map<String, ModulePosition> collapsedPositions = new HashMap<String, ModulePosition>();
+
+		try {
+
+			for (final ModulePosition position : task.get()) {
+				collapsedPositions.put(position.getModuleName(), position);
+			}
+
+		} catch (final InterruptedException e) {
+
+			throw new RuntimeException(e);
+
+		} catch (final ExecutionException e) {
+
+			throw new RuntimeException(e.getCause());
+		}
+
+		// 2. CHOSEN CLUSTERS EXPANDED, FROM THE COLUMNS ABOVE
+
+		final DependencyAnalysis expanded = collapse(expandedClusters);
+
+		final Map<String, String> collapsedNodes = calculateFinalNodes(
+				collapsed, new HashSet<String>());
+		final Map<String, String> expandedNodes = calculateFinalNodes(
+				expanded, new HashSet<String>(Arrays.asList(expandedClusters)));
+
+		final Map<String, ModulePosition> previousPositions = new HashMap<String, ModulePosition>();
+
+		for (final String moduleName : modules.keySet()) {
+
+			final String node = expandedNodes.get(moduleName);
+
+			if (previousPositions.containsKey(node)) {
+				continue;
+			}
+
+			final int x = collapsedPositions.get(
+					collapsedNodes.get(moduleName)).getX();
+			final int y = 10 + 60 * expanded.getIndex().getLevel(
+					expanded.getIndex().getModuleId(node));
+
+			previousPositions.put(node, new ModulePosition() {
+
+				@Override
+				public String getModuleName() {
+
+					return node;
+				}
+
+				@Override
+				public int getX() {
+
+					return x;
+				}
+
+				@Override
+				public int getY() {
+
+					return y;
+				}
+			});
+		}
+
+		return new DependencyDiagrammer(expanded)
+				.setPreviousPositions(
+						previousPositions.values().toArray(
+								new ModulePosition[previousPositions.size()]))
+				.drawTo(optimizeTimeoutMs, svgFile);
+	}
+
+	/**
+	 * return, for each module, the module, aggregate or cycle it is shown
+	 * as in an analysis returned by {@link #collapse(String...)}.
+	 */
+	private Map<String, String> calculateFinalNodes(
+			final DependencyAnalysis analysis, final Set<String> expanded) {
+
+		final Map<String, String> cycles = new HashMap<String, String>();
+
+		for (final Map.Entry<String, List<String>> entry : analysis.cycleMembers
+				.entrySet()) {
+
+			for (final String member : entry.getValue()) {
+				cycles.put(member, entry.getKey());
+			}
+		}
+
+		final Map<String, String> nodes = calculateNodes(expanded);
+
+		for (final Map.Entry<String, String> entry : nodes.entrySet()) {
+
+			final String cycle = cycles.get(entry.getValue());
+
+			if (cycle != null) {
+				entry.setValue(cycle);
+			}
+		}
+
+		return nodes;
+	}
+}
@@ -0,0 +1,144 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class extracts the neighborhood of some modules, i.e. the modules at
+ * most <tt>k</tt> direct edges upstream or downstream of them, as an
+ * analysis of its own, so that it can be drawn as “the diagram around
+ * job X”.
+ * <p>
+ * A neighborhood is found by two breadth-first traversals of the
+ * {@link DependencyIndex}, which only touch the modules found. Its index is
+ * built directly from the one of the whole graph, without the sanity checks
+ * of a {@link DependencyAnalysis} built from modules: Levels and direct
+ * upstreams are those of the neighborhood itself.
+ * <p>
+ * Instances are thread-safe: Each thread uses its own traversal buffers.
+ */
+public class NeighborhoodExtractor {
+
+	private final DependencyIndex index;
+
+	private final Map<String, Long> durations;
+
+	private final ThreadLocal<IndexTraversal> traversals = new ThreadLocal<IndexTraversal>() {
+
+		@Override
+		protected IndexTraversal initialValue() {
+
+			return new IndexTraversal(index);
+		}
+	};
+
+	public NeighborhoodExtractor(final DependencyAnalysis analysis) {
+
+		this(checkNotNull(analysis, "analysis").getIndex(),
+				analysis.moduleDurations);
+	}
+
+	public NeighborhoodExtractor(final DependencyIndex index) {
+
+		this(index, Collections.<String, Long> emptyMap());
+	}
+
+	private NeighborhoodExtractor(final DependencyIndex index,
+			final Map<String, Long> durations) {
+
+		this.index = checkNotNull(index, "index");
+		this.durations = durations;
+	}
+
+	/**
+	 * return the analysis of the given modules, and of the modules at most
+	 * <tt>hops</tt> direct edges upstream or downstream of them.
+	 */
+	public DependencyAnalysis extract(final int hops,
+			final String... moduleNames) {
+
+		checkArgument(hops >= 0, "hops should be >= 0: %s", hops);
+		checkNotNull(moduleNames, "moduleNames");
+
+		final int[] startIds = new int[moduleNames.length];
+
+		for (int i = 0; i < moduleNames.length; ++i) {
+
+			checkNotNull(moduleNames[i], "moduleName");
+
+			startIds[i] = index.getModuleId(moduleNames[i]);
+
+			if (startIds[i] == -1) {
+				throw new IllegalArgumentException("Unknown module: \""
+						+ moduleNames[i] + "\"");
+			}
+		}
+
+		final IndexTraversal traversal = traversals.get();
+
+		// 1. UPSTREAMS
+
+		traversal.visitUpstreamsWithin(hops, startIds);
+
+		final int upCount = traversal.size();
+
+		final int[] upIds = new int[upCount];
+
+		for (int k = 0; k < upCount; ++k) {
+			upIds[k] = traversal.get(k);
+		}
+
+		// 2. DOWNSTREAMS
+
+		traversal.visitDownstreamsWithin(hops, startIds);
+
+		final int downCount = traversal.size();
+
+		final int[] ids = Arrays.copyOf(upIds, upCount + downCount);
+
+		for (int k = 0; k < downCount; ++k) {
+			ids[upCount + k] = traversal.get(k);
+		}
+
+		// 3. SUB-INDEX, IN TOPOLOGICAL ORDER, WITHOUT DUPLICATES
+
+		Arrays.sort(ids);
+
+		int size = 0;
+
+		for (int k = 0; k < ids.length; ++k) {
+
+			if (k == 0 || ids[k] != ids[k - 1]) {
+				ids[size++] = ids[k];
+			}
+		}
+
+		// 4. DURATIONS OF THE MODULES FOUND
+
+		final Map<String, Long> subDurations = new HashMap<String, Long>();
+
+		if (!durations.isEmpty()) {
+
+			for (int k = 0; k < size; ++k) {
+
+				final String moduleName = index.getModuleName(ids[k]);
+
+				final Long duration = durations.get(moduleName);
+
+				if (duration != null) {
+					subDurations.put(moduleName, duration);
+				}
+			}
+		}
+
+		return new DependencyAnalysis(index.subIndex(Arrays.copyOf(ids,
+				size)), Collections.<String, List<String>> emptyMap(),
+				Collections.<String, List<String>> emptyMap(), subDurations);
+	}
+}
@@ -0,0 +1,648 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * This class scans a directory tree of Maven <tt>pom.xml</tt> files, and
+ * builds {@link Module}s from the parent and dependency declarations that
+ * point to other scanned artifacts. Declarations that point to artifacts
+ * outside the scanned tree are ignored.
+ * <p>
+ * POM files are parsed in parallel with a streaming XML reader. Parsed
+ * results are cached by file, and reused on later scans as long as the
+ * file’s last modification time and length do not change. Entries of files
+ * that are no longer found by a scan are dropped.
+ * <p>
+ * POM files under <tt>src/test</tt> and <tt>src/it</tt> are not scanned,
+ * since they usually are test fixtures. When two scanned POM files declare
+ * the same <tt>groupId:artifactId</tt>, the first one by path is kept, and
+ * the other one is skipped and counted, see {@link #getDuplicateCount()}.
+ */
+public class PomScanner {
+
+	private final int threadCount;
+
+	private final Map<File, CachedPom> cache = new ConcurrentHashMap<File, CachedPom>();
+
+	private final AtomicInteger parseCount = new AtomicInteger();
+
+	private final AtomicInteger duplicateCount = new AtomicInteger();
+
+	/**
+	 * the pool that parses POM files, shared by all scans, and created by
+	 * the first scan that needs it. Its threads are daemon threads, so that
+	 * it never needs to be shut down.
+	 */
+	@Nullable
+	private ExecutorService executor = null;
+
+	public PomScanner() {
+
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public PomScanner(final int threadCount) {
+
+		checkArgument(threadCount > 0, "threadCount should be > 0, but was: %s",
+				threadCount);
+
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * return how many POM files were actually parsed by this scanner, i.e.
+	 * not served from the cache.
+	 */
+	public int getParseCount() {
+
+		return parseCount.get();
+	}
+
+	/**
+	 * return how many POM files were skipped by this scanner because they
+	 * declare the same <tt>groupId:artifactId</tt> as another one.
+	 */
+	public int getDuplicateCount() {
+
+		return duplicateCount.get();
+	}
+
+	/**
+	 * return the number of POM files in the cache, for tests.
+	 */
+	int sizeOfCache() {
+
+		return cache.size();
+	}
+
+	/**
+	 * scan a directory tree, and return one {@link Module} per artifact
+	 * found. Modules are named after their <tt>artifactId</tt>, or after
+	 * their <tt>groupId:artifactId</tt> when two scanned artifacts share
+	 * the same <tt>artifactId</tt>.
+	 */
+	public Collection<Module> scan(final File rootDir) throws IOException {
+
+		checkNotNull(rootDir, "rootDir");
+
+		if (!rootDir.isDirectory()) {
+			throw new IOException("Not a directory: " + rootDir);
+		}
+
+		// 1. WALK
+
+		final List<File> pomFiles = new ArrayList<File>();
+
+		collectPomFiles(rootDir, pomFiles);
+
+		evictFromCache(rootDir, pomFiles);
+
+		// 2. PARSE
+
+		final List<PomInfo> poms = parseAll(pomFiles);
+
+		// 3. RESOLVE
+
+		final Map<String, PomInfo> pomsByCoords = new HashMap<String, PomInfo>();
+		final Map<String, Integer> artifactIdCounts = new HashMap<String, Integer>();
+
+		for (final PomInfo pom : poms) {
+
+			if (pom.artifactId == null) {
+				continue;
+			}
+
+			// POM files are sorted by path, so that the first one is kept
+
+			if (pomsByCoords.containsKey(pom.getCoords())) {
+
+				duplicateCount.incrementAndGet();
+
+				continue;
+			}
+
+			pomsByCoords.put(pom.getCoords(), pom);
+
+			final Integer count = artifactIdCounts.get(pom.artifactId);
+
+			artifactIdCounts.put(pom.artifactId, count == null ? 1 : count + 1);
+		}
+
+		final Map<String, Module> modules = new HashMap<String, Module>();
+
+		for (final PomInfo pom : pomsByCoords.values()) {
+
+			final String name = moduleName(pom, artifactIdCounts);
+
+			modules.put(pom.getCoords(), new Module(name));
+		}
+
+		for (final PomInfo pom : pomsByCoords.values()) {
+
+			final Module module = modules.get(pom.getCoords());
+
+			for (final String upstreamCoords : pom.upstreamCoords) {
+
+				final Module upstream = modules.get(upstreamCoords);
+
+				if (upstream == null || upstream == module) {
+					continue; // Outside of the scanned tree
+				}
+
+				module.addToUpstreamModules(upstream.name);
+
+				upstream.addToDownstreamModules(module.name);
+			}
+		}
+
+		return modules.values();
+	}
+
+	private static String moduleName(final PomInfo pom,
+			final Map<String, Integer> artifactIdCounts) {
+
+		return artifactIdCounts.get(pom.artifactId) > 1 ? pom.getCoords()
+				: pom.artifactId;
+	}
+
+	private static void collectPomFiles(final File dir,
+			final List<File> pomFiles) throws IOException {
+
+		final File[] children = dir.listFiles();
+
+		if (children == null) {
+			throw new IOException("Cannot list directory: " + dir);
+		}
+
+		Arrays.sort(children);
+
+		final boolean src = "src".equals(dir.getName());
+
+		for (final File child : children) {
+
+			final String childName = child.getName();
+
+			if (child.isDirectory()) {
+
+				if (childName.startsWith(".") || "target".equals(childName)) {
+					continue;
+				}
+
+				if (src && ("test".equals(childName) || "it".equals(childName))) {
+					continue;
+				}
+
+				collectPomFiles(child, pomFiles);
+
+			} else if ("pom.xml".equals(childName)) {
+
+				pomFiles.add(child);
+			}
+		}
+	}
+
+	/**
+	 * drop the cache entries of the files under a directory that were not
+	 * found by a scan of it, for instance deleted files.
+	 */
+	private void evictFromCache(final File rootDir, final List<File> pomFiles) {
+
+		final String prefix = rootDir.getAbsolutePath() + File.separator;
+
+		final Set<File> keys = new HashSet<File>();
+
+		for (final File pomFile : pomFiles) {
+			keys.add(pomFile.getAbsoluteFile());
+		}
+
+		for (final File key : cache.keySet()) {
+
+			if (key.getPath().startsWith(prefix) && !keys.contains(key)) {
+				cache.remove(key);
+			}
+		}
+	}
+
+	private synchronized ExecutorService getExecutor() {
+
+		if (executor == null) {
+
+			executor = Executors.newFixedThreadPool(threadCount,
+					new ThreadFactory() {
+
+						private final AtomicInteger threadNumber = new AtomicInteger();
+
+						@Override
+						public Thread newThread(final Runnable runnable) {
+
+							final Thread thread = new Thread(runnable,
+									"PomScanner-"
+											+ threadNumber.incrementAndGet());
+
+							thread.setDaemon(true);
+
+							return thread;
+						}
+					});
+		}
+
+		return executor;
+	}
+
+	private List<PomInfo> parseAll(final List<File> pomFiles)
+			throws IOException {
+
+		final List<PomInfo> poms = new ArrayList<PomInfo>();
+
+		// With one thread, files are parsed by the calling thread
+
+		if (threadCount == 1 || pomFiles.size() <= 1) {
+
+			for (final File pomFile : pomFiles) {
+				poms.add(getOrParse(pomFile));
+			}
+
+			return poms;
+		}
+
+		final ExecutorService executor = getExecutor();
+
+		final List<Future<PomInfo>> futures = new ArrayList<Future<PomInfo>>();
+
+		try {
+
+			for (final File pomFile : pomFiles) {
+
+				futures.add(executor.submit(new Callable<PomInfo>() {
+
+					@Override
+					public PomInfo call() throws Exception {
+
+						return getOrParse(pomFile);
+					}
+				}));
+			}
+
+			for (final Future<PomInfo> future : futures) {
+
+				try {
+
+					poms.add(future.get());
+
+				} catch (final InterruptedException e) {
+
+					Thread.currentThread().interrupt();
+
+					throw new IOException(e);
+
+				} catch (final ExecutionException e) {
+
+					final Throwable cause = e.getCause();
+
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+
+					throw new IOException(cause);
+				}
+			}
+
+			return poms;
+
+		} finally {
+
+			// The pool is shared: Only this scan’s remaining tasks are
+			// cancelled, if it failed
+
+			for (final Future<PomInfo> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	private PomInfo getOrParse(final File pomFile) throws IOException {
+
+		final File key = pomFile.getAbsoluteFile();
+
+		final long lastModified = key.lastModified();
+		final long length = key.length();
+
+		final CachedPom cached = cache.get(key);
+
+		if (cached != null && cached.lastModified == lastModified
+				&& cached.length == length) {
+
+			return cached.pom;
+		}
+
+		final PomInfo pom = parse(key);
+
+		parseCount.incrementAndGet();
+
+		cache.put(key, new CachedPom(lastModified, length, pom));
+
+		return pom;
+	}
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+	private static XMLInputFactory createXMLInputFactory() {
+
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				false);
+
+		return factory;
+	}
+
+	private static final String PROJECT = "/project/";
+	private static final String PARENT = "/project/parent/";
+	private static final String DEPENDENCY = "/project/dependencies/dependency/";
+	private static final String PLUGIN = "/project/build/plugins/plugin/";
+	private static final String PROPERTIES = "/project/properties/";
+
+	private static final String DEFAULT_PLUGIN_GROUP_ID = "org.apache.maven.plugins";
+
+	static PomInfo parse(final File pomFile) throws IOException {
+
+		final InputStream is = new FileInputStream(pomFile);
+
+		try {
+
+			final XMLStreamReader reader = XML_INPUT_FACTORY
+					.createXMLStreamReader(is);
+
+			try {
+
+				return parse(pomFile, reader);
+
+			} finally {
+
+				reader.close();
+			}
+
+		} catch (final XMLStreamException e) {
+
+			throw new IOException("Cannot parse: " + pomFile, e);
+
+		} finally {
+
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	private static PomInfo parse(final File pomFile,
+			final XMLStreamReader reader) throws XMLStreamException {
+
+		final StringBuilder path = new StringBuilder();
+		final StringBuilder text = new StringBuilder();
+
+		String groupId = null;
+		String artifactId = null;
+		String parentGroupId = null;
+		String parentArtifactId = null;
+		String refGroupId = null;
+		String refArtifactId = null;
+
+		final List<String[]> refs = new ArrayList<String[]>();
+		final Map<String, String> properties = new HashMap<String, String>();
+
+		while (reader.hasNext()) {
+
+			switch (reader.next()) {
+
+			case XMLStreamConstants.START_ELEMENT:
+
+				path.append('/').append(reader.getLocalName());
+
+				text.setLength(0);
+
+				break;
+
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+
+				text.append(reader.getText());
+
+				break;
+
+			case XMLStreamConstants.END_ELEMENT:
+
+				final int slash = path.lastIndexOf("/");
+				final String localName = path.substring(slash + 1);
+				final String parentPath = path.substring(0, slash + 1);
+				final String value = text.toString().trim();
+
+				if (PROJECT.equals(parentPath)) {
+
+					if ("groupId".equals(localName)) {
+						groupId = value;
+					} else if ("artifactId".equals(localName)) {
+						artifactId = value;
+					}
+
+				} else if (PARENT.equals(parentPath)) {
+
+					if ("groupId".equals(localName)) {
+						parentGroupId = value;
+					} else if ("artifactId".equals(localName)) {
+						parentArtifactId = value;
+					}
+
+				} else if (DEPENDENCY.equals(parentPath)
+						|| PLUGIN.equals(parentPath)) {
+
+					if ("groupId".equals(localName)) {
+						refGroupId = value;
+					} else if ("artifactId".equals(localName)) {
+						refArtifactId = value;
+					}
+
+				} else if (PROPERTIES.equals(parentPath)) {
+
+					properties.put(localName, value);
+
+				} else if (DEPENDENCY.equals(path + "/")) {
+
+					if (refGroupId != null && refArtifactId != null) {
+						refs.add(new String[] { refGroupId, refArtifactId });
+					}
+
+					refGroupId = null;
+					refArtifactId = null;
+
+				} else if (PLUGIN.equals(path + "/")) {
+
+					if (refArtifactId != null) {
+						refs.add(new String[] {
+								refGroupId != null ? refGroupId
+										: DEFAULT_PLUGIN_GROUP_ID,
+								refArtifactId });
+					}
+
+					refGroupId = null;
+					refArtifactId = null;
+				}
+
+				path.setLength(slash);
+
+				text.setLength(0);
+
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		if (groupId == null) {
+			groupId = parentGroupId;
+		}
+
+		properties.put("project.groupId", groupId);
+		properties.put("pom.groupId", groupId);
+		properties.put("project.parent.groupId", parentGroupId);
+
+		final Set<String> upstreamCoords = new HashSet<String>();
+
+		if (parentArtifactId != null) {
+
+			upstreamCoords.add(parentGroupId + ":" + parentArtifactId);
+		}
+
+		for (final String[] ref : refs) {
+
+			upstreamCoords.add(resolve(ref[0], properties) + ":"
+					+ resolve(ref[1], properties));
+		}
+
+		return new PomInfo(pomFile, groupId, artifactId, upstreamCoords);
+	}
+
+	/**
+	 * resolve simple <tt>${property}</tt> references against the POM’s own
+	 * properties. Unknown properties are left as is.
+	 */
+	private static String resolve(final String value,
+			final Map<String, String> properties) {
+
+		if (value.indexOf("${") == -1) {
+			return value;
+		}
+
+		final StringBuilder sb = new StringBuilder();
+
+		int start = 0;
+
+		while (true) {
+
+			final int open = value.indexOf("${", start);
+
+			final int close = open == -1 ? -1 : value.indexOf('}', open);
+
+			if (close == -1) {
+
+				sb.append(value.substring(start));
+
+				return sb.toString();
+			}
+
+			final String property = properties.get(value.substring(open + 2,
+					close));
+
+			sb.append(value.substring(start, open));
+			sb.append(property != null ? property : value.substring(open,
+					close + 1));
+
+			start = close + 1;
+		}
+	}
+
+	static final class PomInfo {
+
+		public final File file;
+
+		@Nullable
+		public final String groupId;
+
+		@Nullable
+		public final String artifactId;
+
+		public final Set<String> upstreamCoords;
+
+		private PomInfo(
+				final File file,
+				@Nullable final String groupId,
+				@Nullable final String artifactId,
+				final Set<String> upstreamCoords) {
+
+			this.file = checkNotNull(file, "file");
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.upstreamCoords = checkNotNull(upstreamCoords,
+					"upstreamCoords");
+		}
+
+		public String getCoords() {
+
+			return groupId + ":" + artifactId;
+		}
+
+		@Override
+		public String toString() {
+
+			return getCoords();
+		}
+	}
+
+	private static final class CachedPom {
+
+		public final long lastModified;
+		public final long length;
+		public final PomInfo pom;
+
+		public CachedPom(
+				final long lastModified,
+				final long length,
+				final PomInfo pom) {
+
+			this.lastModified = lastModified;
+			this.length = length;
+			this.pom = pom;
+		}
+	}
+}
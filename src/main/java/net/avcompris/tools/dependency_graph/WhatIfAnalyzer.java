@@ -0,0 +1,673 @@
+package net.avcompris.tools.dependency_graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class evaluates hypothetical edits of a dependency graph, i.e. the
+ * removal or the addition of one dependency, without building a new
+ * {@link DependencyAnalysis} for each of them: For each edit, it tells the
+ * resulting number of levels, the resulting makespan (see
+ * {@link CriticalPathAnalysis}), and the resulting number of modules to
+ * rebuild when the upstream module of the edited dependency changes.
+ * <p>
+ * The graph itself is never copied. Each edit is evaluated on a
+ * copy-on-write view of the levels and finish times of the modules: Only
+ * the downstreams of the edited dependency whose values actually change
+ * are written to the view, in ascending id order, which is still a
+ * topological order for them. Views are reused from one edit to the other
+ * within a thread.
+ * <p>
+ * Edits of a batch are evaluated in parallel, then ranked: Edits that
+ * shorten the makespan the most first, then those that remove the most
+ * levels, then those that shrink the rebuild set the most. Edits that
+ * would create a cycle come last.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class WhatIfAnalyzer {
+
+	private final DependencyIndex index;
+
+	private final long[] duration;
+
+	/**
+	 * the levels of the modules, as the longest chains of dependencies that
+	 * lead to them, whatever the levels of the index.
+	 */
+	private final int[] baseLevel;
+
+	private final long[] baseFinish;
+
+	/**
+	 * module ids, by descending base level and base finish time.
+	 */
+	private final int[] byLevel;
+	private final int[] byFinish;
+
+	private final int baseLevelCount;
+
+	private final long baseMakespan;
+
+	/**
+	 * the declared downstreams of the modules, as a CSR structure.
+	 */
+	private final int[] downOffsets;
+	private final int[] downTargets;
+
+	private final ThreadLocal<Overlay> overlays = new ThreadLocal<Overlay>() {
+
+		@Override
+		protected Overlay initialValue() {
+
+			return new Overlay();
+		}
+	};
+
+	/**
+	 * @param durations the durations of the modules’ jobs, by module name.
+	 * @param defaultDuration the duration of modules with none.
+	 */
+	public WhatIfAnalyzer(
+			final DependencyAnalysis analysis,
+			final Map<String, Long> durations,
+			final long defaultDuration) {
+
+		this(checkNotNull(analysis, "analysis").getIndex(), durations,
+				defaultDuration);
+	}
+
+	public WhatIfAnalyzer(
+			final DependencyIndex index,
+			final Map<String, Long> durations,
+			final long defaultDuration) {
+
+		this.index = checkNotNull(index, "index");
+
+		duration = index.toLongArray(durations, defaultDuration);
+
+		final int n = index.size();
+
+		// 1. BASE LEVELS AND FINISH TIMES, IN TOPOLOGICAL ORDER
+
+		baseLevel = new int[n];
+		baseFinish = new long[n];
+
+		int levelCount = 0;
+		long makespan = 0L;
+
+		for (int id = 0; id < n; ++id) {
+
+			long start = 0L;
+
+			for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+
+				final int u = index.getUpstream(id, k);
+
+				baseLevel[id] = Math.max(baseLevel[id], baseLevel[u] + 1);
+				start = Math.max(start, baseFinish[u]);
+			}
+
+			baseFinish[id] = start + duration[id];
+
+			levelCount = Math.max(levelCount, baseLevel[id] + 1);
+			makespan = Math.max(makespan, baseFinish[id]);
+		}
+
+		baseLevelCount = levelCount;
+		baseMakespan = makespan;
+
+		final Integer[] ids = new Integer[n];
+
+		for (int id = 0; id < n; ++id) {
+			ids[id] = id;
+		}
+
+		byLevel = sortDescending(ids, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer id1, final Integer id2) {
+
+				return baseLevel[id2] - baseLevel[id1];
+			}
+		});
+
+		byFinish = sortDescending(ids, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer id1, final Integer id2) {
+
+				return Long.compare(baseFinish[id2], baseFinish[id1]);
+			}
+		});
+
+		// 2. DECLARED DOWNSTREAMS
+
+		final int[] upOffsets = new int[n + 1];
+
+		for (int id = 0; id < n; ++id) {
+			upOffsets[id + 1] = upOffsets[id] + index.getUpstreamCount(id);
+		}
+
+		final int[] upTargets = new int[upOffsets[n]];
+
+		for (int id = 0; id < n; ++id) {
+
+			for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+				upTargets[upOffsets[id] + k] = index.getUpstream(id, k);
+			}
+		}
+
+		downOffsets = new int[n + 1];
+		downTargets = DependencyIndex.reverseCSR(n, upOffsets, upTargets,
+				downOffsets);
+	}
+
+	private static int[] sortDescending(final Integer[] ids,
+			final Comparator<Integer> comparator) {
+
+		final Integer[] sorted = ids.clone();
+
+		Arrays.sort(sorted, comparator);
+
+		final int[] result = new int[sorted.length];
+
+		for (int i = 0; i < sorted.length; ++i) {
+			result[i] = sorted[i];
+		}
+
+		return result;
+	}
+
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * set the number of threads that evaluate a batch of edits. Default is
+	 * the number of available processors.
+	 */
+	public WhatIfAnalyzer setThreadCount(final int threadCount) {
+
+		checkArgument(threadCount >= 1, "threadCount should be >= 1: %s",
+				threadCount);
+
+		this.threadCount = threadCount;
+
+		return this;
+	}
+
+	public int getLevelCount() {
+
+		return baseLevelCount;
+	}
+
+	public long getMakespan() {
+
+		return baseMakespan;
+	}
+
+	// -------------------------------------------------------------------------
+	//     EDITS AND OUTCOMES
+	// -------------------------------------------------------------------------
+
+	/**
+	 * the removal or the addition of one dependency.
+	 */
+	public static final class EdgeEdit {
+
+		public final String upstream;
+		public final String downstream;
+
+		private final boolean addition;
+
+		private EdgeEdit(final String upstream, final String downstream,
+				final boolean addition) {
+
+			this.upstream = checkNotNull(upstream, "upstream");
+			this.downstream = checkNotNull(downstream, "downstream");
+			this.addition = addition;
+		}
+
+		public static EdgeEdit removal(final String upstream,
+				final String downstream) {
+
+			return new EdgeEdit(upstream, downstream, false);
+		}
+
+		public static EdgeEdit addition(final String upstream,
+				final String downstream) {
+
+			return new EdgeEdit(upstream, downstream, true);
+		}
+
+		public boolean isAddition() {
+
+			return addition;
+		}
+
+		@Override
+		public String toString() {
+
+			return (addition ? "+ " : "- ") + upstream + " -> " + downstream;
+		}
+	}
+
+	/**
+	 * the evaluation of one edit.
+	 */
+	public static final class Outcome {
+
+		private final EdgeEdit edit;
+		private final boolean cycle;
+		private final int levelCountDelta;
+		private final long makespanDelta;
+		private final int rebuildCount;
+		private final int rebuildCountDelta;
+		private final int changedModuleCount;
+
+		private Outcome(final EdgeEdit edit, final boolean cycle,
+				final int levelCountDelta, final long makespanDelta,
+				final int rebuildCount, final int rebuildCountDelta,
+				final int changedModuleCount) {
+
+			this.edit = edit;
+			this.cycle = cycle;
+			this.levelCountDelta = levelCountDelta;
+			this.makespanDelta = makespanDelta;
+			this.rebuildCount = rebuildCount;
+			this.rebuildCountDelta = rebuildCountDelta;
+			this.changedModuleCount = changedModuleCount;
+		}
+
+		public EdgeEdit getEdit() {
+
+			return edit;
+		}
+
+		/**
+		 * return <tt>true</tt> if the edit would create a cycle. Other
+		 * values are then all zero.
+		 */
+		public boolean isCycle() {
+
+			return cycle;
+		}
+
+		/**
+		 * return the change in the number of levels: Negative values mean
+		 * fewer levels.
+		 */
+		public int getLevelCountDelta() {
+
+			return levelCountDelta;
+		}
+
+		/**
+		 * return the change in the makespan: Negative values mean a shorter
+		 * build.
+		 */
+		public long getMakespanDelta() {
+
+			return makespanDelta;
+		}
+
+		/**
+		 * return the number of modules to rebuild when the upstream module
+		 * of the edited dependency changes, itself included.
+		 */
+		public int getRebuildCount() {
+
+			return rebuildCount;
+		}
+
+		public int getRebuildCountDelta() {
+
+			return rebuildCountDelta;
+		}
+
+		/**
+		 * return the number of modules whose level or finish time change.
+		 */
+		public int getChangedModuleCount() {
+
+			return changedModuleCount;
+		}
+
+		@Override
+		public String toString() {
+
+			return edit + (cycle ? ": cycle" : ": levels " + levelCountDelta
+					+ ", makespan " + makespanDelta + ", rebuild "
+					+ rebuildCountDelta);
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	//     EVALUATION
+	// -------------------------------------------------------------------------
+
+	private int getId(final String moduleName) {
+
+		final int id = index.getModuleId(moduleName);
+
+		if (id == -1) {
+			throw new IllegalArgumentException("Unknown module: \""
+					+ moduleName + "\"");
+		}
+
+		return id;
+	}
+
+	/**
+	 * return the ids of the upstream and downstream modules of an edit.
+	 */
+	private int[] getIds(final EdgeEdit edit) {
+
+		checkNotNull(edit, "edit");
+
+		final int u = getId(edit.upstream);
+		final int d = getId(edit.downstream);
+
+		if (!edit.addition && !index.isUpstream(u, d)) {
+			throw new IllegalArgumentException("Unknown dependency: " + edit);
+		}
+
+		return new int[] { u, d };
+	}
+
+	/**
+	 * return the removals of all declared dependencies.
+	 */
+	public List<EdgeEdit> getAllRemovals() {
+
+		final List<EdgeEdit> edits = new ArrayList<EdgeEdit>();
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+
+				edits.add(EdgeEdit.removal(
+						index.getModuleName(index.getUpstream(id, k)),
+						index.getModuleName(id)));
+			}
+		}
+
+		return edits;
+	}
+
+	/**
+	 * evaluate one edit, in the calling thread.
+	 */
+	public Outcome evaluate(final EdgeEdit edit) {
+
+		final int[] ids = getIds(edit);
+
+		return overlays.get().evaluate(edit, ids[0], ids[1]);
+	}
+
+	/**
+	 * evaluate a batch of edits in parallel, and return their outcomes,
+	 * ranked.
+	 */
+	public List<Outcome> evaluate(final Collection<EdgeEdit> edits) {
+
+		checkNotNull(edits, "edits");
+
+		final List<Callable<Outcome>> tasks = new ArrayList<Callable<Outcome>>();
+
+		for (final EdgeEdit edit : edits) {
+
+			final int[] ids = getIds(edit);
+
+			tasks.add(new Callable<Outcome>() {
+
+				@Override
+				public Outcome call() {
+
+					return overlays.get().evaluate(edit, ids[0], ids[1]);
+				}
+			});
+		}
+
+		final List<Outcome> outcomes = new ArrayList<Outcome>();
+
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(threadCount);
+
+		try {
+
+			for (final Future<Outcome> future : executor.invokeAll(tasks)) {
+				outcomes.add(future.get());
+			}
+
+		} catch (final InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+
+			throw new RuntimeException(e);
+
+		} catch (final ExecutionException e) {
+
+			throw new RuntimeException(e.getCause());
+
+		} finally {
+
+			executor.shutdownNow();
+		}
+
+		Collections.sort(outcomes, new Comparator<Outcome>() {
+
+			@Override
+			public int compare(final Outcome o1, final Outcome o2) {
+
+				if (o1.cycle != o2.cycle) {
+					return o1.cycle ? 1 : -1;
+				}
+
+				if (o1.makespanDelta != o2.makespanDelta) {
+					return Long.compare(o1.makespanDelta, o2.makespanDelta);
+				}
+
+				if (o1.levelCountDelta != o2.levelCountDelta) {
+					return o1.levelCountDelta - o2.levelCountDelta;
+				}
+
+				return o1.rebuildCountDelta - o2.rebuildCountDelta;
+			}
+		});
+
+		return outcomes;
+	}
+
+	/**
+	 * a copy-on-write view of the levels and finish times of the modules:
+	 * Values are read from the base arrays unless they were written during
+	 * the current evaluation. Not thread-safe.
+	 */
+	private final class Overlay {
+
+		private final int[] stamps = new int[index.size()];
+		private final int[] queuedStamps = new int[index.size()];
+
+		private int stamp = 0;
+
+		private final int[] changedIds = new int[index.size()];
+
+		private final int[] levels = new int[index.size()];
+		private final long[] finishes = new long[index.size()];
+
+		private final PriorityQueue<Integer> queue = new PriorityQueue<Integer>();
+
+		private final IndexTraversal traversal = new IndexTraversal(index);
+
+		private int changedModuleCount;
+
+		private boolean isChanged(final int id) {
+
+			return stamps[id] == stamp;
+		}
+
+		private int getLevel(final int id) {
+
+			return isChanged(id) ? levels[id] : baseLevel[id];
+		}
+
+		private long getFinish(final int id) {
+
+			return isChanged(id) ? finishes[id] : baseFinish[id];
+		}
+
+		private void enqueue(final int id) {
+
+			if (queuedStamps[id] != stamp) {
+
+				queuedStamps[id] = stamp;
+				queue.add(id);
+			}
+		}
+
+		public Outcome evaluate(final EdgeEdit edit, final int u, final int d) {
+
+			++stamp;
+
+			changedModuleCount = 0;
+
+			// 1. CYCLE
+
+			if (edit.addition
+					&& (u == d || traversal.visitDownstreams(d) > 0
+							&& traversal.isVisited(u))) {
+
+				return new Outcome(edit, true, 0, 0L, 0, 0, 0);
+			}
+
+			// 2. LEVELS AND FINISH TIMES, DOWNSTREAM OF THE EDIT
+
+			enqueue(d);
+
+			while (!queue.isEmpty()) {
+
+				final int id = queue.poll();
+
+				int level = 0;
+				long start = 0L;
+
+				for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+
+					final int upstream = index.getUpstream(id, k);
+
+					if (id == d && upstream == u && !edit.addition) {
+						continue;
+					}
+
+					level = Math.max(level, getLevel(upstream) + 1);
+					start = Math.max(start, getFinish(upstream));
+				}
+
+				if (id == d && edit.addition) {
+
+					level = Math.max(level, getLevel(u) + 1);
+					start = Math.max(start, getFinish(u));
+				}
+
+				final long finish = start + duration[id];
+
+				if (level == getLevel(id) && finish == getFinish(id)) {
+					continue;
+				}
+
+				if (!isChanged(id)) {
+
+					stamps[id] = stamp;
+
+					changedIds[changedModuleCount++] = id;
+				}
+
+				levels[id] = level;
+				finishes[id] = finish;
+
+				final int count = index.getDirectDownstreamCount(id);
+
+				for (int k = 0; k < count; ++k) {
+					enqueue(index.getDirectDownstream(id, k));
+				}
+			}
+
+			// 3. LEVEL COUNT AND MAKESPAN: CHANGED MODULES, AND THE FIRST
+			// UNCHANGED ONES
+
+			int levelCount = 0;
+			long makespan = 0L;
+
+			for (int i = 0; i < changedModuleCount; ++i) {
+
+				levelCount = Math.max(levelCount, levels[changedIds[i]] + 1);
+				makespan = Math.max(makespan, finishes[changedIds[i]]);
+			}
+
+			for (final int id : byLevel) {
+
+				if (!isChanged(id)) {
+
+					levelCount = Math.max(levelCount, baseLevel[id] + 1);
+
+					break;
+				}
+			}
+
+			for (final int id : byFinish) {
+
+				if (!isChanged(id)) {
+
+					makespan = Math.max(makespan, baseFinish[id]);
+
+					break;
+				}
+			}
+
+			// 4. REBUILD SET OF THE UPSTREAM MODULE
+
+			final int baseRebuildCount = traversal.visitDownstreams(u);
+
+			final int rebuildCount;
+
+			if (edit.addition) {
+
+				rebuildCount = traversal.visitDownstreams(u, d);
+
+			} else {
+
+				final int[] startIds = new int[downOffsets[u + 1]
+						- downOffsets[u] - 1];
+
+				int i = 0;
+
+				for (int k = downOffsets[u]; k < downOffsets[u + 1]; ++k) {
+
+					if (downTargets[k] != d) {
+						startIds[i++] = downTargets[k];
+					}
+				}
+
+				rebuildCount = 1 + traversal.visitDownstreams(startIds);
+			}
+
+			return new Outcome(edit, false, levelCount - baseLevelCount,
+					makespan - baseMakespan, rebuildCount, rebuildCount
+							- baseRebuildCount, changedModuleCount);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import net.avcompris.tools.dependency_graph.BatchDiagrammer.Result;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchDiagrammerTest {
+
+	private final File baseDir = new File("target", "BatchDiagrammerTest");
+
+	private final File inDir = new File(baseDir, "in");
+
+	private final File outDir = new File(baseDir, "out");
+
+	@Before
+	public void setUp() throws Exception {
+
+		FileUtils.deleteQuietly(baseDir);
+
+		inDir.mkdirs();
+
+		for (int i = 0; i < 6; ++i) {
+
+			new CIGraphGenerator(60L + i).setModuleCount(20 + 5 * i)
+					.setLevelCount(4).generateJobsConfig(
+							new File(inDir, "jobsConfig-" + i + ".xml"));
+		}
+	}
+
+	@Test
+	public void testRun() throws Exception {
+
+		final List<Result> results = new BatchDiagrammer().setOutputDir(
+				outDir).setThreadCount(3).run(Arrays.asList(inDir));
+
+		assertEquals(6, results.size());
+
+		for (int i = 0; i < 6; ++i) {
+
+			final Result result = results.get(i);
+
+			assertNull(result.getError());
+			assertEquals(new File(inDir, "jobsConfig-" + i + ".xml"),
+					result.input);
+			assertEquals(new File(outDir, "jobsConfig-" + i + ".svg"),
+					result.svgFile);
+			assertEquals(20 + 5 * i, result.getModuleCount());
+			assertTrue(result.svgFile.isFile());
+		}
+	}
+
+	@Test
+	public void testQuiet() throws Exception {
+
+		final PrintStream systemOut = System.out;
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		System.setOut(new PrintStream(bos, true, "UTF-8"));
+
+		try {
+
+			new BatchDiagrammer().setOutputDir(outDir).run(
+					Arrays.asList(inDir));
+
+		} finally {
+
+			System.setOut(systemOut);
+		}
+
+		assertEquals("", bos.toString("UTF-8"));
+	}
+
+	@Test
+	public void testSameNames() throws Exception {
+
+		final File other = new File(baseDir, "other");
+
+		other.mkdirs();
+
+		FileUtils.copyFile(new File(inDir, "jobsConfig-0.xml"), new File(
+				other, "jobsConfig-0.xml"));
+
+		final List<Result> results = new BatchDiagrammer().setOutputDir(
+				outDir).run(
+				Arrays.asList(new File(inDir, "jobsConfig-0.xml"), new File(
+						other, "jobsConfig-0.xml")));
+
+		assertEquals(new File(outDir, "jobsConfig-0.svg"),
+				results.get(0).svgFile);
+		assertEquals(new File(outDir, "jobsConfig-0-2.svg"),
+				results.get(1).svgFile);
+	}
+
+	@Test
+	public void testCommandLine() throws Exception {
+
+		FileUtils.writeStringToFile(new File(inDir, "zz-broken.xml"),
+				"<jobConfigs><jobConfig>", "UTF-8");
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		final int status = BatchDiagrammer.run(new PrintStream(bos, true,
+				"UTF-8"), "-o", outDir.getPath(), "-t", "10", "-j", "4", inDir
+				.getPath());
+
+		final String summary = bos.toString("UTF-8");
+
+		assertEquals(summary, 1, status);
+		assertTrue(summary, summary.contains("7 graphs, 1 errors"));
+		assertTrue(summary, summary.contains("zz-broken.xml: "));
+
+		assertEquals(6, outDir.listFiles().length);
+	}
+
+	@Test
+	public void testIllegalArguments() throws Exception {
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		final PrintStream out = new PrintStream(bos, true, "UTF-8");
+
+		assertEquals(2, BatchDiagrammer.run(out));
+		assertEquals(2, BatchDiagrammer.run(out, "-x", inDir.getPath()));
+		assertEquals(2, BatchDiagrammer.run(out, "-t", "abc", inDir.getPath()));
+
+		assertTrue(bos.toString("UTF-8").contains("Usage: "));
+	}
+
+	@Test
+	public void testPomTree() throws Exception {
+
+		final File pomDir = new File(baseDir, "poms");
+
+		pomDir.mkdirs();
+
+		FileUtils.writeStringToFile(new File(pomDir, "pom.xml"),
+				"<project><groupId>g</groupId><artifactId>a</artifactId>"
+						+ "</project>", "UTF-8");
+
+		final List<Result> results = new BatchDiagrammer().run(Arrays
+				.asList(pomDir));
+
+		assertEquals(1, results.size());
+		assertNull(results.get(0).getError());
+		assertEquals(new File(baseDir.getAbsoluteFile(), "poms.svg"),
+				results.get(0).svgFile);
+		assertNotNull(FileUtils.readFileToString(results.get(0).svgFile));
+	}
+}
@@ -0,0 +1,218 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.avcompris.tools.dependency_graph.BuildHistoryReader.DurationStats;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BuildHistoryReaderTest {
+
+	private final File jenkinsHome = new File("target",
+			"BuildHistoryReaderTest");
+
+	@Before
+	public void setUp() throws Exception {
+
+		FileUtils.deleteQuietly(jenkinsHome);
+	}
+
+	private void writeBuild(final String jobPath, final int buildNumber,
+			final String result, final long duration) throws Exception {
+
+		final StringBuilder sb = new StringBuilder();
+
+		sb.append("<?xml version='1.1' encoding='UTF-8'?>\n<build>\n");
+		sb.append("  <actions><hudson.model.CauseAction><duration>-1"
+				+ "</duration></hudson.model.CauseAction></actions>\n");
+		sb.append("  <number>").append(buildNumber).append("</number>\n");
+
+		if (result != null) {
+			sb.append("  <result>").append(result).append("</result>\n");
+		}
+
+		sb.append("  <duration>").append(duration).append("</duration>\n");
+		sb.append("</build>\n");
+
+		FileUtils.writeStringToFile(new File(jenkinsHome, jobPath
+				+ "/builds/" + buildNumber + "/build.xml"), sb.toString(),
+				"UTF-8");
+	}
+
+	@Test
+	public void testStats() throws Exception {
+
+		for (int i = 1; i <= 10; ++i) {
+			writeBuild("jobs/aed-parent", i, "SUCCESS", 1000L * i);
+		}
+
+		writeBuild("jobs/aed-parent", 11, "ABORTED", 99000L);
+		writeBuild("jobs/aed-parent", 12, "FAILURE", 11000L);
+
+		new File(jenkinsHome, "jobs/aed-parent/builds/lastSuccessfulBuild")
+				.mkdirs();
+
+		writeBuild("jobs/tools/jobs/aed-web", 1, "UNSTABLE", 5000L);
+		writeBuild("jobs/empty", 1, null, 0L);
+
+		final Map<String, DurationStats> stats = new BuildHistoryReader(2)
+				.read(jenkinsHome);
+
+		assertEquals(Arrays.asList("aed-parent", "tools/aed-web"),
+				Arrays.asList(stats.keySet().toArray()));
+
+		final DurationStats parent = stats.get("aed-parent");
+
+		assertEquals(11, parent.getCount());
+		assertEquals(6000L, parent.getMedian());
+		assertEquals(10000L, parent.getP90());
+		assertEquals(11000L, parent.getPercentile(100));
+
+		assertEquals(5000L, stats.get("tools/aed-web").getMedian());
+	}
+
+	@Test
+	public void testWindow() throws Exception {
+
+		for (int i = 1; i <= 30; ++i) {
+			writeBuild("jobs/a", i, "SUCCESS", i <= 20 ? 1000L : 2000L);
+		}
+
+		final DurationStats stats = new BuildHistoryReader().setWindowSize(10)
+				.read(jenkinsHome).get("a");
+
+		assertEquals(10, stats.getCount());
+		assertEquals(2000L, stats.getMedian());
+	}
+
+	@Test
+	public void testIncremental() throws Exception {
+
+		for (int i = 1; i <= 5; ++i) {
+			writeBuild("jobs/a", i, "SUCCESS", 1000L);
+		}
+
+		writeBuild("jobs/a", 6, null, 0L);
+
+		final BuildHistoryReader reader = new BuildHistoryReader()
+				.setWindowSize(4);
+
+		assertEquals(4, reader.read(jenkinsHome).get("a").getCount());
+		assertEquals(6, reader.getParseCount());
+
+		// Nothing new: Only the running build is read again
+
+		assertEquals(1000L, reader.read(jenkinsHome).get("a").getMedian());
+		assertEquals(7, reader.getParseCount());
+
+		writeBuild("jobs/a", 6, "SUCCESS", 3000L);
+		writeBuild("jobs/a", 7, "SUCCESS", 3000L);
+		writeBuild("jobs/a", 8, "SUCCESS", 3000L);
+
+		final DurationStats stats = reader.read(jenkinsHome).get("a");
+
+		assertEquals(10, reader.getParseCount());
+		assertEquals(4, stats.getCount());
+		assertEquals(3000L, stats.getP90());
+		assertEquals(1000L, stats.getPercentile(25));
+
+		reader.read(jenkinsHome);
+
+		assertEquals(10, reader.getParseCount());
+	}
+
+	@Test
+	public void testMalformedRecord() throws Exception {
+
+		writeBuild("jobs/a", 1, "SUCCESS", 1000L);
+		writeBuild("jobs/a", 3, "SUCCESS", 3000L);
+		writeBuild("jobs/b", 1, "SUCCESS", 5000L);
+
+		FileUtils.writeStringToFile(new File(jenkinsHome,
+				"jobs/a/builds/2/build.xml"), "<?xml version='1.1'?>\n<build>"
+				+ "<result>SUCC", "UTF-8");
+
+		final BuildHistoryReader reader = new BuildHistoryReader();
+
+		final Map<String, DurationStats> stats = reader.read(jenkinsHome);
+
+		assertEquals(2, stats.get("a").getCount());
+		assertEquals(1, stats.get("b").getCount());
+		assertEquals(1, reader.getSkipCount());
+		assertEquals(4, reader.getParseCount());
+
+		// The broken record is not read again
+
+		writeBuild("jobs/a", 4, "SUCCESS", 4000L);
+
+		assertEquals(3, reader.read(jenkinsHome).get("a").getCount());
+		assertEquals(1, reader.getSkipCount());
+		assertEquals(5, reader.getParseCount());
+	}
+
+	@Test
+	public void testMissingRecord() throws Exception {
+
+		writeBuild("jobs/a", 1, "SUCCESS", 1000L);
+		writeBuild("jobs/b", 1, "SUCCESS", 1000L);
+
+		new File(jenkinsHome, "jobs/a/builds/2").mkdirs();
+		new File(jenkinsHome, "jobs/b/builds/2").mkdirs();
+
+		final BuildHistoryReader reader = new BuildHistoryReader();
+
+		for (int i = 1; i < BuildHistoryReader.MAX_MISSING_RECORD_CHECKS; ++i) {
+			reader.read(jenkinsHome);
+		}
+
+		// The record of a shows up in time, the one of b too late
+
+		writeBuild("jobs/a", 2, "SUCCESS", 2000L);
+
+		assertEquals(2, reader.read(jenkinsHome).get("a").getCount());
+
+		writeBuild("jobs/b", 2, "SUCCESS", 2000L);
+
+		final Map<String, DurationStats> stats = reader.read(jenkinsHome);
+
+		assertEquals(2, stats.get("a").getCount());
+		assertEquals(1, stats.get("b").getCount());
+		assertEquals(3, reader.getParseCount());
+	}
+
+	@Test
+	public void testModuleDurations() throws Exception {
+
+		writeBuild("jobs/a", 1, "SUCCESS", 4000L);
+		writeBuild("jobs/b", 1, "SUCCESS", 6000L);
+
+		final List<Module> modules = Arrays.asList(new Module("a"), new Module(
+				"b").addToUpstreamModules("a"), new Module("c")
+				.addToUpstreamModules("a"));
+
+		BuildHistoryReader.setDurations(modules,
+				new BuildHistoryReader().read(jenkinsHome));
+
+		assertEquals(6000L, (long) modules.get(1).getDuration());
+		assertNull(modules.get(2).getDuration());
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(modules);
+
+		final Map<String, Long> durations = analysis.getModuleDurations();
+
+		assertEquals(2, durations.size());
+		assertFalse(durations.containsKey("c"));
+
+		assertEquals(10000L, analysis.getCriticalPath(durations, 1000L)
+				.getMakespan());
+	}
+}
@@ -0,0 +1,186 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BuildSchedulerTest {
+
+	@Test
+	public void testChain() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(new Module(
+				"a").addToDownstreamModules("b"), new Module("b")
+				.addToDownstreamModules("c"), new Module("c"));
+
+		final Map<String, Long> costs = new HashMap<String, Long>();
+
+		costs.put("a", 3L);
+		costs.put("b", 5L);
+		costs.put("c", 7L);
+
+		final BuildPlan plan = new BuildScheduler(analysis).schedule(costs, 4);
+
+		assertEquals(15L, plan.getMakespan());
+		assertEquals(15L, plan.getCriticalPathLength());
+		assertEquals(15L, plan.getLevelWavesMakespan());
+
+		assertEquals(0L, plan.getStart("a"));
+		assertEquals(3L, plan.getStart("b"));
+		assertEquals(8L, plan.getStart("c"));
+		assertEquals(15L, plan.getFinish("c"));
+
+		assertEquals(1.0, plan.getUtilization(0), 0.0);
+		assertEquals(0.0, plan.getUtilization(1), 0.0);
+	}
+
+	@Test
+	public void testSlowJobDoesNotHoldUpTheLevel() throws Exception {
+
+		// a (10) -> d (1), b (1) -> c (10)
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(new Module(
+				"a").addToDownstreamModules("d"), new Module("b")
+				.addToDownstreamModules("c"), new Module("c"), new Module("d"));
+
+		final Map<String, Long> costs = new HashMap<String, Long>();
+
+		costs.put("a", 10L);
+		costs.put("b", 1L);
+		costs.put("c", 10L);
+		costs.put("d", 1L);
+
+		final BuildPlan plan = new BuildScheduler(analysis).schedule(costs, 2);
+
+		assertEquals(20L, plan.getLevelWavesMakespan());
+		assertEquals(11L, plan.getMakespan());
+		assertEquals(1L, plan.getStart("c"));
+		assertEquals(10L, plan.getStart("d"));
+	}
+
+	@Test
+	public void testCriticalPathFirst() throws Exception {
+
+		// a (1) -> b (10); c (2), d (2): With one worker free at a time,
+		// a goes first, because of b.
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(new Module(
+				"a").addToDownstreamModules("b"), new Module("b"), new Module(
+				"c"), new Module("d"));
+
+		final Map<String, Long> costs = new HashMap<String, Long>();
+
+		costs.put("a", 1L);
+		costs.put("b", 10L);
+		costs.put("c", 2L);
+		costs.put("d", 2L);
+
+		final BuildPlan plan = new BuildScheduler(analysis).schedule(costs, 2);
+
+		assertEquals(0L, plan.getStart("a"));
+		assertEquals(1L, plan.getStart("b"));
+		assertEquals(11L, plan.getMakespan());
+	}
+
+	@Test
+	public void testDefaultCost() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(new Module(
+				"a").addToDownstreamModules("b"), new Module("b"));
+
+		final Map<String, Long> costs = new HashMap<String, Long>();
+
+		costs.put("a", 4L);
+		costs.put("unknown", 100L);
+
+		final BuildPlan plan = new BuildScheduler(analysis).setDefaultCost(6L)
+				.schedule(costs, 1);
+
+		assertEquals(10L, plan.getMakespan());
+	}
+
+	@Test
+	public void testPrecedenceAndBounds() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(32L)
+				.setModuleCount(2000).setLevelCount(15).generate();
+
+		final DependencyIndex index = new DependencyAnalysis(modules)
+				.getIndex();
+
+		final Random random = new Random(32L);
+
+		final Map<String, Long> costs = new HashMap<String, Long>();
+
+		long totalCost = 0L;
+
+		for (final Module module : modules) {
+
+			final long cost = 1 + random.nextInt(random.nextInt(10) == 0 ? 1000
+					: 100);
+
+			costs.put(module.name, cost);
+
+			totalCost += cost;
+		}
+
+		for (final int workerCount : new int[] { 1, 4, 16, 64 }) {
+
+			final BuildPlan plan = new BuildScheduler(index).schedule(costs,
+					workerCount);
+
+			for (int id = 0; id < index.size(); ++id) {
+
+				final String moduleName = index.getModuleName(id);
+
+				assertEquals(costs.get(moduleName).longValue(),
+						plan.getFinish(moduleName) - plan.getStart(moduleName));
+
+				for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+
+					final String upstream = index.getModuleName(index
+							.getUpstream(id, k));
+
+					assertTrue(plan.getStart(moduleName) >= plan
+							.getFinish(upstream));
+				}
+			}
+
+			long totalBusyTime = 0L;
+			int jobCount = 0;
+
+			for (int w = 0; w < workerCount; ++w) {
+
+				totalBusyTime += plan.getBusyTime(w);
+
+				long previousFinish = 0L;
+
+				for (final String job : plan.getJobs(w)) {
+
+					assertTrue(plan.getStart(job) >= previousFinish);
+
+					previousFinish = plan.getFinish(job);
+
+					++jobCount;
+				}
+			}
+
+			assertEquals(totalCost, totalBusyTime);
+			assertEquals(index.size(), jobCount);
+
+			assertTrue(plan.getMakespan() >= plan.getCriticalPathLength());
+			assertTrue(plan.getMakespan() * workerCount >= totalCost);
+
+			if (workerCount == 1) {
+				assertEquals(totalCost, plan.getMakespan());
+				assertEquals(1.0, plan.getUtilization(), 0.0);
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package net.avcompris.tools.dependency_graph;
+
+import static net.avcompris.tools.dependency_graph.TestUtils.toMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CIGraphGeneratorTest {
+
+	private static String toXML(final Collection<Module> modules)
+			throws Exception {
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		CIGraphGenerator.writeJobsConfig(modules, bos);
+
+		return bos.toString("UTF-8");
+	}
+
+	@Test
+	public void testSameSeedSameGraph() throws Exception {
+
+		final List<Module> modules1 = new CIGraphGenerator(30L)
+				.setModuleCount(500).generate();
+		final List<Module> modules2 = new CIGraphGenerator(30L)
+				.setModuleCount(500).generate();
+		final List<Module> modules3 = new CIGraphGenerator(31L)
+				.setModuleCount(500).generate();
+
+		assertEquals(500, modules1.size());
+
+		assertEquals(toXML(modules1), toXML(modules2));
+
+		assertFalse(toXML(modules1).equals(toXML(modules3)));
+	}
+
+	@Test
+	public void testLevelCount() throws Exception {
+
+		for (final int levelCount : new int[] { 1, 2, 7, 25 }) {
+
+			final List<Module> modules = new CIGraphGenerator(30L)
+					.setModuleCount(1000).setLevelCount(levelCount)
+					.setSkipEdgeRatio(0.5).generate();
+
+			final DependencyIndex index = DependencyIndex.build(toMap(modules));
+
+			assertEquals(1000, index.size());
+			assertEquals(levelCount, index.sizeOfLevels());
+		}
+	}
+
+	@Test
+	public void testFamilies() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(30L)
+				.setModuleCount(2000).setFamilyCount(8)
+				.setCrossFamilyRatio(0.0).generate();
+
+		int edgeCount = 0;
+
+		for (final Module module : modules) {
+
+			for (final String downstream : module.getDownstreamModules()) {
+
+				assertEquals(module.name.substring(0, 3),
+						downstream.substring(0, 3));
+
+				++edgeCount;
+			}
+		}
+
+		assertTrue(edgeCount >= 1800);
+	}
+
+	@Test
+	public void testJobsConfigRoundTrip() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(30L)
+				.setModuleCount(300).setFanIn(3.0, 10).generate();
+
+		final String xml = toXML(modules);
+
+		final Collection<Module> loaded = JobsConfigLoader
+				.loadModules(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		assertEquals(xml, toXML(loaded));
+
+		final DependencyIndex index1 = DependencyIndex.build(toMap(modules));
+		final DependencyIndex index2 = DependencyIndex.build(toMap(loaded));
+
+		assertEquals(index1.size(), index2.size());
+
+		for (int id = 0; id < index1.size(); ++id) {
+
+			assertEquals(index1.getModuleName(id), index2.getModuleName(id));
+			assertEquals(index1.getLevel(id), index2.getLevel(id));
+			assertEquals(index1.getDirectUpstreamCount(id),
+					index2.getDirectUpstreamCount(id));
+		}
+	}
+
+	@Test
+	public void testScale20k() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(30L)
+				.setModuleCount(20000).setLevelCount(12).setFamilyCount(40)
+				.generate();
+
+		final DependencyIndex index = DependencyIndex.build(toMap(modules));
+
+		assertEquals(20000, index.size());
+		assertEquals(12, index.sizeOfLevels());
+	}
+}
@@ -0,0 +1,142 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.ModulePositionImpl;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class CompactLayoutTest {
+
+	private static DependencyAnalysis analysis() {
+
+		return new DependencyAnalysis(new CIGraphGenerator(41L)
+				.setModuleCount(14).setLevelCount(4).setFamilyCount(2)
+				.generate());
+	}
+
+	private static void assertLaidOut(final DependencyAnalysis analysis,
+			final ModulePosition[] positions, final int maxColumnCount) {
+
+		assertEquals(analysis.getIndex().size(), positions.length);
+
+		final Set<String> xys = new HashSet<String>();
+
+		for (final ModulePosition position : positions) {
+
+			assertTrue(position.getModuleName(),
+					xys.add(position.getX() + "," + position.getY()));
+
+			assertEquals(10 + 60 * analysis.getIndex().getLevel(
+					analysis.getIndex().getModuleId(position.getModuleName())),
+					position.getY());
+
+			assertTrue(position.getX() < 10 + maxColumnCount * 160);
+		}
+	}
+
+	@Test
+	public void testSmallerSearch() throws Exception {
+
+		final DependencyAnalysis analysis = analysis();
+
+		final LayoutMetrics gridMetrics = new LayoutMetrics("grid");
+		final LayoutMetrics compactMetrics = new LayoutMetrics("compact");
+
+		final ModulePosition[] gridPositions = new DependencyDiagrammer(
+				analysis).setLayoutMetrics(gridMetrics).drawTo(-1L,
+				new File("target", "CompactLayoutTest-grid.svg"));
+
+		final ModulePosition[] compactPositions = new DependencyDiagrammer(
+				analysis).setLayoutMetrics(compactMetrics)
+				.setCompactLayout(true)
+				.drawTo(-1L, new File("target", "CompactLayoutTest.svg"));
+
+		// No wider than the grid: The largest level, plus one for room
+
+		int maxLevelSize = 0;
+
+		for (final Set<String> modulesOnLevel : analysis.getModuleLevels()) {
+			maxLevelSize = Math.max(maxLevelSize, modulesOnLevel.size());
+		}
+
+		assertLaidOut(analysis, gridPositions, maxLevelSize + 1);
+		assertLaidOut(analysis, compactPositions, maxLevelSize + 1);
+
+		assertTrue(compactMetrics.getLeavesEvaluated() * 10 < gridMetrics
+				.getLeavesEvaluated());
+	}
+
+	@Test
+	public void testCompactionKeepsOrder() throws Exception {
+
+		final DependencyAnalysis analysis = analysis();
+
+		final DependencyDiagrammer diagrammer = new DependencyDiagrammer(
+				analysis);
+
+		final Map<String, ModulePositionImpl> draft = diagrammer
+				.calculateFirstDraft();
+
+		final Map<String, ModulePositionImpl> compacted = diagrammer
+				.calculateCompaction(draft);
+
+		for (final ModulePositionImpl modulePos1 : draft.values()) {
+
+			for (final ModulePositionImpl modulePos2 : draft.values()) {
+
+				if (modulePos1.y != modulePos2.y || modulePos1.x >= modulePos2.x) {
+					continue;
+				}
+
+				assertTrue(compacted.get(modulePos1.moduleName).x < compacted
+						.get(modulePos2.moduleName).x);
+			}
+		}
+
+		assertTrue(diagrammer.calculateMetrics(compacted).slopeScore <= diagrammer
+				.calculateMetrics(draft).slopeScore);
+	}
+
+	@Test
+	public void testNoEmptyColumns() throws Exception {
+
+		// Three modules on the widest level: The grid adds a column for room
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				Arrays.asList(new Module("a"), new Module("b"), new Module("c"),
+						new Module("d").addToUpstreamModules("a")
+								.addToUpstreamModules("c")));
+
+		final File gridFile = new File("target",
+				"CompactLayoutTest-noEmptyColumns-grid.svg");
+		final File compactFile = new File("target",
+				"CompactLayoutTest-noEmptyColumns.svg");
+
+		new DependencyDiagrammer(analysis).drawTo(-1L, gridFile);
+
+		final ModulePosition[] positions = new DependencyDiagrammer(analysis)
+				.setCompactLayout(true).drawTo(-1L, compactFile);
+
+		int minX = Integer.MAX_VALUE;
+
+		for (final ModulePosition position : positions) {
+			minX = Math.min(minX, position.getX());
+		}
+
+		assertEquals(10, minX);
+
+		assertTrue(FileUtils.readFileToString(gridFile).startsWith(
+				"<svg width=\"650\" "));
+		assertTrue(FileUtils.readFileToString(compactFile).startsWith(
+				"<svg width=\"490\" "));
+	}
+}
@@ -0,0 +1,263 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CriticalPathAnalysisTest {
+
+	private static DependencyAnalysis diamond() {
+
+		// a -> b -> d, a -> c -> d, d -> e
+
+		return new DependencyAnalysis(new Module("a")
+				.addToDownstreamModules("b").addToDownstreamModules("c"),
+				new Module("b").addToDownstreamModules("d"), new Module("c")
+						.addToDownstreamModules("d"), new Module("d")
+						.addToDownstreamModules("e"), new Module("e"));
+	}
+
+	@Test
+	public void testDiamond() throws Exception {
+
+		final Map<String, Long> durations = new HashMap<String, Long>();
+
+		durations.put("a", 2L);
+		durations.put("b", 10L);
+		durations.put("c", 4L);
+		durations.put("d", 1L);
+
+		final CriticalPathAnalysis cpa = diamond().getCriticalPath(durations,
+				3L);
+
+		assertEquals(16L, cpa.getMakespan());
+
+		assertEquals(0L, cpa.getEarliestStart("a"));
+		assertEquals(2L, cpa.getEarliestStart("b"));
+		assertEquals(2L, cpa.getEarliestStart("c"));
+		assertEquals(12L, cpa.getEarliestStart("d"));
+		assertEquals(13L, cpa.getEarliestStart("e"));
+		assertEquals(16L, cpa.getEarliestFinish("e"));
+
+		assertEquals(8L, cpa.getLatestStart("c"));
+		assertEquals(12L, cpa.getLatestFinish("c"));
+		assertEquals(6L, cpa.getSlack("c"));
+
+		assertTrue(cpa.isCritical("b"));
+		assertFalse(cpa.isCritical("c"));
+
+		assertEquals(Arrays.asList("a", "b", "d", "e"),
+				cpa.getCriticalChain());
+
+		// Now c becomes the bottleneck
+
+		cpa.setDuration("c", 20L);
+
+		assertEquals(26L, cpa.getMakespan());
+		assertEquals(Arrays.asList("a", "c", "d", "e"),
+				cpa.getCriticalChain());
+		assertEquals(10L, cpa.getSlack("b"));
+	}
+
+	private static void assertSameTimes(final DependencyIndex index,
+			final CriticalPathAnalysis expected,
+			final CriticalPathAnalysis actual) {
+
+		assertEquals(expected.getMakespan(), actual.getMakespan());
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			final String moduleName = index.getModuleName(id);
+
+			assertEquals(moduleName, expected.getEarliestStart(moduleName),
+					actual.getEarliestStart(moduleName));
+			assertEquals(moduleName, expected.getLatestStart(moduleName),
+					actual.getLatestStart(moduleName));
+		}
+
+		assertEquals(expected.getCriticalChain(), actual.getCriticalChain());
+	}
+
+	@Test
+	public void testIncrementalSameAsFull() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(33L)
+				.setModuleCount(3000).setLevelCount(20).generate();
+
+		final DependencyIndex index = new DependencyAnalysis(modules)
+				.getIndex();
+
+		final Random random = new Random(33L);
+
+		final Map<String, Long> durations = new HashMap<String, Long>();
+
+		for (final Module module : modules) {
+			durations.put(module.name, (long) random.nextInt(100));
+		}
+
+		final CriticalPathAnalysis incremental = new CriticalPathAnalysis(
+				index, durations, 0L);
+
+		int totalVisits = 0;
+
+		for (int i = 0; i < 200; ++i) {
+
+			final String moduleName = modules.get(random.nextInt(modules
+					.size())).name;
+
+			final long duration = random.nextInt(i % 10 == 0 ? 1000 : 100);
+
+			durations.put(moduleName, duration);
+
+			incremental.setDuration(moduleName, duration);
+
+			totalVisits += incremental.lastUpdateVisits;
+
+			assertSameTimes(index, new CriticalPathAnalysis(index, durations,
+					0L), incremental);
+		}
+
+		// Most updates do not change the makespan, and only visit a few
+		// modules
+
+		assertTrue(totalVisits < 200 * index.size() / 4);
+	}
+
+	@Test
+	public void testUpdatesStayLocal() throws Exception {
+
+		// a -> b, a -> c, and 10,000 modules on their own
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		modules.add(new Module("a"));
+		modules.add(new Module("b").addToUpstreamModules("a"));
+		modules.add(new Module("c").addToUpstreamModules("a"));
+
+		for (int i = 0; i < 10000; ++i) {
+			modules.add(new Module("m-" + i));
+		}
+
+		final DependencyIndex index = new DependencyAnalysis(modules)
+				.getIndex();
+
+		final Map<String, Long> durations = new HashMap<String, Long>();
+
+		durations.put("a", 10L);
+		durations.put("b", 50L);
+		durations.put("c", 50L);
+
+		final CriticalPathAnalysis cpa = new CriticalPathAnalysis(index,
+				durations, 1L);
+
+		assertEquals(60L, cpa.getMakespan());
+
+		// The makespan grows: No other module is visited
+
+		durations.put("b", 80L);
+		cpa.setDuration("b", 80L);
+
+		assertEquals(90L, cpa.getMakespan());
+		assertTrue(cpa.lastUpdateVisits <= 3);
+		assertSameTimes(index, new CriticalPathAnalysis(index, durations, 1L),
+				cpa);
+
+		// The makespan shrinks, to the finish of c, which was not visited:
+		// The finish times are scanned again, but tails stay local
+
+		durations.put("b", 20L);
+		cpa.setDuration("b", 20L);
+
+		assertEquals(60L, cpa.getMakespan());
+		assertTrue(cpa.lastUpdateVisits <= 3 + index.size());
+		assertSameTimes(index, new CriticalPathAnalysis(index, durations, 1L),
+				cpa);
+
+		// b joins c again: Both finish last, so that c shrinking does not
+		// need any scan
+
+		durations.put("b", 50L);
+		cpa.setDuration("b", 50L);
+
+		durations.put("c", 5L);
+		cpa.setDuration("c", 5L);
+
+		assertEquals(60L, cpa.getMakespan());
+		assertTrue(cpa.lastUpdateVisits <= 3);
+		assertSameTimes(index, new CriticalPathAnalysis(index, durations, 1L),
+				cpa);
+
+		// A module on its own
+
+		durations.put("m-5000", 7L);
+		cpa.setDuration("m-5000", 7L);
+
+		assertEquals(2, cpa.lastUpdateVisits);
+		assertEquals(53L, cpa.getSlack("m-5000"));
+
+		// a, upstream of everything that finishes last
+
+		durations.put("a", 20L);
+		cpa.setDuration("a", 20L);
+
+		assertEquals(70L, cpa.getMakespan());
+		assertTrue(cpa.lastUpdateVisits <= 4);
+		assertSameTimes(index, new CriticalPathAnalysis(index, durations, 1L),
+				cpa);
+	}
+
+	@Test
+	public void testSlackAndChain() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(34L)
+				.setModuleCount(1000).setLevelCount(10).generate();
+
+		final DependencyIndex index = new DependencyAnalysis(modules)
+				.getIndex();
+
+		final Random random = new Random(34L);
+
+		final Map<String, Long> durations = new HashMap<String, Long>();
+
+		for (final Module module : modules) {
+			durations.put(module.name, 1L + random.nextInt(50));
+		}
+
+		final CriticalPathAnalysis cpa = new CriticalPathAnalysis(index,
+				durations, 0L);
+
+		long chainLength = 0L;
+		String previous = null;
+
+		for (final String moduleName : cpa.getCriticalChain()) {
+
+			assertTrue(cpa.isCritical(moduleName));
+
+			if (previous != null) {
+				assertEquals(cpa.getEarliestFinish(previous),
+						cpa.getEarliestStart(moduleName));
+			}
+
+			chainLength += durations.get(moduleName);
+
+			previous = moduleName;
+		}
+
+		assertEquals(cpa.getMakespan(), chainLength);
+
+		for (final Module module : modules) {
+
+			assertTrue(cpa.getSlack(module.name) >= 0);
+			assertTrue(cpa.getLatestFinish(module.name) <= cpa.getMakespan());
+		}
+	}
+}
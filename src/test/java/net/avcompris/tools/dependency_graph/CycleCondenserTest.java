@@ -0,0 +1,171 @@
+package net.avcompris.tools.dependency_graph;
+
+import static net.avcompris.tools.dependency_graph.TestUtils.getLevel;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class CycleCondenserTest {
+
+	@Test
+	public void testTriggerLoop() throws Exception {
+
+		final CycleCondenser condenser = new CycleCondenser(Arrays.asList(
+				new Module("e"), new Module("a").addToUpstreamModules("e")
+						.addToUpstreamModules("c"),
+				new Module("b").addToUpstreamModules("a"),
+				new Module("c").addToUpstreamModules("b"),
+				new Module("d").addToUpstreamModules("c")));
+
+		final DependencyAnalysis analysis = condenser.condense();
+
+		assertEquals(3, analysis.getIndex().size());
+
+		assertEquals(0, getLevel(analysis, "e"));
+		assertEquals(1, getLevel(analysis, "{a, b, c}"));
+		assertEquals(2, getLevel(analysis, "d"));
+
+		assertEquals(Arrays.asList("a", "b", "c"),
+				analysis.getCycleMembers("{a, b, c}"));
+		assertEquals(Collections.emptyList(), analysis.getCycleMembers("d"));
+
+		assertEquals(1, condenser.getCycles().size());
+	}
+
+	@Test
+	public void testSelfLoop() throws Exception {
+
+		final DependencyAnalysis analysis = new CycleCondenser(Arrays.asList(
+				new Module("a").addToDownstreamModules("a"), new Module("b")
+						.addToUpstreamModules("a"))).condense();
+
+		assertEquals(0, getLevel(analysis, "{a}"));
+		assertEquals(1, getLevel(analysis, "b"));
+	}
+
+	@Test
+	public void testNoCycle() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(45L)
+				.setModuleCount(40).setLevelCount(5).generate();
+
+		final DependencyAnalysis expected = new DependencyAnalysis(modules);
+
+		final CycleCondenser condenser = new CycleCondenser(modules);
+
+		final DependencyAnalysis analysis = condenser.condense();
+
+		assertTrue(condenser.getCycles().isEmpty());
+
+		assertEquals(expected.getIndex().size(), analysis.getIndex().size());
+
+		for (final Module module : modules) {
+
+			assertEquals(getLevel(expected, module.name),
+					getLevel(analysis, module.name));
+		}
+	}
+
+	@Test
+	public void testLongRing() throws Exception {
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		for (int i = 0; i < 100000; ++i) {
+
+			modules.add(new Module("m" + i).addToDownstreamModules("m"
+					+ ((i + 1) % 100000)));
+		}
+
+		final CycleCondenser condenser = new CycleCondenser(modules);
+
+		assertEquals(1, condenser.condense().getIndex().size());
+
+		assertEquals(100000, condenser.getCycles().get(0).size());
+	}
+
+	@Test
+	public void testDraw() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(46L)
+				.setModuleCount(20).setLevelCount(4).generate();
+
+		// A trigger loop, upstream of the first module
+
+		modules.add(new Module("x").addToUpstreamModules("y"));
+		modules.add(new Module("y").addToUpstreamModules("x"));
+
+		modules.get(0).addToUpstreamModules("x");
+
+		final CycleCondenser condenser = new CycleCondenser(modules);
+
+		final DependencyAnalysis analysis = condenser.condense();
+
+		assertEquals(1, condenser.getCycles().size());
+
+		final File svgFile = new File("target", "CycleCondenserTest.svg");
+
+		new DependencyDiagrammer(analysis).drawTo(0L, svgFile);
+
+		assertTrue(FileUtils.readFileToString(svgFile).contains("#fee"));
+	}
+
+	@Test
+	public void testDrawLongCycle() throws Exception {
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		for (int i = 0; i < 30; ++i) {
+
+			modules.add(new Module("module-" + (100 + i))
+					.addToDownstreamModules("module-" + (100 + (i + 1) % 30)));
+		}
+
+		modules.add(new Module("z").addToUpstreamModules("module-100"));
+
+		final File svgFile = new File("target",
+				"CycleCondenserTest-longCycle.svg");
+
+		new DependencyDiagrammer(new CycleCondenser(modules).condense())
+				.drawTo(0L, svgFile);
+
+		final String svg = FileUtils.readFileToString(svgFile, "UTF-8");
+
+		assertTrue(svg.contains(">1. {module-100, mo...}<"));
+		assertFalse(svg.contains(">{module-100, module-101"));
+		assertTrue(svg.contains(">1. {module-100, module-101, module-102,"));
+		assertTrue(svg.contains(">1. module-128, module-129}<"));
+	}
+
+	@Test
+	public void testWrapCycleMembers() throws Exception {
+
+		assertEquals("{a, ...}",
+				DependencyDiagrammer.abbreviate("{a, b, c}", 8));
+		assertEquals("{a, b}", DependencyDiagrammer.abbreviate("{a, b}", 8));
+
+		assertEquals(Arrays.asList("1. {a, bb,", "1. ccc, d}"),
+				DependencyDiagrammer.wrapCycleMembers("1. ",
+						Arrays.asList("a", "bb", "ccc", "d"), 10));
+
+		assertEquals(Arrays.asList("1. {aaaaaaaaaaaa,", "1. b}"),
+				DependencyDiagrammer.wrapCycleMembers("1. ",
+						Arrays.asList("aaaaaaaaaaaa", "b"), 10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownModule() throws Exception {
+
+		new CycleCondenser(Arrays.asList(new Module("a")
+				.addToUpstreamModules("b"))).condense();
+	}
+}
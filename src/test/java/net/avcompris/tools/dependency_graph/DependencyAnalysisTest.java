@@ -1,8 +1,15 @@
 package net.avcompris.tools.dependency_graph;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 public class DependencyAnalysisTest {
 
@@ -40,9 +47,89 @@ public class DependencyAnalysisTest {
 				new Module("toto").addToUpstreamModules("toto")));
 	}
 
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testSanityCheckUpstreamOnlyCycle() throws Exception {
+
+		new DependencyAnalysis(ImmutableMap.of("toto",
+				new Module("toto").addToUpstreamModules("titi"), "titi",
+				new Module("titi").addToUpstreamModules("toto")));
+	}
+
 	@Test
 	public void testSanityCheckOK() throws Exception {
 
 		new DependencyAnalysis(ImmutableMap.of("toto", new Module("toto")));
 	}
+
+	@Test
+	public void testDirectDownstreams() throws Exception {
+
+		// a -> b -> c, a -> c, a -> d
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(new Module(
+				"a").addToDownstreamModules("b").addToDownstreamModules("c")
+				.addToDownstreamModules("d"), new Module("b")
+				.addToDownstreamModules("c"), new Module("c"), new Module("d"));
+
+		assertEquals(ImmutableSet.of("b", "d"),
+				analysis.getDirectDownstreams("a"));
+		assertEquals(ImmutableSet.of("c"), analysis.getDirectDownstreams("b"));
+		assertEquals(ImmutableSet.of(), analysis.getDirectDownstreams("c"));
+
+		assertEquals(ImmutableList.of("b", "c"),
+				analysis.getImpactedModules("b"));
+	}
+
+	@Test
+	public void testDerivedDurations() throws Exception {
+
+		// a -> b -> c, without any duration for c
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(new Module(
+				"a").setDuration(1000L), new Module("b").addToUpstreamModules(
+				"a").setDuration(2000L), new Module("c")
+				.addToUpstreamModules("b"));
+
+		final ImmutableMap<String, Long> durations = ImmutableMap.of("a",
+				1000L, "b", 2000L);
+
+		assertEquals(durations, analysis.getModuleDurations());
+
+		assertEquals(durations, new LayerAssigner(analysis).assign()
+				.getModuleDurations());
+
+		assertEquals(ImmutableMap.of("b", 2000L), new NeighborhoodExtractor(
+				analysis).extract(1, "c").getModuleDurations());
+
+		final File snapshotFile = new File("target",
+				"DependencyAnalysisTest-durations.avcdg");
+
+		DependencySnapshot.write(analysis, null, snapshotFile);
+
+		final DependencyAnalysis read = DependencySnapshot.read(snapshotFile)
+				.toAnalysis();
+
+		assertEquals(durations, read.getModuleDurations());
+		assertEquals(Long.valueOf(2000L), read.modules.get("b").getDuration());
+	}
+
+	@Test
+	public void testImmutableModules() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(new Module(
+				"a"), new Module("b").addToUpstreamModules("a"));
+
+		assertSame(analysis.modules, analysis.getModules());
+
+		// Built from an index: Same modules as the lazy view
+
+		final DependencyAnalysis fromIndex = new DependencyAnalysis(
+				analysis.getIndex());
+
+		final ImmutableMap<String, Module> modules = fromIndex.getModules();
+
+		assertEquals(ImmutableSet.of("a", "b"), modules.keySet());
+		assertSame(fromIndex.modules.get("b"), modules.get("b"));
+		assertSame(modules, fromIndex.getModules());
+	}
 }
@@ -0,0 +1,124 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class DependencyDiagrammerRelayoutTest {
+
+	private static List<Module> modules() {
+
+		return new CIGraphGenerator(36L).setModuleCount(40).setLevelCount(5)
+				.setFamilyCount(3).generate();
+	}
+
+	private static Map<String, ModulePosition> byName(
+			final ModulePosition[] positions) {
+
+		final Map<String, ModulePosition> map = new HashMap<String, ModulePosition>();
+
+		for (final ModulePosition position : positions) {
+			map.put(position.getModuleName(), position);
+		}
+
+		return map;
+	}
+
+	private static void assertNoOverlap(final ModulePosition[] positions) {
+
+		final Set<String> xys = new HashSet<String>();
+
+		for (final ModulePosition position : positions) {
+
+			assertTrue(position.getModuleName(),
+					xys.add(position.getX() + "," + position.getY()));
+		}
+	}
+
+	@Test
+	public void testRelayoutSameGraph() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(modules());
+
+		final ModulePosition[] positions = new DependencyDiagrammer(analysis)
+				.drawTo(0L, new File("target", "relayout-0.svg"));
+
+		final ModulePosition[] positions2 = new DependencyDiagrammer(analysis)
+				.setPreviousPositions(positions).drawTo(1000L,
+						new File("target", "relayout-1.svg"));
+
+		assertEquals(byName(positions).keySet(), byName(positions2).keySet());
+
+		for (final ModulePosition position2 : positions2) {
+
+			final ModulePosition position = byName(positions).get(
+					position2.getModuleName());
+
+			assertEquals(position.getModuleName(), position.getX(),
+					position2.getX());
+			assertEquals(position.getModuleName(), position.getY(),
+					position2.getY());
+		}
+	}
+
+	@Test
+	public void testRelayoutOneMoreModule() throws Exception {
+
+		final List<Module> modules = modules();
+
+		final ModulePosition[] positions = new DependencyDiagrammer(
+				new DependencyAnalysis(modules)).drawTo(0L, new File("target",
+				"relayout-2.svg"));
+
+		final List<Module> modules2 = new ArrayList<Module>(modules());
+
+		final String upstream = modules2.get(0).name;
+
+		modules2.add(new Module("new-module").addToUpstreamModules(upstream));
+
+		final DependencyAnalysis analysis2 = new DependencyAnalysis(modules2);
+
+		final ModulePosition[] positions2 = new DependencyDiagrammer(analysis2)
+				.setPreviousPositions(positions).drawTo(1000L,
+						new File("target", "relayout-3.svg"));
+
+		assertEquals(modules2.size(), positions2.length);
+
+		assertNoOverlap(positions2);
+
+		// Only the new module and its neighbors may move
+
+		final Set<String> neighborhood = new HashSet<String>();
+
+		neighborhood.add("new-module");
+		neighborhood.addAll(analysis2.getDirectUpstreams("new-module"));
+
+		final Map<String, ModulePosition> before = byName(positions);
+
+		for (final ModulePosition position2 : positions2) {
+
+			final String moduleName = position2.getModuleName();
+
+			if (neighborhood.contains(moduleName)) {
+				continue;
+			}
+
+			assertEquals(moduleName, before.get(moduleName).getX(),
+					position2.getX());
+			assertEquals(moduleName, before.get(moduleName).getY(),
+					position2.getY());
+		}
+
+		assertFalse(before.containsKey("new-module"));
+	}
+}
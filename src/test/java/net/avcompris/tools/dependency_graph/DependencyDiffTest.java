@@ -0,0 +1,292 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.avcompris.tools.dependency_graph.DependencyDiff.Edge;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class DependencyDiffTest {
+
+	private static DependencyAnalysis before() {
+
+		// a -> b -> c, a -> c
+
+		return new DependencyAnalysis(new Module("a"), new Module("b")
+				.addToUpstreamModules("a"), new Module("c")
+				.addToUpstreamModules("a").addToUpstreamModules("b"));
+	}
+
+	private static DependencyAnalysis after() {
+
+		// a -> c -> d
+
+		return new DependencyAnalysis(new Module("a"), new Module("c")
+				.addToUpstreamModules("a"),
+				new Module("d").addToUpstreamModules("c"));
+	}
+
+	@Test
+	public void testNoChange() throws Exception {
+
+		final DependencyDiff diff = DependencyDiff.compute(before(), before());
+
+		assertTrue(diff.isEmpty());
+		assertEquals("", diff.toString());
+	}
+
+	@Test
+	public void testChanges() throws Exception {
+
+		final DependencyDiff diff = DependencyDiff.compute(before(), after());
+
+		assertFalse(diff.isEmpty());
+
+		assertEquals(Arrays.asList("d"), diff.getAddedModules());
+		assertEquals(Arrays.asList("b"), diff.getRemovedModules());
+
+		assertEquals(Arrays.asList(new Edge("c", "d")), diff.getAddedEdges());
+		assertEquals(Arrays.asList(new Edge("a", "b"), new Edge("b", "c")),
+				diff.getRemovedEdges());
+
+		assertEquals(Arrays.asList(new Edge("a", "c"), new Edge("c", "d")),
+				diff.getAddedDirectEdges());
+		assertEquals(Arrays.asList(new Edge("a", "b"), new Edge("b", "c")),
+				diff.getRemovedDirectEdges());
+
+		assertEquals(1, diff.getLevelChanges().size());
+		assertEquals("c: 2 -> 1", diff.getLevelChanges().get(0).toString());
+	}
+
+	private static Set<Edge> edges(final DependencyIndex index,
+			final boolean direct) {
+
+		final Set<Edge> edges = new HashSet<Edge>();
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			final int count = direct ? index.getDirectUpstreamCount(id)
+					: index.getUpstreamCount(id);
+
+			for (int k = 0; k < count; ++k) {
+
+				edges.add(new Edge(index.getModuleName(direct ? index
+						.getDirectUpstream(id, k) : index.getUpstream(id, k)),
+						index.getModuleName(id)));
+			}
+		}
+
+		return edges;
+	}
+
+	private static Set<Edge> minus(final Set<Edge> edges1,
+			final Set<Edge> edges2) {
+
+		final Set<Edge> result = new HashSet<Edge>(edges1);
+
+		result.removeAll(edges2);
+
+		return result;
+	}
+
+	@Test
+	public void testSameAsSetDifferences() throws Exception {
+
+		final Random random = new Random(35L);
+
+		final List<Module> modules1 = new CIGraphGenerator(35L)
+				.setModuleCount(1500).setLevelCount(12).generate();
+
+		// Same graph, minus a few modules, plus a few edges and modules
+
+		final Set<String> names2 = new HashSet<String>();
+
+		for (final Module module : modules1) {
+
+			if (random.nextInt(50) != 0) {
+				names2.add(module.name);
+			}
+		}
+
+		final List<Module> modules2 = new ArrayList<Module>();
+
+		for (final Module module1 : modules1) {
+
+			if (!names2.contains(module1.name)) {
+				continue;
+			}
+
+			final Module module2 = new Module(module1.name);
+
+			for (final String downstream : module1.getDownstreamModules()) {
+
+				if (names2.contains(downstream)) {
+					module2.addToDownstreamModules(downstream);
+				}
+			}
+
+			modules2.add(module2);
+		}
+
+		for (int i = 0; i < 20; ++i) {
+
+			final Module module = new Module("new-" + i);
+
+			module.addToUpstreamModules(modules2.get(random.nextInt(modules2
+					.size())).name);
+
+			modules2.add(module);
+		}
+
+		for (int i = 0; i < 30; ++i) {
+
+			final Module upstream = modules2.get(random.nextInt(100));
+			final Module downstream = modules2.get(500 + random.nextInt(900));
+
+			upstream.addToDownstreamModules(downstream.name);
+		}
+
+		final DependencyIndex index1 = new DependencyAnalysis(modules1)
+				.getIndex();
+		final DependencyIndex index2 = new DependencyAnalysis(modules2)
+				.getIndex();
+
+		final DependencyDiff diff = DependencyDiff.compute(index1, index2);
+
+		assertEquals(20, diff.getAddedModules().size());
+		assertEquals(modules1.size() + 20 - modules2.size(), diff
+				.getRemovedModules().size());
+
+		assertEquals(minus(edges(index2, false), edges(index1, false)),
+				new HashSet<Edge>(diff.getAddedEdges()));
+		assertEquals(minus(edges(index1, false), edges(index2, false)),
+				new HashSet<Edge>(diff.getRemovedEdges()));
+		assertEquals(minus(edges(index2, true), edges(index1, true)),
+				new HashSet<Edge>(diff.getAddedDirectEdges()));
+		assertEquals(minus(edges(index1, true), edges(index2, true)),
+				new HashSet<Edge>(diff.getRemovedDirectEdges()));
+
+		assertEquals(diff.getAddedEdges().size(), new HashSet<Edge>(diff
+				.getAddedEdges()).size());
+	}
+
+	@Test
+	public void testSameIds() throws Exception {
+
+		final Random random = new Random(36L);
+
+		final List<Module> modules1 = new CIGraphGenerator(36L)
+				.setModuleCount(1500).setLevelCount(12).generate();
+
+		final DependencyIndex index1 = new DependencyAnalysis(modules1)
+				.getIndex();
+
+		// Same modules, plus edges from the first level down to the last
+		// one, and minus a few edges from the first level, of modules that
+		// have other upstreams: The levels stay the same
+
+		final List<Module> modules2 = new ArrayList<Module>();
+
+		final int firstLevelEnd = index1.getLevelStart(1);
+		final int lastLevelStart = index1.getLevelStart(index1
+				.sizeOfLevels() - 1);
+
+		for (final Module module1 : modules1) {
+
+			final Module module2 = new Module(module1.name);
+
+			final int id = index1.getModuleId(module1.name);
+
+			for (int k = 0; k < index1.getUpstreamCount(id); ++k) {
+
+				final int upstream = index1.getUpstream(id, k);
+
+				if (upstream >= firstLevelEnd || k > 0
+						|| index1.getUpstreamCount(id) == 1
+						|| random.nextInt(20) != 0) {
+					module2.addToUpstreamModules(index1.getModuleName(upstream));
+				}
+			}
+
+			if (id >= lastLevelStart && random.nextInt(10) == 0) {
+				module2.addToUpstreamModules(index1.getModuleName(random
+						.nextInt(firstLevelEnd)));
+			}
+
+			modules2.add(module2);
+		}
+
+		final DependencyIndex index2 = new DependencyAnalysis(modules2)
+				.getIndex();
+
+		assertTrue(index1.hasSameIds(index2));
+
+		final DependencyDiff diff = DependencyDiff.compute(index1, index2);
+
+		assertTrue(diff.getAddedEdges().size() > 0);
+		assertTrue(diff.getRemovedEdges().size() > 0);
+		assertTrue(diff.getAddedModules().isEmpty());
+		assertTrue(diff.getLevelChanges().isEmpty());
+
+		assertEquals(minus(edges(index2, false), edges(index1, false)),
+				new HashSet<Edge>(diff.getAddedEdges()));
+		assertEquals(minus(edges(index1, false), edges(index2, false)),
+				new HashSet<Edge>(diff.getRemovedEdges()));
+		assertEquals(minus(edges(index2, true), edges(index1, true)),
+				new HashSet<Edge>(diff.getAddedDirectEdges()));
+		assertEquals(minus(edges(index1, true), edges(index2, true)),
+				new HashSet<Edge>(diff.getRemovedDirectEdges()));
+
+		// Same with snapshots, whose names stay encoded
+
+		final File file1 = new File("target", "DependencyDiffTest-1.avcdg");
+		final File file2 = new File("target", "DependencyDiffTest-2.avcdg");
+
+		DependencySnapshot.write(index1, null, file1);
+		DependencySnapshot.write(index2, null, file2);
+
+		final DependencyIndex snapshot1 = DependencySnapshot.read(file1)
+				.getIndex();
+		final DependencyIndex snapshot2 = DependencySnapshot.read(file2)
+				.getIndex();
+
+		assertTrue(snapshot1.hasSameIds(snapshot2));
+		assertFalse(snapshot1.hasSameIds(index2));
+
+		assertEquals(diff.toString(), DependencyDiff.compute(snapshot1,
+				snapshot2).toString());
+		assertEquals(diff.toString(), DependencyDiff.compute(snapshot1,
+				index2).toString());
+	}
+
+	@Test
+	public void testDrawDiff() throws Exception {
+
+		final File svgFile = new File("target", "DependencyDiffTest.svg");
+
+		FileUtils.deleteQuietly(svgFile);
+
+		new DependencyDiagrammer(after()).setDiff(
+				DependencyDiff.compute(before(), after())).drawTo(0, svgFile);
+
+		final String svg = FileUtils.readFileToString(svgFile, "UTF-8");
+
+		assertTrue(svg.contains("#cfc")); // d was added
+		assertTrue(svg.contains("#fc9")); // c changed level
+		assertTrue(svg.contains("#0a0")); // a -> c, c -> d
+		assertTrue(svg.contains("- module: b"));
+		assertTrue(svg.contains("- edge: c -&gt; b")
+				|| svg.contains("- edge: c -> b"));
+	}
+}
@@ -0,0 +1,326 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class DependencySnapshotTest {
+
+	private static void assertSameAnalysis(final DependencyAnalysis expected,
+			final DependencyAnalysis actual) {
+
+		assertEquals(expected.modules.keySet(), actual.modules.keySet());
+
+		assertEquals(expected.sizeOfModuleLevels(),
+				actual.sizeOfModuleLevels());
+
+		final List<Set<String>> expectedLevels = new ArrayList<Set<String>>();
+		final List<Set<String>> actualLevels = new ArrayList<Set<String>>();
+
+		for (final Set<String> level : expected.getModuleLevels()) {
+			expectedLevels.add(level);
+		}
+
+		for (final Set<String> level : actual.getModuleLevels()) {
+			actualLevels.add(level);
+		}
+
+		assertEquals(expectedLevels, actualLevels);
+
+		for (final String moduleName : expected.modules.keySet()) {
+
+			assertEquals(moduleName,
+					ImmutableSet.copyOf(expected.getDirectUpstreams(moduleName)),
+					ImmutableSet.copyOf(actual.getDirectUpstreams(moduleName)));
+
+			for (final String upstream : expected.modules.keySet()) {
+
+				assertEquals(upstream + " -> " + moduleName,
+						expected.isUpstream(upstream, moduleName),
+						actual.isUpstream(upstream, moduleName));
+			}
+		}
+	}
+
+	private static void assertRoundTrip(final String filename)
+			throws Exception {
+
+		final File xmlFile = new File("src/test/xml", filename);
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				JenkinsDependencyGraphTest.loadModules(xmlFile));
+
+		final ModulePosition[] positions = new DependencyDiagrammer(analysis)
+				.drawTo(0, new File("target", "DependencySnapshotTest-"
+						+ filename.replace(".xml", ".svg")));
+
+		final File snapshotFile = new File("target", "DependencySnapshotTest-"
+				+ filename.replace(".xml", ".avcdg"));
+
+		DependencySnapshot.write(analysis, positions, snapshotFile);
+
+		final DependencySnapshot snapshot = DependencySnapshot
+				.read(snapshotFile);
+
+		assertTrue(snapshot.hasModulePositions());
+
+		assertSameAnalysis(new DependencyAnalysis(
+				JenkinsDependencyGraphTest.loadModules(xmlFile)),
+				snapshot.toAnalysis());
+
+		final Map<String, ModulePosition> expectedPositions = new HashMap<String, ModulePosition>();
+
+		for (final ModulePosition position : positions) {
+			expectedPositions.put(position.getModuleName(), position);
+		}
+
+		final ModulePosition[] actualPositions = snapshot.getModulePositions();
+
+		assertEquals(positions.length, actualPositions.length);
+
+		for (final ModulePosition actual : actualPositions) {
+
+			final ModulePosition expected = expectedPositions.get(actual
+					.getModuleName());
+
+			assertEquals(expected.getX(), actual.getX());
+			assertEquals(expected.getY(), actual.getY());
+		}
+	}
+
+	@Test
+	public void testRoundTrip_001() throws Exception {
+
+		assertRoundTrip("jobsConfig-001.xml");
+	}
+
+	@Test
+	public void testRoundTrip_002() throws Exception {
+
+		assertRoundTrip("jobsConfig-002.xml");
+	}
+
+	@Test
+	public void testRoundTrip_003() throws Exception {
+
+		assertRoundTrip("jobsConfig-003.xml");
+	}
+
+	@Test
+	public void testRoundTripRandomLayers_noPositions() throws Exception {
+
+		final Random random = new Random(27L);
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		for (int i = 0; i < 2000; ++i) {
+
+			final Module module = new Module("m-" + i + "-é");
+
+			for (int k = 0; k < 3 && i > 0; ++k) {
+
+				module.addToUpstreamModules("m-" + random.nextInt(i) + "-é");
+			}
+
+			modules.add(module);
+		}
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(modules);
+
+		final File snapshotFile = new File("target",
+				"DependencySnapshotTest-random.avcdg");
+
+		DependencySnapshot.write(analysis, null, snapshotFile);
+
+		final DependencySnapshot snapshot = DependencySnapshot
+				.read(snapshotFile);
+
+		assertFalse(snapshot.hasModulePositions());
+		assertNull(snapshot.getModulePositions());
+
+		final DependencyIndex index = snapshot.getIndex();
+
+		assertEquals(2000, index.size());
+		assertEquals(-1, index.getModuleId("m-2000-é"));
+
+		final Set<String> names = new HashSet<String>();
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			final String name = index.getModuleName(id);
+
+			assertEquals(id, index.getModuleId(name));
+
+			names.add(name);
+
+			for (int k = 0; k < index.getDirectUpstreamCount(id); ++k) {
+				assertTrue(index.getDirectUpstream(id, k) < id);
+			}
+		}
+
+		assertEquals(analysis.modules.keySet(), names);
+
+		assertSameAnalysis(analysis, snapshot.toAnalysis());
+	}
+
+	@Test
+	public void testRoundTripCycleMembers() throws Exception {
+
+		final DependencyAnalysis analysis = new CycleCondenser(Arrays.asList(
+				new Module("a"), new Module("x-é").addToUpstreamModules("a")
+						.addToUpstreamModules("y-é"),
+				new Module("y-é").addToUpstreamModules("x-é"),
+				new Module("b").addToUpstreamModules("y-é"))).condense();
+
+		final File snapshotFile = new File("target",
+				"DependencySnapshotTest-cycles.avcdg");
+
+		DependencySnapshot.write(analysis, null, snapshotFile);
+
+		final DependencySnapshot snapshot = DependencySnapshot
+				.read(snapshotFile);
+
+		assertEquals(analysis.cycleMembers, snapshot.getCycleMembers());
+		assertTrue(snapshot.getClusterMembers().isEmpty());
+
+		final DependencyAnalysis read = snapshot.toAnalysis();
+
+		assertEquals(Arrays.asList("x-é", "y-é"),
+				read.getCycleMembers("{x-é, y-é}"));
+		assertTrue(read.getCycleMembers("a").isEmpty());
+
+		// The cycle is framed as before
+
+		final File svgFile = new File("target",
+				"DependencySnapshotTest-cycles.svg");
+
+		new DependencyDiagrammer(read).drawTo(0L, svgFile);
+
+		assertTrue(FileUtils.readFileToString(svgFile).contains("#fee"));
+	}
+
+	@Test
+	public void testRoundTripClusterMembers() throws Exception {
+
+		final DependencyAnalysis analysis = new ModuleClusterer(Arrays.asList(
+				new Module("aed-a"), new Module("aed-b")
+						.addToUpstreamModules("aed-a"), new Module("avc-x")
+						.addToUpstreamModules("aed-b"), new Module("tool")))
+				.collapse();
+
+		final Map<String, Long> durations = new HashMap<String, Long>();
+
+		durations.put("avc-x", 3000L);
+
+		final File snapshotFile = new File("target",
+				"DependencySnapshotTest-clusters.avcdg");
+
+		DependencySnapshot.write(analysis.getIndex(), null, durations,
+				analysis.cycleMembers, analysis.clusterMembers, snapshotFile);
+
+		final DependencySnapshot snapshot = DependencySnapshot
+				.read(snapshotFile);
+
+		assertTrue(snapshot.getCycleMembers().isEmpty());
+		assertEquals(analysis.clusterMembers, snapshot.getClusterMembers());
+		assertEquals(durations, snapshot.getModuleDurations());
+
+		assertEquals(Arrays.asList("aed-a", "aed-b"), snapshot.toAnalysis()
+				.getClusterMembers("aed-*"));
+	}
+
+	@Test
+	public void testLoad100k() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(27L)
+				.setModuleCount(100000).setLevelCount(30).generate();
+
+		final File snapshotFile = new File("target",
+				"DependencySnapshotTest-100k.avcdg");
+
+		DependencySnapshot.write(new DependencyAnalysis(modules, true), null,
+				snapshotFile);
+
+		// Neither modules nor levels are built when loading
+
+		final long startMs = System.currentTimeMillis();
+
+		final DependencyAnalysis analysis = DependencySnapshot.read(
+				snapshotFile).toAnalysis();
+
+		final long elapsedMs = System.currentTimeMillis() - startMs;
+
+		assertTrue("elapsedMs: " + elapsedMs, elapsedMs < 5000);
+
+		assertEquals(100000, analysis.modules.size());
+		assertEquals(30, analysis.sizeOfModuleLevels());
+
+		// Modules are built on first access, with both their upstreams and
+		// their downstreams
+
+		final String moduleName = modules.get(50000).name;
+
+		final Set<String> upstreams = new HashSet<String>();
+
+		for (final Module m : modules) {
+
+			for (final String upstream : m.getUpstreamModules()) {
+
+				if (m.name.equals(moduleName)) {
+					upstreams.add(upstream);
+				}
+			}
+
+			for (final String downstream : m.getDownstreamModules()) {
+
+				if (downstream.equals(moduleName)) {
+					upstreams.add(m.name);
+				}
+			}
+		}
+
+		final Module module = analysis.modules.get(moduleName);
+
+		assertEquals(upstreams, ImmutableSet.copyOf(module
+				.getUpstreamModules()));
+
+		for (final String downstream : module.getDownstreamModules()) {
+
+			assertTrue(ImmutableSet.copyOf(
+					analysis.modules.get(downstream).getUpstreamModules())
+					.contains(module.name));
+		}
+
+		assertSame(module, analysis.modules.get(module.name));
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadBadMagic() throws Exception {
+
+		final File file = new File("target",
+				"DependencySnapshotTest-badMagic.avcdg");
+
+		FileUtils.writeStringToFile(file,
+				"This is not a snapshot, but it is long enough.", "UTF-8");
+
+		DependencySnapshot.read(file);
+	}
+}
@@ -0,0 +1,297 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiagramServerTest {
+
+	private DiagramServer server;
+
+	private final File baseDir = new File("target", "DiagramServerTest");
+
+	@Before
+	public void setUp() throws Exception {
+
+		baseDir.mkdirs();
+
+		server = new DiagramServer(0, baseDir, 8, 10).start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		server.stop();
+	}
+
+	private static byte[] jobsConfig(final long seed) throws Exception {
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		CIGraphGenerator.writeJobsConfig(new CIGraphGenerator(seed)
+				.setModuleCount(30).setLevelCount(4).generate(), bos);
+
+		return bos.toByteArray();
+	}
+
+	private static final class Response {
+
+		public final int statusCode;
+		@Nullable
+		public final String etag;
+		public final byte[] body;
+
+		public Response(final HttpURLConnection cnx) throws Exception {
+
+			statusCode = cnx.getResponseCode();
+			etag = cnx.getHeaderField("ETag");
+
+			final InputStream is = statusCode < 400 ? cnx.getInputStream()
+					: cnx.getErrorStream();
+
+			body = is == null ? new byte[0] : IOUtils.toByteArray(is);
+		}
+	}
+
+	private Response request(final String query, @Nullable final byte[] body,
+			@Nullable final String ifNoneMatch) throws Exception {
+
+		final HttpURLConnection cnx = (HttpURLConnection) new URL(
+				"http://127.0.0.1:" + server.getPort() + "/diagram" + query)
+				.openConnection();
+
+		if (ifNoneMatch != null) {
+			cnx.setRequestProperty("If-None-Match", ifNoneMatch);
+		}
+
+		if (body != null) {
+
+			cnx.setRequestMethod("POST");
+			cnx.setDoOutput(true);
+
+			final OutputStream os = cnx.getOutputStream();
+
+			os.write(body);
+			os.close();
+		}
+
+		try {
+
+			return new Response(cnx);
+
+		} finally {
+
+			cnx.disconnect();
+		}
+	}
+
+	@Test
+	public void testConcurrentRequestsAreCoalesced() throws Exception {
+
+		final byte[] jobsConfig = jobsConfig(37L);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		final List<Future<Response>> futures = new ArrayList<Future<Response>>();
+
+		for (int i = 0; i < 8; ++i) {
+
+			futures.add(executor.submit(new Callable<Response>() {
+
+				@Override
+				public Response call() throws Exception {
+
+					return request("?timeoutMs=200", jobsConfig, null);
+				}
+			}));
+		}
+
+		final byte[] svg = futures.get(0).get().body;
+
+		for (final Future<Response> future : futures) {
+
+			assertEquals(200, future.get().statusCode);
+			assertArrayEquals(svg, future.get().body);
+		}
+
+		executor.shutdown();
+
+		assertEquals(1, server.layoutCount.get());
+
+		assertTrue(new String(svg, "UTF-8").contains("<svg"));
+	}
+
+	@Test
+	public void testConcurrentTimeouts() throws Exception {
+
+		final byte[] jobsConfig = jobsConfig(42L);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		final List<Future<Response>> futures = new ArrayList<Future<Response>>();
+
+		// One analysis, four diagrammers running on it at the same time
+
+		for (int i = 0; i < 8; ++i) {
+
+			final long timeoutMs = 50L * (1 + i % 4);
+
+			futures.add(executor.submit(new Callable<Response>() {
+
+				@Override
+				public Response call() throws Exception {
+
+					return request("?timeoutMs=" + timeoutMs, jobsConfig, null);
+				}
+			}));
+		}
+
+		for (int i = 0; i < 8; ++i) {
+
+			final Response response = futures.get(i).get();
+
+			assertEquals(200, response.statusCode);
+			assertTrue(response.etag.endsWith("-" + 50L * (1 + i % 4) + "\""));
+			assertArrayEquals(futures.get(i % 4).get().body, response.body);
+		}
+
+		executor.shutdown();
+
+		assertEquals(4, server.layoutCount.get());
+	}
+
+	@Test
+	public void testTimeouts() throws Exception {
+
+		final byte[] jobsConfig = jobsConfig(43L);
+
+		assertEquals(400, request("?timeoutMs=-1", jobsConfig, null).statusCode);
+		assertEquals(400, request("?timeoutMs=x", jobsConfig, null).statusCode);
+
+		// Capped: Same layout as the largest timeout allowed
+
+		server.setMaxTimeoutMs(100L);
+
+		final Response response = request("?timeoutMs=100", jobsConfig, null);
+
+		assertEquals(200, response.statusCode);
+		assertEquals(response.etag, request("?timeoutMs=" + Long.MAX_VALUE,
+				jobsConfig, null).etag);
+
+		assertEquals(1, server.layoutCount.get());
+	}
+
+	@Test
+	public void testETag() throws Exception {
+
+		final byte[] jobsConfig = jobsConfig(38L);
+
+		final Response response = request("", jobsConfig, null);
+
+		assertEquals(200, response.statusCode);
+		assertNotNull(response.etag);
+
+		assertEquals(304, request("", jobsConfig, response.etag).statusCode);
+
+		assertEquals(200, request("", jobsConfig(39L), response.etag).statusCode);
+
+		assertEquals(2, server.layoutCount.get());
+	}
+
+	@Test
+	public void testPaths() throws Exception {
+
+		final File file = new File(baseDir, "jobsConfig.xml");
+
+		new CIGraphGenerator(40L).setModuleCount(20).setLevelCount(3)
+				.generateJobsConfig(file);
+
+		final Response response = request("?path=jobsConfig.xml", null, null);
+
+		assertEquals(200, response.statusCode);
+
+		// Same graph, uploaded: Served from the cache
+
+		final Response response2 = request("", IOUtils.toByteArray(file
+				.toURI()), null);
+
+		assertEquals(response.etag, response2.etag);
+		assertArrayEquals(response.body, response2.body);
+		assertEquals(1, server.layoutCount.get());
+
+		assertEquals(404, request("?path=xxx.xml", null, null).statusCode);
+		assertEquals(403, request("?path=../../pom.xml", null, null).statusCode);
+
+		// A sibling directory whose name starts with the base directory’s
+
+		final File secret = new File(baseDir.getPath() + "-secret", "x.xml");
+
+		secret.getParentFile().mkdirs();
+
+		new CIGraphGenerator(41L).setModuleCount(5).setLevelCount(2)
+				.generateJobsConfig(secret);
+
+		assertTrue(secret.isFile());
+		assertEquals(403, request("?path=../" + secret.getParentFile().getName()
+				+ "/x.xml", null, null).statusCode);
+		assertEquals(400, request("", "<xxx".getBytes("UTF-8"), null).statusCode);
+	}
+
+	@Test
+	public void testIllegalGraphs() throws Exception {
+
+		// Unknown upstream module
+
+		final Response unknown = request("", ("<jobConfigs><jobConfig>"
+				+ "<name>a</name><upstreamProject><name>zz</name>"
+				+ "</upstreamProject></jobConfig></jobConfigs>")
+				.getBytes("UTF-8"), null);
+
+		assertEquals(400, unknown.statusCode);
+		assertTrue(new String(unknown.body, "UTF-8").contains("zz"));
+
+		// Unknown upstream module, in a file
+
+		FileUtils.writeStringToFile(new File(baseDir, "unknown.xml"),
+				"<jobConfigs><jobConfig><name>a</name><upstreamProject>"
+						+ "<name>zz</name></upstreamProject></jobConfig>"
+						+ "</jobConfigs>", "UTF-8");
+
+		assertEquals(400, request("?path=unknown.xml", null, null).statusCode);
+
+		// Duplicate artifacts in a POM tree are skipped, not illegal
+
+		final File pomDir = new File(baseDir, "duplicates");
+
+		for (final String dir : new String[] { "x", "y" }) {
+
+			FileUtils.writeStringToFile(new File(pomDir, dir + "/pom.xml"),
+					"<project><groupId>g</groupId><artifactId>a</artifactId>"
+							+ "</project>", "UTF-8");
+		}
+
+		assertEquals(200, request("?path=duplicates", null, null).statusCode);
+	}
+}
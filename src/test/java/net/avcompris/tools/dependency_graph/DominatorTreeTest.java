@@ -0,0 +1,152 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DominatorTreeTest {
+
+	@Test
+	public void testDiamond() throws Exception {
+
+		// a -> b -> d, a -> c -> d, a -> d, d -> e, f
+
+		final DominatorTree tree = new DependencyAnalysis(new Module("a")
+				.addToDownstreamModules("b").addToDownstreamModules("c")
+				.addToDownstreamModules("d"), new Module("b")
+				.addToDownstreamModules("d"), new Module("c")
+				.addToDownstreamModules("d"), new Module("d")
+				.addToDownstreamModules("e"), new Module("e"), new Module("f"))
+				.getDominatorTree();
+
+		assertNull(tree.getImmediateDominator("a"));
+		assertEquals("a", tree.getImmediateDominator("b"));
+		assertEquals("a", tree.getImmediateDominator("d"));
+		assertEquals("d", tree.getImmediateDominator("e"));
+		assertNull(tree.getImmediateDominator("f"));
+
+		assertEquals(4, tree.getDominatedCount("a"));
+		assertEquals(0, tree.getDominatedCount("b"));
+		assertEquals(1, tree.getDominatedCount("d"));
+		assertEquals(0, tree.getDominatedCount("f"));
+
+		assertTrue(tree.dominates("a", "e"));
+		assertTrue(tree.dominates("e", "e"));
+		assertFalse(tree.dominates("b", "e"));
+		assertFalse(tree.dominates("e", "a"));
+
+		assertEquals(Arrays.asList("a", "d"), tree.getTopDominators(10));
+		assertEquals(Arrays.asList("a"), tree.getTopDominators(1));
+	}
+
+	@Test
+	public void testTwoRoots() throws Exception {
+
+		final DominatorTree tree = new DominatorTree(new DependencyAnalysis(
+				new Module("aed-parent"), new Module("avc-parent"), new Module(
+						"x").addToUpstreamModules("aed-parent")
+						.addToUpstreamModules("avc-parent"), new Module("y")
+						.addToUpstreamModules("x")));
+
+		assertNull(tree.getImmediateDominator("x"));
+		assertEquals("x", tree.getImmediateDominator("y"));
+		assertEquals(0, tree.getDominatedCount("aed-parent"));
+		assertEquals(Arrays.asList("x"), tree.getTopDominators(10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownModule() throws Exception {
+
+		new DependencyAnalysis(new Module("a")).getDominatorTree()
+				.getDominatedCount("b");
+	}
+
+	/**
+	 * a module dominates another one if the other one cannot be reached from
+	 * modules with no upstream, once the first one is removed.
+	 */
+	private static boolean bruteForceDominates(final DependencyIndex index,
+			final int d, final int id) {
+
+		if (d == id) {
+			return true;
+		}
+
+		final boolean[] reached = new boolean[index.size()];
+
+		for (int i = 0; i <= id; ++i) {
+
+			if (i == d) {
+				continue;
+			}
+
+			reached[i] = index.getUpstreamCount(i) == 0;
+
+			for (int k = 0; k < index.getUpstreamCount(i) && !reached[i]; ++k) {
+
+				reached[i] = reached[index.getUpstream(i, k)];
+			}
+		}
+
+		return !reached[id];
+	}
+
+	@Test
+	public void testSameAsBruteForce() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(50L)
+				.setModuleCount(120).setLevelCount(6).generate();
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(modules);
+
+		final DependencyIndex index = analysis.getIndex();
+
+		final DominatorTree tree = analysis.getDominatorTree();
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			int dominatedCount = 0;
+
+			for (int other = 0; other < index.size(); ++other) {
+
+				final boolean dominates = bruteForceDominates(index, id, other);
+
+				assertEquals(index.getModuleName(id) + " / "
+						+ index.getModuleName(other), dominates, tree
+						.dominates(index.getModuleName(id),
+								index.getModuleName(other)));
+
+				if (dominates && other != id) {
+					++dominatedCount;
+				}
+			}
+
+			assertEquals(dominatedCount,
+					tree.getDominatedCount(index.getModuleName(id)));
+		}
+	}
+
+	@Test
+	public void testBigGraph() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				new CIGraphGenerator(51L).setModuleCount(100000)
+						.setLevelCount(20).generate());
+
+		final long startMs = System.currentTimeMillis();
+
+		final DominatorTree tree = new DominatorTree(analysis);
+
+		final long elapsedMs = System.currentTimeMillis() - startMs;
+
+		assertTrue("elapsedMs: " + elapsedMs, elapsedMs < 2000);
+
+		assertEquals(1, tree.getTopDominators(1).size());
+	}
+}
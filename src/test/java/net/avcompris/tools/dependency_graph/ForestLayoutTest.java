@@ -0,0 +1,162 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.ModulePositionImpl;
+
+import org.junit.Test;
+
+public class ForestLayoutTest {
+
+	private static List<Module> randomForest(final long seed, final int size) {
+
+		final Random random = new Random(seed);
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		for (int i = 0; i < size; ++i) {
+
+			final Module module = new Module(String.format("m%04d", i));
+
+			if (i != 0 && random.nextInt(8) != 0) {
+
+				module.addToUpstreamModules(modules.get(random.nextInt(i)).name);
+			}
+
+			modules.add(module);
+		}
+
+		return modules;
+	}
+
+	private static void assertLaidOut(final DependencyAnalysis analysis,
+			final Map<String, ModulePositionImpl> modulePoss) {
+
+		final DependencyIndex index = analysis.getIndex();
+
+		assertEquals(index.size(), modulePoss.size());
+
+		final Set<String> xys = new HashSet<String>();
+
+		for (final ModulePositionImpl modulePos : modulePoss.values()) {
+
+			assertTrue(modulePos.moduleName,
+					xys.add(modulePos.x + "," + modulePos.y));
+
+			assertEquals(modulePos.moduleName, 10 + 60 * index.getLevel(index
+					.getModuleId(modulePos.moduleName)), modulePos.y);
+		}
+	}
+
+	@Test
+	public void testRandomForestsHaveNoCrossings() throws Exception {
+
+		for (long seed = 0; seed < 20; ++seed) {
+
+			final DependencyAnalysis analysis = new DependencyAnalysis(
+					randomForest(seed, 60));
+
+			final DependencyDiagrammer diagrammer = new DependencyDiagrammer(
+					analysis);
+
+			final Map<String, ModulePositionImpl> modulePoss = diagrammer
+					.calculateForestLayout();
+
+			assertNotNull(modulePoss);
+
+			assertLaidOut(analysis, modulePoss);
+
+			assertEquals(0,
+					diagrammer.calculateMetrics(modulePoss).howManyLinesCross);
+		}
+	}
+
+	@Test
+	public void testDeepChain() throws Exception {
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		for (int i = 0; i < 5000; ++i) {
+
+			final Module module = new Module("m" + i);
+
+			if (i != 0) {
+				module.addToUpstreamModules("m" + (i - 1));
+			}
+
+			modules.add(module);
+		}
+
+		final Map<String, ModulePositionImpl> modulePoss = new DependencyDiagrammer(
+				new DependencyAnalysis(modules)).calculateForestLayout();
+
+		assertNotNull(modulePoss);
+
+		for (final ModulePositionImpl modulePos : modulePoss.values()) {
+			assertEquals(10, modulePos.x);
+		}
+	}
+
+	@Test
+	public void testNotAForest() throws Exception {
+
+		assertNull(new DependencyDiagrammer(new DependencyAnalysis(new Module(
+				"a"), new Module("b"), new Module("c").addToUpstreamModules(
+				"a").addToUpstreamModules("b"))).calculateForestLayout());
+	}
+
+	@Test
+	public void testSeparateComponents() throws Exception {
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		modules.addAll(new CIGraphGenerator(39L).setModuleCount(16)
+				.setLevelCount(4).setFamilyCount(1).generate());
+
+		for (final Module module : randomForest(39L, 30)) {
+
+			final Module copy = new Module("tree-" + module.name);
+
+			for (final String upstream : module.getUpstreamModules()) {
+				copy.addToUpstreamModules("tree-" + upstream);
+			}
+
+			modules.add(copy);
+		}
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(modules);
+
+		final DependencyDiagrammer diagrammer = new DependencyDiagrammer(
+				analysis).setSeparateComponents(true);
+
+		assertTrue(diagrammer.calculateComponents().size() > 1);
+
+		final ModulePosition[] positions = diagrammer.drawTo(-1L, new File(
+				"target", "ForestLayoutTest.svg"));
+
+		assertEquals(modules.size(), positions.length);
+
+		final Set<String> xys = new HashSet<String>();
+
+		for (final ModulePosition position : positions) {
+
+			assertTrue(position.getModuleName(),
+					xys.add(position.getX() + "," + position.getY()));
+
+			assertEquals(10 + 60 * analysis.getIndex().getLevel(
+					analysis.getIndex().getModuleId(position.getModuleName())),
+					position.getY());
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package net.avcompris.tools.dependency_graph;
+
+import static net.avcompris.tools.dependency_graph.TestUtils.toMap;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class ImpactAnalyzerTest {
+
+	/**
+	 * the transitive downstreams, following declared edges.
+	 */
+	private static Set<String> naiveImpact(final Map<String, Module> modules,
+			final Collection<String> changed) {
+
+		final Map<String, Set<String>> downstreams = new HashMap<String, Set<String>>();
+
+		for (final Module module : modules.values()) {
+
+			downstreams.put(module.name, new HashSet<String>());
+		}
+
+		for (final Module module : modules.values()) {
+
+			for (final String downstream : module.getDownstreamModules()) {
+				downstreams.get(module.name).add(downstream);
+			}
+
+			for (final String upstream : module.getUpstreamModules()) {
+				downstreams.get(upstream).add(module.name);
+			}
+		}
+
+		final Set<String> impacted = new HashSet<String>(changed);
+
+		final LinkedList<String> queue = new LinkedList<String>(changed);
+
+		while (!queue.isEmpty()) {
+
+			for (final String downstream : downstreams.get(queue.poll())) {
+
+				if (impacted.add(downstream)) {
+					queue.add(downstream);
+				}
+			}
+		}
+
+		return impacted;
+	}
+
+	@Test
+	public void testSameAsNaiveClosure() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(34L)
+				.setModuleCount(3000).setLevelCount(15).generate();
+
+		final Map<String, Module> map = toMap(modules);
+
+		final DependencyIndex index = DependencyIndex.build(map);
+
+		final ImpactAnalyzer analyzer = new ImpactAnalyzer(index);
+
+		final Random random = new Random(34L);
+
+		final List<List<String>> batch = new ArrayList<List<String>>();
+
+		for (int i = 0; i < 150; ++i) {
+
+			final List<String> changed = new ArrayList<String>();
+
+			for (int k = random.nextInt(4); k >= 0; --k) {
+				changed.add(modules.get(random.nextInt(modules.size())).name);
+			}
+
+			batch.add(changed);
+
+			final List<String> impacted = analyzer.getImpactedModules(changed);
+
+			assertEquals(naiveImpact(map, changed), new HashSet<String>(
+					impacted));
+
+			assertEquals(impacted.size(), new HashSet<String>(impacted).size());
+
+			// Build order: No module comes before one of its upstreams
+
+			final Set<String> built = new HashSet<String>();
+
+			for (final String moduleName : impacted) {
+
+				final int id = index.getModuleId(moduleName);
+
+				for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+
+					final String upstream = index.getModuleName(index
+							.getUpstream(id, k));
+
+					assertTrue(!impacted.contains(upstream)
+							|| built.contains(upstream));
+				}
+
+				built.add(moduleName);
+			}
+		}
+
+		final List<List<String>> batchResults = analyzer
+				.getImpactedModules(batch);
+
+		assertEquals(batch.size(), batchResults.size());
+
+		for (int i = 0; i < batch.size(); ++i) {
+
+			assertEquals(analyzer.getImpactedModules(batch.get(i)),
+					batchResults.get(i));
+		}
+	}
+
+	@Test
+	public void testNoChange() throws Exception {
+
+		final ImpactAnalyzer analyzer = new ImpactAnalyzer(
+				DependencyIndex.build(toMap(Arrays.asList(new Module("a")))));
+
+		assertArrayEquals(new int[0], analyzer.getImpactedIds());
+		assertEquals(0, analyzer.getImpactedModules(new ArrayList<String>())
+				.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownModule() throws Exception {
+
+		final ImpactAnalyzer analyzer = new ImpactAnalyzer(
+				DependencyIndex.build(toMap(Arrays.asList(new Module("a")))));
+
+		analyzer.getImpactedModules(Arrays.asList("b"));
+	}
+
+	@Test
+	public void testLatency20k() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(34L)
+				.setModuleCount(20000).setLevelCount(12).setFamilyCount(40)
+				.generate();
+
+		final DependencyIndex index = DependencyIndex.build(toMap(modules));
+
+		final ImpactAnalyzer analyzer = new ImpactAnalyzer(index);
+
+		final Random random = new Random(34L);
+
+		// A smoke check: Exact timings are measured by the benchmarks
+
+		final long startMs = System.currentTimeMillis();
+
+		for (int i = 0; i < 2000; ++i) {
+
+			final int id = random.nextInt(index.size());
+
+			assertTrue(analyzer.getImpactedIds(id).length > 0);
+		}
+
+		// Worst case: The roots
+
+		final List<int[]> batch = new ArrayList<int[]>();
+
+		for (int id = 0; id < index.getLevelStart(1); ++id) {
+			batch.add(new int[] { id });
+		}
+
+		final List<int[]> results = analyzer.getImpactedIds(batch);
+
+		final long elapsedMs = System.currentTimeMillis() - startMs;
+
+		assertTrue("elapsedMs: " + elapsedMs, elapsedMs < 10000);
+
+		for (int i = 0; i < 10; ++i) {
+
+			assertArrayEquals(analyzer.getImpactedIds(batch.get(i)),
+					results.get(i));
+		}
+	}
+}
@@ -21,11 +21,23 @@ public class JenkinsDependencyGraphTest {
 
 		// 1. LOAD CONFIGS
 
-		final Map<String, JobXMLConfig> jobConfigs = DomBinderUtils
-				.xmlContentToJava(file, JobXMLConfigs.class).getJobConfigs();
+		final Set<Module> modules = loadModules(file);
 
 		// 2. ANALYSIS
 
+		final DependencyAnalysis analysis = new DependencyAnalysis(modules);
+
+		// 3. SVG OUTPUT
+
+		return new DependencyDiagrammer(analysis).drawTo(optimizeTimeoutMs,
+				new File("target", file.getName().replace(".xml", ".svg")));
+	}
+
+	static Set<Module> loadModules(final File file) throws Exception {
+
+		final Map<String, JobXMLConfig> jobConfigs = DomBinderUtils
+				.xmlContentToJava(file, JobXMLConfigs.class).getJobConfigs();
+
 		final Set<Module> modules = new HashSet<Module>();
 
 		for (final JobXMLConfig jobConfig : jobConfigs.values()) {
@@ -44,12 +56,7 @@ public class JenkinsDependencyGraphTest {
 			}
 		}
 
-		final DependencyAnalysis analysis = new DependencyAnalysis(modules);
-
-		// 3. SVG OUTPUT
-
-		return new DependencyDiagrammer(analysis).drawTo(optimizeTimeoutMs,
-				new File("target", file.getName().replace(".xml", ".svg")));
+		return modules;
 	}
 
 	@XPath("/jobConfigs")
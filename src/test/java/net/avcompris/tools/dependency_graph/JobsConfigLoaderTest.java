@@ -0,0 +1,59 @@
+package net.avcompris.tools.dependency_graph;
+
+import static net.avcompris.tools.dependency_graph.TestUtils.toMap;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class JobsConfigLoaderTest {
+
+	private static void assertSameModules(final String filename)
+			throws Exception {
+
+		final File file = new File("src/test/xml", filename);
+
+		final Map<String, Module> expected = toMap(JenkinsDependencyGraphTest
+				.loadModules(file));
+
+		final Map<String, Module> actual = toMap(JobsConfigLoader
+				.loadModules(file));
+
+		assertEquals(expected.keySet(), actual.keySet());
+
+		for (final Module module : expected.values()) {
+
+			assertEquals(module.name,
+					ImmutableSet.copyOf(module.getUpstreamModules()),
+					ImmutableSet.copyOf(actual.get(module.name)
+							.getUpstreamModules()));
+
+			assertEquals(module.name,
+					ImmutableSet.copyOf(module.getDownstreamModules()),
+					ImmutableSet.copyOf(actual.get(module.name)
+							.getDownstreamModules()));
+		}
+	}
+
+	@Test
+	public void testLoadJobsConfig_001() throws Exception {
+
+		assertSameModules("jobsConfig-001.xml");
+	}
+
+	@Test
+	public void testLoadJobsConfig_002() throws Exception {
+
+		assertSameModules("jobsConfig-002.xml");
+	}
+
+	@Test
+	public void testLoadJobsConfig_003() throws Exception {
+
+		assertSameModules("jobsConfig-003.xml");
+	}
+}
@@ -0,0 +1,152 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LayerAssignerTest {
+
+	private static void assertValidLevels(final DependencyIndex index) {
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+
+				assertTrue(index.getModuleName(id),
+						index.getLevel(index.getUpstream(id, k)) < index
+								.getLevel(id));
+			}
+		}
+
+		for (int level = 0; level < index.sizeOfLevels(); ++level) {
+
+			assertTrue(index.sizeOfLevel(level) > 0);
+
+			for (int id = index.getLevelStart(level); id < index
+					.getLevelStart(level + 1); ++id) {
+
+				assertEquals(level, index.getLevel(id));
+			}
+		}
+	}
+
+	private static void assertSameEdges(final DependencyIndex expected,
+			final DependencyIndex actual) {
+
+		assertEquals(expected.size(), actual.size());
+
+		for (int id = 0; id < expected.size(); ++id) {
+
+			final String name = expected.getModuleName(id);
+			final int actualId = actual.getModuleId(name);
+
+			final Set<String> expectedUps = new HashSet<String>();
+			final Set<String> actualUps = new HashSet<String>();
+
+			for (int k = 0; k < expected.getDirectUpstreamCount(id); ++k) {
+				expectedUps.add(expected.getModuleName(expected
+						.getDirectUpstream(id, k)));
+			}
+
+			for (int k = 0; k < actual.getDirectUpstreamCount(actualId); ++k) {
+				actualUps.add(actual.getModuleName(actual.getDirectUpstream(
+						actualId, k)));
+			}
+
+			assertEquals(name, expectedUps, actualUps);
+			assertEquals(name, expected.getUpstreamCount(id),
+					actual.getUpstreamCount(actualId));
+		}
+	}
+
+	@Test
+	public void testSourceMovesTowardItsDownstream() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				new Module("a"), new Module("b").addToUpstreamModules("a"),
+				new Module("c").addToUpstreamModules("b"),
+				new Module("d").addToUpstreamModules("c"),
+				new Module("x").addToDownstreamModules("d"));
+
+		assertEquals(3 + 3, LayerAssigner.getTotalEdgeSpan(analysis
+				.getIndex()));
+
+		final DependencyIndex index = new LayerAssigner(analysis).assign()
+				.getIndex();
+
+		assertValidLevels(index);
+		assertSameEdges(analysis.getIndex(), index);
+
+		assertEquals(2, index.getLevel(index.getModuleId("x")));
+		assertEquals(3 + 1, LayerAssigner.getTotalEdgeSpan(index));
+	}
+
+	@Test
+	public void testRandomGraphs() throws Exception {
+
+		for (long seed = 0; seed < 20; ++seed) {
+
+			final DependencyAnalysis analysis = new DependencyAnalysis(
+					new CIGraphGenerator(seed).setModuleCount(60)
+							.setLevelCount(6).generate());
+
+			final DependencyIndex index = new LayerAssigner(analysis)
+					.assign().getIndex();
+
+			assertValidLevels(index);
+			assertSameEdges(analysis.getIndex(), index);
+
+			assertTrue(LayerAssigner.getTotalEdgeSpan(index) <= LayerAssigner
+					.getTotalEdgeSpan(analysis.getIndex()));
+		}
+	}
+
+	@Test
+	public void testMaxLevelWidth() throws Exception {
+
+		for (long seed = 0; seed < 20; ++seed) {
+
+			final List<Module> modules = new CIGraphGenerator(seed)
+					.setModuleCount(60).setLevelCount(4).generate();
+
+			final DependencyAnalysis analysis = new DependencyAnalysis(modules);
+
+			final DependencyIndex index = new LayerAssigner(analysis)
+					.setMaxLevelWidth(5).assign().getIndex();
+
+			assertValidLevels(index);
+			assertSameEdges(analysis.getIndex(), index);
+
+			for (int level = 0; level < index.sizeOfLevels(); ++level) {
+				assertTrue(index.sizeOfLevel(level) <= 5);
+			}
+		}
+	}
+
+	@Test
+	public void testDraw() throws Exception {
+
+		final DependencyAnalysis analysis = new LayerAssigner(
+				new DependencyAnalysis(new CIGraphGenerator(42L)
+						.setModuleCount(20).setLevelCount(4).generate()))
+				.setMaxLevelWidth(4).assign();
+
+		final ModulePosition[] positions = new DependencyDiagrammer(analysis)
+				.drawTo(0L, new File("target", "LayerAssignerTest.svg"));
+
+		assertEquals(20, positions.length);
+
+		for (final ModulePosition position : positions) {
+
+			assertEquals(10 + 60 * analysis.getIndex().getLevel(
+					analysis.getIndex().getModuleId(position.getModuleName())),
+					position.getY());
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.ModulePositionImpl;
+
+import org.junit.Test;
+
+public class LayoutMetricsTest {
+
+	private static DependencyDiagrammer crossingDiagrammer() {
+
+		// a, b, c on level 0; x, y, z on level 1
+
+		return new DependencyDiagrammer(new DependencyAnalysis(new Module("a")
+				.addToDownstreamModules("z"), new Module("b")
+				.addToDownstreamModules("y").addToDownstreamModules("z"),
+				new Module("c").addToDownstreamModules("x"), new Module("x"),
+				new Module("y"), new Module("z")));
+	}
+
+	/**
+	 * return the first draft, with level 0 mirrored, so that the search
+	 * has something to improve.
+	 */
+	private static Map<String, ModulePositionImpl> badDraft(
+			final DependencyDiagrammer diagrammer) {
+
+		final Map<String, ModulePositionImpl> draft = diagrammer
+				.calculateFirstDraft();
+
+		final int top = draft.get("a").y;
+
+		int maxX = 0;
+
+		for (final ModulePositionImpl modulePos : draft.values()) {
+			maxX = Math.max(maxX, modulePos.x);
+		}
+
+		final Map<String, ModulePositionImpl> badDraft = new HashMap<String, ModulePositionImpl>();
+
+		for (final ModulePositionImpl modulePos : draft.values()) {
+
+			badDraft.put(modulePos.moduleName, modulePos.y != top ? modulePos
+					: new ModulePositionImpl(modulePos, maxX + 10
+							- modulePos.x));
+		}
+
+		return badDraft;
+	}
+
+	@Test
+	public void testSearchCounters() throws Exception {
+
+		final LayoutMetrics layoutMetrics = new LayoutMetrics(
+				"testSearchCounters");
+
+		final DependencyDiagrammer diagrammer = crossingDiagrammer()
+				.setLayoutMetrics(layoutMetrics);
+
+		diagrammer.attainMinimumMetrics(-1L, badDraft(diagrammer));
+
+		assertEquals(1, layoutMetrics.getSearchCount());
+		assertEquals(0, layoutMetrics.getTimeoutCount());
+
+		assertTrue(layoutMetrics.getLeavesEvaluated() > 0);
+		assertTrue(layoutMetrics.getNodesExpanded() > 0);
+		assertTrue(layoutMetrics.getNodesPruned() > 0);
+
+		// One calculateMetrics per leaf, one per partial node, plus the
+		// first one
+
+		assertEquals(1 + layoutMetrics.getLeavesEvaluated()
+				+ layoutMetrics.getNodesExpanded()
+				+ layoutMetrics.getNodesPruned(),
+				layoutMetrics.getMetricsCalculations());
+
+		assertTrue(layoutMetrics.getLinesCrossCalls() > 0);
+
+		assertTrue(layoutMetrics.getImprovementCount() > 0);
+		assertEquals(layoutMetrics.getImprovementCount(),
+				layoutMetrics.getRecentImprovements().length);
+		final String[] improvements = layoutMetrics.getRecentImprovements();
+
+		assertTrue(improvements[improvements.length - 1]
+				.contains("howManyLinesCross: 0"));
+
+		layoutMetrics.reset();
+
+		assertEquals(0, layoutMetrics.getSearchCount());
+		assertEquals(0, layoutMetrics.getLeavesEvaluated());
+		assertEquals(0, layoutMetrics.getRecentImprovements().length);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+
+		final LayoutMetrics layoutMetrics = new LayoutMetrics("testTimeout");
+
+		final DependencyDiagrammer diagrammer = new DependencyDiagrammer(
+				new DependencyAnalysis(new CIGraphGenerator(31L)
+						.setModuleCount(60).setLevelCount(3).generate()))
+				.setLayoutMetrics(layoutMetrics);
+
+		diagrammer.attainMinimumMetrics(50L, diagrammer.calculateFirstDraft());
+
+		assertEquals(1, layoutMetrics.getSearchCount());
+		assertEquals(1, layoutMetrics.getTimeoutCount());
+		assertTrue(layoutMetrics.getSearchTimeMs() >= 50);
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+
+		final LayoutMetrics layoutMetrics = new LayoutMetrics("testMBean")
+				.registerMBean();
+
+		try {
+
+			final DependencyDiagrammer diagrammer = crossingDiagrammer()
+					.setLayoutMetrics(layoutMetrics);
+
+			diagrammer.attainMinimumMetrics(-1L,
+					diagrammer.calculateFirstDraft());
+
+			final MBeanServer mBeanServer = ManagementFactory
+					.getPlatformMBeanServer();
+
+			assertEquals(layoutMetrics.getLeavesEvaluated(),
+					mBeanServer.getAttribute(layoutMetrics.getObjectName(),
+							"LeavesEvaluated"));
+
+			mBeanServer.invoke(layoutMetrics.getObjectName(), "reset",
+					new Object[0], new String[0]);
+
+			assertEquals(0L, mBeanServer.getAttribute(
+					layoutMetrics.getObjectName(), "SearchCount"));
+
+		} finally {
+
+			layoutMetrics.unregisterMBean();
+		}
+
+		assertTrue(!ManagementFactory.getPlatformMBeanServer().isRegistered(
+				layoutMetrics.getObjectName()));
+	}
+}
@@ -0,0 +1,151 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.LayoutTask;
+
+import org.junit.Test;
+
+public class LayoutTaskTest {
+
+	private static DependencyAnalysis bigAnalysis() {
+
+		return new DependencyAnalysis(new CIGraphGenerator(38L)
+				.setModuleCount(80).setLevelCount(5).generate());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+
+		final CountDownLatch firstImprovement = new CountDownLatch(1);
+
+		final LayoutTask task = new DependencyDiagrammer(bigAnalysis())
+				.newLayoutTask(-1L, new LayoutListener() {
+
+					@Override
+					public void improved(final ModulePosition[] positions,
+							final int howManyLinesCross) {
+
+						firstImprovement.countDown();
+					}
+				});
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		executor.execute(task);
+
+		assertTrue(firstImprovement.await(10, TimeUnit.SECONDS));
+
+		assertTrue(task.cancel(false));
+
+		executor.shutdown();
+
+		// The search stops at its next checkpoint
+
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertTrue(task.isCancelled());
+
+		try {
+
+			task.get();
+
+			fail();
+
+		} catch (final CancellationException e) {
+			// OK
+		}
+
+		assertNotNull(task.getBestSoFar());
+		assertEquals(80, task.getBestSoFar().length);
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+
+		final LayoutTask task = new DependencyDiagrammer(bigAnalysis())
+				.newLayoutTask(200L, null);
+
+		assertEquals(null, task.getBestSoFar());
+
+		final long startMs = System.currentTimeMillis();
+
+		task.run();
+
+		final long elapsedMs = System.currentTimeMillis() - startMs;
+
+		assertTrue("elapsedMs: " + elapsedMs, elapsedMs < 5000);
+
+		assertEquals(80, task.get().length);
+	}
+
+	@Test
+	public void testProgressIsMonotonic() throws Exception {
+
+		final List<Integer> crossings = new ArrayList<Integer>();
+
+		final LayoutTask task = new DependencyDiagrammer(bigAnalysis())
+				.newLayoutTask(500L, new LayoutListener() {
+
+					@Override
+					public void improved(final ModulePosition[] positions,
+							final int howManyLinesCross) {
+
+						crossings.add(howManyLinesCross);
+					}
+				});
+
+		task.run();
+
+		assertFalse(crossings.isEmpty());
+
+		for (int i = 1; i < crossings.size(); ++i) {
+			assertTrue(crossings.get(i) <= crossings.get(i - 1));
+		}
+	}
+
+	@Test
+	public void testSameAsDrawTo() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				new CIGraphGenerator(39L).setModuleCount(20).setLevelCount(4)
+						.generate());
+
+		final LayoutTask task = new DependencyDiagrammer(analysis)
+				.newLayoutTask(0L, null);
+
+		task.run();
+
+		final ModulePosition[] positions = new DependencyDiagrammer(analysis)
+				.drawTo(0L, new File("target", "LayoutTaskTest.svg"));
+
+		final Map<String, String> expected = new HashMap<String, String>();
+
+		for (final ModulePosition position : positions) {
+			expected.put(position.getModuleName(), position.getX() + ","
+					+ position.getY());
+		}
+
+		assertEquals(expected.size(), task.get().length);
+
+		for (final ModulePosition position : task.get()) {
+			assertEquals(expected.get(position.getModuleName()),
+					position.getX() + "," + position.getY());
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package net.avcompris.tools.dependency_graph;
+
+import static net.avcompris.tools.dependency_graph.DependencyDiagrammer.countCrossings;
+import static net.avcompris.tools.dependency_graph.DependencyDiagrammer.linesCross;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.Line;
+
+import org.junit.Test;
+
+/**
+ * compare the integer crossing predicate with the previous one, that
+ * extrapolated x’s as <tt>double</tt>s, branch by branch.
+ */
+public class LinesCrossTest {
+
+	private static boolean signumsEqual(final double dx1, final double dx2) {
+
+		if (dx1 == 0 || dx2 == 0) {
+
+			return true;
+		}
+
+		return Math.signum(dx1) == Math.signum(dx2);
+	}
+
+	private static boolean legacyLinesCross(final Line line1, final Line line2) {
+
+		if (line1 == line2 || line1.y2 <= line2.y1 || line2.y2 <= line1.y1) {
+			return false;
+		}
+
+		if (line1.x1 == line2.x1 && line1.y1 == line2.y1) {
+
+			return hasSameSlope(line1, line2);
+
+		} else if (line1.x2 == line2.x2 && line1.y2 == line2.y2) {
+
+			return hasSameSlope(line1, line2);
+
+		} else if (line1.y1 == line2.y1) {
+
+			if (line1.y2 == line2.y2) {
+
+				return signumsEqual(line1.x1 - line2.x1, line2.x2 - line1.x2);
+
+			} else if (line1.y2 > line2.y2) {
+
+				final double extrapLine1_x2 = line1.x1 + (line1.x2 - line1.x1)
+						* (line2.y2 - line2.y1)
+						/ (double) (line1.y2 - line1.y1);
+
+				return signumsEqual(line1.x1 - line2.x1, line2.x2
+						- extrapLine1_x2);
+
+			} else { // => (line2.y2 > line1.y2)
+
+				final double extrapLine2_x2 = line2.x1 + (line2.x2 - line2.x1)
+						* (line1.y2 - line2.y1)
+						/ (double) (line2.y2 - line2.y1);
+
+				return signumsEqual(line1.x1 - line2.x1, extrapLine2_x2
+						- line1.x2);
+			}
+
+		} else if (line1.y2 == line2.y2) {
+
+			if (line1.y1 > line2.y1) {
+
+				final double extrapLine2_x1 = line2.x2 - (line2.x2 - line2.x1)
+						* (line1.y2 - line2.y1)
+						/ (double) (line2.y2 - line2.y1);
+
+				return signumsEqual(line1.x1 - extrapLine2_x1, line2.x2
+						- line1.x2);
+
+			} else { // => (line2.y1 > line1.y1)
+
+				final double extrapLine1_x1 = line1.x2 - (line1.x2 - line1.x1)
+						* (line2.y2 - line1.y1)
+						/ (double) (line1.y2 - line1.y1);
+
+				return signumsEqual(extrapLine1_x1 - line2.x1, line2.x2
+						- line1.x2);
+			}
+
+		} else if (line1.y1 > line2.y1 && line2.y2 > line1.y1
+				&& line1.y2 > line2.y2) {
+
+			final double extrapLine1_x2 = line1.x1 + (line1.x2 - line1.x1)
+					* (line2.y2 - line1.y1) / (double) (line1.y2 - line1.y1);
+
+			final double extrapLine2_x1 = line2.x2 - (line2.x2 - line2.x1)
+					* (line2.y2 - line1.y1) / (double) (line2.y2 - line2.y1);
+
+			return signumsEqual(line1.x1 - extrapLine2_x1, line2.x2
+					- extrapLine1_x2);
+
+		} else if (line2.y1 > line1.y1 && line1.y2 > line2.y1
+				&& line2.y2 > line1.y2) {
+
+			final double extrapLine2_x2 = line2.x1 + (line2.x2 - line2.x1)
+					* (line1.y2 - line2.y1) / (double) (line2.y2 - line2.y1);
+
+			final double extrapLine1_x1 = line1.x2 - (line1.x2 - line1.x1)
+					* (line1.y2 - line2.y1) / (double) (line1.y2 - line1.y1);
+
+			return signumsEqual(extrapLine1_x1 - line2.x1, extrapLine2_x2
+					- line1.x2);
+
+		} else if (line1.y1 > line2.y1 && line2.y2 > line1.y2) {
+
+			final double extrapLine2_x1 = line2.x1 + (line2.x2 - line2.x1)
+					* (line1.y1 - line2.y1) / (double) (line2.y2 - line2.y1);
+
+			final double extrapLine2_x2 = line2.x2 - (line2.x2 - line2.x1)
+					* (line2.y2 - line1.y2) / (double) (line2.y2 - line2.y1);
+
+			return signumsEqual(line1.x1 - extrapLine2_x1, extrapLine2_x2
+					- line1.x2);
+
+		} else if (line2.y1 > line1.y1 && line1.y2 > line2.y2) {
+
+			final double extrapLine1_x1 = line1.x1 + (line1.x2 - line1.x1)
+					* (line2.y1 - line1.y1) / (double) (line1.y2 - line1.y1);
+
+			final double extrapLine1_x2 = line1.x2 - (line1.x2 - line1.x1)
+					* (line1.y2 - line2.y2) / (double) (line1.y2 - line1.y1);
+
+			return signumsEqual(line2.x1 - extrapLine1_x1, extrapLine1_x2
+					- line2.x2);
+
+		} else {
+
+			throw new IllegalStateException(line1 + ", " + line2);
+		}
+	}
+
+	private static boolean hasSameSlope(final Line line1, final Line line2) {
+
+		return (line2.x2 - line2.x1) * (line1.y2 - line1.y1) == (line1.x2 - line1.x1)
+				* (line2.y2 - line2.y1);
+	}
+
+	/**
+	 * a line between two levels of a diagram, in the diagrammer’s grid.
+	 */
+	private static Line gridLine(final Random random) {
+
+		final int level1 = random.nextInt(6);
+		final int level2 = level1 + 1 + random.nextInt(3);
+
+		return new Line(85 + 160 * random.nextInt(6), 30 + 60 * level1,
+				85 + 160 * random.nextInt(6), 10 + 60 * level2);
+	}
+
+	private static Line randomLine(final Random random) {
+
+		final int y1 = random.nextInt(20);
+
+		return new Line(random.nextInt(20), y1, random.nextInt(20), y1 + 1
+				+ random.nextInt(20));
+	}
+
+	@Test
+	public void testSameAsLegacy() throws Exception {
+
+		final Random random = new Random(40L);
+
+		for (int i = 0; i < 200000; ++i) {
+
+			final Line line1 = (i % 2 == 0) ? gridLine(random)
+					: randomLine(random);
+			final Line line2 = (i % 2 == 0) ? gridLine(random)
+					: randomLine(random);
+
+			assertEquals(line1 + ", " + line2,
+					legacyLinesCross(line1, line2), linesCross(line1, line2));
+			assertEquals(line1 + ", " + line2,
+					legacyLinesCross(line2, line1), linesCross(line2, line1));
+		}
+	}
+
+	@Test
+	public void testCountCrossings() throws Exception {
+
+		final Random random = new Random(41L);
+
+		for (int n = 0; n < 60; ++n) {
+
+			final List<Line> lines = new ArrayList<Line>();
+
+			for (int i = 0; i < n; ++i) {
+				lines.add(gridLine(random));
+			}
+
+			int count = 0;
+
+			for (final Line line1 : lines) {
+
+				for (final Line line2 : lines) {
+
+					if (legacyLinesCross(line1, line2)) {
+						++count;
+					}
+				}
+			}
+
+			assertEquals(count / 2, countCrossings(lines));
+		}
+	}
+}
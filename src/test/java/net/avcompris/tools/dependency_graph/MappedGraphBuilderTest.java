@@ -0,0 +1,148 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedGraphBuilderTest {
+
+	private final File workDir = new File("target", "MappedGraphBuilderTest");
+
+	private MappedGraphBuilder builder;
+
+	@Before
+	public void setUp() throws Exception {
+
+		FileUtils.deleteDirectory(workDir);
+
+		builder = new MappedGraphBuilder(workDir, 4);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		builder.close();
+	}
+
+	@Test
+	public void testSameAsDependencyAnalysis() throws Exception {
+
+		final Random random = new Random(28L);
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		for (int i = 0; i < 3000; ++i) {
+
+			final Module module = new Module("job-" + i);
+
+			builder.addModule(module.name);
+
+			for (int k = 0; k < 4 && i > 0; ++k) {
+
+				final String upstream = "job-" + random.nextInt(i);
+
+				module.addToUpstreamModules(upstream);
+
+				builder.addEdge(upstream, module.name);
+			}
+
+			modules.add(module);
+		}
+
+		final DependencyIndex expected = new DependencyAnalysis(modules)
+				.getIndex();
+
+		final DependencyIndex actual = builder.build(
+				new File(workDir, "graph.avcdg")).getIndex();
+
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.sizeOfLevels(), actual.sizeOfLevels());
+
+		for (int id = 0; id < actual.size(); ++id) {
+
+			final String name = actual.getModuleName(id);
+			final int expectedId = expected.getModuleId(name);
+
+			assertEquals(name, expected.getLevel(expectedId),
+					actual.getLevel(id));
+
+			assertEquals(name, directUpstreamNames(expected, expectedId),
+					directUpstreamNames(actual, id));
+		}
+
+		// Traversals
+
+		final IndexTraversal expectedTraversal = new IndexTraversal(expected);
+		final IndexTraversal actualTraversal = new IndexTraversal(actual);
+
+		for (final String name : new String[] { "job-0", "job-10", "job-2999" }) {
+
+			assertEquals(
+					expectedTraversal.visitDownstreams(expected
+							.getModuleId(name)),
+					actualTraversal.visitDownstreams(actual.getModuleId(name)));
+
+			assertEquals(
+					expectedTraversal.visitUpstreams(expected.getModuleId(name)),
+					actualTraversal.visitUpstreams(actual.getModuleId(name)));
+		}
+	}
+
+	private static Set<String> directUpstreamNames(
+			final DependencyIndex index, final int id) {
+
+		final Set<String> names = new HashSet<String>();
+
+		for (int k = 0; k < index.getDirectUpstreamCount(id); ++k) {
+			names.add(index.getModuleName(index.getDirectUpstream(id, k)));
+		}
+
+		return names;
+	}
+
+	@Test
+	public void testTraversal() throws Exception {
+
+		builder.addEdge("a", "b").addEdge("b", "c").addEdge("a", "c")
+				.addEdge("d", "c").addModule("e");
+
+		final DependencyIndex index = builder.build(
+				new File(workDir, "graph.avcdg")).getIndex();
+
+		assertEquals(5, index.size());
+		assertEquals(3, index.sizeOfLevels());
+
+		final IndexTraversal traversal = new IndexTraversal(index);
+
+		assertFalse(traversal.isVisited(index.getModuleId("a")));
+
+		assertEquals(3, traversal.visitDownstreams(index.getModuleId("a")));
+
+		assertTrue(traversal.isVisited(index.getModuleId("c")));
+		assertFalse(traversal.isVisited(index.getModuleId("d")));
+
+		assertEquals(4, traversal.visitUpstreams(index.getModuleId("c")));
+		assertEquals(1, traversal.visitUpstreams(index.getModuleId("e")));
+		assertEquals(index.getModuleId("e"), traversal.get(0));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testCycle() throws Exception {
+
+		builder.addEdge("a", "b").addEdge("b", "c").addEdge("c", "a");
+
+		builder.build(new File(workDir, "graph.avcdg"));
+	}
+}
@@ -0,0 +1,147 @@
+package net.avcompris.tools.dependency_graph;
+
+import static net.avcompris.tools.dependency_graph.TestUtils.getLevel;
+import static net.avcompris.tools.dependency_graph.TestUtils.names;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class ModuleClustererTest {
+
+	private static List<Module> families() {
+
+		return Arrays.asList(new Module("aed-web-a"), new Module("aed-web-b")
+				.addToUpstreamModules("aed-web-a"), new Module("aed-core")
+				.addToUpstreamModules("aed-web-a"), new Module("avc-x")
+				.addToUpstreamModules("aed-web-a").addToUpstreamModules(
+						"aed-web-b"), new Module("gco-y")
+				.addToUpstreamModules("avc-x"), new Module("gco-z")
+				.addToUpstreamModules("avc-x"), new Module("tool"));
+	}
+
+	@Test
+	public void testCollapse() throws Exception {
+
+		final ModuleClusterer clusterer = new ModuleClusterer(families());
+
+		final DependencyAnalysis analysis = clusterer.collapse();
+
+		assertEquals(new HashSet<String>(Arrays.asList("aed-*", "avc-x",
+				"gco-*", "tool")), names(analysis));
+
+		assertEquals(0, getLevel(analysis, "aed-*"));
+		assertEquals(1, getLevel(analysis, "avc-x"));
+		assertEquals(2, getLevel(analysis, "gco-*"));
+
+		assertEquals(Arrays.asList("aed-core", "aed-web-a", "aed-web-b"),
+				analysis.getClusterMembers("aed-*"));
+		assertTrue(analysis.getClusterMembers("avc-x").isEmpty());
+
+		assertEquals(2, clusterer.getEdgeCount("aed-*", "avc-x"));
+		assertEquals(2, clusterer.getEdgeCount("avc-x", "gco-*"));
+		assertEquals(0, clusterer.getEdgeCount("gco-*", "avc-x"));
+	}
+
+	@Test
+	public void testExpandHierarchically() throws Exception {
+
+		final ModuleClusterer clusterer = new ModuleClusterer(families());
+
+		assertEquals(new HashSet<String>(Arrays.asList("aed-web-*",
+				"aed-core", "avc-x", "gco-*", "tool")), names(clusterer
+				.collapse("aed-*")));
+
+		assertEquals(new HashSet<String>(Arrays.asList("aed-web-a",
+				"aed-web-b", "aed-core", "avc-x", "gco-*", "tool")),
+				names(clusterer.collapse("aed-*", "aed-web-*")));
+
+		assertEquals(Arrays.asList("aed-web-a", "aed-web-b"),
+				clusterer.getClusterMembers("aed-web-*"));
+	}
+
+	@Test
+	public void testExplicitClusters() throws Exception {
+
+		final Map<String, String> clusters = new HashMap<String, String>();
+
+		clusters.put("gco-y", "leaves");
+		clusters.put("tool", "leaves");
+
+		final DependencyAnalysis analysis = new ModuleClusterer(families())
+				.setSeparator(null).setClusters(clusters).collapse();
+
+		assertEquals(6, analysis.getIndex().size());
+		assertEquals(Arrays.asList("gco-y", "tool"),
+				analysis.getClusterMembers("leaves"));
+	}
+
+	@Test
+	public void testClustersDependingOnEachOther() throws Exception {
+
+		final DependencyAnalysis analysis = new ModuleClusterer(Arrays.asList(
+				new Module("aed-a"), new Module("avc-b")
+						.addToUpstreamModules("aed-a"), new Module("avc-c"),
+				new Module("aed-d").addToUpstreamModules("avc-b"))).collapse();
+
+		assertEquals(1, analysis.getIndex().size());
+		assertEquals(Arrays.asList("aed-*", "avc-*"),
+				analysis.getCycleMembers("{aed-*, avc-*}"));
+	}
+
+	@Test
+	public void testDrawExpanded() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(47L)
+				.setModuleCount(60).setLevelCount(5).generate();
+
+		final ModuleClusterer clusterer = new ModuleClusterer(modules);
+
+		final DependencyAnalysis collapsed = clusterer.collapse();
+
+		assertTrue(collapsed.getIndex().size() < 20);
+
+		String cluster = null;
+
+		for (int id = 0; cluster == null; ++id) {
+
+			final String name = collapsed.getIndex().getModuleName(id);
+
+			if (!collapsed.getClusterMembers(name).isEmpty()) {
+				cluster = name;
+			}
+		}
+
+		final File svgFile = new File("target", "ModuleClustererTest.svg");
+
+		final ModulePosition[] positions = clusterer.drawTo(1000L, svgFile,
+				cluster);
+
+		final DependencyAnalysis expanded = clusterer.collapse(cluster);
+
+		assertTrue(expanded.getIndex().size() > collapsed.getIndex().size());
+		assertEquals(expanded.getIndex().size(), positions.length);
+
+		final Set<String> xys = new HashSet<String>();
+
+		for (final ModulePosition position : positions) {
+
+			assertTrue(position.getModuleName(),
+					xys.add(position.getX() + "," + position.getY()));
+
+			assertEquals(10 + 60 * getLevel(expanded, position.getModuleName()),
+					position.getY());
+		}
+
+		assertTrue(FileUtils.readFileToString(svgFile).contains("#def"));
+	}
+}
@@ -0,0 +1,167 @@
+package net.avcompris.tools.dependency_graph;
+
+import static net.avcompris.tools.dependency_graph.TestUtils.getLevel;
+import static net.avcompris.tools.dependency_graph.TestUtils.names;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class NeighborhoodExtractorTest {
+
+	@Test
+	public void testHops() throws Exception {
+
+		final NeighborhoodExtractor extractor = new NeighborhoodExtractor(
+				new DependencyAnalysis(new Module("a"), new Module("b")
+						.addToUpstreamModules("a"), new Module("c")
+						.addToUpstreamModules("b"), new Module("d")
+						.addToUpstreamModules("c"), new Module("e")
+						.addToUpstreamModules("d")));
+
+		assertEquals(new HashSet<String>(Arrays.asList("c")),
+				names(extractor.extract(0, "c")));
+
+		assertEquals(new HashSet<String>(Arrays.asList("b", "c", "d")),
+				names(extractor.extract(1, "c")));
+
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d")),
+				names(extractor.extract(1, "b", "c")));
+
+		final DependencyAnalysis all = extractor.extract(10, "c");
+
+		assertEquals(5, all.getIndex().size());
+		assertEquals(4, getLevel(all, "e"));
+	}
+
+	@Test
+	public void testDirectEdgesWithinNeighborhood() throws Exception {
+
+		final DependencyAnalysis analysis = new NeighborhoodExtractor(
+				new DependencyAnalysis(new Module("a"), new Module("b")
+						.addToUpstreamModules("a"), new Module("c")
+						.addToUpstreamModules("b").addToUpstreamModules("a"),
+						new Module("s1").addToUpstreamModules("c"), new Module(
+								"s2").addToUpstreamModules("a"))).extract(1,
+				"s1", "s2");
+
+		assertEquals(new HashSet<String>(Arrays.asList("a", "c", "s1", "s2")),
+				names(analysis));
+
+		// b is not in the neighborhood, so a is a direct upstream of c
+
+		assertEquals(Arrays.asList("a"), new ArrayList<String>(
+				analysis.getDirectUpstreams("c")));
+
+		assertEquals(0, getLevel(analysis, "a"));
+		assertEquals(1, getLevel(analysis, "c"));
+		assertEquals(1, getLevel(analysis, "s2"));
+		assertEquals(2, getLevel(analysis, "s1"));
+	}
+
+	@Test
+	public void testSameAsAnalysisOfSubgraph() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(48L)
+				.setModuleCount(200).setLevelCount(8).generate();
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(modules);
+
+		final NeighborhoodExtractor extractor = new NeighborhoodExtractor(
+				analysis);
+
+		final Random random = new Random(48L);
+
+		for (int round = 0; round < 20; ++round) {
+
+			final String moduleName = modules.get(random.nextInt(200)).name;
+
+			final DependencyAnalysis neighborhood = extractor.extract(2,
+					moduleName);
+
+			final Set<String> names = names(neighborhood);
+
+			assertTrue(names.contains(moduleName));
+
+			final List<Module> subModules = new ArrayList<Module>();
+
+			for (final Map.Entry<String, Module> entry : analysis.modules
+					.entrySet()) {
+
+				if (!names.contains(entry.getKey())) {
+					continue;
+				}
+
+				final Module subModule = new Module(entry.getKey());
+
+				for (final String upstream : entry.getValue()
+						.getUpstreamModules()) {
+
+					if (names.contains(upstream)) {
+						subModule.addToUpstreamModules(upstream);
+					}
+				}
+
+				for (final String downstream : entry.getValue()
+						.getDownstreamModules()) {
+
+					if (names.contains(downstream)) {
+						subModule.addToDownstreamModules(downstream);
+					}
+				}
+
+				subModules.add(subModule);
+			}
+
+			final DependencyAnalysis expected = new DependencyAnalysis(
+					subModules);
+
+			for (final String name : names) {
+
+				assertEquals(name, getLevel(expected, name),
+						getLevel(neighborhood, name));
+
+				assertEquals(name,
+						new HashSet<String>(expected.getDirectUpstreams(name)),
+						new HashSet<String>(neighborhood
+								.getDirectUpstreams(name)));
+			}
+		}
+	}
+
+	@Test
+	public void testBigGraph() throws Exception {
+
+		final List<Module> modules = new CIGraphGenerator(49L)
+				.setModuleCount(20000).setLevelCount(12).generate();
+
+		final NeighborhoodExtractor extractor = new NeighborhoodExtractor(
+				new DependencyAnalysis(modules));
+
+		final long startMs = System.currentTimeMillis();
+
+		for (int i = 0; i < 100; ++i) {
+			extractor.extract(1, modules.get(i * 200).name);
+		}
+
+		final long elapsedMs = System.currentTimeMillis() - startMs;
+
+		assertTrue("elapsedMs: " + elapsedMs, elapsedMs < 5000);
+
+		final DependencyAnalysis neighborhood = extractor.extract(1,
+				modules.get(10000).name);
+
+		assertEquals(neighborhood.getIndex().size(), new DependencyDiagrammer(
+				neighborhood).drawTo(0L,
+				new File("target", "NeighborhoodExtractorTest.svg")).length);
+	}
+}
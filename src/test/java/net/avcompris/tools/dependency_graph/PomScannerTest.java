@@ -0,0 +1,149 @@
+package net.avcompris.tools.dependency_graph;
+
+import static net.avcompris.tools.dependency_graph.TestUtils.toMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+public class PomScannerTest {
+
+	private static void assertUpstreams(final Map<String, Module> modules,
+			final String moduleName, final String... upstreams) {
+
+		assertEquals(moduleName, ImmutableSet.copyOf(upstreams),
+				ImmutableSet.copyOf(modules.get(moduleName)
+						.getUpstreamModules()));
+	}
+
+	@Test
+	public void testScanPoms() throws Exception {
+
+		final Map<String, Module> modules = toMap(new PomScanner()
+				.scan(new File("src/test/poms")));
+
+		assertEquals(ImmutableSet.of("avc-parent", "avc-common",
+				"avc-common-testutil", "avc-webapp", "avc-maven-plugin"),
+				modules.keySet());
+
+		assertUpstreams(modules, "avc-parent");
+		assertUpstreams(modules, "avc-common", "avc-parent");
+		assertUpstreams(modules, "avc-common-testutil", "avc-parent",
+				"avc-common");
+		assertUpstreams(modules, "avc-maven-plugin", "avc-parent",
+				"avc-common");
+		assertUpstreams(modules, "avc-webapp", "avc-parent", "avc-common",
+				"avc-common-testutil", "avc-maven-plugin");
+
+		assertTrue(Iterables.contains(modules.get("avc-common")
+				.getDownstreamModules(), "avc-webapp"));
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				modules.values());
+
+		assertEquals(4, analysis.sizeOfModuleLevels());
+
+		assertEquals(ImmutableSet.of("avc-common-testutil", "avc-maven-plugin"),
+				ImmutableSet.copyOf(analysis.getDirectUpstreams("avc-webapp")));
+	}
+
+	@Test
+	public void testRescanUsesCache() throws Exception {
+
+		final File dir = new File("target", "PomScannerTest-rescan");
+
+		FileUtils.deleteDirectory(dir);
+		FileUtils.copyDirectory(new File("src/test/poms"), dir);
+
+		final PomScanner scanner = new PomScanner(2);
+
+		assertEquals(5, scanner.scan(dir).size());
+		assertEquals(5, scanner.getParseCount());
+
+		assertEquals(5, scanner.scan(dir).size());
+		assertEquals(5, scanner.getParseCount());
+
+		final File pomFile = new File(dir, "avc-webapp/pom.xml");
+
+		FileUtils.writeStringToFile(pomFile, FileUtils.readFileToString(
+				pomFile, "UTF-8").replace("${testutil.artifactId}",
+				"avc-common"), "UTF-8");
+
+		pomFile.setLastModified(pomFile.lastModified() + 2000L);
+
+		final Map<String, Module> modules = toMap(scanner.scan(dir));
+
+		assertEquals(6, scanner.getParseCount());
+
+		assertUpstreams(modules, "avc-webapp", "avc-parent", "avc-common",
+				"avc-maven-plugin");
+	}
+
+	private static void writePom(final File pomFile, final String artifactId,
+			final String dependency) throws Exception {
+
+		FileUtils.writeStringToFile(pomFile, "<project><groupId>g</groupId>"
+				+ "<artifactId>" + artifactId + "</artifactId>"
+				+ "<dependencies><dependency><groupId>g</groupId><artifactId>"
+				+ dependency + "</artifactId></dependency></dependencies>"
+				+ "</project>", "UTF-8");
+	}
+
+	@Test
+	public void testDuplicates() throws Exception {
+
+		final File dir = new File("target", "PomScannerTest-duplicates");
+
+		FileUtils.deleteDirectory(dir);
+
+		writePom(new File(dir, "pom.xml"), "parent", "none");
+		writePom(new File(dir, "a/pom.xml"), "x", "parent");
+		writePom(new File(dir, "b/pom.xml"), "x", "none");
+		writePom(new File(dir, "c/pom.xml"), "y", "x");
+
+		// Test fixtures are not scanned
+
+		writePom(new File(dir, "a/src/test/resources/pom.xml"), "x", "y");
+		writePom(new File(dir, "c/src/it/simple/pom.xml"), "z", "y");
+
+		final PomScanner scanner = new PomScanner(2);
+
+		final Map<String, Module> modules = toMap(scanner.scan(dir));
+
+		assertEquals(ImmutableSet.of("parent", "x", "y"), modules.keySet());
+
+		assertUpstreams(modules, "x", "parent");
+		assertUpstreams(modules, "y", "x");
+
+		assertEquals(1, scanner.getDuplicateCount());
+		assertEquals(4, scanner.getParseCount());
+	}
+
+	@Test
+	public void testDeletedFilesLeaveTheCache() throws Exception {
+
+		final File dir = new File("target", "PomScannerTest-deleted");
+
+		FileUtils.deleteDirectory(dir);
+		FileUtils.copyDirectory(new File("src/test/poms"), dir);
+
+		final PomScanner scanner = new PomScanner(2);
+
+		scanner.scan(dir);
+		scanner.scan(new File("src/test/poms"));
+
+		assertEquals(10, scanner.sizeOfCache());
+
+		FileUtils.deleteDirectory(new File(dir, "avc-webapp"));
+
+		assertEquals(4, scanner.scan(dir).size());
+		assertEquals(9, scanner.sizeOfCache());
+	}
+}
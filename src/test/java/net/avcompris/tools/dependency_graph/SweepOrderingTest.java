@@ -0,0 +1,183 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import net.avcompris.tools.dependency_graph.DependencyDiagrammer.ModulePositionImpl;
+
+import org.junit.Test;
+
+public class SweepOrderingTest {
+
+	private static int countCrossings(final int[][] neighborColumns,
+			final int[] order) {
+
+		int crossings = 0;
+
+		for (int i = 0; i < order.length; ++i) {
+
+			for (int j = i + 1; j < order.length; ++j) {
+
+				for (final int a : neighborColumns[order[i]]) {
+
+					for (final int b : neighborColumns[order[j]]) {
+
+						if (a > b) {
+							++crossings;
+						}
+					}
+				}
+			}
+		}
+
+		return crossings;
+	}
+
+	private static int minCrossings(final int[][] neighborColumns,
+			final int[] order, final int i) {
+
+		if (i == order.length) {
+			return countCrossings(neighborColumns, order);
+		}
+
+		int min = Integer.MAX_VALUE;
+
+		for (int j = i; j < order.length; ++j) {
+
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+
+			min = Math.min(min, minCrossings(neighborColumns, order, i + 1));
+
+			tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+
+		return min;
+	}
+
+	@Test
+	public void testExactOrderIsOptimal() throws Exception {
+
+		final Random random = new Random(43L);
+
+		for (int round = 0; round < 200; ++round) {
+
+			final int k = 1 + random.nextInt(7);
+
+			final int[][] neighborColumns = new int[k][];
+
+			for (int i = 0; i < k; ++i) {
+
+				neighborColumns[i] = new int[random.nextInt(4)];
+
+				for (int j = 0; j < neighborColumns[i].length; ++j) {
+					neighborColumns[i][j] = random.nextInt(6);
+				}
+			}
+
+			final int[] order = DependencyDiagrammer
+					.calculateExactOrder(neighborColumns);
+
+			final Set<Integer> distinct = new HashSet<Integer>();
+
+			for (final int i : order) {
+				distinct.add(i);
+			}
+
+			assertEquals(k, distinct.size());
+
+			final int[] identity = new int[k];
+
+			for (int i = 0; i < k; ++i) {
+				identity[i] = i;
+			}
+
+			assertEquals(minCrossings(neighborColumns, identity, 0),
+					countCrossings(neighborColumns, order));
+		}
+	}
+
+	@Test
+	public void testTiesKeepOrder() throws Exception {
+
+		assertArrayEquals(new int[] { 0, 1, 2, 3 },
+				DependencyDiagrammer.calculateExactOrder(new int[][] {
+						new int[0], new int[] { 2 }, new int[] { 2 },
+						new int[0] }));
+
+		assertArrayEquals(new int[] { 1, 0, 2 },
+				DependencyDiagrammer.calculateExactOrder(new int[][] {
+						new int[] { 3 }, new int[] { 0 }, new int[] { 5 } }));
+	}
+
+	@Test
+	public void testSweepsImproveFirstDraft() throws Exception {
+
+		for (long seed = 0; seed < 10; ++seed) {
+
+			final DependencyAnalysis analysis = new DependencyAnalysis(
+					new CIGraphGenerator(seed).setModuleCount(40)
+							.setLevelCount(5).generate());
+
+			final DependencyIndex index = analysis.getIndex();
+
+			final DependencyDiagrammer diagrammer = new DependencyDiagrammer(
+					analysis);
+
+			final Map<String, ModulePositionImpl> draft = diagrammer
+					.calculateFirstDraft();
+
+			final Map<String, ModulePositionImpl> ordered = diagrammer
+					.calculateSweepOrdering(draft);
+
+			assertEquals(index.size(), ordered.size());
+
+			final Set<String> xys = new HashSet<String>();
+
+			for (final ModulePositionImpl modulePos : ordered.values()) {
+
+				assertTrue(modulePos.moduleName,
+						xys.add(modulePos.x + "," + modulePos.y));
+
+				final int level = index.getLevel(index
+						.getModuleId(modulePos.moduleName));
+
+				assertEquals(10 + 60 * level, modulePos.y);
+				assertTrue(modulePos.x < 10 + index.sizeOfLevel(level) * 160);
+			}
+
+			assertTrue(diagrammer.calculateMetrics(ordered).howManyLinesCross <= diagrammer
+					.calculateMetrics(draft).howManyLinesCross);
+		}
+	}
+
+	@Test
+	public void testBigGraphWithoutTimeout() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				new CIGraphGenerator(44L).setModuleCount(120).setLevelCount(6)
+						.generate());
+
+		final long startMs = System.currentTimeMillis();
+
+		final ModulePosition[] positions = new DependencyDiagrammer(analysis)
+				.setSweepOrdering(true).setCompactLayout(true)
+				.drawTo(-1L, new File("target", "SweepOrderingTest.svg"));
+
+		final long elapsedMs = System.currentTimeMillis() - startMs;
+
+		assertTrue("elapsedMs: " + elapsedMs, elapsedMs < 10000);
+
+		assertEquals(120, positions.length);
+	}
+}
@@ -0,0 +1,55 @@
+package net.avcompris.tools.dependency_graph;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * helper methods shared by the tests of this package.
+ */
+final class TestUtils {
+
+	private TestUtils() {
+
+	}
+
+	/**
+	 * return the modules by their names.
+	 */
+	static Map<String, Module> toMap(final Iterable<Module> modules) {
+
+		final Map<String, Module> map = new HashMap<String, Module>();
+
+		for (final Module module : modules) {
+			map.put(module.name, module);
+		}
+
+		return map;
+	}
+
+	/**
+	 * return the names of all modules of an analysis.
+	 */
+	static Set<String> names(final DependencyAnalysis analysis) {
+
+		final Set<String> names = new HashSet<String>();
+
+		for (int id = 0; id < analysis.getIndex().size(); ++id) {
+			names.add(analysis.getIndex().getModuleName(id));
+		}
+
+		return names;
+	}
+
+	/**
+	 * return the level of a module in an analysis.
+	 */
+	static int getLevel(final DependencyAnalysis analysis,
+			final String moduleName) {
+
+		final DependencyIndex index = analysis.getIndex();
+
+		return index.getLevel(index.getModuleId(moduleName));
+	}
+}
@@ -0,0 +1,239 @@
+package net.avcompris.tools.dependency_graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.avcompris.tools.dependency_graph.WhatIfAnalyzer.EdgeEdit;
+import net.avcompris.tools.dependency_graph.WhatIfAnalyzer.Outcome;
+
+import org.junit.Test;
+
+public class WhatIfAnalyzerTest {
+
+	private static DependencyAnalysis chain() {
+
+		// a -> b -> c -> d, a -> d, e
+
+		return new DependencyAnalysis(new Module("a"), new Module("b")
+				.addToUpstreamModules("a"), new Module("c")
+				.addToUpstreamModules("b"), new Module("d")
+				.addToUpstreamModules("c").addToUpstreamModules("a"),
+				new Module("e"));
+	}
+
+	@Test
+	public void testRemovals() throws Exception {
+
+		final WhatIfAnalyzer analyzer = new WhatIfAnalyzer(chain(),
+				new HashMap<String, Long>(), 1L);
+
+		assertEquals(4, analyzer.getLevelCount());
+		assertEquals(4L, analyzer.getMakespan());
+
+		final Outcome cut = analyzer.evaluate(EdgeEdit.removal("c", "d"));
+
+		assertFalse(cut.isCycle());
+		assertEquals(-1, cut.getLevelCountDelta());
+		assertEquals(-1L, cut.getMakespanDelta());
+		assertEquals(-1, cut.getRebuildCountDelta());
+		assertEquals(1, cut.getChangedModuleCount());
+
+		final Outcome transitive = analyzer
+				.evaluate(EdgeEdit.removal("a", "d"));
+
+		assertEquals(0, transitive.getLevelCountDelta());
+		assertEquals(0, transitive.getChangedModuleCount());
+		assertEquals(4, transitive.getRebuildCount());
+
+		final Outcome first = analyzer.evaluate(EdgeEdit.removal("a", "b"));
+
+		assertEquals(-1, first.getLevelCountDelta());
+		assertEquals(2, first.getRebuildCount());
+		assertEquals(-2, first.getRebuildCountDelta());
+	}
+
+	@Test
+	public void testAdditions() throws Exception {
+
+		final WhatIfAnalyzer analyzer = new WhatIfAnalyzer(chain(),
+				new HashMap<String, Long>(), 1L);
+
+		final Outcome longer = analyzer.evaluate(EdgeEdit.addition("d", "e"));
+
+		assertEquals(1, longer.getLevelCountDelta());
+		assertEquals(1L, longer.getMakespanDelta());
+		assertEquals(2, longer.getRebuildCount());
+
+		assertTrue(analyzer.evaluate(EdgeEdit.addition("d", "b")).isCycle());
+		assertTrue(analyzer.evaluate(EdgeEdit.addition("e", "e")).isCycle());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownDependency() throws Exception {
+
+		new WhatIfAnalyzer(chain(), new HashMap<String, Long>(), 1L)
+				.evaluate(EdgeEdit.removal("b", "d"));
+	}
+
+	@Test
+	public void testRanking() throws Exception {
+
+		final Map<String, Long> durations = new HashMap<String, Long>();
+
+		durations.put("b", 10L);
+
+		final List<Outcome> outcomes = new WhatIfAnalyzer(chain(), durations,
+				1L).evaluate(new WhatIfAnalyzer(chain(), durations, 1L)
+				.getAllRemovals());
+
+		assertEquals(4, outcomes.size());
+
+		// Without b -> c, b runs in parallel to everything else
+
+		assertEquals("- b -> c", outcomes.get(0).getEdit().toString());
+		assertEquals(-2L, outcomes.get(0).getMakespanDelta());
+
+		// Both save one level, but without a -> b, less is rebuilt
+
+		assertEquals("- a -> b", outcomes.get(1).getEdit().toString());
+		assertEquals("- c -> d", outcomes.get(2).getEdit().toString());
+		assertEquals("- a -> d", outcomes.get(3).getEdit().toString());
+		assertEquals(0L, outcomes.get(3).getMakespanDelta());
+	}
+
+	private static List<Module> edit(final DependencyIndex index,
+			final EdgeEdit edit) {
+
+		final List<Module> modules = new ArrayList<Module>();
+
+		for (int id = 0; id < index.size(); ++id) {
+
+			final Module module = new Module(index.getModuleName(id));
+
+			for (int k = 0; k < index.getUpstreamCount(id); ++k) {
+
+				final String upstream = index.getModuleName(index.getUpstream(
+						id, k));
+
+				if (edit.isAddition() || !module.name.equals(edit.downstream)
+						|| !upstream.equals(edit.upstream)) {
+					module.addToUpstreamModules(upstream);
+				}
+			}
+
+			if (edit.isAddition() && module.name.equals(edit.downstream)) {
+				module.addToUpstreamModules(edit.upstream);
+			}
+
+			modules.add(module);
+		}
+
+		return modules;
+	}
+
+	@Test
+	public void testSameAsNewAnalysis() throws Exception {
+
+		final DependencyAnalysis analysis = new DependencyAnalysis(
+				new CIGraphGenerator(52L).setModuleCount(80).setLevelCount(6)
+						.generate());
+
+		final DependencyIndex index = analysis.getIndex();
+
+		final Map<String, Long> durations = new HashMap<String, Long>();
+
+		final Random random = new Random(52L);
+
+		for (int id = 0; id < index.size(); ++id) {
+			durations.put(index.getModuleName(id), (long) random.nextInt(100));
+		}
+
+		final List<EdgeEdit> edits = new ArrayList<EdgeEdit>();
+
+		for (final EdgeEdit removal : new WhatIfAnalyzer(analysis, durations,
+				0L).getAllRemovals()) {
+
+			if (random.nextInt(4) == 0) {
+				edits.add(removal);
+			}
+		}
+
+		for (int i = 0; i < 40; ++i) {
+
+			edits.add(EdgeEdit.addition(
+					index.getModuleName(random.nextInt(index.size())),
+					index.getModuleName(random.nextInt(index.size()))));
+		}
+
+		final List<Outcome> outcomes = new WhatIfAnalyzer(analysis, durations,
+				0L).setThreadCount(4).evaluate(edits);
+
+		assertEquals(edits.size(), outcomes.size());
+
+		for (final Outcome outcome : outcomes) {
+
+			final EdgeEdit edit = outcome.getEdit();
+
+			final DependencyAnalysis expected;
+
+			try {
+
+				expected = new DependencyAnalysis(edit(index, edit));
+
+			} catch (final RuntimeException e) {
+
+				assertTrue(edit.toString(), outcome.isCycle());
+
+				continue;
+			}
+
+			assertFalse(edit.toString(), outcome.isCycle());
+
+			assertEquals(edit.toString(), expected.sizeOfModuleLevels()
+					- analysis.sizeOfModuleLevels(),
+					outcome.getLevelCountDelta());
+
+			assertEquals(edit.toString(), expected.getCriticalPath(durations,
+					0L).getMakespan()
+					- analysis.getCriticalPath(durations, 0L).getMakespan(),
+					outcome.getMakespanDelta());
+
+			assertEquals(edit.toString(),
+					expected.getImpactedModules(edit.upstream).size(),
+					outcome.getRebuildCount());
+		}
+	}
+
+	@Test
+	public void testBigGraph() throws Exception {
+
+		final DependencyIndex index = new DependencyAnalysis(
+				new CIGraphGenerator(53L).setModuleCount(20000)
+						.setLevelCount(12).generate()).getIndex();
+
+		final WhatIfAnalyzer analyzer = new WhatIfAnalyzer(index,
+				new HashMap<String, Long>(), 1L);
+
+		final List<EdgeEdit> removals = analyzer.getAllRemovals();
+
+		final long startMs = System.currentTimeMillis();
+
+		final List<Outcome> outcomes = analyzer.evaluate(removals);
+
+		final long elapsedMs = System.currentTimeMillis() - startMs;
+
+		assertTrue("elapsedMs: " + elapsedMs, elapsedMs < 20000);
+
+		assertEquals(removals.size(), outcomes.size());
+
+		assertTrue(outcomes.get(0).getMakespanDelta() <= outcomes.get(
+				outcomes.size() - 1).getMakespanDelta());
+	}
+}